@@ -0,0 +1,125 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.util.FileUtils;
+
+/**
+ * Benchmarks writing and reading annotation CSV files.
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationCsvBenchmarks {
+
+	private AnnotationCsvBenchmarks() {
+	}
+
+	/**
+	 * @return The annotation CSV benchmarks.
+	 */
+	public static List<Benchmark> benchmarks() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(serialize(50000));
+		benchmarks.add(parse(50000));
+		return benchmarks;
+	}
+
+	private static Benchmark serialize(final int count) {
+		return new CsvBenchmark("csv.serialize", count) {
+			@Override
+			public Object invoke() {
+				FileUtils.writePitchAnnotations(getFile(), getAnnotations());
+				return getAnnotations();
+			}
+		};
+	}
+
+	private static Benchmark parse(final int count) {
+		return new CsvBenchmark("csv.parse", count) {
+			@Override
+			public void setUp() throws IOException {
+				super.setUp();
+				FileUtils.writePitchAnnotations(getFile(), getAnnotations());
+			}
+
+			@Override
+			public Object invoke() {
+				return FileUtils.readPitchAnnotations(getFile());
+			}
+		};
+	}
+
+	/**
+	 * A benchmark on a temporary CSV file with synthetic annotations.
+	 */
+	private abstract static class CsvBenchmark extends Benchmark {
+		private final int count;
+		private List<Annotation> annotations;
+		private File file;
+
+		CsvBenchmark(final String name, final int count) {
+			super(name, "annotations=" + count);
+			this.count = count;
+		}
+
+		@Override
+		public void setUp() throws IOException {
+			annotations = Fixtures.annotations(count, 15);
+			file = File.createTempFile("tarsos_benchmark", ".csv");
+		}
+
+		@Override
+		public void tearDown() {
+			if (file != null && !file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+
+		@Override
+		public double getWorkPerOperation() {
+			return count;
+		}
+
+		@Override
+		public String getWorkUnit() {
+			return "annotations";
+		}
+
+		protected List<Annotation> getAnnotations() {
+			return annotations;
+		}
+
+		protected String getFile() {
+			return file.getAbsolutePath();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationSelection;
+import be.tarsos.sampled.pitch.AnnotationTree;
+import be.tarsos.sampled.pitch.AnnotationTree.AnnotationVisitor;
+import be.tarsos.sampled.pitch.PitchUnit;
+
+/**
+ * Benchmarks bulk loading the annotation KD-tree and range selection in it.
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationTreeBenchmarks {
+
+	/**
+	 * The number of prepared selections the select benchmark cycles through.
+	 */
+	private static final int SELECTIONS = 64;
+
+	private AnnotationTreeBenchmarks() {
+	}
+
+	/**
+	 * @return The KD-tree benchmarks.
+	 */
+	public static List<Benchmark> benchmarks() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int count : new int[] { 10000, 200000 }) {
+			benchmarks.add(bulkLoad(count));
+			benchmarks.add(select(count));
+		}
+		return benchmarks;
+	}
+
+	private static Benchmark bulkLoad(final int count) {
+		return new Benchmark("kdtree.bulkLoad", "annotations=" + count) {
+			private List<Annotation> annotations;
+
+			@Override
+			public void setUp() {
+				annotations = Fixtures.annotations(count, 8);
+			}
+
+			@Override
+			public Object invoke() {
+				final AnnotationTree tree = new AnnotationTree(PitchUnit.ABSOLUTE_CENTS);
+				tree.add(annotations);
+				return tree.size();
+			}
+
+			@Override
+			public double getWorkPerOperation() {
+				return count;
+			}
+
+			@Override
+			public String getWorkUnit() {
+				return "annotations";
+			}
+		};
+	}
+
+	/**
+	 * Selects ten second windows over an octave and a half, with a minimum
+	 * probability, as the annotation views do while scrolling.
+	 */
+	private static Benchmark select(final int count) {
+		return new Benchmark("kdtree.select", "annotations=" + count) {
+			private final AnnotationSelection[] selections = new AnnotationSelection[SELECTIONS];
+			private AnnotationTree tree;
+			private int selected;
+			private int next;
+
+			@Override
+			public void setUp() {
+				final List<Annotation> annotations = Fixtures.annotations(count, 9);
+				tree = new AnnotationTree(PitchUnit.ABSOLUTE_CENTS);
+				tree.add(annotations);
+				final double duration = annotations.get(count - 1).getStart();
+				final Random random = new Random(10);
+				for (int i = 0; i < SELECTIONS; i++) {
+					final double start = random.nextDouble() * Math.max(0, duration - 10);
+					final double startPitch = 5700 + random.nextDouble() * 1800;
+					selections[i] = new AnnotationSelection();
+					selections[i].setSelection(start, start + 10, startPitch, startPitch + 1800, 0.7);
+				}
+			}
+
+			@Override
+			public Object invoke() {
+				selected = 0;
+				tree.select(selections[next], new AnnotationVisitor() {
+					public void visit(final Annotation annotation) {
+						selected++;
+					}
+				});
+				next = (next + 1) % SELECTIONS;
+				return selected;
+			}
+		};
+	}
+}
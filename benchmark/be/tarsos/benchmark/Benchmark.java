@@ -0,0 +1,107 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+/**
+ * A micro-benchmark of one of the analysis hot paths. The runner calls
+ * {@link #setUp()} once, then {@link #invoke()} repeatedly during warmup and
+ * measurement iterations, and {@link #tearDown()} at the end. Fixtures should
+ * be prepared in {@link #setUp()} so only the work itself is measured.
+ * 
+ * @author Joren Six
+ */
+public abstract class Benchmark {
+
+	private final String name;
+	private final String parameters;
+
+	/**
+	 * @param name
+	 *            The name of the benchmark, e.g. <code>histogram.add</code>.
+	 * @param parameters
+	 *            A description of the parameters, e.g. <code>size=1024</code>
+	 *            , or an empty string.
+	 */
+	protected Benchmark(final String name, final String parameters) {
+		this.name = name;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * @return The name of the benchmark.
+	 */
+	public final String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The parameters of the benchmark.
+	 */
+	public final String getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Prepares the fixtures.
+	 * 
+	 * @throws Exception
+	 *             When the fixtures can not be prepared.
+	 */
+	public void setUp() throws Exception {
+	}
+
+	/**
+	 * Executes one operation. The result is consumed by the runner so the
+	 * work can not be optimized away.
+	 * 
+	 * @return The result of the operation.
+	 * @throws Exception
+	 *             When the operation fails.
+	 */
+	public abstract Object invoke() throws Exception;
+
+	/**
+	 * Releases the fixtures.
+	 */
+	public void tearDown() {
+	}
+
+	/**
+	 * @return The amount of work done by one operation, expressed in
+	 *         {@link #getWorkUnit()}. Used to report throughput per CPU
+	 *         second, e.g. audio seconds per CPU second for the detectors.
+	 */
+	public double getWorkPerOperation() {
+		return 1.0;
+	}
+
+	/**
+	 * @return The unit of the work done by one operation.
+	 */
+	public String getWorkUnit() {
+		return "ops";
+	}
+}
@@ -0,0 +1,400 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.TDistributionImpl;
+
+/**
+ * Runs the micro-benchmarks of the analysis hot paths and writes the results
+ * in the JSON format of JMH, so the usual tooling to compare and plot JMH
+ * results can be used. Each benchmark runs a number of warmup iterations and
+ * measurement iterations of a fixed duration in the current thread. The
+ * primary metric is the average time per operation, the secondary metric the
+ * work done per CPU second, e.g. audio seconds per CPU second for the
+ * detectors.
+ * 
+ * @author Joren Six
+ */
+public final class BenchmarkRunner {
+
+	private static final Logger LOG = Logger.getLogger(BenchmarkRunner.class.getName());
+
+	/**
+	 * The confidence level of the reported score error, as used by JMH.
+	 */
+	private static final double CONFIDENCE = 0.999;
+
+	private final int warmupIterations;
+	private final int measurementIterations;
+	private final long iterationTime;
+	private final ThreadMXBean threads;
+
+	/**
+	 * Consumes the results of the operations so they can not be optimized
+	 * away.
+	 */
+	private volatile int sink;
+
+	/**
+	 * @param warmupIterations
+	 *            The number of iterations that are not measured.
+	 * @param measurementIterations
+	 *            The number of measured iterations.
+	 * @param iterationTime
+	 *            The duration of one iteration in milliseconds.
+	 */
+	public BenchmarkRunner(final int warmupIterations, final int measurementIterations, final long iterationTime) {
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationTime = iterationTime;
+		threads = ManagementFactory.getThreadMXBean();
+		if (threads.isCurrentThreadCpuTimeSupported()) {
+			threads.setThreadCpuTimeEnabled(true);
+		}
+	}
+
+	/**
+	 * @return All benchmarks.
+	 */
+	public static List<Benchmark> benchmarks() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.addAll(HistogramBenchmarks.benchmarks());
+		benchmarks.addAll(KernelDensityBenchmarks.benchmarks());
+		benchmarks.addAll(AnnotationTreeBenchmarks.benchmarks());
+		benchmarks.addAll(FFTBenchmarks.benchmarks());
+		benchmarks.addAll(PeakDetectionBenchmarks.benchmarks());
+		benchmarks.addAll(AnnotationCsvBenchmarks.benchmarks());
+		benchmarks.addAll(DetectorBenchmarks.benchmarks());
+		return benchmarks;
+	}
+
+	/**
+	 * Runs a benchmark.
+	 * 
+	 * @param benchmark
+	 *            The benchmark to run.
+	 * @return The result of the measurement iterations.
+	 * @throws Exception
+	 *             When the benchmark fails.
+	 */
+	public Result run(final Benchmark benchmark) throws Exception {
+		final Result result = new Result(benchmark);
+		benchmark.setUp();
+		try {
+			for (int i = 0; i < warmupIterations; i++) {
+				iteration(benchmark, null);
+			}
+			for (int i = 0; i < measurementIterations; i++) {
+				iteration(benchmark, result);
+			}
+		} finally {
+			benchmark.tearDown();
+		}
+		return result;
+	}
+
+	/**
+	 * Invokes the benchmark until the iteration time has passed.
+	 * 
+	 * @param result
+	 *            The result to add the measurement to, or null for a warmup
+	 *            iteration.
+	 */
+	private void iteration(final Benchmark benchmark, final Result result) throws Exception {
+		final long deadline = iterationTime * 1000000L;
+		int consumed = 0;
+		long operations = 0;
+		final long cpuStart = cpuTime();
+		final long start = System.nanoTime();
+		long elapsed;
+		do {
+			final Object value = benchmark.invoke();
+			consumed ^= System.identityHashCode(value);
+			operations++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < deadline);
+		final long cpu = cpuTime() - cpuStart;
+		sink = consumed;
+		if (result != null) {
+			result.add(operations, elapsed, cpu > 0 ? cpu : elapsed);
+		}
+	}
+
+	/**
+	 * @return The CPU time of the current thread in nanoseconds, or the wall
+	 *         clock time if the CPU time can not be measured.
+	 */
+	private long cpuTime() {
+		if (threads.isCurrentThreadCpuTimeSupported()) {
+			return threads.getCurrentThreadCpuTime();
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Writes results in the JSON format of JMH.
+	 * 
+	 * @param results
+	 *            The results to write.
+	 * @param writer
+	 *            The writer to write to.
+	 * @throws IOException
+	 *             When writing fails.
+	 */
+	public void writeJSON(final List<Result> results, final Writer writer) throws IOException {
+		writer.write("[\n");
+		for (int i = 0; i < results.size(); i++) {
+			final Result result = results.get(i);
+			final Benchmark benchmark = result.getBenchmark();
+			final StringBuilder sb = new StringBuilder();
+			sb.append("  {\n");
+			sb.append("    \"benchmark\" : ").append(quote(benchmark.getName())).append(",\n");
+			sb.append("    \"mode\" : \"avgt\",\n");
+			sb.append("    \"threads\" : 1,\n");
+			sb.append("    \"forks\" : 1,\n");
+			sb.append("    \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+			sb.append("    \"warmupTime\" : ").append(quote(iterationTime + " ms")).append(",\n");
+			sb.append("    \"measurementIterations\" : ").append(measurementIterations).append(",\n");
+			sb.append("    \"measurementTime\" : ").append(quote(iterationTime + " ms")).append(",\n");
+			sb.append("    \"params\" : {");
+			final String[] parameters = benchmark.getParameters().split(",");
+			boolean first = true;
+			for (final String parameter : parameters) {
+				final int separator = parameter.indexOf('=');
+				if (separator > 0) {
+					sb.append(first ? "\n" : ",\n");
+					sb.append("      ").append(quote(parameter.substring(0, separator))).append(" : ")
+							.append(quote(parameter.substring(separator + 1)));
+					first = false;
+				}
+			}
+			sb.append(first ? "},\n" : "\n    },\n");
+			sb.append("    \"primaryMetric\" : ");
+			appendMetric(sb, result.getTimePerOperation(), "us/op", "    ");
+			sb.append(",\n");
+			sb.append("    \"secondaryMetrics\" : {\n");
+			sb.append("      \"cpu\" : ");
+			appendMetric(sb, result.getWorkPerCPUSecond(), benchmark.getWorkUnit() + "/cpu-s", "      ");
+			sb.append("\n    }\n");
+			sb.append(i + 1 < results.size() ? "  },\n" : "  }\n");
+			writer.write(sb.toString());
+		}
+		writer.write("]\n");
+	}
+
+	private void appendMetric(final StringBuilder sb, final double[] values, final String unit, final String indent) {
+		sb.append("{\n");
+		sb.append(indent).append("  \"score\" : ").append(format(mean(values))).append(",\n");
+		sb.append(indent).append("  \"scoreError\" : ").append(format(error(values))).append(",\n");
+		sb.append(indent).append("  \"scoreUnit\" : ").append(quote(unit)).append(",\n");
+		sb.append(indent).append("  \"rawData\" : [ [ ");
+		for (int i = 0; i < values.length; i++) {
+			sb.append(i == 0 ? "" : ", ").append(format(values[i]));
+		}
+		sb.append(" ] ]\n");
+		sb.append(indent).append("}");
+	}
+
+	private static String quote(final String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static String format(final double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return "\"NaN\"";
+		}
+		return String.format(Locale.US, "%.6g", value);
+	}
+
+	private static double mean(final double[] values) {
+		double sum = 0;
+		for (final double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/**
+	 * @return The half width of the confidence interval of the mean, or NaN
+	 *         for less than two values.
+	 */
+	private static double error(final double[] values) {
+		if (values.length < 2) {
+			return Double.NaN;
+		}
+		final double mean = mean(values);
+		double squares = 0;
+		for (final double value : values) {
+			squares += (value - mean) * (value - mean);
+		}
+		final double deviation = Math.sqrt(squares / (values.length - 1));
+		try {
+			final TDistributionImpl distribution = new TDistributionImpl(values.length - 1);
+			final double t = distribution.inverseCumulativeProbability(1 - (1 - CONFIDENCE) / 2);
+			return t * deviation / Math.sqrt(values.length);
+		} catch (final MathException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * The measurements of a benchmark, one per iteration.
+	 */
+	public static final class Result {
+		private final Benchmark benchmark;
+		private final List<double[]> iterations;
+
+		private Result(final Benchmark benchmark) {
+			this.benchmark = benchmark;
+			iterations = new ArrayList<double[]>();
+		}
+
+		private void add(final long operations, final long wallTime, final long cpuTime) {
+			final double timePerOperation = wallTime / 1000.0 / operations;
+			final double workPerCPUSecond = operations * benchmark.getWorkPerOperation() / (cpuTime / 1e9);
+			iterations.add(new double[] { timePerOperation, workPerCPUSecond });
+		}
+
+		public Benchmark getBenchmark() {
+			return benchmark;
+		}
+
+		/**
+		 * @return The average time per operation in microseconds, for each
+		 *         iteration.
+		 */
+		public double[] getTimePerOperation() {
+			return column(0);
+		}
+
+		/**
+		 * @return The work done per CPU second, for each iteration.
+		 */
+		public double[] getWorkPerCPUSecond() {
+			return column(1);
+		}
+
+		private double[] column(final int index) {
+			final double[] values = new double[iterations.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = iterations.get(i)[index];
+			}
+			return values;
+		}
+	}
+
+	public static void main(final String... args) {
+		final OptionParser parser = new OptionParser();
+		parser.accepts("warmup", "The number of warmup iterations.").withRequiredArg().ofType(Integer.class)
+				.defaultsTo(3);
+		parser.accepts("iterations", "The number of measurement iterations.").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(5);
+		parser.accepts("time", "The duration of an iteration in milliseconds.").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(1000);
+		parser.accepts("filter", "A regular expression the benchmark names should match.").withRequiredArg()
+				.ofType(String.class).defaultsTo(".*");
+		parser.accepts("output", "The JSON file to write the results to.").withRequiredArg()
+				.ofType(String.class).defaultsTo("benchmark_results.json");
+		parser.accepts("help", "Shows this help.");
+
+		final OptionSet options;
+		try {
+			options = parser.parse(args);
+		} catch (final joptsimple.OptionException e) {
+			System.err.println(e.getMessage());
+			printHelp(parser);
+			return;
+		}
+		if (options.has("help")) {
+			printHelp(parser);
+			return;
+		}
+
+		final BenchmarkRunner runner = new BenchmarkRunner((Integer) options.valueOf("warmup"),
+				(Integer) options.valueOf("iterations"), (Integer) options.valueOf("time"));
+		final Pattern filter = Pattern.compile((String) options.valueOf("filter"));
+		final List<Result> results = new ArrayList<Result>();
+		System.out.println(String.format(Locale.US, "%-28s %-36s %14s %14s %s", "Benchmark", "Parameters",
+				"us/op", "work/cpu-s", "unit"));
+		for (final Benchmark benchmark : benchmarks()) {
+			if (!filter.matcher(benchmark.getName()).find()) {
+				continue;
+			}
+			try {
+				final Result result = runner.run(benchmark);
+				results.add(result);
+				System.out.println(String.format(Locale.US, "%-28s %-36s %14.3f %14.1f %s", benchmark.getName(),
+						benchmark.getParameters(), mean(result.getTimePerOperation()),
+						mean(result.getWorkPerCPUSecond()), benchmark.getWorkUnit()));
+			} catch (final Exception e) {
+				LOG.log(Level.SEVERE, "Benchmark " + benchmark.getName() + " " + benchmark.getParameters()
+						+ " failed.", e);
+			}
+		}
+
+		final String output = (String) options.valueOf("output");
+		Writer writer = null;
+		try {
+			writer = new FileWriter(output);
+			runner.writeJSON(results, writer);
+			System.out.println("Results written to " + output);
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not write the results to " + output, e);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Could not close " + output, e);
+				}
+			}
+		}
+	}
+
+	private static void printHelp(final OptionParser parser) {
+		try {
+			parser.printHelpOn(System.out);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not print the help.", e);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.sampled.pitch.TarsosPitchDetection;
+
+/**
+ * Benchmarks the throughput of the pitch detectors that run in-process, in
+ * audio seconds per CPU second. The audio is dispatched from memory with the
+ * configured buffer size and overlap so decoding is not measured.
+ * 
+ * @author Joren Six
+ */
+public final class DetectorBenchmarks {
+
+	/**
+	 * The duration of the analysed audio in seconds.
+	 */
+	private static final double DURATION = 10.0;
+
+	private DetectorBenchmarks() {
+	}
+
+	/**
+	 * @return The detector benchmarks.
+	 */
+	public static List<Benchmark> benchmarks() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final PitchDetectionMode mode : PitchDetectionMode.values()) {
+			if (TarsosPitchDetection.isSupported(mode)) {
+				benchmarks.add(detect(mode));
+			}
+		}
+		return benchmarks;
+	}
+
+	private static Benchmark detect(final PitchDetectionMode mode) {
+		return new Benchmark("detector.pitch", "mode=" + mode.name()) {
+			private float[] samples;
+			private int bufferSize;
+			private int overlap;
+
+			@Override
+			public void setUp() {
+				samples = Fixtures.tone(DURATION, 16);
+				bufferSize = TarsosPitchDetection.bufferSize(Fixtures.SAMPLE_RATE);
+				overlap = TarsosPitchDetection.overlap(bufferSize);
+			}
+
+			@Override
+			public Object invoke() throws Exception {
+				final AnnotationBuffer annotations = new AnnotationBuffer();
+				final AudioDispatcher dispatcher = AudioDispatcherFactory.fromFloatArray(samples,
+						Fixtures.SAMPLE_RATE, bufferSize, overlap);
+				dispatcher.addAudioProcessor(TarsosPitchDetection.createPitchProcessor(mode,
+						Fixtures.SAMPLE_RATE, annotations));
+				dispatcher.run();
+				return annotations.size();
+			}
+
+			@Override
+			public double getWorkPerOperation() {
+				return DURATION;
+			}
+
+			@Override
+			public String getWorkUnit() {
+				return "audio-s";
+			}
+		};
+	}
+}
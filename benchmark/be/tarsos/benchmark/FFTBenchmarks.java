@@ -0,0 +1,119 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.util.FFT;
+
+/**
+ * Benchmarks the forward FFT at the buffer sizes used by the pitch detectors
+ * and the cross-correlation of histograms.
+ * 
+ * @author Joren Six
+ */
+public final class FFTBenchmarks {
+
+	private FFTBenchmarks() {
+	}
+
+	/**
+	 * @return The FFT benchmarks.
+	 */
+	public static List<Benchmark> benchmarks() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int size : new int[] { 512, 1024, 2048, 4096, 8192 }) {
+			benchmarks.add(forwardFloat(size));
+			benchmarks.add(forwardDouble(size));
+		}
+		return benchmarks;
+	}
+
+	/**
+	 * The transform is in place, so every operation copies the fixture into
+	 * the buffer first: otherwise the values grow with each transform.
+	 */
+	private static Benchmark forwardFloat(final int size) {
+		return new Benchmark("fft.forward", "size=" + size + ",precision=float") {
+			private FFT fft;
+			private float[] signal;
+			private float[] buffer;
+
+			@Override
+			public void setUp() {
+				fft = new FFT(size);
+				signal = interlace(Fixtures.tone(size / (double) Fixtures.SAMPLE_RATE + 0.001, 11), size);
+				buffer = new float[signal.length];
+			}
+
+			@Override
+			public Object invoke() {
+				System.arraycopy(signal, 0, buffer, 0, signal.length);
+				fft.forwardTransform(buffer);
+				return buffer[1];
+			}
+		};
+	}
+
+	private static Benchmark forwardDouble(final int size) {
+		return new Benchmark("fft.forward", "size=" + size + ",precision=double") {
+			private FFT fft;
+			private double[] signal;
+			private double[] buffer;
+
+			@Override
+			public void setUp() {
+				fft = new FFT(size);
+				final float[] samples = interlace(Fixtures.tone(size / (double) Fixtures.SAMPLE_RATE + 0.001, 12),
+						size);
+				signal = new double[samples.length];
+				for (int i = 0; i < samples.length; i++) {
+					signal[i] = samples[i];
+				}
+				buffer = new double[signal.length];
+			}
+
+			@Override
+			public Object invoke() {
+				System.arraycopy(signal, 0, buffer, 0, signal.length);
+				fft.forwardTransform(buffer);
+				return buffer[1];
+			}
+		};
+	}
+
+	/**
+	 * @return The first size samples as interlaced real and imaginary parts.
+	 */
+	private static float[] interlace(final float[] samples, final int size) {
+		final float[] data = new float[size * 2];
+		for (int i = 0; i < size; i++) {
+			data[2 * i] = samples[i];
+		}
+		return data;
+	}
+}
@@ -0,0 +1,175 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.util.histogram.HistogramFactory;
+import be.tarsos.util.histogram.PitchClassHistogram;
+
+/**
+ * Synthetic fixtures for the benchmarks: melodies on a tone scale with
+ * harmonics, vibrato and noise, and annotations as a pitch tracker would
+ * produce them for such melodies. All fixtures are generated in-process with
+ * a seeded random generator so runs are comparable.
+ * 
+ * @author Joren Six
+ */
+public final class Fixtures {
+
+	/**
+	 * The sample rate of the generated audio.
+	 */
+	public static final int SAMPLE_RATE = 44100;
+
+	/**
+	 * The tone scale of the melodies, in relative cents: an equal pentatonic
+	 * scale, deliberately not a subset of the twelve tone equal temperament.
+	 */
+	private static final double[] TONE_SCALE = { 0, 240, 480, 720, 960 };
+
+	/**
+	 * The reference frequency of the lowest octave of the melodies, in Hz.
+	 */
+	private static final double REFERENCE_FREQUENCY = 220.0;
+
+	/**
+	 * The duration of one note of a melody, in seconds.
+	 */
+	private static final double NOTE_DURATION = 0.25;
+
+	/**
+	 * The time between two annotations, in seconds.
+	 */
+	private static final double ANNOTATION_STEP = 0.0058;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Generates a melody with four harmonics, vibrato and white noise.
+	 * 
+	 * @param seconds
+	 *            The duration in seconds.
+	 * @param seed
+	 *            The seed of the melody and noise.
+	 * @return Samples between -1 and 1 at {@link #SAMPLE_RATE}.
+	 */
+	public static float[] tone(final double seconds, final long seed) {
+		final Random random = new Random(seed);
+		final float[] samples = new float[(int) (seconds * SAMPLE_RATE)];
+		final int samplesPerNote = (int) (NOTE_DURATION * SAMPLE_RATE);
+		double phase = 0;
+		double frequency = 0;
+		for (int i = 0; i < samples.length; i++) {
+			if (i % samplesPerNote == 0) {
+				frequency = frequency(random.nextInt(TONE_SCALE.length * 2));
+			}
+			final double time = i / (double) SAMPLE_RATE;
+			// 6Hz vibrato with a depth of 20 cents
+			final double vibrato = Math.pow(2, 20 * Math.sin(2 * Math.PI * 6 * time) / 1200.0);
+			phase += 2 * Math.PI * frequency * vibrato / SAMPLE_RATE;
+			double sample = 0;
+			for (int harmonic = 1; harmonic <= 4; harmonic++) {
+				sample += Math.sin(harmonic * phase) / (harmonic * 2.0);
+			}
+			sample += 0.05 * (random.nextDouble() * 2 - 1);
+			samples[i] = (float) (sample * 0.8);
+		}
+		return samples;
+	}
+
+	/**
+	 * Generates white noise.
+	 * 
+	 * @param size
+	 *            The number of samples.
+	 * @param seed
+	 *            The seed of the noise.
+	 * @return Samples between -1 and 1.
+	 */
+	public static float[] noise(final int size, final long seed) {
+		final Random random = new Random(seed);
+		final float[] samples = new float[size];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (float) (random.nextDouble() * 2 - 1);
+		}
+		return samples;
+	}
+
+	/**
+	 * Generates annotations for a melody on the tone scale, with a Gaussian
+	 * deviation of 15 cents from the scale degrees.
+	 * 
+	 * @param count
+	 *            The number of annotations.
+	 * @param seed
+	 *            The seed of the melody.
+	 * @return A list of annotations, ordered by time.
+	 */
+	public static List<Annotation> annotations(final int count, final long seed) {
+		final Random random = new Random(seed);
+		final List<Annotation> annotations = new ArrayList<Annotation>(count);
+		final int annotationsPerNote = (int) (NOTE_DURATION / ANNOTATION_STEP);
+		int degree = 0;
+		for (int i = 0; i < count; i++) {
+			if (i % annotationsPerNote == 0) {
+				degree = random.nextInt(TONE_SCALE.length * 3);
+			}
+			final double deviation = Math.pow(2, random.nextGaussian() * 15 / 1200.0);
+			final double salience = 0.5 + random.nextDouble() * 0.5;
+			annotations.add(new Annotation(i * ANNOTATION_STEP, frequency(degree) * deviation,
+					PitchDetectionMode.TARSOS_YIN, salience));
+		}
+		return annotations;
+	}
+
+	/**
+	 * @param count
+	 *            The number of annotations.
+	 * @param seed
+	 *            The seed of the melody.
+	 * @return A pitch class histogram of synthetic annotations.
+	 */
+	public static PitchClassHistogram pitchClassHistogram(final int count, final long seed) {
+		return HistogramFactory.createPitchClassHistogram(annotations(count, seed));
+	}
+
+	/**
+	 * @param degree
+	 *            A scale degree, counting on into the next octaves.
+	 * @return The frequency of the scale degree in Hz.
+	 */
+	private static double frequency(final int degree) {
+		final int octave = degree / TONE_SCALE.length;
+		final double cents = octave * 1200 + TONE_SCALE[degree % TONE_SCALE.length];
+		return REFERENCE_FREQUENCY * Math.pow(2, cents / 1200.0);
+	}
+}
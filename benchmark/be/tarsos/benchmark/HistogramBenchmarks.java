@@ -0,0 +1,139 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.histogram.CorrelationMeasure;
+import be.tarsos.util.histogram.Histogram;
+import be.tarsos.util.histogram.PitchClassHistogram;
+
+/**
+ * Benchmarks adding values to, smoothing and correlating pitch class
+ * histograms.
+ * 
+ * @author Joren Six
+ */
+public final class HistogramBenchmarks {
+
+	private HistogramBenchmarks() {
+	}
+
+	/**
+	 * @return The histogram benchmarks.
+	 */
+	public static List<Benchmark> benchmarks() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int count : new int[] { 1000, 100000 }) {
+			benchmarks.add(add(count));
+		}
+		benchmarks.add(smooth(false));
+		benchmarks.add(smooth(true));
+		for (final CorrelationMeasure measure : CorrelationMeasure.values()) {
+			benchmarks.add(correlate(measure));
+		}
+		return benchmarks;
+	}
+
+	private static Benchmark add(final int count) {
+		return new Benchmark("histogram.add", "values=" + count) {
+			private double[] values;
+
+			@Override
+			public void setUp() {
+				final List<Annotation> annotations = Fixtures.annotations(count, 1);
+				values = new double[count];
+				for (int i = 0; i < count; i++) {
+					values[i] = annotations.get(i).getPitch(PitchUnit.RELATIVE_CENTS);
+				}
+			}
+
+			@Override
+			public Object invoke() {
+				final Histogram histogram = new PitchClassHistogram();
+				for (final double value : values) {
+					histogram.add(value);
+				}
+				return histogram;
+			}
+
+			@Override
+			public double getWorkPerOperation() {
+				return count;
+			}
+
+			@Override
+			public String getWorkUnit() {
+				return "values";
+			}
+		};
+	}
+
+	/**
+	 * Smoothing modifies the histogram, so every operation smooths a fresh
+	 * copy: the copy is part of the measurement.
+	 */
+	private static Benchmark smooth(final boolean gaussian) {
+		return new Benchmark("histogram.smooth", gaussian ? "kernel=gaussian" : "kernel=weighted") {
+			private Histogram histogram;
+
+			@Override
+			public void setUp() {
+				histogram = Fixtures.pitchClassHistogram(10000, 2);
+			}
+
+			@Override
+			public Object invoke() {
+				final Histogram copy = new Histogram(histogram);
+				if (gaussian) {
+					return copy.gaussianSmooth(1.0);
+				}
+				return copy.smooth(true, 3);
+			}
+		};
+	}
+
+	private static Benchmark correlate(final CorrelationMeasure measure) {
+		return new Benchmark("histogram.correlate", "measure=" + measure.name()) {
+			private Histogram first;
+			private Histogram second;
+
+			@Override
+			public void setUp() {
+				first = Fixtures.pitchClassHistogram(10000, 3);
+				second = Fixtures.pitchClassHistogram(10000, 4);
+			}
+
+			@Override
+			public Object invoke() {
+				return first.displacementForOptimalCorrelation(second, measure);
+			}
+		};
+	}
+}
@@ -0,0 +1,121 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimate.KDECorrelation;
+import be.tarsos.util.histogram.HistogramFactory;
+
+/**
+ * Benchmarks constructing kernel density estimates and finding the shift for
+ * optimal correlation between two of them.
+ * 
+ * @author Joren Six
+ */
+public final class KernelDensityBenchmarks {
+
+	private KernelDensityBenchmarks() {
+	}
+
+	/**
+	 * @return The kernel density estimate benchmarks.
+	 */
+	public static List<Benchmark> benchmarks() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int count : new int[] { 1000, 100000 }) {
+			benchmarks.add(add(count, 7));
+			benchmarks.add(add(count, 21));
+		}
+		benchmarks.add(optimalShift("default", null));
+		benchmarks.add(optimalShift("overlap", new KernelDensityEstimate.Overlap()));
+		benchmarks.add(optimalShift("cosine", new KernelDensityEstimate.Cosine()));
+		return benchmarks;
+	}
+
+	private static Benchmark add(final int count, final int width) {
+		return new Benchmark("kde.add", "values=" + count + ",width=" + width) {
+			private List<Annotation> annotations;
+
+			@Override
+			public void setUp() {
+				annotations = Fixtures.annotations(count, 5);
+			}
+
+			@Override
+			public Object invoke() {
+				return HistogramFactory.createPichClassKDE(annotations, width);
+			}
+
+			@Override
+			public double getWorkPerOperation() {
+				return count;
+			}
+
+			@Override
+			public String getWorkUnit() {
+				return "values";
+			}
+		};
+	}
+
+	/**
+	 * @param correlation
+	 *            The correlation measure or null for the default measure.
+	 */
+	private static Benchmark optimalShift(final String name, final KDECorrelation correlation) {
+		return new Benchmark("kde.optimalShift", "measure=" + name) {
+			private KernelDensityEstimate first;
+			private KernelDensityEstimate second;
+
+			@Override
+			public void setUp() {
+				first = kde(Fixtures.annotations(10000, 6));
+				second = kde(Fixtures.annotations(10000, 7));
+			}
+
+			@Override
+			public Object invoke() {
+				if (correlation == null) {
+					return first.shiftForOptimalCorrelation(second);
+				}
+				return first.shiftForOptimalCorrelation(correlation, second);
+			}
+		};
+	}
+
+	private static KernelDensityEstimate kde(final List<Annotation> annotations) {
+		final KernelDensityEstimate kde = new KernelDensityEstimate(new KernelDensityEstimate.GaussianKernel(7), 1200);
+		for (final Annotation annotation : annotations) {
+			kde.add(annotation.getPitch(PitchUnit.RELATIVE_CENTS));
+		}
+		return kde;
+	}
+}
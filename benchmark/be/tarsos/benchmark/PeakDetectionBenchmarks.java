@@ -0,0 +1,87 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.util.histogram.Histogram;
+import be.tarsos.util.histogram.peaks.PeakDetector;
+
+/**
+ * Benchmarks peak detection on smoothed pitch class histograms.
+ * 
+ * @author Joren Six
+ */
+public final class PeakDetectionBenchmarks {
+
+	private PeakDetectionBenchmarks() {
+	}
+
+	/**
+	 * @return The peak detection benchmarks.
+	 */
+	public static List<Benchmark> benchmarks() {
+		final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (final int windowSize : new int[] { 5, 15 }) {
+			benchmarks.add(detect(windowSize));
+		}
+		benchmarks.add(detectNumberOfPeaks(5));
+		return benchmarks;
+	}
+
+	private static Benchmark detect(final int windowSize) {
+		return new Benchmark("peaks.detect", "window=" + windowSize) {
+			private Histogram histogram;
+
+			@Override
+			public void setUp() {
+				histogram = Fixtures.pitchClassHistogram(10000, 13).gaussianSmooth(1.0);
+			}
+
+			@Override
+			public Object invoke() {
+				return PeakDetector.detect(histogram, windowSize, 15);
+			}
+		};
+	}
+
+	private static Benchmark detectNumberOfPeaks(final int numberOfPeaks) {
+		return new Benchmark("peaks.detectNumberOfPeaks", "peaks=" + numberOfPeaks) {
+			private Histogram histogram;
+
+			@Override
+			public void setUp() {
+				histogram = Fixtures.pitchClassHistogram(10000, 14).gaussianSmooth(1.0);
+			}
+
+			@Override
+			public Object invoke() {
+				return PeakDetector.detectNumberOfPeaks(histogram, numberOfPeaks);
+			}
+		};
+	}
+}
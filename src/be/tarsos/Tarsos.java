@@ -45,8 +45,11 @@ import be.tarsos.cli.AbstractTarsosApp;
 import be.tarsos.cli.Annotate;
 import be.tarsos.cli.AnnotationSynth;
 import be.tarsos.cli.AudioToScala;
+import be.tarsos.cli.CompactStore;
 import be.tarsos.cli.DetectPitch;
 import be.tarsos.cli.HistogramToScala;
+import be.tarsos.cli.Listen;
+import be.tarsos.cli.PitchClassEvolution;
 import be.tarsos.cli.PitchHistogramRating;
 import be.tarsos.cli.PitchTable;
 import be.tarsos.cli.PitchToHistogram;
@@ -302,10 +305,13 @@ public final class Tarsos {
 		applicationList.add(new TuneMidiSynth());
 		applicationList.add(new Rank());
 		applicationList.add(new PitchToMidi());
+		applicationList.add(new Listen());
 		applicationList.add(new PitchToHistogram());
+		applicationList.add(new PitchClassEvolution());
 		applicationList.add(new HistogramToScala());
 		applicationList.add(new PitchHistogramRating());
 		applicationList.add(new PrintScalaIntervals());
+		applicationList.add(new CompactStore());
 		
 		for (final AbstractTarsosApp application : applicationList) {
 			registerApplication(application.name(), application);
@@ -37,6 +37,7 @@ import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.tarsos.Tarsos;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.util.BatchProcessor;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.StringUtils;
 
@@ -152,6 +153,20 @@ public abstract class AbstractTarsosApp {
                 PitchDetectionMode.TARSOS_YIN);
     }
 
+    /**
+     * Creates an optionspec for the number of threads used to process a batch
+     * of files.
+     * @param parser
+     *            The parser to add an option to.
+     * @return An OptionSpec with the number of threads, by default the number of
+     *         available processors.
+     */
+    protected final OptionSpec<Integer> createThreadsSpec(final OptionParser parser) {
+        return parser.accepts("threads", "The number of files to process concurrently."
+        ).withRequiredArg().ofType(Integer.class).defaultsTo(
+                BatchProcessor.defaultNumberOfThreads());
+    }
+
     /**
      * Prints command line help for an application.
      * @param parser
@@ -26,7 +26,7 @@
 package be.tarsos.cli;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -40,10 +40,13 @@ import be.tarsos.sampled.pitch.Annotation;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchDetector;
 import be.tarsos.util.AudioFile;
+import be.tarsos.util.BatchProcessor;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
 import be.tarsos.util.FileUtils;
+import be.tarsos.util.FusedAnalysis;
 import be.tarsos.util.SignalPowerExtractor;
+import be.tarsos.util.TimeUnit;
 import be.tarsos.util.histogram.Histogram;
 import be.tarsos.util.histogram.HistogramFactory;
 import be.tarsos.util.histogram.PitchClassHistogram;
@@ -68,13 +71,16 @@ public final class Annotate extends AbstractTarsosApp {
 	 *            The file to annotate.
 	 * @param detector
 	 *            The detector to use.
+	 * @return The annotated audio file.
 	 * @throws UnsupportedAudioFileException
 	 * @throws EncoderException
 	 */
-	private void annotateInputFile(final String inputFile, final PitchDetectionMode detectionMode)
+	private AudioFile annotateInputFile(final String inputFile, final PitchDetectionMode detectionMode)
 			throws UnsupportedAudioFileException {
 
-		final AudioFile audioFile = new AudioFile(inputFile);
+		// Detects pitch and power while the file is transcoded.
+		final FusedAnalysis analysis = new FusedAnalysis(Arrays.asList(detectionMode), true);
+		final AudioFile audioFile = analysis.analyse(inputFile);
 
 		final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
 
@@ -111,13 +117,14 @@ public final class Annotate extends AbstractTarsosApp {
 				peaksTitle, peaks);
 
 		try {
-			final SignalPowerExtractor powerExtractor = new SignalPowerExtractor(audioFile);
+			final SignalPowerExtractor powerExtractor = analysis.getPowerExtractor();
 			powerExtractor.saveTextFile(FileUtils.combine(directory, prefix + "_power.txt"), true);
 			// powerExtractor.saveWaveFormPlot(FileUtils.combine(directory,
 			// prefix + "_wave.png"));
 		} catch (final ArrayIndexOutOfBoundsException e) {
 			LOG.log(Level.SEVERE, "Index out of bounds while extracting power.", e);
 		}
+		return audioFile;
 	}
 
 	@Override
@@ -126,14 +133,15 @@ public final class Annotate extends AbstractTarsosApp {
 		final OptionParser parser = new OptionParser();
 
 		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		
+		final OptionSpec<Integer> threadsSpec = createThreadsSpec(parser);
 
 		final OptionSet options = parse(args, parser, this);
 
-		final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
-
 		if (isHelpOptionSet(options)) {
 			printHelp(parser);
 		} else {
+			final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
 			final String audioPattern = Configuration.get(ConfKey.audio_file_name_pattern);
 			final List<String> inputFiles = new ArrayList<String>();
 			
@@ -144,19 +152,23 @@ public final class Annotate extends AbstractTarsosApp {
 				} else if (inputFile.matches(audioPattern)) {
 					inputFiles.add(inputFile);
 				}
-				Collections.reverse(inputFiles);
-				for(int i = 0; i < 1000; i++){
-					inputFiles.remove(0);
+			}
+			
+			final BatchProcessor<String, AudioFile> processor = new BatchProcessor<String, AudioFile>(options.valueOf(threadsSpec));
+			processor.process(inputFiles, new BatchProcessor.Task<String, AudioFile>() {
+				public AudioFile process(String file) throws UnsupportedAudioFileException {
+					final AudioFile audioFile = annotateInputFile(file, detectionMode);
+					processor.addProcessedAudio(audioFile.getLengthIn(TimeUnit.SECONDS));
+					return audioFile;
 				}
-				for (final String file : inputFiles) {
-					try {
-						annotateInputFile(file, detectionMode);
-					} catch (UnsupportedAudioFileException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+			}, new BatchProcessor.ResultHandler<String, AudioFile>() {
+				public void handleResult(String file, AudioFile audioFile) {
+					LOG.info("Annotated " + file);
 				}
-			}
+				public void handleFailure(String file, Exception exception) {
+					LOG.log(Level.SEVERE, "Failed to annotate " + file, exception);
+				}
+			});
 		}
 	}
 
@@ -31,9 +31,9 @@ import java.util.List;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
-import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
+import be.tarsos.sampled.pitch.CachingDetector;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
-import be.tarsos.sampled.pitch.PitchDetector;
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.histogram.HistogramFactory;
@@ -96,9 +96,8 @@ public final class AudioToScala extends AbstractTarsosApp {
 		AudioFile audioFile;
 	
 			audioFile = new AudioFile(inputFile.getAbsolutePath());
-			final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
-			pitchDetector.executePitchDetection();
-			final List<Annotation> samples = pitchDetector.getAnnotations();
+			final CachingDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
+			final AnnotationBuffer samples = pitchDetector.executeBufferedPitchDetection();
 			final PitchHistogram pitchHistogram = HistogramFactory.createPitchHistogram(samples);
 			final PitchClassHistogram scaleHistogram = pitchHistogram.pitchClassHistogram();
 			//scaleHistogram.plot(FileUtils.basename(scalaFile.getAbsolutePath()) + "png",
@@ -0,0 +1,112 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.cli;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import be.tarsos.Tarsos;
+import be.tarsos.util.AnalysisStore;
+import be.tarsos.util.AnalysisStore.Kind;
+import be.tarsos.util.AnalysisStore.KeyFilter;
+import be.tarsos.util.ConfKey;
+import be.tarsos.util.Configuration;
+import be.tarsos.util.FileFingerprints;
+import be.tarsos.util.FileUtils;
+import be.tarsos.util.histogram.ToneScaleIndex;
+
+/**
+ * Compacts the analysis store in the data directory: replaced results are
+ * removed from the data files. With garbage collection the results for audio
+ * files without transcoded audio are removed as well.
+ * 
+ * @author Joren Six
+ */
+public final class CompactStore extends AbstractTarsosApp {
+
+	@Override
+	public String description() {
+		return "Compacts the analysis store in the data directory, optionally removing results for files that are no longer transcoded.";
+	}
+
+	@Override
+	public void run(final String... args) {
+		final OptionParser parser = new OptionParser();
+		parser.accepts("gc", "Remove results for audio files without transcoded audio.");
+		final OptionSet options = parse(args, parser, this);
+
+		if (isHelpOptionSet(options)) {
+			printHelp(parser);
+		} else {
+			final AnalysisStore store = AnalysisStore.getInstance();
+			KeyFilter filter = null;
+			if (options.has("gc")) {
+				filter = transcodedFilesFilter(store);
+			}
+			final long sizeBefore = store.size();
+			try {
+				final long reclaimed = store.compact(filter);
+				Tarsos.println(String.format("Compacted the analysis store from %d to %d bytes, reclaimed %d bytes.",
+						sizeBefore, store.size(), reclaimed));
+			} catch (final IOException e) {
+				printError(parser, "Could not compact the analysis store: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Creates a filter that keeps results for content hashes of which the
+	 * transcoded audio still exists, and tone scales and hashes of files that
+	 * still exist.
+	 */
+	private KeyFilter transcodedFilesFilter(final AnalysisStore store) {
+		final String dataDirectory = Configuration.get(ConfKey.data_directory);
+		final Set<String> liveHashes = new HashSet<String>();
+		for (final String md5 : store.keys(Kind.NAMES)) {
+			final String name = store.getString(Kind.NAMES, md5);
+			final String subFolder = name + "_" + md5;
+			if (FileUtils.exists(FileUtils.combine(dataDirectory, subFolder, name + "_transcoded.wav"))) {
+				liveHashes.add(md5);
+			}
+		}
+		return new KeyFilter() {
+			public boolean keep(final Kind kind, final String key) {
+				if (kind == Kind.TONE_SCALES) {
+					return FileUtils.exists(ToneScaleIndex.path(key));
+				}
+				if (kind == Kind.FINGERPRINTS) {
+					return FileUtils.exists(FileFingerprints.path(key));
+				}
+				final int separator = key.indexOf('/');
+				final String hash = separator == -1 ? key : key.substring(0, separator);
+				return liveHashes.contains(hash);
+			}
+		};
+	}
+}
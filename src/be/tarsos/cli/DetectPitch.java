@@ -26,21 +26,33 @@
 package be.tarsos.cli;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.tarsos.Tarsos;
 import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchDetector;
+import be.tarsos.sampled.pitch.VampPitchDetection;
 import be.tarsos.util.AudioFile;
+import be.tarsos.util.BatchProcessor;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.ConfigurationSnapshot;
 import be.tarsos.util.FileUtils;
+import be.tarsos.util.TimeUnit;
 
 /**
  * Detects pitch for an input file using a pitch detector. Outputs two columns,
@@ -50,6 +62,8 @@ import be.tarsos.util.FileUtils;
  */
 public final class DetectPitch extends AbstractTarsosApp {
 
+	private static final Logger LOG = Logger.getLogger(DetectPitch.class.getName());
+
 	@Override
 	public String description() {
 		return "Detects pitch for one or more input audio files using a pitch detector. If a directory is given it traverses the directory _recursively_. "
@@ -66,6 +80,7 @@ public final class DetectPitch extends AbstractTarsosApp {
 	public void run(final String... args) {
 		final OptionParser parser = new OptionParser();
 		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		final OptionSpec<Integer> threadsSpec = createThreadsSpec(parser);
 		final OptionSet options = parse(args, parser, this);
 		List<String> arguments = options.nonOptionArguments();
 		
@@ -86,29 +101,105 @@ public final class DetectPitch extends AbstractTarsosApp {
 			printError(parser, errorMessage);
 		} else {
 			final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
-			executeApplication(arguments,detectionMode);
+			executeApplication(arguments,detectionMode,options.valueOf(threadsSpec));
 		}
 	}
 	
 	public void executeApplication(List<String> arguments,final PitchDetectionMode detectionMode){
-		Set<File> files = getAudioFileListFromArguments(arguments);
+		executeApplication(arguments, detectionMode, BatchProcessor.defaultNumberOfThreads());
+	}
+	
+	/**
+	 * Detects pitch for each audio file concurrently. The annotations are
+	 * printed in the order of the (sorted) files.
+	 * 
+	 * @param arguments
+	 *            A list of audio files and directories.
+	 * @param detectionMode
+	 *            The pitch detector to use.
+	 * @param threads
+	 *            The number of files to process concurrently.
+	 */
+	public void executeApplication(List<String> arguments,final PitchDetectionMode detectionMode,final int threads){
+		List<File> files = new ArrayList<File>(getAudioFileListFromArguments(arguments));
+		final Set<File> withoutAnnotations;
+		if (VampPitchDetection.supportsBatch(detectionMode)) {
+			withoutAnnotations = detectInBatch(files, detectionMode, threads);
+		} else {
+			withoutAnnotations = Collections.emptySet();
+		}
 		Tarsos.println("Start(s),Frequency(Hz),Probability,Source,file");
-		for(File inputFile : files){
-			AudioFile audioFile;
-			
-				audioFile = new AudioFile(inputFile.getAbsolutePath());
+		final BatchProcessor<File, List<Annotation>> processor = new BatchProcessor<File, List<Annotation>>(threads);
+		processor.process(files, new BatchProcessor.Task<File, List<Annotation>>() {
+			public List<Annotation> process(File inputFile) {
+				if (withoutAnnotations.contains(inputFile)) {
+					// already analysed in the batch, nothing to print
+					return Collections.emptyList();
+				}
+				final AudioFile audioFile = new AudioFile(inputFile.getAbsolutePath());
 				final PitchDetector detector = detectionMode.getPitchDetector(audioFile);
 				detector.executePitchDetection();
-				for (final Annotation sample : detector.getAnnotations()) {
+				processor.addProcessedAudio(audioFile.getLengthIn(TimeUnit.SECONDS));
+				return detector.getAnnotations();
+			}
+		}, new BatchProcessor.ResultHandler<File, List<Annotation>>() {
+			public void handleResult(File inputFile, List<Annotation> annotations) {
+				for (final Annotation sample : annotations) {
 					Tarsos.println(sample.toString() + "," + inputFile.getAbsolutePath());
 				}
-			
+			}
+			public void handleFailure(File inputFile, Exception exception) {
+				LOG.log(Level.SEVERE, "Pitch detection failed for " + inputFile.getAbsolutePath(), exception);
+			}
+		});
+	}
+	
+	/**
+	 * Transcodes the files and detects pitch in the files that are not
+	 * cached with a few calls of sonic-annotator, instead of one call per
+	 * file. The annotations are cached and printed afterwards.
+	 * 
+	 * @return The files in which no pitch is detected, even when analysed
+	 *         one by one. They are not cached, so they are analysed again on
+	 *         a next run, but not when the annotations are printed.
+	 */
+	private Set<File> detectInBatch(final List<File> files, final PitchDetectionMode detectionMode, final int threads) {
+		final ConfigurationSnapshot configuration = Configuration.snapshot();
+		final List<AudioFile> uncached = new ArrayList<AudioFile>();
+		final Map<AudioFile, File> inputFiles = new HashMap<AudioFile, File>();
+		final Set<File> withoutAnnotations = new HashSet<File>();
+		final BatchProcessor<File, AudioFile> transcoder = new BatchProcessor<File, AudioFile>(threads);
+		transcoder.process(files, new BatchProcessor.Task<File, AudioFile>() {
+			public AudioFile process(File inputFile) {
+				return new AudioFile(inputFile.getAbsolutePath());
+			}
+		}, new BatchProcessor.ResultHandler<File, AudioFile>() {
+			public void handleResult(File inputFile, AudioFile audioFile) {
+				if (!detectionMode.getPitchDetector(audioFile).isCached(configuration)) {
+					uncached.add(audioFile);
+					inputFiles.put(audioFile, inputFile);
+				}
+			}
+			public void handleFailure(File inputFile, Exception exception) {
+				LOG.log(Level.SEVERE, "Transcoding failed for " + inputFile.getAbsolutePath(), exception);
+			}
+		});
+		if (!uncached.isEmpty()) {
+			final Map<AudioFile, List<Annotation>> detected = VampPitchDetection.detect(uncached, detectionMode);
+			for (final Map.Entry<AudioFile, List<Annotation>> entry : detected.entrySet()) {
+				if (entry.getValue().isEmpty()) {
+					withoutAnnotations.add(inputFiles.get(entry.getKey()));
+				} else {
+					detectionMode.getPitchDetector(entry.getKey()).cacheAnnotations(
+							AnnotationBuffer.fromList(entry.getValue()), configuration);
+				}
+			}
 		}
-		
+		return withoutAnnotations;
 	}
 	
 	private Set<File> getAudioFileListFromArguments(List<String> arguments){
-		Set<File> files = new HashSet<File>();
+		Set<File> files = new TreeSet<File>();
 		for(int i = 0 ; i < arguments.size() ; i++){
 			File file = new File(arguments.get(i));
 			//Recursively traverse directory
@@ -28,6 +28,7 @@ import java.util.List;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
+import be.tarsos.util.CsvReader;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.KernelDensityEstimate;
 import be.tarsos.util.ScalaFile;
@@ -70,26 +71,18 @@ public class HistogramToScala extends AbstractTarsosApp {
 		if (!FileUtils.exists(fileName)) {
 			printError(parser, fileName + " does not exist, it should be a CSV file");
 		}else{
-			List<String[]> data = FileUtils.readCSVFile(fileName, "(,|;)", -1);
-			if(data.get(0).length < 2){
+			try{
+				double[] values = FileUtils.readNumericColumn(fileName, CsvReader.COMMA_OR_SEMICOLON, 1);
+				actuallyDoSomething(values,fileName);
+			}catch(NumberFormatException e){
+				printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields." + e + " is not a number.");	
+			}catch(ArrayIndexOutOfBoundsException e){
 				printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields.");
-			} else {
-				try{
-					actuallyDoSomething(data,fileName);
-				}catch(NumberFormatException e){
-					printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields." + e + " is not a number.");	
-				}catch(ArrayIndexOutOfBoundsException e){
-					printError(parser,"Array index out of bounds, expects comma or semi-colon separated data of at least two nummeric fields.");
-				}
 			}
 		}
 	}
 
-	private void actuallyDoSomething(List<String[]> data,String csvFileName) {
-		double[] accumulator = new double[data.size()];
-		for(int i = 0 ; i < data.size(); i++){
-			accumulator[i] = Double.valueOf(data.get(i)[1]);
-		}
+	private void actuallyDoSomething(double[] accumulator,String csvFileName) {
 		KernelDensityEstimate kde = new KernelDensityEstimate(new KernelDensityEstimate.GaussianKernel(5),accumulator);
 		PitchClassHistogram pch = HistogramFactory.createPitchClassHistogram(kde);
 		List<Peak> peaks = PeakDetector.detect(pch);
@@ -0,0 +1,130 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+package be.tarsos.cli;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.sound.sampled.LineUnavailableException;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import be.tarsos.Tarsos;
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationPublisher;
+import be.tarsos.sampled.pitch.LiveAnalysis;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.sampled.pitch.TarsosPitchDetection;
+import be.tarsos.util.histogram.HistogramFactory;
+import be.tarsos.util.histogram.PitchClassHistogram;
+import be.tarsos.util.histogram.peaks.Peak;
+import be.tarsos.util.histogram.peaks.PeakDetector;
+
+/**
+ * Detects pitch in audio from the configured microphone while it is recorded.
+ * Prints the number of annotations and the end-to-end latency regularly and
+ * the pitch classes of the recording when it stops.
+ * 
+ * @author Joren Six
+ */
+public final class Listen extends AbstractTarsosApp {
+
+	@Override
+	public String description() {
+		return "Detects pitch in audio from the microphone while it is recorded and prints the pitch classes when it stops.";
+	}
+
+	@Override
+	public void run(final String... args) {
+		final OptionParser parser = new OptionParser();
+		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		final OptionSpec<Double> durationSpec = parser.accepts("duration",
+				"The number of seconds to listen, zero listens until enter is pressed.").withRequiredArg()
+				.ofType(Double.class).defaultsTo(0.0);
+		final OptionSpec<Double> reportSpec = parser.accepts("report",
+				"The number of seconds between progress reports.").withRequiredArg().ofType(Double.class)
+				.defaultsTo(1.0);
+		final OptionSet options = parse(args, parser, this);
+
+		if (isHelpOptionSet(options)) {
+			printHelp(parser);
+		} else if (!TarsosPitchDetection.isSupported(options.valueOf(detectionModeSpec))) {
+			printError(parser, options.valueOf(detectionModeSpec).name()
+					+ " can not be used live, choose a TarsosDSP pitch detector.");
+		} else {
+			final LiveAnalysis analysis = new LiveAnalysis(options.valueOf(detectionModeSpec));
+			try {
+				analysis.start();
+				try {
+					listen(analysis, options.valueOf(durationSpec), options.valueOf(reportSpec));
+				} finally {
+					analysis.stop();
+				}
+				printPitchClasses(analysis);
+			} catch (final LineUnavailableException e) {
+				printError(parser, "Could not open the microphone: " + e.getMessage());
+			} catch (final IOException e) {
+				printError(parser, "Could not read from standard input: " + e.getMessage());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void listen(final LiveAnalysis analysis, final double duration, final double reportInterval)
+			throws IOException, InterruptedException {
+		if (duration <= 0) {
+			Tarsos.println("Listening, press enter to stop.");
+		}
+		final long start = System.nanoTime();
+		while (analysis.isRunning()) {
+			Thread.sleep((long) (reportInterval * 1000));
+			final double elapsed = (System.nanoTime() - start) / 1000000000.0;
+			final int annotations = AnnotationPublisher.getInstance().getAnnotationTree().size();
+			Tarsos.println(String.format("%.1f s, %d annotations. Latency: %s", elapsed, annotations,
+					analysis.getLatency()));
+			if (duration > 0 ? elapsed >= duration : System.in.available() > 0) {
+				break;
+			}
+		}
+	}
+
+	private void printPitchClasses(final LiveAnalysis analysis) {
+		final List<Annotation> annotations = AnnotationPublisher.getInstance().getCurrentlySelectedAnnotations();
+		Tarsos.println(String.format("%d annotations, %d frames dropped. Latency: %s", annotations.size(),
+				analysis.getDroppedFrames(), analysis.getLatency()));
+		if (!annotations.isEmpty()) {
+			final PitchClassHistogram histogram = HistogramFactory.createPitchHistogram(annotations)
+					.pitchClassHistogram();
+			histogram.gaussianSmooth(1.0);
+			final StringBuilder pitchClasses = new StringBuilder("Pitch classes (cents):");
+			for (final Peak peak : PeakDetector.detect(histogram, 15, 15)) {
+				pitchClasses.append(String.format(" %.0f", peak.getPosition()));
+			}
+			Tarsos.println(pitchClasses.toString());
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+package be.tarsos.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import be.tarsos.Tarsos;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.util.AudioFile;
+import be.tarsos.util.FileUtils;
+import be.tarsos.util.histogram.ToneScaleEvolution;
+import be.tarsos.util.histogram.ToneScaleEvolution.MatrixWriter;
+import be.tarsos.util.histogram.peaks.Peak;
+
+/**
+ * Follows the pitch classes used in an audio file over time. Prints the peaks
+ * of the pitch class profile for each window and writes the profiles as a
+ * matrix, see {@link ToneScaleEvolution.MatrixWriter}.
+ * 
+ * @author Joren Six
+ */
+public final class PitchClassEvolution extends AbstractTarsosApp {
+
+	@Override
+	public String description() {
+		return "Computes a pitch class profile for each window sliding over an audio file, e.g. to follow modulations or tonic drift.";
+	}
+
+	@Override
+	public String synopsis() {
+		return "[options] input_file";
+	}
+
+	@Override
+	public void run(final String... args) {
+		final OptionParser parser = new OptionParser();
+		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		final OptionSpec<Double> windowSpec = parser.accepts("window", "The duration of a window in seconds.")
+				.withRequiredArg().ofType(Double.class).defaultsTo(30.0);
+		final OptionSpec<Double> hopSpec = parser.accepts("hop", "The time between consecutive windows in seconds.")
+				.withRequiredArg().ofType(Double.class).defaultsTo(5.0);
+		final OptionSpec<Double> widthSpec = parser.accepts("width", "The width of the Gaussian kernel in cents.")
+				.withRequiredArg().ofType(Double.class).defaultsTo(7.0);
+		final OptionSpec<File> matrixSpec = parser
+				.accepts("matrix", "The output matrix file. (default: 'name of the input file'_evolution.bin)")
+				.withRequiredArg().ofType(File.class);
+		final OptionSet options = parse(args, parser, this);
+
+		if (isHelpOptionSet(options)) {
+			printHelp(parser);
+		} else if (options.nonOptionArguments().size() != 1
+				|| !FileUtils.exists(options.nonOptionArguments().get(0))
+				|| !FileUtils.isAudioFile(new File(options.nonOptionArguments().get(0)))) {
+			printError(parser, "Expects exactly one audio file.");
+		} else if (options.valueOf(windowSpec) <= 0 || options.valueOf(hopSpec) <= 0) {
+			printError(parser, "The window and hop should be positive.");
+		} else {
+			final String fileName = options.nonOptionArguments().get(0);
+			final String matrixFile;
+			if (options.valueOf(matrixSpec) == null) {
+				matrixFile = FileUtils.basename(fileName) + "_evolution.bin";
+			} else {
+				matrixFile = options.valueOf(matrixSpec).getPath();
+			}
+			final AnnotationBuffer annotations = options.valueOf(detectionModeSpec)
+					.getPitchDetector(new AudioFile(fileName)).executeBufferedPitchDetection();
+			final ToneScaleEvolution evolution = new ToneScaleEvolution(options.valueOf(windowSpec),
+					options.valueOf(hopSpec), options.valueOf(widthSpec));
+			try {
+				final MatrixWriter writer = new MatrixWriter(matrixFile, evolution);
+				try {
+					evolution.analyse(annotations, new ToneScaleEvolution.ProfileHandler() {
+						public void handleProfile(final double start, final int count, final double[] profile,
+								final List<Peak> peaks) {
+							writer.handleProfile(start, count, profile, peaks);
+							final StringBuilder line = new StringBuilder();
+							line.append(String.format("%.3f;%d", start, count));
+							for (final Peak peak : peaks) {
+								line.append(String.format(";%.0f", peak.getPosition()));
+							}
+							Tarsos.println(line.toString());
+						}
+					});
+				} finally {
+					writer.close();
+				}
+			} catch (final IOException e) {
+				printError(parser, "Could not write " + matrixFile + ": " + e.getMessage());
+			}
+		}
+	}
+}
@@ -32,6 +32,7 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.tarsos.Tarsos;
+import be.tarsos.util.CsvReader;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.KernelDensityEstimate;
 import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
@@ -78,18 +79,13 @@ public class PitchHistogramRating extends AbstractTarsosApp {
 				printError(parser, fileName + " does not exist, it should be a CSV file");
 			}else{
 				HistogramType type = detectionModeSpec.value(options);
-				List<String[]> data = FileUtils.readCSVFile(fileName, "(,|;)", -1);
-				
-				if(data.get(0).length < 2){
+				try{
+					double[] values = FileUtils.readNumericColumn(fileName, CsvReader.COMMA_OR_SEMICOLON, 1);
+					Tarsos.println(fileName + " ; " + actuallyDoSomething(values,type));
+				}catch(NumberFormatException e){
+					printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields." + e + " is not a number.");	
+				}catch(ArrayIndexOutOfBoundsException e){
 					printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields.");
-				} else {
-					try{
-						Tarsos.println(fileName + " ; " + actuallyDoSomething(data,type));
-					}catch(NumberFormatException e){
-						printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields." + e + " is not a number.");	
-					}catch(ArrayIndexOutOfBoundsException e){
-						printError(parser,"Array index out of bounds, expects comma or semi-colon separated data of at least two nummeric fields.");
-					}
 				}
 			}
 		} else {
@@ -105,25 +101,25 @@ public class PitchHistogramRating extends AbstractTarsosApp {
 			int counter = 0;
 			for(String[] row : fileData){
 				String pitchFile = row[0];
-				List<String[]> data = FileUtils.readCSVFile(pitchFile, "(,|;)", -1);
-				if(!data.isEmpty()){
-					if(data.get(0).length < 2){
-						printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields.");
-					} else {
-						Tarsos.println((++counter) + ";" + pitchFile + ";" + actuallyDoSomething(data, type)) ;							
+				try{
+					double[] values = FileUtils.readNumericColumn(pitchFile, CsvReader.COMMA_OR_SEMICOLON, 1);
+					if(values.length > 0){
+						Tarsos.println((++counter) + ";" + pitchFile + ";" + actuallyDoSomething(values, type)) ;
 					}
+				}catch(ArrayIndexOutOfBoundsException e){
+					printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields.");
 				}
 			}
 		}
 	}
 	
-	private String actuallyDoSomething(List<String[]> data, HistogramType histogramType) {
+	private String actuallyDoSomething(double[] values, HistogramType histogramType) {
 		int start = 0;
 		int size = histogramType == HistogramType.PITCH_CLASS_HISTOGRAM ? 1200 : 9600;  
 		
 		double[] accumulator = new double[size]; 
-		for(int i = start ; i < data.size();i++){
-			accumulator[i] = Double.valueOf(data.get(i)[1]) * 1000;
+		for(int i = start ; i < values.length;i++){
+			accumulator[i] = values[i] * 1000;
 		}
 		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(5),accumulator);
 		Histogram h = HistogramFactory.createPitchClassHistogram(kde);
@@ -25,12 +25,16 @@ package be.tarsos.cli;
 
 import java.io.File;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.tarsos.Tarsos;
 import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.BatchProcessor;
+import be.tarsos.util.CsvReader;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.KernelDensityEstimate;
 import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
@@ -42,6 +46,8 @@ import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
  */
 public class PitchToHistogram extends AbstractTarsosApp {
 	
+	private static final Logger LOG = Logger.getLogger(PitchToHistogram.class.getName());
+	
 	public static enum HistogramType{PITCH_CLASS_HISTOGRAM,PITCH_HISTOGRAM}
 
 	@Override
@@ -56,6 +62,7 @@ public class PitchToHistogram extends AbstractTarsosApp {
 		final String descr = "The histogram type to construct [" + names.toString() + "]";
 		final OptionSpec<HistogramType> detectionModeSpec =  parser.accepts("histogram-type", descr).withRequiredArg().ofType(HistogramType.class).defaultsTo(HistogramType.PITCH_CLASS_HISTOGRAM);
 		final OptionSpec<Boolean> listModeSpec =  parser.accepts("list", descr).withOptionalArg().ofType(Boolean.class).defaultsTo(false);
+		final OptionSpec<Integer> threadsSpec = createThreadsSpec(parser);
 		final OptionSet options = parse(args, parser, this);
 		
 		if (isHelpOptionSet(options)) {
@@ -63,25 +70,20 @@ public class PitchToHistogram extends AbstractTarsosApp {
 		} else if (options.nonOptionArguments().size() == 1 && listModeSpec.value(options)) {
 			//process list.
 			String fileName = options.nonOptionArguments().get(0);	
-			processList(fileName, parser);
+			processList(fileName, parser, threadsSpec.value(options));
 		} else if (options.nonOptionArguments().size() == 1 ) {
 			String fileName = options.nonOptionArguments().get(0);
 			if (!FileUtils.exists(fileName)) {
 				printError(parser, fileName + " does not exist, it should be a CSV file");
 			}else{
 				HistogramType type = detectionModeSpec.value(options);
-				List<String[]> data = FileUtils.readCSVFile(fileName, "(,|;)", -1);
-				
-				if(data.get(0).length < 2){
+				try{
+					double[] pitches = FileUtils.readNumericColumn(fileName, CsvReader.COMMA_OR_SEMICOLON, 1);
+					Tarsos.println(actuallyDoSomething(pitches,type));
+				}catch(NumberFormatException e){
+					printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields." + e + " is not a number.");	
+				}catch(ArrayIndexOutOfBoundsException e){
 					printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields.");
-				} else {
-					try{
-						Tarsos.println(actuallyDoSomething(data,type));
-					}catch(NumberFormatException e){
-						printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields." + e + " is not a number.");	
-					}catch(ArrayIndexOutOfBoundsException e){
-						printError(parser,"Array index out of bounds, expects comma or semi-colon separated data of at least two nummeric fields.");
-					}
 				}
 			}
 		} else {
@@ -90,71 +92,85 @@ public class PitchToHistogram extends AbstractTarsosApp {
 			
 	}
 	
-	private void processList(String fileName,OptionParser parser){
+	private void processList(String fileName,final OptionParser parser,int threads){
 		if (!FileUtils.exists(fileName)) {
 			printError(parser, fileName + " does not exist, it should be a CSV file");
 		}else{
 			List<String[]> fileData = FileUtils.readCSVFile(fileName, ";", 3);
-			int counter = 0;
-			for(String[] row : fileData){
-				String pitchFile = row[0];
-				String phFile = row[1];
-				String pchFile = row[2];
-				Tarsos.println((++counter) + " " + pitchFile);
-				
-				List<String[]> data = FileUtils.readCSVFile(pitchFile, "(,|;)", -1);
-				if(!data.isEmpty()){
-					if(data.get(0).length < 2){
+			BatchProcessor<String[], String> processor = new BatchProcessor<String[], String>(threads);
+			processor.process(fileData, new BatchProcessor.Task<String[], String>() {
+				public String process(String[] row) {
+					return processListRow(row);
+				}
+			}, new BatchProcessor.ResultHandler<String[], String>() {
+				private int counter = 0;
+				public void handleResult(String[] row, String message) {
+					Tarsos.println((++counter) + " " + row[0]);
+					if(message != null){
+						Tarsos.println(message);
+					}
+				}
+				public void handleFailure(String[] row, Exception e) {
+					Tarsos.println((++counter) + " " + row[0]);
+					if(e instanceof NumberFormatException){
+						printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields." + e + " is not a number.");
+					}else if(e instanceof ArrayIndexOutOfBoundsException){
+						printError(parser,"Array index out of bounds, expects comma or semi-colon separated data of at least two nummeric fields.");
+					}else if(e instanceof IllegalArgumentException){
 						printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields.");
-					} else {
-						try{
-							if(!new File(pchFile).exists()){
-								String pchData = actuallyDoSomething(data,HistogramType.PITCH_CLASS_HISTOGRAM);
-								FileUtils.writeFile(pchData, pchFile);
-							}
-							
-							if(!new File(phFile).exists()){
-								String phData = actuallyDoSomething(data,HistogramType.PITCH_HISTOGRAM);
-								FileUtils.writeFile(phData, phFile);
-							}
-							
-							String pcshFile = pchFile.replace("pch.", "pcsh.");
-							if(!new File(pcshFile).exists()){
-								String smallPchData = smallPCH(data);
-								FileUtils.writeFile(smallPchData,pcshFile);
-							} else {
-								System.out.println("Already exists: " + pcshFile);
-							}
-						}catch(NumberFormatException e){
-							printError(parser,"Expects comma or semi-colon separated data of at least two nummeric fields." + e + " is not a number.");	
-						}catch(ArrayIndexOutOfBoundsException e){
-							printError(parser,"Array index out of bounds, expects comma or semi-colon separated data of at least two nummeric fields.");
-						}
+					}else{
+						LOG.log(Level.SEVERE, "Failed to create histograms for " + row[0], e);
 					}
 				}
-				
+			});
+		}
+	}
+	
+	/**
+	 * Creates the histogram files for one row of a list. Called concurrently.
+	 * @param row The pitch file, the pitch histogram file and the pitch class histogram file.
+	 * @return A message to print or null.
+	 */
+	private String processListRow(String[] row){
+		String pitchFile = row[0];
+		String phFile = row[1];
+		String pchFile = row[2];
+		String message = null;
+		
+		double[] pitches = FileUtils.readNumericColumn(pitchFile, CsvReader.COMMA_OR_SEMICOLON, 1);
+		if(pitches.length > 0){
+			if(!new File(pchFile).exists()){
+				String pchData = actuallyDoSomething(pitches,HistogramType.PITCH_CLASS_HISTOGRAM);
+				FileUtils.writeFile(pchData, pchFile);
+			}
+			
+			if(!new File(phFile).exists()){
+				String phData = actuallyDoSomething(pitches,HistogramType.PITCH_HISTOGRAM);
+				FileUtils.writeFile(phData, phFile);
+			}
+			
+			String pcshFile = pchFile.replace("pch.", "pcsh.");
+			if(!new File(pcshFile).exists()){
+				String smallPchData = smallPCH(pitches);
+				FileUtils.writeFile(smallPchData,pcshFile);
+			} else {
+				message = "Already exists: " + pcshFile;
 			}
 		}
+		return message;
 	}
 	
-	private String actuallyDoSomething(List<String[]> data, HistogramType histogramType) {
+	private String actuallyDoSomething(double[] pitches, HistogramType histogramType) {
 		StringBuilder sb = new StringBuilder();
-		int start = 0;
-		try{
-			Double.valueOf(data.get(0)[0]);
-			start = 0;
-		}catch(NumberFormatException e){
-			start = 1;	
-		}
 		int size = histogramType == HistogramType.PITCH_CLASS_HISTOGRAM ? 1200 : 9600;  
 		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(5),size);
 		
-		for(int i = start ; i < data.size();i++){
+		for(int i = 0 ; i < pitches.length;i++){
 			double pitch = 0;
 			if(histogramType == HistogramType.PITCH_CLASS_HISTOGRAM){
-				pitch = PitchUnit.hertzToRelativeCent(Double.valueOf(data.get(i)[1]));
+				pitch = PitchUnit.hertzToRelativeCent(pitches[i]);
 			} else {
-				pitch = PitchUnit.hertzToAbsoluteCent(Double.valueOf(data.get(i)[1]));
+				pitch = PitchUnit.hertzToAbsoluteCent(pitches[i]);
 			}
 			kde.add(pitch);
 		}
@@ -166,22 +182,15 @@ public class PitchToHistogram extends AbstractTarsosApp {
 		return sb.toString();
 	}
 	
-	private String smallPCH(List<String[]> data) {
+	private String smallPCH(double[] pitches) {
 		StringBuilder sb = new StringBuilder();
-		int start = 0;
-		try{
-			Double.valueOf(data.get(0)[0]);
-			start = 0;
-		}catch(NumberFormatException e){
-			start = 1;	
-		}
 		int size = 256;  
 		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(5),size);
 		
 		double scaleFactor = 256.0/1200.0;
-		for(int i = start ; i < data.size();i++){
+		for(int i = 0 ; i < pitches.length;i++){
 			double pitch = 0;
-			pitch = PitchUnit.hertzToRelativeCent(Double.valueOf(data.get(i)[1]));
+			pitch = PitchUnit.hertzToRelativeCent(pitches[i]);
 			kde.add(pitch * scaleFactor);
 		}
 		
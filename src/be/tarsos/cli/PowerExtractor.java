@@ -33,6 +33,7 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.tarsos.util.AudioFile;
+import be.tarsos.util.FileFingerprints;
 import be.tarsos.util.SignalPowerExtractor;
 
 /**
@@ -65,6 +66,12 @@ public final class PowerExtractor extends AbstractTarsosApp {
 			printHelp(parser);
 		} else {
 			final List<AudioFile> audioFiles = new ArrayList<AudioFile>();
+			final List<String> paths = new ArrayList<String>();
+			for (final File inputFile : options.valuesOf(inputSpec)) {
+				paths.add(inputFile.getAbsolutePath());
+			}
+			// hash the files that are not known yet concurrently
+			FileFingerprints.getInstance().fingerprints(paths);
 			for (final File inputFile : options.valuesOf(inputSpec)) {
 				
 					audioFiles.add(new AudioFile(inputFile.getAbsolutePath()));
@@ -27,18 +27,19 @@ package be.tarsos.cli;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import be.tarsos.Tarsos;
-import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
+import be.tarsos.sampled.pitch.CachingDetector;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
-import be.tarsos.sampled.pitch.PitchDetector;
 import be.tarsos.util.AudioFile;
+import be.tarsos.util.BatchProcessor;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
 import be.tarsos.util.FileUtils;
@@ -46,18 +47,22 @@ import be.tarsos.util.ScalaFile;
 import be.tarsos.util.histogram.HistogramFactory;
 import be.tarsos.util.histogram.PitchClassHistogram;
 import be.tarsos.util.histogram.PitchHistogram;
+import be.tarsos.util.histogram.ToneScaleIndex;
 import be.tarsos.util.histogram.peaks.Peak;
 import be.tarsos.util.histogram.peaks.PeakDetector;
 
 /**
  * Ranks a list of audio files on tone scale similarity with an input file
  * (scala or audio). The audio file with the most similar tone scale (using
- * histogram correlation) is listed first.
+ * histogram correlation) is listed first. Tone scales are kept in a
+ * {@link ToneScaleIndex} so files are only analysed once.
  * 
  * @author Joren Six
  */
 public final class Rank extends AbstractTarsosApp {
 
+	private static final Logger LOG = Logger.getLogger(Rank.class.getName());
+
 	@Override
 	public String description() {
 		return "Ranks a list of audio files on tone scale similarity "
@@ -77,14 +82,21 @@ public final class Rank extends AbstractTarsosApp {
 				.accepts(
 						"haystack",
 						"A list of audio or scala files to match needle with. If one of the files is a"
-								+ " directory it is traversed recursively.").withRequiredArg()
+								+ " directory it is traversed recursively. The tone scales are kept in an index,"
+								+ " without a haystack all indexed files are ranked.").withRequiredArg()
 				.ofType(File.class).withValuesSeparatedBy(' ');
 
+		final OptionSpec<Integer> topSpec = parser
+				.accepts("top", "The maximum number of ranked files.")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(100);
+
 		final OptionSpec<PitchDetectionMode> detectionModeSpec = createDetectionModeSpec(parser);
+		
+		final OptionSpec<Integer> threadsSpec = createThreadsSpec(parser);
 
 		final OptionSet options = parse(args, parser, this);
 
-		if (isHelpOptionSet(options) || !options.has(needleSpec) || !options.has(haystackSpec)) {
+		if (isHelpOptionSet(options) || !options.has(needleSpec)) {
 			printHelp(parser);
 		} else {
 			final File needleFile = options.valueOf(needleSpec);
@@ -118,34 +130,52 @@ public final class Rank extends AbstractTarsosApp {
 			}
 			final PitchDetectionMode detectionMode = options.valueOf(detectionModeSpec);
 
-			final PitchClassHistogram needleHisto = createHisto(needleFile, detectionMode);
-
-			final TreeMap<Double, String> tree = new TreeMap<Double, String>();
+			final PitchClassHistogram needleHisto = PitchClassHistogram.createToneScale(tonePeaks(needleFile, detectionMode));
 
+			// Only files that are new or changed since they were indexed are analysed.
+			final ToneScaleIndex index = new ToneScaleIndex(indexSource(detectionMode));
+			final List<File> toIndex = new ArrayList<File>();
 			for (final File hay : hayStack) {
-				System.out.println("Handling " + hay);
-				final PitchClassHistogram hayHisto = createHisto(hay, detectionMode);
-				//final int displacement = needleHisto.displacementForOptimalCorrelation(hayHisto);
-				final Double correlation = needleHisto.correlationWithDisplacement(0, hayHisto);
-				//final String plotFileName = hay.getName() + "_" + needleFile.getName() + ".png";
-				//final String title = correlation.toString();
-				//needleHisto.plotCorrelation(hayHisto, CorrelationMeasure.INTERSECTION, plotFileName, title);
-				tree.put(correlation, hay.getName());
+				if (!index.isIndexed(hay)) {
+					toIndex.add(hay);
+				}
 			}
 
-			int max = 100;
-			int count =0;
-			ArrayList<Double> keys = new ArrayList<Double>(tree.keySet());
-			Collections.reverse(keys);
-			for (final Double correlation : keys) {
-				if(count < max){
-					Tarsos.println(count +";" + correlation + ";" + tree.get(correlation));
+			final BatchProcessor<File, double[]> processor = new BatchProcessor<File, double[]>(options.valueOf(threadsSpec));
+			processor.process(toIndex, new BatchProcessor.Task<File, double[]>() {
+				public double[] process(File hay) {
+					return tonePeaks(hay, detectionMode);
+				}
+			}, new BatchProcessor.ResultHandler<File, double[]>() {
+				public void handleResult(File hay, double[] peaks) {
+					LOG.info("Indexing " + hay);
+					index.add(hay, peaks);
+				}
+				public void handleFailure(File hay, Exception exception) {
+					LOG.log(Level.SEVERE, "Could not create a tone scale for " + hay, exception);
 				}
+			});
+
+			// Without a haystack all indexed files are ranked.
+			final List<ToneScaleIndex.Result> results = index.query(needleHisto, hayStack.isEmpty() ? null : hayStack,
+					options.valueOf(topSpec));
+			int count = 0;
+			for (final ToneScaleIndex.Result result : results) {
+				Tarsos.println(count + ";" + result.getScore() + ";" + new File(result.getPath()).getName());
 				count++;
 			}
 		}
 	}
 
+	/**
+	 * Describes how the tone scales of audio files are made.
+	 */
+	private String indexSource(final PitchDetectionMode detectionMode) {
+		return String.format("%s_%d_%d", detectionMode.getParametername(),
+				Configuration.getInt(ConfKey.pitch_detector_buffer_size),
+				Configuration.getInt(ConfKey.pitch_detector_buffer_overlap));
+	}
+
 	private void iterateDirectory(final File file, final List<File> files) {
 		if (file.isDirectory()) {
 			for (final String child : file.list()) {
@@ -163,35 +193,31 @@ public final class Rank extends AbstractTarsosApp {
 		}
 	}
 
-	private PitchClassHistogram createHisto(final File file, final PitchDetectionMode detectionMode) {
-		PitchClassHistogram histo = null;
+	/**
+	 * Determines the peaks of the tone scale of a scala or audio file, in cents.
+	 */
+	private double[] tonePeaks(final File file, final PitchDetectionMode detectionMode) {
+		final double[] peaks;
 		final String path = file.getAbsolutePath();
 		final String extension = FileUtils.extension(path);
 		if (extension.equalsIgnoreCase("scl")) {
-			histo = HistogramFactory.createPitchClassHistogram(new ScalaFile(path));
+			peaks = new ScalaFile(path).getPitches().clone();
 		} else if (path.matches(Configuration.get(ConfKey.audio_file_name_pattern))) {
-			AudioFile audioFile;
-			
-				audioFile = new AudioFile(path);
-				final PitchDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
-				pitchDetector.executePitchDetection();
-				final List<Annotation> samples = pitchDetector.getAnnotations();
-				final PitchHistogram pitchHistogram = HistogramFactory.createPitchHistogram(samples);
-				final List<Peak> peakList = PeakDetector.detect(pitchHistogram.pitchClassHistogram()
-						.gaussianSmooth(0.8), 15,15);
-				final double[] peaks = new double[peakList.size()];
-				for (int i = 0; i < peaks.length; i++) {
-					peaks[i] = peakList.get(i).getPosition();
-				}
-				histo = PitchClassHistogram.createToneScale(peaks);
-				return histo;
-			
-
+			final AudioFile audioFile = new AudioFile(path);
+			final CachingDetector pitchDetector = detectionMode.getPitchDetector(audioFile);
+			final AnnotationBuffer samples = pitchDetector.executeBufferedPitchDetection();
+			final PitchHistogram pitchHistogram = HistogramFactory.createPitchHistogram(samples);
+			final List<Peak> peakList = PeakDetector.detect(pitchHistogram.pitchClassHistogram()
+					.gaussianSmooth(0.8), 15,15);
+			peaks = new double[peakList.size()];
+			for (int i = 0; i < peaks.length; i++) {
+				peaks[i] = peakList.get(i).getPosition();
+			}
 		} else {
 			throw new IllegalArgumentException("Tone scale creation failed: " + path
 					+ " should be a scala or audio file!");
 		}
-		return histo;
+		return peaks;
 	}
 
 }
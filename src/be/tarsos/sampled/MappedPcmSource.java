@@ -0,0 +1,427 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.sampled;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
+import be.tarsos.dsp.io.jvm.JVMAudioInputStream;
+
+/**
+ * Random access to the samples of a PCM WAV file, e.g. a transcoded audio
+ * file. The data chunk of the file is memory mapped so seeking is a constant
+ * time operation and reading a range of samples only touches the pages of that
+ * range: playback or analysis deep into a long recording starts without
+ * decoding everything before it.
+ * 
+ * <p>
+ * A source is immutable after it is opened and can be shared between threads.
+ * The streams it creates have their own position, so each stream should be
+ * used by one thread.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class MappedPcmSource {
+
+	/**
+	 * The maximum number of bytes in one mapped region. A single mapping can
+	 * not exceed 2GB, longer data chunks are mapped in several regions.
+	 */
+	private static final int MAX_REGION_SIZE = 1 << 30;
+
+	private static final int WAVE_FORMAT_PCM = 0x0001;
+	private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+	private final File file;
+	private final AudioFormat format;
+	private final TarsosDSPAudioFormat tarsosDSPFormat;
+	private final TarsosDSPAudioFloatConverter converter;
+	private final int frameSize;
+	private final int channels;
+	private final long frameLength;
+
+	/**
+	 * The number of bytes in each region, a multiple of the frame size so a
+	 * frame never spans two regions.
+	 */
+	private final int regionSize;
+	private final MappedByteBuffer[] regions;
+
+	/**
+	 * True if the samples are 16 bit signed little endian values, the format
+	 * used for transcoded audio. These are read directly from the mapped
+	 * regions.
+	 */
+	private final boolean signed16BitLittleEndian;
+
+	private MappedPcmSource(final File file, final AudioFormat format, final long dataOffset,
+			final long dataLength, final FileChannel channel) throws IOException {
+		this.file = file;
+		this.format = format;
+		tarsosDSPFormat = JVMAudioInputStream.toTarsosDSPFormat(format);
+		converter = TarsosDSPAudioFloatConverter.getConverter(tarsosDSPFormat);
+		frameSize = format.getFrameSize();
+		channels = format.getChannels();
+		frameLength = dataLength / frameSize;
+		signed16BitLittleEndian = format.getSampleSizeInBits() == 16 && !format.isBigEndian()
+				&& format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED;
+
+		regionSize = MAX_REGION_SIZE / frameSize * frameSize;
+		final long bytes = frameLength * frameSize;
+		final int numberOfRegions = (int) ((bytes + regionSize - 1) / regionSize);
+		regions = new MappedByteBuffer[numberOfRegions];
+		for (int i = 0; i < numberOfRegions; i++) {
+			final long start = (long) i * regionSize;
+			final long size = Math.min(regionSize, bytes - start);
+			regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start, size);
+			regions[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * Opens and maps a PCM WAV file.
+	 * 
+	 * @param file
+	 *            The WAV file.
+	 * @return A source for the samples in the data chunk of the file.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 * @throws UnsupportedAudioFileException
+	 *             If the file is not a PCM WAV file.
+	 */
+	public static MappedPcmSource open(final File file) throws IOException, UnsupportedAudioFileException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final long fileLength = channel.size();
+			final ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			if (header.getInt(0) != fourCC("RIFF") || header.getInt(8) != fourCC("WAVE")) {
+				throw new UnsupportedAudioFileException("Not a RIFF WAVE file: " + file.getPath());
+			}
+
+			AudioFormat format = null;
+			long position = 12;
+			final ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			while (position + 8 <= fileLength) {
+				chunkHeader.clear();
+				readFully(channel, chunkHeader, position);
+				final int chunkId = chunkHeader.getInt(0);
+				final long chunkSize = chunkHeader.getInt(4) & 0xFFFFFFFFL;
+				final long chunkStart = position + 8;
+				if (chunkId == fourCC("fmt ")) {
+					final ByteBuffer fmt = ByteBuffer.allocate((int) Math.min(chunkSize, 40)).order(ByteOrder.LITTLE_ENDIAN);
+					readFully(channel, fmt, chunkStart);
+					format = parseFormat(fmt, file);
+				} else if (chunkId == fourCC("data")) {
+					if (format == null) {
+						throw new UnsupportedAudioFileException("Data chunk before format chunk in: " + file.getPath());
+					}
+					// Streamed WAV files, e.g. written to a pipe, often have a
+					// zero or maximal data size: use the rest of the file.
+					long dataLength = chunkSize;
+					if (dataLength == 0 || chunkStart + dataLength > fileLength) {
+						dataLength = fileLength - chunkStart;
+					}
+					return new MappedPcmSource(file, format, chunkStart, dataLength, channel);
+				}
+				// chunks are word aligned
+				position = chunkStart + chunkSize + (chunkSize & 1);
+			}
+			throw new UnsupportedAudioFileException("No data chunk found in: " + file.getPath());
+		} finally {
+			// The mapped regions stay valid after the channel is closed.
+			randomAccessFile.close();
+		}
+	}
+
+	private static AudioFormat parseFormat(final ByteBuffer fmt, final File file)
+			throws UnsupportedAudioFileException {
+		if (fmt.capacity() < 16) {
+			throw new UnsupportedAudioFileException("Format chunk too short in: " + file.getPath());
+		}
+		int formatTag = fmt.getShort(0) & 0xFFFF;
+		if (formatTag == WAVE_FORMAT_EXTENSIBLE && fmt.capacity() >= 26) {
+			// the first two bytes of the sub format GUID hold the format tag
+			formatTag = fmt.getShort(24) & 0xFFFF;
+		}
+		final int channels = fmt.getShort(2) & 0xFFFF;
+		final int sampleRate = fmt.getInt(4);
+		final int blockAlign = fmt.getShort(12) & 0xFFFF;
+		final int bitsPerSample = fmt.getShort(14) & 0xFFFF;
+		if (formatTag != WAVE_FORMAT_PCM || channels == 0 || blockAlign == 0 || bitsPerSample == 0) {
+			throw new UnsupportedAudioFileException("Only PCM WAV files are supported: " + file.getPath());
+		}
+		// 8 bit WAV samples are unsigned, others are signed.
+		final AudioFormat.Encoding encoding = bitsPerSample == 8 ? AudioFormat.Encoding.PCM_UNSIGNED
+				: AudioFormat.Encoding.PCM_SIGNED;
+		return new AudioFormat(encoding, sampleRate, bitsPerSample, channels, blockAlign, sampleRate, false);
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+			throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, current);
+			if (read < 0) {
+				throw new IOException("Unexpected end of file while reading a WAV header.");
+			}
+			current += read;
+		}
+	}
+
+	private static int fourCC(final String id) {
+		return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+	}
+
+	/**
+	 * @return The mapped file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The format of the samples.
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return The format of the samples, as used by TarsosDSP.
+	 */
+	public TarsosDSPAudioFormat getTarsosDSPFormat() {
+		return tarsosDSPFormat;
+	}
+
+	/**
+	 * @return The number of frames in the data chunk.
+	 */
+	public long getFrameLength() {
+		return frameLength;
+	}
+
+	/**
+	 * @return The duration of the audio in seconds.
+	 */
+	public double getDurationInSeconds() {
+		return frameLength / format.getFrameRate();
+	}
+
+	/**
+	 * Returns the frame at a certain time, limited to the frames in the file.
+	 * 
+	 * @param seconds
+	 *            The time in seconds.
+	 * @return The index of the frame at the given time, between zero and the
+	 *         frame length.
+	 */
+	public long frameAt(final double seconds) {
+		final long frame = Math.round(seconds * format.getFrameRate());
+		return Math.max(0, Math.min(frameLength, frame));
+	}
+
+	/**
+	 * Returns the first sample of a frame, e.g. to draw a wave form.
+	 * 
+	 * @param frame
+	 *            The index of the frame.
+	 * @return The value of the sample, between -1 and 1.
+	 */
+	public float sample(final long frame) {
+		if (frame < 0 || frame >= frameLength) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " not between 0 and " + frameLength);
+		}
+		final long byteOffset = frame * frameSize;
+		final MappedByteBuffer region = regions[(int) (byteOffset / regionSize)];
+		final int index = (int) (byteOffset % regionSize);
+		if (signed16BitLittleEndian) {
+			return region.getShort(index) * (1.0f / 32767.0f);
+		}
+		final byte[] bytes = new byte[frameSize];
+		for (int i = 0; i < frameSize; i++) {
+			bytes[i] = region.get(index + i);
+		}
+		final float[] floats = new float[channels];
+		converter.toFloatArray(bytes, floats);
+		return floats[0];
+	}
+
+	/**
+	 * Reads a range of frames as interleaved float samples, without decoding
+	 * anything before the range.
+	 * 
+	 * @param startFrame
+	 *            The index of the first frame to read.
+	 * @param target
+	 *            The array to store the samples in.
+	 * @param offset
+	 *            The index in the target of the first sample.
+	 * @param frames
+	 *            The number of frames to read. The target should have room
+	 *            for <code>frames * channels</code> samples.
+	 * @return The number of frames read, less than requested at the end of the
+	 *         data.
+	 */
+	public int read(final long startFrame, final float[] target, final int offset, final int frames) {
+		if (startFrame < 0) {
+			throw new IndexOutOfBoundsException("Negative start frame: " + startFrame);
+		}
+		final int framesToRead = (int) Math.max(0, Math.min(frames, frameLength - startFrame));
+		final int samples = framesToRead * channels;
+		if (signed16BitLittleEndian) {
+			long byteOffset = startFrame * frameSize;
+			for (int i = 0; i < samples; i++) {
+				final MappedByteBuffer region = regions[(int) (byteOffset / regionSize)];
+				target[offset + i] = region.getShort((int) (byteOffset % regionSize)) * (1.0f / 32767.0f);
+				byteOffset += 2;
+			}
+		} else if (framesToRead > 0) {
+			final byte[] bytes = new byte[framesToRead * frameSize];
+			readBytes(startFrame * frameSize, bytes, 0, bytes.length);
+			converter.toFloatArray(bytes, 0, target, offset, samples);
+		}
+		return framesToRead;
+	}
+
+	/**
+	 * Copies raw bytes from the data chunk.
+	 * 
+	 * @param byteOffset
+	 *            The offset in the data chunk.
+	 * @param target
+	 *            The array to copy to.
+	 * @param offset
+	 *            The index in the target of the first byte.
+	 * @param length
+	 *            The number of bytes to copy.
+	 * @return The number of bytes copied, less than the length at the end of
+	 *         the data.
+	 */
+	private int readBytes(final long byteOffset, final byte[] target, final int offset, final int length) {
+		final long available = frameLength * frameSize - byteOffset;
+		final int bytesToRead = (int) Math.max(0, Math.min(length, available));
+		int copied = 0;
+		while (copied < bytesToRead) {
+			final long position = byteOffset + copied;
+			final ByteBuffer region = regions[(int) (position / regionSize)].duplicate();
+			region.position((int) (position % regionSize));
+			final int count = Math.min(region.remaining(), bytesToRead - copied);
+			region.get(target, offset + copied, count);
+			copied += count;
+		}
+		return copied;
+	}
+
+	/**
+	 * Creates a stream that starts at a frame. Skipping in the stream is a
+	 * constant time operation.
+	 * 
+	 * @param startFrame
+	 *            The first frame returned by the stream.
+	 * @return A new stream of the mapped data.
+	 */
+	public TarsosDSPAudioInputStream createInputStream(final long startFrame) {
+		return new MappedInputStream(Math.max(0, Math.min(frameLength, startFrame)) * frameSize);
+	}
+
+	/**
+	 * Creates a dispatcher that starts processing at a certain time. The time
+	 * stamps of the events are relative to the start of the file.
+	 * 
+	 * @param startTime
+	 *            The time in seconds to start at.
+	 * @param bufferSize
+	 *            The buffer size in samples.
+	 * @param overlap
+	 *            The overlap in samples.
+	 * @return A new dispatcher.
+	 */
+	public AudioDispatcher createDispatcher(final double startTime, final int bufferSize, final int overlap) {
+		final AudioDispatcher dispatcher = new AudioDispatcher(createInputStream(0), bufferSize, overlap);
+		final long startFrame = frameAt(startTime);
+		if (startFrame > 0) {
+			// the stream skips without reading, the dispatcher keeps track of
+			// the skipped bytes so time stamps are correct.
+			dispatcher.skip(startFrame / format.getFrameRate());
+		}
+		return dispatcher;
+	}
+
+	/**
+	 * A stream with its own position in the mapped data.
+	 */
+	private final class MappedInputStream implements TarsosDSPAudioInputStream {
+		private long position;
+
+		private MappedInputStream(final long startByte) {
+			position = startByte;
+		}
+
+		public long skip(final long bytesToSkip) {
+			final long skipped = Math.max(0, Math.min(bytesToSkip, frameLength * frameSize - position));
+			position += skipped;
+			return skipped;
+		}
+
+		public int read(final byte[] b, final int off, final int len) {
+			final int read = readBytes(position, b, off, len);
+			if (read == 0 && len > 0) {
+				return -1;
+			}
+			position += read;
+			return read;
+		}
+
+		public void close() {
+			// the mapped regions are shared with other streams
+		}
+
+		public TarsosDSPAudioFormat getFormat() {
+			return tarsosDSPFormat;
+		}
+
+		public long getFrameLength() {
+			return frameLength;
+		}
+	}
+}
@@ -41,6 +41,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.sound.sampled.AudioFileFormat;
@@ -80,6 +81,10 @@ public class Player implements AudioProcessor {
 
 	private PlayerState state;
 	private File loadedFile;
+	/**
+	 * Random access to the loaded file, or null if it is not a PCM WAV file.
+	 */
+	private MappedPcmSource loadedSource;
 	private GainProcessor gainProcessor;
 	private AudioPlayer audioPlayer;
 	private WaveformSimilarityBasedOverlapAdd wsola;
@@ -156,6 +161,15 @@ public class Player implements AudioProcessor {
 		}
 		AudioFormat format = fileFormat.getFormat();
 		durationInSeconds = fileFormat.getFrameLength() / format.getFrameRate();
+		try {
+			loadedSource = MappedPcmSource.open(loadedFile);
+		} catch (UnsupportedAudioFileException e) {
+			loadedSource = null;
+			LOG.log(Level.FINE, "Playback of " + loadedFile.getName() + " starts by skipping through the stream.", e);
+		} catch (IOException e) {
+			loadedSource = null;
+			LOG.log(Level.WARNING, "Could not map " + loadedFile.getName() + ", playback starts by skipping through the stream.", e);
+		}
 		startAt = 0;
 		currentTime = 0;
 		setState(PlayerState.STOPPED);
@@ -166,6 +180,7 @@ public class Player implements AudioProcessor {
 	 */
 	public void eject() {
 		loadedFile = null;
+		loadedSource = null;
 		stop();
 		setState(PlayerState.NO_FILE_LOADED);
 	}
@@ -199,13 +214,18 @@ public class Player implements AudioProcessor {
 			wsola = new WaveformSimilarityBasedOverlapAdd(
 					Parameters.slowdownDefaults(tempo, format.getSampleRate()));
 
-			dispatcher = AudioDispatcherFactory.fromFile(loadedFile,
-					wsola.getInputBufferSize(), wsola.getOverlap());
+			if (loadedSource != null) {
+				// starts at the requested time without reading the audio
+				// before it
+				dispatcher = loadedSource.createDispatcher(startTime,
+						wsola.getInputBufferSize(), wsola.getOverlap());
+			} else {
+				dispatcher = AudioDispatcherFactory.fromFile(loadedFile,
+						wsola.getInputBufferSize(), wsola.getOverlap());
+				dispatcher.skip(startTime);
+			}
 
 			wsola.setDispatcher(dispatcher);
-			dispatcher.skip(startTime);
-
-			
 
 			dispatcher.addAudioProcessor(this);
 
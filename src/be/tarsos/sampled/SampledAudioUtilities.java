@@ -35,6 +35,7 @@ import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.Mixer;
 import javax.sound.sampled.Mixer.Info;
 import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
 
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
@@ -105,6 +106,50 @@ public final class SampledAudioUtilities {
 		return line;
 	}
 
+	/**
+	 * Tries to open a recording line on the configured input mixer. If the
+	 * line can not be opened it falls back on the default line. If this does
+	 * not work a LineUnavailableException is thrown. The line is not started.
+	 * 
+	 * @param format
+	 *            the format to open the line for.
+	 * @param bufferSize
+	 *            the size of the internal buffer of the line in bytes, a
+	 *            small buffer means a low latency.
+	 * @return An open line.
+	 * @throws LineUnavailableException
+	 *             if the configured mixer and the default mixer are not
+	 *             available.
+	 */
+	public static TargetDataLine getOpenTargetLineFromConfiguredMixer(final AudioFormat format, final int bufferSize)
+			throws LineUnavailableException {
+		final DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+		final Vector<Info> mixers = SampledAudioUtilities.getMixerInfo(false, true);
+		final int inputDeviceIndex = Configuration.getInt(ConfKey.mixer_input_device);
+		if (inputDeviceIndex >= 0 && inputDeviceIndex < mixers.size()) {
+			final Mixer.Info mixer = mixers.get(inputDeviceIndex);
+			try {
+				final TargetDataLine line = (TargetDataLine) AudioSystem.getMixer(mixer).getLine(info);
+				line.open(format, bufferSize);
+				return line;
+			} catch (LineUnavailableException e) {
+				LOG.warning("Could not open line on mixer '" + mixer.getName()
+						+ "' let's try again on the default mixer: " + e.getMessage());
+			} catch (IllegalArgumentException e) {
+				LOG.warning("Mixer '" + mixer.getName() + "' does not support " + format
+						+ ", let's try again on the default mixer.");
+			}
+		} else {
+			LOG.warning("Ignored configured mixer input device index (" + inputDeviceIndex + "), using the default mixer.");
+		}
+		if (!AudioSystem.isLineSupported(info)) {
+			throw new LineUnavailableException("No line supports " + format);
+		}
+		final TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info);
+		line.open(format, bufferSize);
+		return line;
+	}
+
 	/**
 	 * Checks the mixer output device index. If it is out of bounds it is reset to a default value.
 	 */
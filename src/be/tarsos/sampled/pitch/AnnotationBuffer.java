@@ -0,0 +1,286 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A column oriented list of annotations. The start times, pitches (in Hz),
+ * probabilities and sources are stored in parallel primitive arrays. Pitch in
+ * other units is only calculated when a column for that unit is requested
+ * and then kept until new annotations are added.
+ * <p>
+ * Compared with a list of {@link Annotation} objects, which each convert their
+ * pitch to every unit on construction, this saves two objects and the unit
+ * conversions per annotation. Annotation objects are created on request with
+ * {@link #get(int)} or {@link #toList()}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationBuffer {
+
+	private static final PitchDetectionMode[] SOURCES = PitchDetectionMode.values();
+
+	private double[] starts;
+	private double[] pitches;
+	private double[] probabilities;
+	private byte[] sources;
+	private int size;
+
+	/**
+	 * Lazily calculated pitch columns, indexed by the ordinal of the unit.
+	 * Each column is valid for the first <code>unitColumnSizes[ordinal]</code>
+	 * annotations.
+	 */
+	private final double[][] unitColumns;
+	private final int[] unitColumnSizes;
+
+	/**
+	 * Create an empty buffer.
+	 */
+	public AnnotationBuffer() {
+		this(64);
+	}
+
+	/**
+	 * Create an empty buffer.
+	 * 
+	 * @param initialCapacity
+	 *            The number of annotations that can be added before the
+	 *            columns grow.
+	 */
+	public AnnotationBuffer(final int initialCapacity) {
+		final int capacity = Math.max(1, initialCapacity);
+		starts = new double[capacity];
+		pitches = new double[capacity];
+		probabilities = new double[capacity];
+		sources = new byte[capacity];
+		unitColumns = new double[PitchUnit.values().length][];
+		unitColumnSizes = new int[PitchUnit.values().length];
+	}
+
+	/**
+	 * Creates a buffer with the data of a list of annotations.
+	 * 
+	 * @param annotations
+	 *            The annotations to copy.
+	 * @return A new buffer.
+	 */
+	public static AnnotationBuffer fromList(final List<Annotation> annotations) {
+		final AnnotationBuffer buffer = new AnnotationBuffer(annotations.size());
+		for (final Annotation annotation : annotations) {
+			buffer.add(annotation);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Adds an annotation. The same checks as in
+	 * {@link Annotation#Annotation(double, double, PitchDetectionMode, double)}
+	 * are done.
+	 * 
+	 * @param timeStamp
+	 *            The starting time (in seconds).
+	 * @param pitchInHz
+	 *            The pitch in Hz.
+	 * @param source
+	 *            The source of the annotation.
+	 * @param salience
+	 *            A probability between zero and one (inclusive).
+	 */
+	public void add(final double timeStamp, final double pitchInHz, final PitchDetectionMode source,
+			final double salience) {
+		if (salience > 1.0 || 0.0 > salience) {
+			throw new IllegalArgumentException(
+					"The salience should be a value between zero and one (inclusive): " + salience);
+		}
+		if (pitchInHz <= 0) {
+			throw new IllegalArgumentException("The pitch in Hz should be a value above zero, it is: "
+					+ pitchInHz);
+		}
+		if (timeStamp < 0) {
+			throw new IllegalArgumentException(
+					"The timestamp in seconds should be equal or above zero, it is: " + timeStamp);
+		}
+		if (size == starts.length) {
+			grow();
+		}
+		starts[size] = timeStamp;
+		pitches[size] = pitchInHz;
+		probabilities[size] = salience;
+		sources[size] = (byte) source.ordinal();
+		size++;
+	}
+
+	/**
+	 * Adds the data of an annotation.
+	 * 
+	 * @param annotation
+	 *            The annotation to add.
+	 */
+	public void add(final Annotation annotation) {
+		add(annotation.getStart(), annotation.getPitch(PitchUnit.HERTZ), annotation.getSource(),
+				annotation.getProbability());
+	}
+
+	private void grow() {
+		final int capacity = starts.length + (starts.length >> 1) + 1;
+		starts = Arrays.copyOf(starts, capacity);
+		pitches = Arrays.copyOf(pitches, capacity);
+		probabilities = Arrays.copyOf(probabilities, capacity);
+		sources = Arrays.copyOf(sources, capacity);
+	}
+
+	/**
+	 * @return The number of annotations in the buffer.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The starting time in seconds.
+	 */
+	public double getStart(final int index) {
+		checkIndex(index);
+		return starts[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The probability or salience (between 0 and 1).
+	 */
+	public double getProbability(final int index) {
+		checkIndex(index);
+		return probabilities[index];
+	}
+
+	/**
+	 * @param index
+	 *            The index of the annotation.
+	 * @return The source of the annotation.
+	 */
+	public PitchDetectionMode getSource(final int index) {
+		checkIndex(index);
+		return SOURCES[sources[index]];
+	}
+
+	/**
+	 * Returns the pitch in the requested unit. The values are the same as
+	 * {@link Annotation#getPitch(PitchUnit)} returns.
+	 * 
+	 * @param index
+	 *            The index of the annotation.
+	 * @param unit
+	 *            The unit requested.
+	 * @return The pitch in the requested unit.
+	 */
+	public double getPitch(final int index, final PitchUnit unit) {
+		checkIndex(index);
+		return getPitches(unit)[index];
+	}
+
+	/**
+	 * Returns the column with the pitch in the requested unit. The column is
+	 * calculated the first time it is requested. The returned array is shared
+	 * and can be longer than the number of annotations: only the first
+	 * {@link #size()} values are valid. It should not be modified.
+	 * 
+	 * @param unit
+	 *            The unit requested.
+	 * @return The pitch of each annotation in the requested unit.
+	 */
+	public double[] getPitches(final PitchUnit unit) {
+		if (unit == PitchUnit.HERTZ) {
+			return pitches;
+		}
+		final int ordinal = unit.ordinal();
+		double[] column = unitColumns[ordinal];
+		if (column == null || column.length < size) {
+			column = column == null ? new double[pitches.length] : Arrays.copyOf(column, pitches.length);
+			unitColumns[ordinal] = column;
+		}
+		for (int i = unitColumnSizes[ordinal]; i < size; i++) {
+			column[i] = unit.convert(pitches[i], PitchUnit.HERTZ);
+		}
+		unitColumnSizes[ordinal] = size;
+		return column;
+	}
+
+	/**
+	 * @return The start times of the annotations. Only the first
+	 *         {@link #size()} values are valid. The array should not be
+	 *         modified.
+	 */
+	public double[] getStarts() {
+		return starts;
+	}
+
+	/**
+	 * @return The probabilities of the annotations. Only the first
+	 *         {@link #size()} values are valid. The array should not be
+	 *         modified.
+	 */
+	public double[] getProbabilities() {
+		return probabilities;
+	}
+
+	/**
+	 * Creates an annotation object for the data at an index.
+	 * 
+	 * @param index
+	 *            The index of the annotation.
+	 * @return A new annotation.
+	 */
+	public Annotation get(final int index) {
+		checkIndex(index);
+		return new Annotation(starts[index], pitches[index], SOURCES[sources[index]], probabilities[index]);
+	}
+
+	/**
+	 * @return A new list with an annotation object for each annotation in the
+	 *         buffer.
+	 */
+	public List<Annotation> toList() {
+		final List<Annotation> annotations = new ArrayList<Annotation>(size);
+		for (int i = 0; i < size; i++) {
+			annotations.add(get(i));
+		}
+		return annotations;
+	}
+
+	private void checkIndex(final int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+	}
+}
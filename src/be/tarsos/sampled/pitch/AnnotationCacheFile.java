@@ -0,0 +1,399 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A versioned, binary file format to cache pitch annotations. The annotations
+ * are stored in columns so the file can be memory mapped and read without
+ * parsing text:
+ * 
+ * <pre>
+ * header   magic "TARSOSAC", version, detector name, buffer size (ms),
+ *          overlap (%), number of annotations, CRC32 of the data, 
+ *          a table with source names. Padded to a multiple of 8 bytes.
+ * data     double[n] start (s) | double[n] pitch (Hz) | 
+ *          float[n] probability | byte[n] source (index in the table)
+ * </pre>
+ * 
+ * The detector name, buffer size and overlap in the header are checked when
+ * the file is read: a cache with other parameters or a checksum that does not
+ * match is ignored.
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationCacheFile {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(AnnotationCacheFile.class.getName());
+
+	/**
+	 * The first bytes of each cache file.
+	 */
+	private static final byte[] MAGIC = "TARSOSAC".getBytes(Charset.forName("US-ASCII"));
+
+	/**
+	 * The version of the format, incremented on each incompatible change.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The extension used for binary annotation caches.
+	 */
+	public static final String EXTENSION = "bin";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// Disable the default constructor.
+	private AnnotationCacheFile() {
+	}
+
+	/**
+	 * Writes a list of annotations to a binary cache file. The file is first
+	 * written to a temporary file and then renamed, a half written cache is
+	 * never read.
+	 * 
+	 * @param fileName
+	 *            The name of the cache file.
+	 * @param detectorName
+	 *            The name of the detector that created the annotations.
+	 * @param bufferSize
+	 *            The buffer size (in ms) used by the detector.
+	 * @param overlap
+	 *            The buffer overlap (in %) used by the detector.
+	 * @param annotations
+	 *            The annotations to store.
+	 * @return True if the cache file is written successfully, false otherwise.
+	 */
+	public static boolean write(final String fileName, final String detectorName, final int bufferSize,
+			final int overlap, final List<Annotation> annotations) {
+		return write(fileName, detectorName, bufferSize, overlap, AnnotationBuffer.fromList(annotations));
+	}
+
+	/**
+	 * Writes a buffer with annotations to a binary cache file.
+	 * 
+	 * @param fileName
+	 *            The name of the cache file.
+	 * @param detectorName
+	 *            The name of the detector that created the annotations.
+	 * @param bufferSize
+	 *            The buffer size (in ms) used by the detector.
+	 * @param overlap
+	 *            The buffer overlap (in %) used by the detector.
+	 * @param annotations
+	 *            The annotations to store.
+	 * @return True if the cache file is written successfully, false otherwise.
+	 * @see #write(String, String, int, int, List)
+	 */
+	public static boolean write(final String fileName, final String detectorName, final int bufferSize,
+			final int overlap, final AnnotationBuffer annotations) {
+		final ByteBuffer encoded = encode(detectorName, bufferSize, overlap, annotations);
+
+		final File target = new File(fileName);
+		final File temporary = new File(fileName + ".part");
+		boolean success = false;
+		FileOutputStream output = null;
+		try {
+			output = new FileOutputStream(temporary);
+			final FileChannel channel = output.getChannel();
+			while (encoded.hasRemaining()) {
+				channel.write(encoded);
+			}
+			output.close();
+			output = null;
+			target.delete();
+			success = temporary.renameTo(target);
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not write annotation cache " + fileName, e);
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (final IOException e) {
+					LOG.log(Level.INFO, "Ignored exception while closing " + temporary, e);
+				}
+			}
+			if (!success) {
+				temporary.delete();
+			}
+		}
+		return success;
+	}
+
+	/**
+	 * Encodes annotations in the binary cache format, e.g. to store them in the
+	 * {@link be.tarsos.util.AnalysisStore}.
+	 * 
+	 * @param detectorName
+	 *            The name of the detector that created the annotations.
+	 * @param bufferSize
+	 *            The buffer size (in ms) used by the detector.
+	 * @param overlap
+	 *            The buffer overlap (in %) used by the detector.
+	 * @param annotations
+	 *            The annotations to encode.
+	 * @return A buffer with the header and the columns, ready to be read.
+	 */
+	public static ByteBuffer encode(final String detectorName, final int bufferSize, final int overlap,
+			final AnnotationBuffer annotations) {
+		final int count = annotations.size();
+
+		// the table with source names
+		final List<PitchDetectionMode> sources = new ArrayList<PitchDetectionMode>();
+		final byte[] sourceIndexes = new byte[count];
+		for (int i = 0; i < count; i++) {
+			final PitchDetectionMode source = annotations.getSource(i);
+			int index = sources.indexOf(source);
+			if (index == -1) {
+				index = sources.size();
+				sources.add(source);
+			}
+			sourceIndexes[i] = (byte) index;
+		}
+
+		final double[] starts = annotations.getStarts();
+		final double[] pitches = annotations.getPitches(PitchUnit.HERTZ);
+		final double[] probabilities = annotations.getProbabilities();
+		final ByteBuffer data = ByteBuffer.allocate(count * (8 + 8 + 4 + 1));
+		for (int i = 0; i < count; i++) {
+			data.putDouble(starts[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			data.putDouble(pitches[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			data.putFloat((float) probabilities[i]);
+		}
+		data.put(sourceIndexes);
+		data.flip();
+
+		final CRC32 crc = new CRC32();
+		crc.update(data.duplicate());
+
+		final byte[] name = detectorName.getBytes(UTF8);
+		int headerSize = MAGIC.length + 4 + 2 + name.length + 4 + 4 + 4 + 8 + 1;
+		for (final PitchDetectionMode source : sources) {
+			headerSize += 2 + source.name().getBytes(UTF8).length;
+		}
+		// align the columns on 8 bytes
+		headerSize = (headerSize + 7) / 8 * 8;
+
+		final ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+		header.putShort((short) name.length);
+		header.put(name);
+		header.putInt(bufferSize);
+		header.putInt(overlap);
+		header.putInt(count);
+		header.putLong(crc.getValue());
+		header.put((byte) sources.size());
+		for (final PitchDetectionMode source : sources) {
+			final byte[] sourceName = source.name().getBytes(UTF8);
+			header.putShort((short) sourceName.length);
+			header.put(sourceName);
+		}
+		header.position(0);
+
+		final ByteBuffer encoded = ByteBuffer.allocate(header.remaining() + data.remaining());
+		encoded.put(header);
+		encoded.put(data);
+		encoded.flip();
+		return encoded;
+	}
+
+	/**
+	 * Reads annotations from a binary cache file. The file is memory mapped and
+	 * the annotations are created from the mapped columns.
+	 * 
+	 * @param fileName
+	 *            The name of the cache file.
+	 * @param detectorName
+	 *            The expected name of the detector.
+	 * @param bufferSize
+	 *            The expected buffer size (in ms).
+	 * @param overlap
+	 *            The expected buffer overlap (in %).
+	 * @return The list of cached annotations or null if the file is not a
+	 *         valid cache for the given detector and parameters.
+	 */
+	public static List<Annotation> read(final String fileName, final String detectorName,
+			final int bufferSize, final int overlap) {
+		final AnnotationBuffer annotations = readBuffer(fileName, detectorName, bufferSize, overlap);
+		return annotations == null ? null : annotations.toList();
+	}
+
+	/**
+	 * Reads annotations from a binary cache file into a buffer, without
+	 * creating annotation objects.
+	 * 
+	 * @param fileName
+	 *            The name of the cache file.
+	 * @param detectorName
+	 *            The expected name of the detector.
+	 * @param bufferSize
+	 *            The expected buffer size (in ms).
+	 * @param overlap
+	 *            The expected buffer overlap (in %).
+	 * @return The cached annotations or null if the file is not a valid cache
+	 *         for the given detector and parameters.
+	 */
+	public static AnnotationBuffer readBuffer(final String fileName, final String detectorName,
+			final int bufferSize, final int overlap) {
+		AnnotationBuffer annotations = null;
+		FileInputStream input = null;
+		try {
+			input = new FileInputStream(fileName);
+			final FileChannel channel = input.getChannel();
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			annotations = read(buffer, fileName, detectorName, bufferSize, overlap);
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read annotation cache " + fileName, e);
+		} catch (final RuntimeException e) {
+			// BufferUnderflowException, IllegalArgumentException: a corrupt file
+			LOG.log(Level.WARNING, "Corrupt annotation cache " + fileName, e);
+			annotations = null;
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (final IOException e) {
+					LOG.log(Level.INFO, "Ignored exception while closing " + fileName, e);
+				}
+			}
+		}
+		return annotations;
+	}
+
+	/**
+	 * Decodes annotations in the binary cache format.
+	 * 
+	 * @param buffer
+	 *            The encoded annotations, from the position to the limit.
+	 * @param description
+	 *            Describes where the data comes from, used in log messages.
+	 * @param detectorName
+	 *            The expected name of the detector.
+	 * @param bufferSize
+	 *            The expected buffer size (in ms).
+	 * @param overlap
+	 *            The expected buffer overlap (in %).
+	 * @return The annotations or null if the data is not valid for the given
+	 *         detector and parameters.
+	 */
+	public static AnnotationBuffer decode(final ByteBuffer buffer, final String description,
+			final String detectorName, final int bufferSize, final int overlap) {
+		AnnotationBuffer annotations = null;
+		try {
+			annotations = read(buffer, description, detectorName, bufferSize, overlap);
+		} catch (final RuntimeException e) {
+			// BufferUnderflowException, IllegalArgumentException: corrupt data
+			LOG.log(Level.WARNING, "Corrupt annotation cache " + description, e);
+		}
+		return annotations;
+	}
+
+	private static AnnotationBuffer read(final ByteBuffer buffer, final String fileName,
+			final String detectorName, final int bufferSize, final int overlap) {
+		final byte[] magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			LOG.warning(fileName + " is not an annotation cache file.");
+			return null;
+		}
+		final int version = buffer.getInt();
+		if (version != VERSION) {
+			LOG.info(String.format("Ignored annotation cache %s: version %d, expected %d.", fileName, version,
+					VERSION));
+			return null;
+		}
+		final String name = readString(buffer);
+		final int cachedBufferSize = buffer.getInt();
+		final int cachedOverlap = buffer.getInt();
+		if (!name.equals(detectorName) || cachedBufferSize != bufferSize || cachedOverlap != overlap) {
+			LOG.info(String.format("Ignored annotation cache %s: made by %s (%d ms, %d%%), expected %s (%d ms, %d%%).",
+					fileName, name, cachedBufferSize, cachedOverlap, detectorName, bufferSize, overlap));
+			return null;
+		}
+		final int count = buffer.getInt();
+		final long checksum = buffer.getLong();
+		final int numberOfSources = buffer.get() & 0xFF;
+		final PitchDetectionMode[] sources = new PitchDetectionMode[numberOfSources];
+		for (int i = 0; i < numberOfSources; i++) {
+			sources[i] = PitchDetectionMode.valueOf(readString(buffer));
+		}
+		buffer.position((buffer.position() + 7) / 8 * 8);
+
+		final ByteBuffer data = buffer.slice();
+		if (data.remaining() != count * (8 + 8 + 4 + 1)) {
+			LOG.warning(String.format("Ignored truncated annotation cache %s.", fileName));
+			return null;
+		}
+		final CRC32 crc = new CRC32();
+		crc.update(data.duplicate());
+		if (crc.getValue() != checksum) {
+			LOG.warning(String.format("Ignored annotation cache %s: checksum mismatch.", fileName));
+			return null;
+		}
+
+		final int pitchOffset = count * 8;
+		final int probabilityOffset = pitchOffset + count * 8;
+		final int sourceOffset = probabilityOffset + count * 4;
+		final AnnotationBuffer annotations = new AnnotationBuffer(count);
+		for (int i = 0; i < count; i++) {
+			final double start = data.getDouble(i * 8);
+			final double pitch = data.getDouble(pitchOffset + i * 8);
+			final double probability = data.getFloat(probabilityOffset + i * 4);
+			final PitchDetectionMode source = sources[data.get(sourceOffset + i) & 0xFF];
+			annotations.add(start, pitch, source, probability);
+		}
+		return annotations;
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,152 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.sampled.pitch.AnnotationPublisher.AnnotationFilter;
+
+/**
+ * A chain of annotation filters. The output of each stage is cached, so
+ * changing the filter of one stage only re-runs that stage and the stages
+ * after it. A stage without a filter passes its input on unchanged.
+ * 
+ * @author Joren Six
+ */
+public final class AnnotationFilterPipeline {
+
+	private final AnnotationFilter[] filters;
+	private final List<List<Annotation>> outputs;
+	private List<Annotation> input;
+
+	/**
+	 * The number of stages, counted from the first, with a valid cached
+	 * output.
+	 */
+	private int validStages;
+
+	/**
+	 * Creates a pipeline without filters.
+	 * 
+	 * @param numberOfStages
+	 *            The number of stages.
+	 */
+	public AnnotationFilterPipeline(final int numberOfStages) {
+		filters = new AnnotationFilter[numberOfStages];
+		outputs = new ArrayList<List<Annotation>>(numberOfStages);
+		for (int i = 0; i < numberOfStages; i++) {
+			outputs.add(null);
+		}
+		input = new ArrayList<Annotation>();
+	}
+
+	/**
+	 * Sets the annotations to filter. Call it again when the list is modified.
+	 * 
+	 * @param annotations
+	 *            The annotations to filter, the list is not modified by the
+	 *            pipeline.
+	 */
+	public void setInput(final List<Annotation> annotations) {
+		input = annotations;
+		validStages = 0;
+	}
+
+	/**
+	 * Sets the filter of a stage, the cached output of the stage and the
+	 * stages after it are invalidated.
+	 * 
+	 * @param stage
+	 *            The index of the stage.
+	 * @param filter
+	 *            The filter or null to pass the annotations on unchanged.
+	 */
+	public void setFilter(final int stage, final AnnotationFilter filter) {
+		filters[stage] = filter;
+		validStages = Math.min(validStages, stage);
+	}
+
+	/**
+	 * @param stage
+	 *            The index of the stage.
+	 * @return The filter of the stage or null.
+	 */
+	public AnnotationFilter getFilter(final int stage) {
+		return filters[stage];
+	}
+
+	/**
+	 * Removes all filters.
+	 */
+	public void clearFilters() {
+		for (int stage = 0; stage < filters.length; stage++) {
+			setFilter(stage, null);
+		}
+	}
+
+	/**
+	 * Runs the stages without a valid cached output.
+	 * 
+	 * @return The output of the last stage. It should not be modified.
+	 */
+	public List<Annotation> getOutput() {
+		for (int stage = validStages; stage < filters.length; stage++) {
+			final List<Annotation> stageInput = stage == 0 ? input : outputs.get(stage - 1);
+			if (filters[stage] == null) {
+				outputs.set(stage, stageInput);
+			} else {
+				final List<Annotation> stageOutput = new ArrayList<Annotation>(stageInput);
+				filters[stage].filter(stageOutput);
+				outputs.set(stage, stageOutput);
+			}
+		}
+		validStages = filters.length;
+		return filters.length == 0 ? input : outputs.get(filters.length - 1);
+	}
+
+	/**
+	 * Removes the annotations that are not marked in one pass: kept
+	 * annotations are moved to the front, in order, and the tail is removed.
+	 * 
+	 * @param annotations
+	 *            The list to compact.
+	 * @param keep
+	 *            For each annotation whether it should be kept.
+	 */
+	public static void compact(final List<Annotation> annotations, final boolean[] keep) {
+		int kept = 0;
+		for (int i = 0; i < keep.length; i++) {
+			if (keep[i]) {
+				if (kept != i) {
+					annotations.set(kept, annotations.get(i));
+				}
+				kept++;
+			}
+		}
+		annotations.subList(kept, annotations.size()).clear();
+	}
+}
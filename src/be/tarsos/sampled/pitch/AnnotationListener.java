@@ -25,6 +25,7 @@
 
 package be.tarsos.sampled.pitch;
 
+import java.util.List;
 
 /**
  * Elements interested in representing annotations should implement this
@@ -45,6 +46,20 @@ public interface AnnotationListener {
 	 */
 	void addAnnotation(Annotation annotation);
 
+	/**
+	 * Add a batch of annotations to the element. By default each annotation
+	 * is added with {@link #addAnnotation(Annotation)}: implementors that do
+	 * work per batch, e.g. updating a view, should override this.
+	 * 
+	 * @param annotations
+	 *            The annotations to add, the list should not be modified.
+	 */
+	default void addAnnotations(final List<Annotation> annotations) {
+		for (Annotation annotation : annotations) {
+			addAnnotation(annotation);
+		}
+	}
+
 	/**
 	 * Clears all annotations.
 	 */
@@ -40,12 +40,22 @@ import be.tarsos.util.StopWatch;
  */
 public final class AnnotationPublisher{
 
-	private AnnotationTree tree;
+	private final AnnotationTree tree;
 	private final List<AnnotationListener> listeners;
 	private final AnnotationSelection selection;
 	private final List<Annotation> originalAnnotationList;
 	private final PitchUnit unit;
 
+	/**
+	 * Filters the original annotations: steady state, then pitch class, then
+	 * wavelet compression.
+	 */
+	private final AnnotationFilterPipeline filters;
+
+	private static final int STEADY_STATE_STAGE = 0;
+	private static final int PITCH_CLASS_STAGE = 1;
+	private static final int WAVELET_COMPRESSION_STAGE = 2;
+
 	/**
 	 * Log messages.
 	 */
@@ -60,6 +70,8 @@ public final class AnnotationPublisher{
 		originalAnnotationList = new ArrayList<Annotation>();
 		unit = PitchUnit.valueOf(Configuration.get(ConfKey.pitch_contour_unit));
 		tree = new AnnotationTree(unit);
+		filters = new AnnotationFilterPipeline(3);
+		filters.setInput(originalAnnotationList);
 	}
 
 	/**
@@ -79,20 +91,66 @@ public final class AnnotationPublisher{
 		int beforeSize = tree.size();
 		tree.add(annotations);
 		originalAnnotationList.addAll(annotations);
+		filters.setInput(originalAnnotationList);
 		assert tree.size() == beforeSize+annotations.size();
 	}
 	
 	
+	/**
+	 * Sets the steady state stage of the filter pipeline and applies the
+	 * pipeline. A minimum duration of zero, or less, switches the stage off.
+	 * 
+	 * @param maxCentsDifference
+	 *            The number of cents the next annotation may differ.
+	 * @param minDuration
+	 *            The minimum duration of the 'note'.
+	 */
 	public void applySteadyStateFilter(final double maxCentsDifference, final double minDuration){
-		rebuildTree(new SteadyStateFilter(maxCentsDifference, minDuration));
+		final AnnotationFilter filter;
+		if (minDuration > 0) {
+			filter = new SteadyStateFilter(maxCentsDifference, minDuration);
+		} else {
+			filter = null;
+		}
+		rebuildTree(STEADY_STATE_STAGE, filter);
 	}
 	
+	/**
+	 * Sets the pitch class stage of the filter pipeline and applies the
+	 * pipeline. Only the pitch class and wavelet compression stages are
+	 * re-run. A maximum distance of zero, or less, switches the stage off.
+	 * 
+	 * @param pitchClasses
+	 *            The pitch classes to keep annotations close to.
+	 * @param maxCentsDifference
+	 *            The maximum distance to a pitch class.
+	 */
 	public void applyPitchClassFilter(final double pitchClasses[],final double maxCentsDifference){
-		rebuildTree(new PitchClassFilter(pitchClasses, maxCentsDifference));
+		final AnnotationFilter filter;
+		if (maxCentsDifference > 0) {
+			filter = new PitchClassFilter(pitchClasses, maxCentsDifference);
+		} else {
+			filter = null;
+		}
+		rebuildTree(PITCH_CLASS_STAGE, filter);
 	}
 	
+	/**
+	 * Sets the wavelet compression stage of the filter pipeline and applies
+	 * the pipeline. Only the wavelet compression stage is re-run. A
+	 * threshold of zero, or less, switches the stage off.
+	 * 
+	 * @param maxCentsDifference
+	 *            Wavelet coefficients below this threshold are dropped.
+	 */
 	public void applyWaveletCompressionFilter(final double maxCentsDifference){
-		rebuildTree(new WaveletCompressionFilter(maxCentsDifference));
+		final AnnotationFilter filter;
+		if (maxCentsDifference > 0) {
+			filter = new WaveletCompressionFilter(maxCentsDifference);
+		} else {
+			filter = null;
+		}
+		rebuildTree(WAVELET_COMPRESSION_STAGE, filter);
 	}
 	
 	
@@ -112,14 +170,19 @@ public final class AnnotationPublisher{
 
 	
 	/**
-	 * Rebuilds the tree with the filtered annotations.
-	 * @param filter The filter to apply on the original list of annotations to filter.
+	 * Updates the tree so it only contains the filtered annotations. The
+	 * annotations removed by a previous filter are re-inserted, the tree
+	 * itself is not rebuilt.
+	 * @param stage The stage of the filter pipeline to change.
+	 * @param filter The filter for the stage, or null to switch the stage off.
 	 */
-	private void rebuildTree(AnnotationFilter filter){
-		tree = new AnnotationTree(unit);
-		List<Annotation> listToFilter = new ArrayList<Annotation>(originalAnnotationList);
-		filter.filter(listToFilter);
-		tree.add(listToFilter);
+	private void rebuildTree(final int stage, final AnnotationFilter filter){
+		StopWatch watch = new StopWatch();
+		filters.setFilter(stage, filter);
+		List<Annotation> filtered = filters.getOutput();
+		LOG.fine(String.format("Filtered %s annotations to %s in %s.", originalAnnotationList.size(),
+				filtered.size(), watch.formattedToString()));
+		tree.retainAll(filtered);
 		//clear the current state
 		clear();
 		//add annotations
@@ -151,8 +214,10 @@ public final class AnnotationPublisher{
 	}
 	
 	public void clearTree(){
-		tree = new AnnotationTree(unit);
+		tree.clear();
 		originalAnnotationList.clear();
+		filters.clearFilters();
+		filters.setInput(originalAnnotationList);
 	}
 
 	/**
@@ -165,9 +230,7 @@ public final class AnnotationPublisher{
 		if (annotations.size() > 0) {
 			for (AnnotationListener listener : listeners) {
 				StopWatch watch = new StopWatch();
-				for (Annotation annotation : annotations) {
-					listener.addAnnotation(annotation);
-				}
+				listener.addAnnotations(annotations);
 				if (annotations.size() > 1000) {
 					LOG.fine(String.format("Adding %s annotations to %s took %s.", annotations.size(),
 							listener.getClass().toString(), watch.formattedToString()));
@@ -285,6 +348,10 @@ public final class AnnotationPublisher{
 	}
 	
 	
+	/**
+	 * Keeps the annotations close to one of the pitch classes. Annotations are
+	 * marked in one pass and the list is compacted afterwards.
+	 */
 	public class PitchClassFilter implements AnnotationFilter {
 		private final double[] pitchClasses;
 		private final double maxCentsDifference;
@@ -297,12 +364,11 @@ public final class AnnotationPublisher{
 
 		
 		public void filter(final List<Annotation> listToFilter) {
-			for (int i = 0; i < listToFilter.size(); i++) {
+			final boolean[] keep = new boolean[listToFilter.size()];
+			for (int i = 0; i < keep.length; i++) {
 				double annotationPitchClass = listToFilter.get(i).getPitch(
 						PitchUnit.RELATIVE_CENTS);
-				// delete all annotations (except those that are close to a
-				// pitch class)
-				boolean delete = true;
+				// keep only the annotations that are close to a pitch class
 				for (double scalePitchClass : pitchClasses) {
 					// Calculate the difference e.g. between 3 and 1193 there is
 					// 1190 cents
@@ -315,24 +381,25 @@ public final class AnnotationPublisher{
 									+ 1200),
 							Math.abs(scalePitchClass - annotationPitchClass
 									- 1200));
-					// Do not delete an annotation if it is close to a pitch
-					// class
 					if (normalDiff < maxCentsDifference
 							|| wrappedDiff < maxCentsDifference) {
-						delete = false;
+						keep[i] = true;
+						break;
 					}
 				}
-				// delete marked annotations
-				if (delete) {
-					listToFilter.remove(i);
-					// do not forget to evaluate the new annotation
-					// on the current place
-					i--;
-				}
 			}
+			AnnotationFilterPipeline.compact(listToFilter, keep);
 		}
 	}
 	
+	/**
+	 * Keeps annotations that start a run of annotations within a number of
+	 * cents lasting longer than a minimum duration, together with the rest of
+	 * the run. The annotations are marked in one pass and the list is
+	 * compacted afterwards. A run is only scanned again when its first
+	 * annotation is dropped, which is only the case for runs shorter than the
+	 * minimum duration: for time ordered annotations the filter is linear.
+	 */
 	public class SteadyStateFilter implements AnnotationFilter{
 		final double maxCentsDifference;
 		final double minDuration;
@@ -344,29 +411,37 @@ public final class AnnotationPublisher{
 
 		
 		public void filter(final List<Annotation> listToFilter) {
-			for(int i = 0 ; i < listToFilter.size(); i++){
-				double iCentsValue = listToFilter.get(i).getPitch(PitchUnit.ABSOLUTE_CENTS);
-				double iStart = listToFilter.get(i).getStart();
+			final int size = listToFilter.size();
+			final double[] cents = new double[size];
+			final double[] starts = new double[size];
+			for (int i = 0; i < size; i++) {
+				cents[i] = listToFilter.get(i).getPitch(PitchUnit.ABSOLUTE_CENTS);
+				starts[i] = listToFilter.get(i).getStart();
+			}
+			final boolean[] keep = new boolean[size];
+			int i = 0;
+			while (i < size) {
 				boolean stable = false;
-				int j = i+1;
-				for( ; j  < listToFilter.size() ; j++){
-					double jCentsValue = listToFilter.get(j).getPitch(PitchUnit.ABSOLUTE_CENTS);
-					double jStart = listToFilter.get(j).getStart();
-					double centsDifference = Math.abs(iCentsValue - jCentsValue);
-					double timeDifference = jStart-iStart;
-					if(centsDifference > maxCentsDifference)
+				int j = i + 1;
+				for (; j < size; j++) {
+					if (Math.abs(cents[i] - cents[j]) > maxCentsDifference)
 						break;
-					if(timeDifference > minDuration){
+					if (starts[j] - starts[i] > minDuration) {
 						stable = true;
 					}
 				}
-				if(stable){
-					i = j;
-				}else{
-					listToFilter.remove(i);
-					i--;
+				if (stable) {
+					// keep the run and the annotation that ended it
+					final int last = Math.min(j, size - 1);
+					for (int k = i; k <= last; k++) {
+						keep[k] = true;
+					}
+					i = j + 1;
+				} else {
+					i++;
 				}
 			}
+			AnnotationFilterPipeline.compact(listToFilter, keep);
 		}
 		
 	}
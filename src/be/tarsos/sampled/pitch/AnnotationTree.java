@@ -23,30 +23,87 @@
 
 
 
+
+
 package be.tarsos.sampled.pitch;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import be.tarsos.util.StopWatch;
-import edu.wlu.cs.levy.CG.KDTree;
-import edu.wlu.cs.levy.CG.KeyDuplicateException;
-import edu.wlu.cs.levy.CG.KeySizeException;
 
 /**
  * Annotation tree can be used for range selection on a list of annotations. To
  * make the range search efficient it backed by a KD-tree. One dimension is
  * time, the second dimension pitch and the third dimension is salience. 
  * The unit of pitch is defined during the construction phase.
+ * <p>
+ * The tree is implicit: the keys are stored in primitive arrays ordered so
+ * that the median of each range is the splitting node for that range. It is
+ * built in bulk by median splits. Annotations added afterwards are kept in an
+ * unordered tail which is scanned linearly until it grows large enough to
+ * justify a rebuild. Removed annotations are only marked as deleted, so
+ * re-inserting them (e.g. when a filter is changed) is cheap.
+ * </p>
+ * <p>
+ * The tree is not thread safe.
+ * </p>
  */
 public final class AnnotationTree {
 
 	private static final Logger LOG = Logger.getLogger(AnnotationTree.class.getName());
 
 	/**
-	 * The backing kd-tree.
+	 * The number of dimensions: time, pitch and probability.
+	 */
+	private static final int DIMENSIONS = 3;
+
+	/**
+	 * The tail is merged into the tree when it is larger than this number of
+	 * annotations and larger than a fourth of the tree.
+	 */
+	private static final int MIN_TAIL_SIZE = 1024;
+
+	/**
+	 * Visits annotations found by a range query.
+	 */
+	public interface AnnotationVisitor {
+		/**
+		 * Called for each annotation within the selection.
+		 * 
+		 * @param annotation
+		 *            An annotation within the selection.
+		 */
+		void visit(Annotation annotation);
+	}
+
+	/**
+	 * The keys. <code>keys[0]</code> is time, <code>keys[1]</code> pitch in
+	 * the configured unit and <code>keys[2]</code> probability.
+	 */
+	private final double[][] keys;
+	private Annotation[] annotations;
+	private boolean[] deleted;
+
+	/**
+	 * Number of slots in use, including deleted annotations.
 	 */
-	private final KDTree<Annotation> tree;
+	private int slots;
+	/**
+	 * Slots <code>[0,treeSize[</code> are organised as a kd-tree, the others
+	 * form the unordered tail.
+	 */
+	private int treeSize;
+	/**
+	 * Number of slots marked as deleted.
+	 */
+	private int deletedCount;
+
 	private final PitchUnit unit;
 
 	/**
@@ -57,9 +114,23 @@ public final class AnnotationTree {
 	 *            
 	 */
 	public AnnotationTree(final PitchUnit pitchUnit) {
-		// Three dimensional tree
-		tree = new KDTree<Annotation>(3);
 		unit = pitchUnit;
+		keys = new double[DIMENSIONS][];
+		clear();
+	}
+
+	/**
+	 * Removes all annotations from the tree.
+	 */
+	public void clear() {
+		for (int d = 0; d < DIMENSIONS; d++) {
+			keys[d] = new double[16];
+		}
+		annotations = new Annotation[16];
+		deleted = new boolean[16];
+		slots = 0;
+		treeSize = 0;
+		deletedCount = 0;
 	}
 	
 	/**
@@ -69,10 +140,77 @@ public final class AnnotationTree {
 	 */
 	public void add(final List<Annotation> annotations){
 		StopWatch watch = new StopWatch();
+		ensureCapacity(slots + annotations.size());
 		for (Annotation annotation : annotations) {
-			add(annotation);
+			if (deletedCount == 0 || !undelete(annotation)) {
+				append(annotation);
+			}
+		}
+		rebuildIfNeeded();
+		LOG.fine(String.format("Added %s annotations (new size %s) to KD Tree in %s.", annotations.size(),size(), watch));
+	}
+
+	/**
+	 * Add one annotation to the tree.
+	 * @param annotation
+	 *            The annotation to add.
+	 */
+	public void add(final Annotation annotation) {
+		if (deletedCount == 0 || !undelete(annotation)) {
+			ensureCapacity(slots + 1);
+			append(annotation);
+			rebuildIfNeeded();
 		}
-		LOG.fine(String.format("Added %s annotations (new size %s) to KD Tree in %s.", annotations.size(),tree.size(), watch));
+	}
+
+	/**
+	 * Removes an annotation from the tree.
+	 * 
+	 * @param annotation
+	 *            The annotation to remove.
+	 * @return True if the annotation was present in the tree, false otherwise.
+	 */
+	public boolean remove(final Annotation annotation) {
+		final int slot = find(annotation, false);
+		if (slot >= 0) {
+			deleted[slot] = true;
+			deletedCount++;
+		}
+		return slot >= 0;
+	}
+
+	/**
+	 * Makes sure the tree contains exactly the given annotations. Annotations
+	 * not in the collection are removed, removed annotations in the
+	 * collection are re-inserted and unknown annotations are added. Use this
+	 * to apply a filter to the annotations without rebuilding the tree.
+	 * 
+	 * @param toRetain
+	 *            The annotations the tree should contain.
+	 */
+	public void retainAll(final Collection<Annotation> toRetain) {
+		final StopWatch watch = new StopWatch();
+		final Map<Annotation, Boolean> retain = new IdentityHashMap<Annotation, Boolean>(toRetain.size() * 2);
+		for (Annotation annotation : toRetain) {
+			retain.put(annotation, Boolean.FALSE);
+		}
+		deletedCount = 0;
+		for (int i = 0; i < slots; i++) {
+			// Mark the annotations that are present.
+			deleted[i] = retain.put(annotations[i], Boolean.TRUE) == null;
+			if (deleted[i]) {
+				retain.remove(annotations[i]);
+				deletedCount++;
+			}
+		}
+		for (Map.Entry<Annotation, Boolean> entry : retain.entrySet()) {
+			if (!entry.getValue()) {
+				ensureCapacity(slots + 1);
+				append(entry.getKey());
+			}
+		}
+		rebuildIfNeeded();
+		LOG.fine(String.format("Retained %s annotations in a KD Tree of %s slots in %s.", size(), slots, watch));
 	}
 
 	/**
@@ -83,47 +221,255 @@ public final class AnnotationTree {
 	 */
 	public List<Annotation> select(final AnnotationSelection selection) {
 		final StopWatch watch = new StopWatch();
-		double startTime = selection.getStartTime();
-		double stopTime = selection.getStopTime();
-		double startPitch = selection.getStartPitch();
-		double stopPitch = selection.getStopPitch();
-		double startProbability = selection.getMinProbability();
-		double stopProbability = AnnotationSelection.MAX_PROBABILITY;
-
-		double[] lowKey = { startTime, startPitch, startProbability };
-		double[] upperKey = { stopTime, stopPitch, stopProbability };
-
-		List<Annotation> selectedAnnotations = null;
-		try {
-			selectedAnnotations = tree.range(lowKey, upperKey);
-		} catch (KeySizeException e) {
-			new IllegalStateException("The dimenstion of the tree is two, the dimension of the key also.");
-		}
+		final List<Annotation> selectedAnnotations = new ArrayList<Annotation>();
+		select(selection, new AnnotationVisitor() {
+			public void visit(final Annotation annotation) {
+				selectedAnnotations.add(annotation);
+			}
+		});
 		LOG.finer(String.format("Selected %s annotations from a KD-tree of %s annotations in %s.",
-				selectedAnnotations.size(), tree.size(), watch.formattedToString()));
+				selectedAnnotations.size(), size(), watch.formattedToString()));
 		return selectedAnnotations;
 	}
 
+	/**
+	 * Visit all annotations within a pitch - time range, without collecting
+	 * them in a list. The bounds of the selection are inclusive.
+	 * 
+	 * @param selection
+	 *            A selection defines a pitch-time range.
+	 * @param visitor
+	 *            Called for each selected annotation.
+	 */
+	public void select(final AnnotationSelection selection, final AnnotationVisitor visitor) {
+		final double[] low = { selection.getStartTime(), selection.getStartPitch(), selection.getMinProbability() };
+		final double[] high = { selection.getStopTime(), selection.getStopPitch(), AnnotationSelection.MAX_PROBABILITY };
+		rangeQuery(0, treeSize, 0, low, high, visitor);
+		for (int i = treeSize; i < slots; i++) {
+			if (!deleted[i] && inRange(i, low, high)) {
+				visitor.visit(annotations[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of annotations in the tree.
+	 */
 	public int size() {
-		return tree.size();
+		return slots - deletedCount;
+	}
+
+	private void rangeQuery(final int from, final int to, final int depth, final double[] low,
+			final double[] high, final AnnotationVisitor visitor) {
+		if (from >= to) {
+			return;
+		}
+		final int median = (from + to) >>> 1;
+		final int dimension = depth % DIMENSIONS;
+		final double split = keys[dimension][median];
+		if (split >= low[dimension]) {
+			rangeQuery(from, median, depth + 1, low, high, visitor);
+		}
+		if (!deleted[median] && inRange(median, low, high)) {
+			visitor.visit(annotations[median]);
+		}
+		if (split <= high[dimension]) {
+			rangeQuery(median + 1, to, depth + 1, low, high, visitor);
+		}
+	}
+
+	private boolean inRange(final int slot, final double[] low, final double[] high) {
+		for (int d = 0; d < DIMENSIONS; d++) {
+			final double key = keys[d][slot];
+			if (key < low[d] || key > high[d]) {
+				return false;
+			}
+		}
+		return true;
 	}
-	
-	
 
 	/**
-	 * Add one annotation to the tree.
+	 * Re-inserts a removed annotation.
+	 * 
+	 * @return True if the annotation was found and marked as deleted.
+	 */
+	private boolean undelete(final Annotation annotation) {
+		final int slot = find(annotation, true);
+		if (slot >= 0) {
+			deleted[slot] = false;
+			deletedCount--;
+		}
+		return slot >= 0;
+	}
+
+	/**
+	 * Searches the slot of an annotation (by identity).
+	 * 
 	 * @param annotation
-	 *            The annotation to add.
+	 *            The annotation to search for.
+	 * @param isDeleted
+	 *            Only consider slots with this deleted state.
+	 * @return The slot or -1 if the annotation is not found.
 	 */
-	public void add(final Annotation annotation) {
-		double[] key = { annotation.getStart(), annotation.getPitch(unit), annotation.getProbability() };
-		try {
-			tree.insert(key, annotation);
-		} catch (KeySizeException e) {
-			new IllegalStateException("The dimenstion of the tree is 3," + " the dimension of the key also.");
-		} catch (KeyDuplicateException e) {
-			new IllegalStateException("No two annotations with the same timestamp and starttime should be present!");
+	private int find(final Annotation annotation, final boolean isDeleted) {
+		final double[] key = key(annotation);
+		int slot = find(0, treeSize, 0, key, annotation, isDeleted);
+		for (int i = treeSize; slot < 0 && i < slots; i++) {
+			if (annotations[i] == annotation && deleted[i] == isDeleted) {
+				slot = i;
+			}
 		}
+		return slot;
+	}
+
+	private int find(final int from, final int to, final int depth, final double[] key,
+			final Annotation annotation, final boolean isDeleted) {
+		if (from >= to) {
+			return -1;
+		}
+		final int median = (from + to) >>> 1;
+		if (annotations[median] == annotation && deleted[median] == isDeleted) {
+			return median;
+		}
+		final int dimension = depth % DIMENSIONS;
+		final double split = keys[dimension][median];
+		int slot = -1;
+		if (split >= key[dimension]) {
+			slot = find(from, median, depth + 1, key, annotation, isDeleted);
+		}
+		if (slot < 0 && split <= key[dimension]) {
+			slot = find(median + 1, to, depth + 1, key, annotation, isDeleted);
+		}
+		return slot;
+	}
 
+	private double[] key(final Annotation annotation) {
+		return new double[] { annotation.getStart(), annotation.getPitch(unit), annotation.getProbability() };
+	}
+
+	private void append(final Annotation annotation) {
+		keys[0][slots] = annotation.getStart();
+		keys[1][slots] = annotation.getPitch(unit);
+		keys[2][slots] = annotation.getProbability();
+		annotations[slots] = annotation;
+		deleted[slots] = false;
+		slots++;
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity > annotations.length) {
+			final int newCapacity = Math.max(capacity, annotations.length + (annotations.length >> 1));
+			for (int d = 0; d < DIMENSIONS; d++) {
+				keys[d] = Arrays.copyOf(keys[d], newCapacity);
+			}
+			annotations = Arrays.copyOf(annotations, newCapacity);
+			deleted = Arrays.copyOf(deleted, newCapacity);
+		}
+	}
+
+	/**
+	 * Merges the tail into the tree when it has grown too large to scan. When
+	 * more than half of the slots are deleted they are dropped.
+	 */
+	private void rebuildIfNeeded() {
+		final int tailSize = slots - treeSize;
+		if (tailSize > MIN_TAIL_SIZE && tailSize > treeSize / 4) {
+			if (deletedCount > slots / 2) {
+				compact();
+			}
+			build(0, slots, 0);
+			treeSize = slots;
+		}
+	}
+
+	/**
+	 * Drops the deleted annotations.
+	 */
+	private void compact() {
+		int live = 0;
+		for (int i = 0; i < slots; i++) {
+			if (!deleted[i]) {
+				swap(i, live);
+				live++;
+			}
+		}
+		Arrays.fill(annotations, live, slots, null);
+		slots = live;
+		deletedCount = 0;
+	}
+
+	/**
+	 * Orders the slots in <code>[from,to[</code> so that the median splits
+	 * the range on the dimension defined by the depth and recurses on both
+	 * halves.
+	 */
+	private void build(final int from, final int to, final int depth) {
+		if (to - from > 1) {
+			final int median = (from + to) >>> 1;
+			final int dimension = depth % DIMENSIONS;
+			select(from, to - 1, median, keys[dimension]);
+			build(from, median, depth + 1);
+			build(median + 1, to, depth + 1);
+		}
+	}
+
+	/**
+	 * Quickselect: rearranges <code>[left,right]</code> so that the element
+	 * at <code>k</code> is in its sorted position, smaller or equal elements
+	 * before it and larger or equal elements after it.
+	 */
+	private void select(int left, int right, final int k, final double[] key) {
+		while (right > left) {
+			// median of three pivot
+			final int middle = (left + right) >>> 1;
+			if (key[middle] < key[left]) {
+				swap(middle, left);
+			}
+			if (key[right] < key[left]) {
+				swap(right, left);
+			}
+			if (key[right] < key[middle]) {
+				swap(right, middle);
+			}
+			final double pivot = key[middle];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (key[i] < pivot) {
+					i++;
+				}
+				while (key[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(final int a, final int b) {
+		if (a != b) {
+			for (int d = 0; d < DIMENSIONS; d++) {
+				final double key = keys[d][a];
+				keys[d][a] = keys[d][b];
+				keys[d][b] = key;
+			}
+			final Annotation annotation = annotations[a];
+			annotations[a] = annotations[b];
+			annotations[b] = annotation;
+			final boolean isDeleted = deleted[a];
+			deleted[a] = deleted[b];
+			deleted[b] = isDeleted;
+		}
 	}
 }
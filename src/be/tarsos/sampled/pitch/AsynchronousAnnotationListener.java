@@ -0,0 +1,254 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers annotation events to one or more listeners on a background thread,
+ * so the publisher, and the other listeners, do not wait for them. Events are
+ * delivered in order, to the listeners in order, but coalesced while the
+ * listeners are busy:
+ * <ul>
+ * <li>Batches added after each other are delivered as one batch.</li>
+ * <li>A clear discards the batches that were not delivered yet: after rapid
+ * selection changes only the latest selection is delivered.</li>
+ * </ul>
+ * The publisher never blocks on a slow listener, the backlog is at most the
+ * annotations added since the last clear. Only wrap listeners of which
+ * {@link #clearAnnotations()} discards everything added before, e.g. data
+ * models and views that repaint, since Swing components are not updated on
+ * the event dispatch thread.
+ * 
+ * @author Joren Six
+ */
+public final class AsynchronousAnnotationListener implements AnnotationListener {
+
+	private static final Logger LOG = Logger.getLogger(AsynchronousAnnotationListener.class.getName());
+
+	private static ExecutorService deliveryExecutor;
+
+	private final AnnotationListener[] listeners;
+
+	/**
+	 * The events that are not delivered yet, guarded by this.
+	 */
+	private final LinkedList<Event> pending;
+
+	/**
+	 * True while a delivery task is scheduled or running, guarded by this.
+	 */
+	private boolean delivering;
+
+	/**
+	 * @param listeners
+	 *            The listeners to deliver the events to, in this order.
+	 */
+	public AsynchronousAnnotationListener(final AnnotationListener... listeners) {
+		this.listeners = listeners.clone();
+		this.pending = new LinkedList<Event>();
+	}
+
+	public void addAnnotation(final Annotation annotation) {
+		addAnnotations(Collections.singletonList(annotation));
+	}
+
+	public void addAnnotations(final List<Annotation> annotations) {
+		synchronized (this) {
+			final Event last = pending.peekLast();
+			if (last != null && last.type == EventType.ADD) {
+				last.annotations.addAll(annotations);
+				last.completed = false;
+			} else {
+				final Event event = new Event(EventType.ADD);
+				event.annotations.addAll(annotations);
+				pending.add(event);
+			}
+		}
+		schedule();
+	}
+
+	public void annotationsAdded() {
+		synchronized (this) {
+			final Event last = pending.peekLast();
+			if (last != null && last.type == EventType.ADD) {
+				last.completed = true;
+			} else {
+				final Event event = new Event(EventType.ADD);
+				event.completed = true;
+				pending.add(event);
+			}
+		}
+		schedule();
+	}
+
+	public void clearAnnotations() {
+		synchronized (this) {
+			final Iterator<Event> iterator = pending.iterator();
+			while (iterator.hasNext()) {
+				final EventType type = iterator.next().type;
+				if (type == EventType.ADD || type == EventType.CLEAR) {
+					iterator.remove();
+				}
+			}
+			pending.add(new Event(EventType.CLEAR));
+		}
+		schedule();
+	}
+
+	public void extractionStarted() {
+		enqueue(new Event(EventType.EXTRACTION_STARTED));
+	}
+
+	public void extractionFinished() {
+		enqueue(new Event(EventType.EXTRACTION_FINISHED));
+	}
+
+	/**
+	 * @return True if no events are waiting to be delivered or being
+	 *         delivered.
+	 */
+	public synchronized boolean isIdle() {
+		return !delivering;
+	}
+
+	private void enqueue(final Event event) {
+		synchronized (this) {
+			pending.add(event);
+		}
+		schedule();
+	}
+
+	private void schedule() {
+		synchronized (this) {
+			if (delivering || pending.isEmpty()) {
+				return;
+			}
+			delivering = true;
+		}
+		getDeliveryExecutor().execute(new Runnable() {
+			public void run() {
+				deliverPending();
+			}
+		});
+	}
+
+	private void deliverPending() {
+		while (true) {
+			final Event event;
+			synchronized (this) {
+				event = pending.poll();
+				if (event == null) {
+					delivering = false;
+					return;
+				}
+			}
+			for (final AnnotationListener listener : listeners) {
+				try {
+					event.deliver(listener);
+				} catch (final RuntimeException e) {
+					LOG.log(Level.SEVERE, "Delivering annotation events to " + listener.getClass().getName()
+							+ " failed.", e);
+				}
+			}
+			if (event.type == EventType.ADD && event.completed) {
+				for (final AnnotationListener listener : listeners) {
+					try {
+						listener.annotationsAdded();
+					} catch (final RuntimeException e) {
+						LOG.log(Level.SEVERE, "Delivering annotation events to " + listener.getClass().getName()
+								+ " failed.", e);
+					}
+				}
+			}
+		}
+	}
+
+	private enum EventType {
+		ADD, CLEAR, EXTRACTION_STARTED, EXTRACTION_FINISHED
+	}
+
+	/**
+	 * A pending event. An add event collects the annotations of the batches
+	 * it coalesces and is completed when the last batch was followed by
+	 * {@link AnnotationListener#annotationsAdded()}.
+	 */
+	private static final class Event {
+		private final EventType type;
+		private final List<Annotation> annotations;
+		private boolean completed;
+
+		private Event(final EventType type) {
+			this.type = type;
+			this.annotations = new ArrayList<Annotation>();
+		}
+
+		private void deliver(final AnnotationListener listener) {
+			switch (type) {
+			case ADD:
+				if (!annotations.isEmpty()) {
+					listener.addAnnotations(annotations);
+				}
+				break;
+			case CLEAR:
+				listener.clearAnnotations();
+				break;
+			case EXTRACTION_STARTED:
+				listener.extractionStarted();
+				break;
+			case EXTRACTION_FINISHED:
+				listener.extractionFinished();
+				break;
+			default:
+				throw new IllegalStateException("Unknown event type " + type);
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getDeliveryExecutor() {
+		if (deliveryExecutor == null) {
+			deliveryExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private int count;
+
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "annotation-delivery-" + count++);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return deliveryExecutor;
+	}
+}
@@ -25,24 +25,35 @@
 
 package be.tarsos.sampled.pitch;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
+import be.tarsos.util.AnalysisStore;
+import be.tarsos.util.AnalysisStore.Kind;
 import be.tarsos.util.AudioFile;
-import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.ConfigurationSnapshot;
 import be.tarsos.util.FileUtils;
 
 /**
- * Caches the results of a pitch detector by serializing annotations to a file.
- * If a file with annotations exists it reads the contents, otherwise the pitch
+ * Caches the results of a pitch detector by serializing annotations to the
+ * analysis store. If annotations are stored it reads them, otherwise the pitch
  * detector is executed and the annotations are stored.
  * 
  * @author Joren Six
  */
 public final class CachingDetector implements PitchDetector {
+	/**
+	 * The annotations as objects, only created when requested.
+	 */
 	private List<Annotation> annotations;
+	/**
+	 * The annotations in columns.
+	 */
+	private AnnotationBuffer annotationBuffer;
 	private final AudioFile file;
 	private final PitchDetector detector;
 
@@ -63,35 +74,174 @@ public final class CachingDetector implements PitchDetector {
 		file = audioFile;
 		detector = pitchDetector;
 		annotations = new ArrayList<Annotation>();
+		annotationBuffer = new AnnotationBuffer();
 	}
 
 	/* (non-Javadoc)
 	 * @see be.tarsos.sampled.pitch.PitchDetector#executePitchDetection()
 	 */
 	public List<Annotation> executePitchDetection() {
+		executeBufferedPitchDetection();
+		return getAnnotations();
+	}
+
+	/**
+	 * Executes the pitch detection or reads the cached results. When the
+	 * cached results are binary no annotation objects are created. The
+	 * results are cached in the {@link AnalysisStore}, caches written by
+	 * previous versions next to the transcoded file are moved to the store.
+	 * 
+	 * @return The annotations in columns.
+	 */
+	public AnnotationBuffer executeBufferedPitchDetection() {
 		String directory = file.transcodedDirectory();
 		
-		int bufferSizeInMs = Configuration.getInt(ConfKey.pitch_detector_buffer_size);
-		int overlapPercentage = Configuration.getInt(ConfKey.pitch_detector_buffer_overlap);
-		String annotationsFileName = String.format("%s_%s_%d_%d.txt",detector.getName(),file.originalBasename(),bufferSizeInMs,overlapPercentage);
+		ConfigurationSnapshot configuration = Configuration.snapshot();
+		int bufferSizeInMs = configuration.getPitchDetectorBufferSize();
+		int overlapPercentage = configuration.getPitchDetectorBufferOverlap();
+		String baseName = String.format("%s_%s_%d_%d",detector.getName(),file.originalBasename(),bufferSizeInMs,overlapPercentage);
 		
-		annotationsFileName = FileUtils.combine(directory, annotationsFileName);
-		if (FileUtils.exists(annotationsFileName)) {
-			annotations = FileUtils.readPitchAnnotations(annotationsFileName);
-			LOG.info(String.format("Read " + annotations.size() +  " cached annotations for %s from %s", detector.getName(),
-					annotationsFileName));
+		AnalysisStore store = AnalysisStore.getInstance();
+		String key = AnalysisStore.key(file.contentHash(), detector.getName(), bufferSizeInMs, overlapPercentage);
+		// Caches written by previous versions are files next to the transcoded audio.
+		String cacheFileName = FileUtils.combine(directory, baseName + "." + AnnotationCacheFile.EXTENSION);
+		String textFileName = FileUtils.combine(directory, baseName + ".txt");
+		
+		AnnotationBuffer cachedAnnotations = null;
+		ByteBuffer storedAnnotations = store.get(Kind.ANNOTATIONS, key);
+		if (storedAnnotations != null) {
+			cachedAnnotations = AnnotationCacheFile.decode(storedAnnotations, key, detector.getName(), bufferSizeInMs, overlapPercentage);
+		}
+		if (cachedAnnotations != null) {
+			annotationBuffer = cachedAnnotations;
+			annotations = null;
+			LOG.info(String.format("Read " + annotationBuffer.size() +  " cached annotations for %s from %s", detector.getName(),
+					key));
+			return annotationBuffer;
+		}
+		
+		// The legacy cache that is moved to the store, if any.
+		String legacyFileName = null;
+		if (FileUtils.exists(cacheFileName)) {
+			cachedAnnotations = AnnotationCacheFile.readBuffer(cacheFileName, detector.getName(), bufferSizeInMs, overlapPercentage);
+		}
+		if (cachedAnnotations != null) {
+			annotationBuffer = cachedAnnotations;
+			annotations = null;
+			legacyFileName = cacheFileName;
+			LOG.info(String.format("Read " + annotationBuffer.size() +  " cached annotations for %s from %s", detector.getName(),
+					cacheFileName));
+		} else if (FileUtils.exists(textFileName)) {
+			annotationBuffer = FileUtils.readPitchAnnotations(textFileName, new AnnotationBuffer());
+			annotations = null;
+			legacyFileName = textFileName;
+			LOG.info(String.format("Read " + annotationBuffer.size() +  " cached annotations for %s from %s", detector.getName(),
+					textFileName));
 		} else {
 			detector.executePitchDetection();
 			// Do not copy the annotations, use the same list:
 			annotations = detector.getAnnotations();
-			FileUtils.writePitchAnnotations(annotationsFileName, annotations);
-			LOG.info(String.format("Cached annotation results for %s to %s", detector.getName(),
-					annotationsFileName));
+			annotationBuffer = AnnotationBuffer.fromList(annotations);
+			if (Thread.currentThread().isInterrupted()) {
+				// an interrupted detection is incomplete, it is not cached
+				LOG.info(String.format("Did not cache the interrupted %s results for %s", detector.getName(), key));
+				return annotationBuffer;
+			}
 		}
-		return annotations;
+		if (store.put(Kind.ANNOTATIONS, key, AnnotationCacheFile.encode(detector.getName(), bufferSizeInMs, overlapPercentage, annotationBuffer))) {
+			LOG.info(String.format("Cached annotation results for %s as %s", detector.getName(), key));
+			if (legacyFileName != null) {
+				removeLegacyCache(legacyFileName);
+			}
+		}
+		return annotationBuffer;
+	}
+
+	/**
+	 * Removes the legacy caches of a result that is moved to the store: the
+	 * binary cache and the text file, which were written side by side.
+	 * 
+	 * @param legacyFileName
+	 *            The legacy cache that was read.
+	 */
+	private void removeLegacyCache(final String legacyFileName) {
+		final String baseName = legacyFileName.substring(0, legacyFileName.lastIndexOf('.'));
+		for (final String extension : new String[] { AnnotationCacheFile.EXTENSION, "txt" }) {
+			final File legacyFile = new File(baseName + "." + extension);
+			if (legacyFile.exists()) {
+				if (legacyFile.delete()) {
+					LOG.fine(String.format("Removed %s, it is moved to the analysis store.", legacyFile));
+				} else {
+					LOG.warning(String.format("Could not remove %s, it is moved to the analysis store.", legacyFile));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether results for the buffer size and overlap of a
+	 * configuration are cached, in the store or by a previous version.
+	 * 
+	 * @param configuration
+	 *            The configuration that defines the buffer size and overlap.
+	 * @return True if {@link #executeBufferedPitchDetection()} reads the
+	 *         results instead of detecting pitch.
+	 */
+	public boolean isCached(final ConfigurationSnapshot configuration) {
+		int bufferSizeInMs = configuration.getPitchDetectorBufferSize();
+		int overlapPercentage = configuration.getPitchDetectorBufferOverlap();
+		String key = AnalysisStore.key(file.contentHash(), detector.getName(), bufferSizeInMs, overlapPercentage);
+		if (AnalysisStore.getInstance().contains(Kind.ANNOTATIONS, key)) {
+			return true;
+		}
+		String directory = file.transcodedDirectory();
+		String baseName = String.format("%s_%s_%d_%d",detector.getName(),file.originalBasename(),bufferSizeInMs,overlapPercentage);
+		return FileUtils.exists(FileUtils.combine(directory, baseName + "." + AnnotationCacheFile.EXTENSION))
+				|| FileUtils.exists(FileUtils.combine(directory, baseName + ".txt"));
+	}
+
+	/**
+	 * Caches annotations detected elsewhere as the results of this detector,
+	 * e.g. annotations detected while the file was transcoded. They should be
+	 * detected with the configured buffer size and overlap.
+	 * 
+	 * @param detected
+	 *            The annotations in columns.
+	 */
+	public void cacheAnnotations(final AnnotationBuffer detected) {
+		cacheAnnotations(detected, Configuration.snapshot());
+	}
+
+	/**
+	 * Caches annotations detected elsewhere as the results of this detector.
+	 * 
+	 * @param detected
+	 *            The annotations in columns.
+	 * @param configuration
+	 *            The configuration the annotations were detected with.
+	 */
+	public void cacheAnnotations(final AnnotationBuffer detected, final ConfigurationSnapshot configuration) {
+		int bufferSizeInMs = configuration.getPitchDetectorBufferSize();
+		int overlapPercentage = configuration.getPitchDetectorBufferOverlap();
+		String key = AnalysisStore.key(file.contentHash(), detector.getName(), bufferSizeInMs, overlapPercentage);
+		annotationBuffer = detected;
+		annotations = null;
+		if (AnalysisStore.getInstance().put(Kind.ANNOTATIONS, key, AnnotationCacheFile.encode(detector.getName(), bufferSizeInMs, overlapPercentage, annotationBuffer))) {
+			LOG.info(String.format("Cached annotation results for %s as %s", detector.getName(), key));
+		}
+	}
+
+	/**
+	 * @return The annotations in columns.
+	 */
+	public AnnotationBuffer getAnnotationBuffer() {
+		return annotationBuffer;
 	}
 
 	public List<Annotation> getAnnotations() {
+		if (annotations == null) {
+			annotations = annotationBuffer.toList();
+		}
 		return annotations;
 	}
 
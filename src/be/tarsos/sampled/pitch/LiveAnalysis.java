@@ -0,0 +1,481 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+import javax.swing.SwingUtilities;
+
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.dsp.io.TarsosDSPAudioInputStream;
+import be.tarsos.dsp.io.jvm.JVMAudioInputStream;
+import be.tarsos.dsp.pitch.PitchDetectionHandler;
+import be.tarsos.dsp.pitch.PitchDetectionResult;
+import be.tarsos.sampled.SampledAudioUtilities;
+import be.tarsos.util.AudioTranscoder;
+import be.tarsos.util.ByteRingBuffer;
+import be.tarsos.util.ConfKey;
+import be.tarsos.util.Configuration;
+import be.tarsos.util.ConfigurationSnapshot;
+import be.tarsos.util.LatencyStatistics;
+
+/**
+ * Detects pitch in audio captured from the configured input mixer and
+ * publishes the annotations while the audio comes in, so the pitch class
+ * histograms build up in real time. A capture thread reads the line in small
+ * blocks and hands them to the analysis thread through a lock-free
+ * {@link ByteRingBuffer}. The analysis thread detects pitch in buffers of the
+ * configured pitch detector buffer size, every
+ * {@link ConfKey#live_analysis_hop_size} milliseconds, and publishes the
+ * annotations in batches to the {@link AnnotationPublisher}, on the event
+ * dispatch thread.
+ * <p>
+ * The end-to-end latency of each annotation, from the moment the last sample
+ * of its buffer was captured until it is published, is collected in
+ * {@link #getLatency()} and logged regularly.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class LiveAnalysis {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(LiveAnalysis.class.getName());
+
+	/**
+	 * The number of seconds of audio the ring buffer holds. When the analysis
+	 * falls further behind, captured audio is dropped.
+	 */
+	private static final double RING_BUFFER_DURATION = 2.0;
+
+	/**
+	 * Annotations are published at most once every this number of seconds.
+	 */
+	private static final double PUBLISH_INTERVAL = 0.025;
+
+	/**
+	 * The latency is logged every this number of seconds.
+	 */
+	private static final double REPORT_INTERVAL = 10;
+
+	private final PitchDetectionMode mode;
+	private final TarsosDSPAudioFormat format;
+	private final int bufferSize;
+	private final int hopSize;
+	private final AnnotationPublisher publisher;
+	private final LatencyStatistics latency;
+
+	/**
+	 * The number of frames refused by the full ring buffer.
+	 */
+	private final AtomicLong droppedFrames;
+
+	private volatile boolean running;
+	private AudioInputStream source;
+	private ByteRingBuffer ring;
+	private Thread captureThread;
+	private Thread analysisThread;
+
+	/**
+	 * The value of {@link System#nanoTime()} when the first frame was
+	 * captured.
+	 */
+	private volatile long startNanos;
+
+	/**
+	 * Create a live analysis with the current configuration.
+	 * 
+	 * @param pitchDetectionMode
+	 *            A mode supported by {@link TarsosPitchDetection}.
+	 */
+	public LiveAnalysis(final PitchDetectionMode pitchDetectionMode) {
+		this(pitchDetectionMode, Configuration.snapshot());
+	}
+
+	/**
+	 * Create a live analysis.
+	 * 
+	 * @param pitchDetectionMode
+	 *            A mode supported by {@link TarsosPitchDetection}.
+	 * @param configuration
+	 *            The configuration that defines the buffer and hop size.
+	 */
+	public LiveAnalysis(final PitchDetectionMode pitchDetectionMode, final ConfigurationSnapshot configuration) {
+		if (!TarsosPitchDetection.isSupported(pitchDetectionMode)) {
+			throw new IllegalArgumentException("Live analysis needs a TarsosDSP pitch detector, not "
+					+ pitchDetectionMode.name());
+		}
+		mode = pitchDetectionMode;
+		format = AudioTranscoder.targetFormat();
+		bufferSize = TarsosPitchDetection.bufferSize(configuration, format.getSampleRate());
+		hopSize = hopSize(configuration, format.getSampleRate(), bufferSize);
+		publisher = AnnotationPublisher.getInstance();
+		latency = new LatencyStatistics();
+		droppedFrames = new AtomicLong();
+	}
+
+	/**
+	 * @param configuration
+	 *            The configuration.
+	 * @param sampleRate
+	 *            The sample rate of the audio.
+	 * @param bufferSize
+	 *            The buffer size in samples.
+	 * @return The configured hop size in samples, at least one sample and at
+	 *         most the buffer size.
+	 */
+	private static int hopSize(final ConfigurationSnapshot configuration, final float sampleRate, final int bufferSize) {
+		final double hopSizeInMs = configuration.getDouble(ConfKey.live_analysis_hop_size);
+		final int hop = (int) Math.round(sampleRate * hopSizeInMs / 1000.0);
+		return Math.max(1, Math.min(bufferSize, hop));
+	}
+
+	/**
+	 * Opens a line on the configured input mixer and starts the analysis.
+	 * 
+	 * @throws LineUnavailableException
+	 *             If no line can be opened.
+	 */
+	public synchronized void start() throws LineUnavailableException {
+		final AudioFormat lineFormat = JVMAudioInputStream.toAudioFormat(format);
+		// A small line buffer keeps the capture latency low: a few hops.
+		final int lineBufferSize = 4 * hopSize * format.getFrameSize();
+		final TargetDataLine line = SampledAudioUtilities.getOpenTargetLineFromConfiguredMixer(lineFormat,
+				lineBufferSize);
+		line.start();
+		LOG.info(String.format("Live analysis with %s on %s: buffers of %d samples every %d samples, line buffer of %d bytes.",
+				mode.getParametername(), line.getLineInfo(), bufferSize, hopSize, line.getBufferSize()));
+		start(new AudioInputStream(line));
+	}
+
+	/**
+	 * Starts the analysis of a stream that delivers audio in real time, e.g. a
+	 * line, in the {@link AudioTranscoder#targetFormat()}.
+	 * 
+	 * @param stream
+	 *            The stream to analyse, it is closed when the analysis
+	 *            stops.
+	 */
+	public synchronized void start(final AudioInputStream stream) {
+		if (running) {
+			throw new IllegalStateException("The live analysis is already running.");
+		}
+		running = true;
+		source = stream;
+		ring = new ByteRingBuffer((int) (RING_BUFFER_DURATION * format.getSampleRate()) * format.getFrameSize());
+		latency.clear();
+		droppedFrames.set(0);
+
+		final AudioDispatcher dispatcher = new AudioDispatcher(new RingBufferInputStream(ring, format), bufferSize,
+				bufferSize - hopSize);
+		final PublishingHandler handler = new PublishingHandler();
+		dispatcher.addAudioProcessor(TarsosPitchDetection.createPitchProcessor(mode, format.getSampleRate(),
+				bufferSize, handler));
+		dispatcher.addAudioProcessor(handler);
+
+		publisher.clearTree();
+		publisher.clear();
+		publisher.extractionStarted();
+
+		startNanos = System.nanoTime();
+		captureThread = new Thread(new Runnable() {
+			public void run() {
+				capture();
+			}
+		}, "live-capture");
+		captureThread.setDaemon(true);
+		analysisThread = new Thread(dispatcher, "live-analysis");
+		analysisThread.setDaemon(true);
+		analysisThread.start();
+		captureThread.start();
+	}
+
+	/**
+	 * Reads captured audio in blocks of one hop and hands it to the analysis
+	 * thread. Blocks that do not fit in the ring buffer are dropped.
+	 */
+	private void capture() {
+		final int frameSize = format.getFrameSize();
+		final byte[] block = new byte[hopSize * frameSize];
+		try {
+			while (running) {
+				int read = 0;
+				while (read < block.length) {
+					final int readNow = source.read(block, read, block.length - read);
+					if (readNow < 0) {
+						break;
+					}
+					read += readNow;
+				}
+				if (read == 0) {
+					break;
+				}
+				final int written = ring.offer(block, 0, read);
+				if (written < read) {
+					droppedFrames.addAndGet((read - written) / frameSize);
+				}
+				if (read < block.length) {
+					break;
+				}
+			}
+		} catch (final IOException e) {
+			if (running) {
+				LOG.log(Level.WARNING, "Live audio capture failed.", e);
+			}
+		} finally {
+			ring.close();
+		}
+	}
+
+	/**
+	 * Stops capturing audio. The audio captured so far is analysed before
+	 * this method returns. The last annotations are published afterwards, on
+	 * the event dispatch thread.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		try {
+			source.close();
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not close the live audio source.", e);
+		}
+		try {
+			captureThread.join();
+			analysisThread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOG.info(String.format("Stopped live analysis, %d frames dropped. Latency: %s", droppedFrames.get(), latency));
+	}
+
+	/**
+	 * @return True if audio is captured.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return The end-to-end latencies of the published annotations.
+	 */
+	public LatencyStatistics getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return The number of captured frames dropped because the analysis fell
+	 *         behind.
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	/**
+	 * @return The hop size in samples.
+	 */
+	public int getHopSize() {
+		return hopSize;
+	}
+
+	/**
+	 * @return The buffer size in samples.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Collects the annotations of the pitch processor on the analysis thread
+	 * and publishes them in batches on the event dispatch thread, where the
+	 * annotation tree and its listeners are used. Batches that are not
+	 * delivered yet, e.g. while the user interface is busy, are delivered
+	 * together.
+	 */
+	private final class PublishingHandler implements PitchDetectionHandler, AudioProcessor {
+		private final List<Annotation> pending = new ArrayList<Annotation>();
+		/**
+		 * The moments the last samples of the buffers of the pending
+		 * annotations were captured, in nanoseconds.
+		 */
+		private long[] pendingCaptureTimes = new long[64];
+		/**
+		 * The index of the frame after the buffer being analysed.
+		 */
+		private long windowEnd = bufferSize;
+		private long lastPublish = System.nanoTime();
+		private long lastReport = System.nanoTime();
+
+		/**
+		 * Guards the annotations handed over to the event dispatch thread.
+		 */
+		private final Object deliveryLock = new Object();
+		private List<Annotation> undelivered = new ArrayList<Annotation>();
+		private long[] undeliveredCaptureTimes = new long[64];
+		private boolean deliveryScheduled;
+
+		private final Runnable delivery = new Runnable() {
+			public void run() {
+				final List<Annotation> batch;
+				final long[] captureTimes;
+				synchronized (deliveryLock) {
+					batch = undelivered;
+					captureTimes = undeliveredCaptureTimes;
+					undelivered = new ArrayList<Annotation>();
+					undeliveredCaptureTimes = new long[64];
+					deliveryScheduled = false;
+				}
+				publisher.addAnnotations(batch);
+				publisher.delegateAddAnnotations(batch);
+				final long published = System.nanoTime();
+				for (int i = 0; i < batch.size(); i++) {
+					latency.record(published - captureTimes[i]);
+				}
+			}
+		};
+
+		public void handlePitch(final PitchDetectionResult pitchDetectionResult, final AudioEvent audioEvent) {
+			if (pitchDetectionResult.isPitched()) {
+				// Dropped audio shifts the analysed audio with respect to the
+				// captured audio.
+				final long dropped = droppedFrames.get();
+				final double start = audioEvent.getTimeStamp() + dropped / format.getSampleRate();
+				final long captureTime = startNanos
+						+ (long) ((windowEnd + dropped) * 1000000000.0 / format.getSampleRate());
+				if (pending.size() == pendingCaptureTimes.length) {
+					pendingCaptureTimes = Arrays.copyOf(pendingCaptureTimes, pendingCaptureTimes.length * 2);
+				}
+				pendingCaptureTimes[pending.size()] = captureTime;
+				pending.add(new Annotation(start, pitchDetectionResult.getPitch(), mode,
+						TarsosPitchDetection.salience(pitchDetectionResult)));
+			}
+		}
+
+		public boolean process(final AudioEvent audioEvent) {
+			windowEnd += hopSize;
+			final long now = System.nanoTime();
+			if (now - lastPublish >= PUBLISH_INTERVAL * 1000000000L) {
+				publish();
+				lastPublish = now;
+			}
+			if (now - lastReport >= REPORT_INTERVAL * 1000000000L) {
+				LOG.info(String.format("Live analysis latency: %s, %d frames dropped.", latency,
+						droppedFrames.get()));
+				lastReport = now;
+			}
+			return true;
+		}
+
+		public void processingFinished() {
+			publish();
+			// runs after the delivery of the last batch
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					publisher.extractionFinished();
+				}
+			});
+		}
+
+		private void publish() {
+			if (pending.isEmpty()) {
+				return;
+			}
+			synchronized (deliveryLock) {
+				final int delivered = undelivered.size();
+				if (delivered + pending.size() > undeliveredCaptureTimes.length) {
+					undeliveredCaptureTimes = Arrays.copyOf(undeliveredCaptureTimes,
+							Math.max(undeliveredCaptureTimes.length * 2, delivered + pending.size()));
+				}
+				System.arraycopy(pendingCaptureTimes, 0, undeliveredCaptureTimes, delivered, pending.size());
+				undelivered.addAll(pending);
+				if (!deliveryScheduled) {
+					deliveryScheduled = true;
+					SwingUtilities.invokeLater(delivery);
+				}
+			}
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Reads the captured audio from the ring buffer.
+	 */
+	private static final class RingBufferInputStream implements TarsosDSPAudioInputStream {
+		private final ByteRingBuffer ring;
+		private final TarsosDSPAudioFormat format;
+
+		private RingBufferInputStream(final ByteRingBuffer ringBuffer, final TarsosDSPAudioFormat audioFormat) {
+			ring = ringBuffer;
+			format = audioFormat;
+		}
+
+		public long skip(final long bytesToSkip) throws IOException {
+			final byte[] skipped = new byte[(int) Math.min(bytesToSkip, 4096)];
+			long total = 0;
+			while (total < bytesToSkip) {
+				final int read = ring.read(skipped, 0, (int) Math.min(skipped.length, bytesToSkip - total));
+				if (read < 0) {
+					break;
+				}
+				total += read;
+			}
+			return total;
+		}
+
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			return ring.read(b, off, len);
+		}
+
+		public void close() throws IOException {
+			ring.close();
+		}
+
+		public TarsosDSPAudioFormat getFormat() {
+			return format;
+		}
+
+		public long getFrameLength() {
+			return -1;
+		}
+	}
+}
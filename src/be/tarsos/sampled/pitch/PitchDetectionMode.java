@@ -154,9 +154,9 @@ public enum PitchDetectionMode {
 	 * 
 	 * @param audioFile
 	 *            the audioFile to detect pitch for.
-	 * @return A pitch detector for the audio file.
+	 * @return A pitch detector for the audio file, its results are cached.
 	 */
-	public PitchDetector getPitchDetector(final AudioFile audioFile) {
+	public CachingDetector getPitchDetector(final AudioFile audioFile) {
 		PitchDetector detector;
 		switch (this) {
 		case IPEM_SIX:
@@ -27,9 +27,12 @@ package be.tarsos.sampled.pitch;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.Command;
+import be.tarsos.util.ExternalProcessPool;
 
 
 /**
@@ -37,6 +40,8 @@ import be.tarsos.util.Command;
  * @author Joren Six
  */
 public class Polyphon implements PitchDetector {
+	private static final Logger LOG = Logger.getLogger(Polyphon.class.getName());
+	
 	private final List<Annotation> annotations;
 	private final AudioFile file;
 	private final PitchDetectionMode mode;
@@ -56,22 +61,29 @@ public class Polyphon implements PitchDetector {
 		cmd.addArgument(String.valueOf(polyphony));
 		cmd.addFileArgument(file.transcodedPath());
 		try {
-			String output = cmd.execute();
-			String[] rows = output.split("\n");
-			for(String row : rows){
-				String[] data = row.split("\\s+");
-				double timeStamp = Double.valueOf(data[0]);
-				// 0        1           2            3          4            = 5   5/2 = 2
-				//timestamp frequency1 frequency2... salience1 salience2...
-				for(int i = 1 ; i < (data.length+1)/ 2 ; i++){
-					double pitchInHz = Double.valueOf(data[i]);
-					double salience = Double.valueOf(data[i+data.length/2]);
-					Annotation a = new Annotation(timeStamp, pitchInHz, mode,salience);
-					annotations.add(a);
+			//Parse the output while polyphon runs.
+			ExternalProcessPool.getInstance().execute(cmd, new ExternalProcessPool.OutputParser() {
+				public void handleLine(String row) {
+					String[] data = row.trim().split("\\s+");
+					if(data.length < 3){
+						return;
+					}
+					double timeStamp = Double.valueOf(data[0]);
+					// 0        1           2            3          4            = 5   5/2 = 2
+					//timestamp frequency1 frequency2... salience1 salience2...
+					for(int i = 1 ; i < (data.length+1)/ 2 ; i++){
+						double pitchInHz = Double.valueOf(data[i]);
+						double salience = Double.valueOf(data[i+data.length/2]);
+						Annotation a = new Annotation(timeStamp, pitchInHz, mode,salience);
+						annotations.add(a);
+					}
 				}
-			}
+				public void reset() {
+					annotations.clear();
+				}
+			});
 		} catch (IOException e) {
-			
+			LOG.log(Level.WARNING, "Polyphon failed for " + file.originalBasename(), e);
 		}
 		return annotations;
 	}
@@ -0,0 +1,392 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.sampled.pitch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.pitch.PitchDetectionHandler;
+import be.tarsos.dsp.pitch.PitchDetectionResult;
+import be.tarsos.sampled.MappedPcmSource;
+import be.tarsos.util.AudioFile;
+import be.tarsos.util.Configuration;
+import be.tarsos.util.ConfigurationSnapshot;
+import be.tarsos.util.RebufferingProcessor;
+import be.tarsos.util.StopWatch;
+
+/**
+ * Executes several TarsosDSP pitch detectors on one pass over the transcoded
+ * audio, instead of one pass per detector. The audio is read once, cut into
+ * windows once for each buffer size and overlap, and each window is handed to
+ * all detectors that use it. Detectors that share a window run in parallel.
+ * <p>
+ * The annotations equal the ones of
+ * {@link TarsosPitchDetection#executePitchDetection()}. Detectors added with
+ * the configured buffer size and overlap use and fill the cache of their
+ * {@link CachingDetector}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class SharedPitchDetection {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(SharedPitchDetection.class.getName());
+
+	/**
+	 * The number of frames read from the transcoded file at once.
+	 */
+	private static final int READ_BUFFER_SIZE = 2048;
+
+	/**
+	 * Shared pool to run detectors that share a window, the threads are daemon
+	 * threads so they do not prevent the JVM from exiting.
+	 */
+	private static ExecutorService detectorExecutor;
+
+	private final AudioFile audioFile;
+	private final ConfigurationSnapshot configuration;
+	private final Map<PitchDetectionMode, Window> windows;
+	private volatile double progress;
+
+	/**
+	 * The buffer size and overlap of a detector.
+	 */
+	private static final class Window {
+		private final int bufferSize;
+		private final int overlap;
+		private final boolean configured;
+
+		private Window(final int windowBufferSize, final int windowOverlap, final boolean isConfigured) {
+			bufferSize = windowBufferSize;
+			overlap = windowOverlap;
+			configured = isConfigured;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			return other instanceof Window && ((Window) other).bufferSize == bufferSize
+					&& ((Window) other).overlap == overlap;
+		}
+
+		@Override
+		public int hashCode() {
+			return bufferSize * 31 + overlap;
+		}
+	}
+
+	/**
+	 * Create a new shared detection with the current configuration.
+	 * 
+	 * @param file
+	 *            The file to detect pitch in.
+	 */
+	public SharedPitchDetection(final AudioFile file) {
+		this(file, Configuration.snapshot());
+	}
+
+	/**
+	 * Create a new shared detection.
+	 * 
+	 * @param file
+	 *            The file to detect pitch in.
+	 * @param snapshot
+	 *            The configuration that defines the buffer size and overlap
+	 *            of the detectors added with {@link #add(PitchDetectionMode)}.
+	 */
+	public SharedPitchDetection(final AudioFile file, final ConfigurationSnapshot snapshot) {
+		audioFile = file;
+		configuration = snapshot;
+		windows = new LinkedHashMap<PitchDetectionMode, Window>();
+	}
+
+	/**
+	 * Adds a detector with the configured buffer size and overlap.
+	 * 
+	 * @param mode
+	 *            A mode for which
+	 *            {@link TarsosPitchDetection#isSupported(PitchDetectionMode)}
+	 *            holds.
+	 */
+	public void add(final PitchDetectionMode mode) {
+		final float sampleRate = sampleRate();
+		final int bufferSize = TarsosPitchDetection.bufferSize(configuration, sampleRate);
+		add(mode, new Window(bufferSize, TarsosPitchDetection.overlap(configuration, bufferSize), true));
+	}
+
+	/**
+	 * Adds a detector with its own buffer size and overlap. The results are
+	 * not cached.
+	 * 
+	 * @param mode
+	 *            A mode for which
+	 *            {@link TarsosPitchDetection#isSupported(PitchDetectionMode)}
+	 *            holds.
+	 * @param bufferSize
+	 *            The buffer size in samples.
+	 * @param overlap
+	 *            The overlap in samples.
+	 */
+	public void add(final PitchDetectionMode mode, final int bufferSize, final int overlap) {
+		add(mode, new Window(bufferSize, overlap, false));
+	}
+
+	private void add(final PitchDetectionMode mode, final Window window) {
+		if (!TarsosPitchDetection.isSupported(mode)) {
+			throw new IllegalArgumentException("Not a TarsosDSP pitch detector: " + mode.name());
+		}
+		if (windows.containsKey(mode)) {
+			throw new IllegalArgumentException("The detector is already added: " + mode.name());
+		}
+		windows.put(mode, window);
+	}
+
+	private float sampleRate() {
+		return audioFile.fileFormat().getFormat().getSampleRate();
+	}
+
+	/**
+	 * Detects pitch with all added detectors. Cached results are read, the
+	 * other detectors share one pass over the audio.
+	 * 
+	 * When the thread is interrupted the pass stops and the detected
+	 * annotations are not returned or cached.
+	 * 
+	 * @return The annotations of each detector, in the order the detectors
+	 *         were added.
+	 */
+	public Map<PitchDetectionMode, AnnotationBuffer> execute() {
+		final Map<PitchDetectionMode, AnnotationBuffer> results = new EnumMap<PitchDetectionMode, AnnotationBuffer>(
+				PitchDetectionMode.class);
+		final Map<Window, List<PitchDetectionMode>> detect = new LinkedHashMap<Window, List<PitchDetectionMode>>();
+		for (final Map.Entry<PitchDetectionMode, Window> entry : windows.entrySet()) {
+			final PitchDetectionMode mode = entry.getKey();
+			final Window window = entry.getValue();
+			final CachingDetector detector = mode.getPitchDetector(audioFile);
+			if (window.configured && detector.isCached(configuration)) {
+				results.put(mode, detector.executeBufferedPitchDetection());
+			} else {
+				if (!detect.containsKey(window)) {
+					detect.put(window, new ArrayList<PitchDetectionMode>());
+				}
+				detect.get(window).add(mode);
+			}
+		}
+		if (!detect.isEmpty()) {
+			final StopWatch watch = new StopWatch();
+			final Map<PitchDetectionMode, AnnotationBuffer> detected = detect(detect);
+			if (Thread.currentThread().isInterrupted()) {
+				// cancelled: the annotations are incomplete and are not cached
+				LOG.fine(String.format("Pitch detection in %s cancelled.", audioFile.originalBasename()));
+				return results;
+			}
+			for (final Map.Entry<PitchDetectionMode, AnnotationBuffer> entry : detected.entrySet()) {
+				final PitchDetectionMode mode = entry.getKey();
+				if (windows.get(mode).configured) {
+					mode.getPitchDetector(audioFile).cacheAnnotations(entry.getValue(), configuration);
+				}
+				results.put(mode, entry.getValue());
+			}
+			LOG.fine(String.format("Detected pitch in %s with %s in one pass of %s.", audioFile.originalBasename(),
+					detected.keySet(), watch.formattedToString()));
+		}
+		progress = 1.0;
+		return results;
+	}
+
+	private Map<PitchDetectionMode, AnnotationBuffer> detect(final Map<Window, List<PitchDetectionMode>> detect) {
+		final Map<PitchDetectionMode, AnnotationBuffer> detected = new EnumMap<PitchDetectionMode, AnnotationBuffer>(
+				PitchDetectionMode.class);
+		try {
+			final MappedPcmSource source = audioFile.pcmSource();
+			final float sampleRate = source.getFormat().getSampleRate();
+			final List<RebufferingProcessor> windowProcessors = new ArrayList<RebufferingProcessor>();
+			for (final Map.Entry<Window, List<PitchDetectionMode>> entry : detect.entrySet()) {
+				final Window window = entry.getKey();
+				final RebufferingProcessor windowProcessor = new RebufferingProcessor(source.getTarsosDSPFormat(),
+						window.bufferSize, window.overlap);
+				final List<AudioProcessor> detectors = new ArrayList<AudioProcessor>();
+				for (final PitchDetectionMode mode : entry.getValue()) {
+					final AnnotationBuffer annotations = new AnnotationBuffer();
+					detectors.add(TarsosPitchDetection.createPitchProcessor(mode, sampleRate, window.bufferSize,
+							new AnnotationBufferHandler(mode, annotations)));
+					detected.put(mode, annotations);
+				}
+				if (detectors.size() == 1 || Runtime.getRuntime().availableProcessors() == 1) {
+					for (final AudioProcessor detector : detectors) {
+						windowProcessor.addAudioProcessor(detector);
+					}
+				} else {
+					windowProcessor.addAudioProcessor(new ParallelProcessor(detectors));
+				}
+				windowProcessors.add(windowProcessor);
+			}
+
+			// Each block is read once and cut into the windows of every
+			// buffer size and overlap.
+			final int channels = source.getFormat().getChannels();
+			final float[] block = new float[READ_BUFFER_SIZE * channels];
+			final long frameLength = source.getFrameLength();
+			long frame = 0;
+			int read = source.read(frame, block, 0, READ_BUFFER_SIZE);
+			while (read > 0 && !Thread.currentThread().isInterrupted()) {
+				for (final RebufferingProcessor windowProcessor : windowProcessors) {
+					windowProcessor.addSamples(block, 0, read * channels);
+				}
+				frame += read;
+				progress = frame / (double) frameLength;
+				read = source.read(frame, block, 0, READ_BUFFER_SIZE);
+			}
+			for (final RebufferingProcessor windowProcessor : windowProcessors) {
+				windowProcessor.processingFinished();
+			}
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.log(Level.SEVERE, "Pitch detection failed for " + audioFile.originalBasename(), e);
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Pitch detection failed for " + audioFile.originalBasename(), e);
+		}
+		return detected;
+	}
+
+	/**
+	 * @return The progress of the pass over the audio, between zero and one.
+	 */
+	public double progress() {
+		return progress;
+	}
+
+	/**
+	 * Adds the pitched results of a detector to a buffer.
+	 */
+	private static final class AnnotationBufferHandler implements PitchDetectionHandler {
+		private final PitchDetectionMode mode;
+		private final AnnotationBuffer target;
+
+		private AnnotationBufferHandler(final PitchDetectionMode detectionMode, final AnnotationBuffer buffer) {
+			mode = detectionMode;
+			target = buffer;
+		}
+
+		public void handlePitch(final PitchDetectionResult pitchDetectionResult,
+				final AudioEvent audioEvent) {
+			if (pitchDetectionResult.isPitched()) {
+				target.add(audioEvent.getTimeStamp(), pitchDetectionResult.getPitch(), mode,
+						TarsosPitchDetection.salience(pitchDetectionResult));
+			}
+		}
+	}
+
+	/**
+	 * Hands each event to several processors at the same time and waits for
+	 * all of them. The processors should only read the event.
+	 */
+	private static final class ParallelProcessor implements AudioProcessor {
+		private final List<AudioProcessor> processors;
+		private final List<Callable<Boolean>> tasks;
+		private final List<Future<Boolean>> futures;
+		private AudioEvent event;
+
+		private ParallelProcessor(final List<AudioProcessor> audioProcessors) {
+			processors = audioProcessors;
+			tasks = new ArrayList<Callable<Boolean>>();
+			futures = new ArrayList<Future<Boolean>>();
+			for (final AudioProcessor processor : processors.subList(1, processors.size())) {
+				tasks.add(new Callable<Boolean>() {
+					public Boolean call() {
+						return processor.process(event);
+					}
+				});
+			}
+		}
+
+		public boolean process(final AudioEvent audioEvent) {
+			event = audioEvent;
+			final ExecutorService executor = getDetectorExecutor();
+			futures.clear();
+			for (final Callable<Boolean> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			// the calling thread runs the first processor
+			processors.get(0).process(audioEvent);
+			try {
+				for (final Future<Boolean> future : futures) {
+					future.get();
+				}
+			} catch (final InterruptedException e) {
+				for (final Future<Boolean> future : futures) {
+					future.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (final ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			return true;
+		}
+
+		public void processingFinished() {
+			for (final AudioProcessor processor : processors) {
+				processor.processingFinished();
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getDetectorExecutor() {
+		if (detectorExecutor == null) {
+			detectorExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+						private int count;
+
+						public Thread newThread(final Runnable runnable) {
+							final Thread thread = new Thread(runnable, "pitch-detector-" + count++);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return detectorExecutor;
+	}
+}
@@ -27,9 +27,12 @@ package be.tarsos.sampled.pitch;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.Command;
+import be.tarsos.util.ExternalProcessPool;
 
 
 /**
@@ -37,6 +40,8 @@ import be.tarsos.util.Command;
  * @author Joren Six
  */
 public class Swipe implements PitchDetector {
+	private static final Logger LOG = Logger.getLogger(Swipe.class.getName());
+	
 	private final List<Annotation> annotations;
 	private final AudioFile file;
 	private final PitchDetectionMode mode;
@@ -54,19 +59,23 @@ public class Swipe implements PitchDetector {
 		cmd.addArgument("-i").addFileArgument(file.transcodedPath());
 		
 		try {
-			String output = cmd.execute();
-			String[] rows = output.split("\n");
-			for(String row : rows){
-				String[] data = row.split("\\s+");
-				if(!data[1].equals("nan")){
-					double timeStamp = Double.valueOf(data[0]);
-					double pitchInHz = Double.valueOf(data[1]);
-					Annotation a = new Annotation(timeStamp, pitchInHz, mode);
-					annotations.add(a);
+			//Parse the output while swipe runs.
+			ExternalProcessPool.getInstance().execute(cmd, new ExternalProcessPool.OutputParser() {
+				public void handleLine(String row) {
+					String[] data = row.split("\\s+");
+					if(data.length > 1 && !data[1].equals("nan")){
+						double timeStamp = Double.valueOf(data[0]);
+						double pitchInHz = Double.valueOf(data[1]);
+						Annotation a = new Annotation(timeStamp, pitchInHz, mode);
+						annotations.add(a);
+					}
 				}
-			}
+				public void reset() {
+					annotations.clear();
+				}
+			});
 		} catch (IOException e) {
-			
+			LOG.log(Level.WARNING, "Swipe failed for " + file.originalBasename(), e);
 		}
 		
 		
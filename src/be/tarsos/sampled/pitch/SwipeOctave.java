@@ -27,9 +27,12 @@ package be.tarsos.sampled.pitch;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.Command;
+import be.tarsos.util.ExternalProcessPool;
 
 
 /**
@@ -37,6 +40,8 @@ import be.tarsos.util.Command;
  * @author Joren Six
  */
 public class SwipeOctave implements PitchDetector {
+	private static final Logger LOG = Logger.getLogger(SwipeOctave.class.getName());
+	
 	private final List<Annotation> annotations;
 	private final AudioFile file;
 	private final PitchDetectionMode mode;
@@ -52,20 +57,24 @@ public class SwipeOctave implements PitchDetector {
 		cmd.addFileArgument(file.transcodedPath());
 		
 		try {
-			String output = cmd.execute();
-			String[] rows = output.split("\n");
-			for(String row : rows){
-				String[] data = row.split("\\s+");
-				if(!data[1].equals("NaN")){
-					double timeStamp = Double.valueOf(data[0]);
-					double pitchInHz = Double.valueOf(data[1]);
-					double strength = Double.valueOf(data[2]);
-					Annotation a = new Annotation(timeStamp, pitchInHz, mode,strength);
-					annotations.add(a);
+			//Parse the output while swipe runs.
+			ExternalProcessPool.getInstance().execute(cmd, new ExternalProcessPool.OutputParser() {
+				public void handleLine(String row) {
+					String[] data = row.split("\\s+");
+					if(data.length > 2 && !data[1].equals("NaN")){
+						double timeStamp = Double.valueOf(data[0]);
+						double pitchInHz = Double.valueOf(data[1]);
+						double strength = Double.valueOf(data[2]);
+						Annotation a = new Annotation(timeStamp, pitchInHz, mode,strength);
+						annotations.add(a);
+					}
 				}
-			}
+				public void reset() {
+					annotations.clear();
+				}
+			});
 		} catch (IOException e) {
-			
+			LOG.log(Level.WARNING, "Swipe failed for " + file.originalBasename(), e);
 		}
 		
 		
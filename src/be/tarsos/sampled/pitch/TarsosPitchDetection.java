@@ -28,23 +28,62 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import be.tarsos.dsp.AudioDispatcher;
 import be.tarsos.dsp.AudioEvent;
 import be.tarsos.dsp.AudioProcessor;
 import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
+import be.tarsos.dsp.io.jvm.JVMAudioInputStream;
 import be.tarsos.dsp.pitch.PitchDetectionHandler;
 import be.tarsos.dsp.pitch.PitchDetectionResult;
 import be.tarsos.dsp.pitch.PitchProcessor;
 import be.tarsos.dsp.pitch.PitchProcessor.PitchEstimationAlgorithm;
 import be.tarsos.util.AudioFile;
-import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.ConfigurationSnapshot;
 
+/**
+ * Pitch detection with the algorithms included in TarsosDSP. Long files are
+ * split into segments of consecutive (overlapping) buffers which are analysed
+ * concurrently. The segments start at buffer boundaries of the sequential run
+ * and time stamps are derived from the absolute buffer index so the resulting
+ * annotations are identical to a sequential analysis.
+ * 
+ * @author Joren Six
+ */
 public class TarsosPitchDetection implements PitchDetector {
 	
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(TarsosPitchDetection.class.getName());
+	
+	/**
+	 * Segments shorter than this (in seconds) are not worth the overhead of
+	 * opening another stream.
+	 */
+	private static final double MIN_SEGMENT_DURATION = 20.0;
+	
+	/**
+	 * Shared pool to analyse segments, the threads are daemon threads so they
+	 * do not prevent the JVM from exiting.
+	 */
+	private static ExecutorService segmentExecutor;
+	
 	private final AudioFile audioFile;
 	private final PitchEstimationAlgorithm algorithm;
 	private final List<Annotation> annotations;
@@ -58,7 +97,7 @@ public class TarsosPitchDetection implements PitchDetector {
 		public void handlePitch(PitchDetectionResult pitchDetectionResult,
 				AudioEvent audioEvent) {
 			if(pitchDetectionResult.isPitched()){
-				Annotation annotation = new Annotation(audioEvent.getTimeStamp(), pitchDetectionResult.getPitch(), annotationSource,pitchDetectionResult.getProbability());
+				Annotation annotation = new Annotation(audioEvent.getTimeStamp(), pitchDetectionResult.getPitch(), annotationSource,salience(pitchDetectionResult));
 				annotations.add(annotation);
 			}
 		}
@@ -77,6 +116,18 @@ public class TarsosPitchDetection implements PitchDetector {
 		this.audioFile = audioFile;
 		annotationSource = pitchDetectionMode;
 		annotations = new ArrayList<Annotation>();
+		algorithm = algorithm(pitchDetectionMode);
+		if (algorithm == null) {
+			throw new IllegalArgumentException("Algorithm not recognized, should be MPM, YIN or Dynamic Wavelet, is " + pitchDetectionMode.name());
+		}
+	}
+	
+	/**
+	 * @return The TarsosDSP algorithm for the mode, or null if the mode is not
+	 *         implemented by TarsosDSP.
+	 */
+	private static PitchEstimationAlgorithm algorithm(final PitchDetectionMode pitchDetectionMode) {
+		final PitchEstimationAlgorithm algorithm;
 		if(pitchDetectionMode == PitchDetectionMode.TARSOS_MPM){
 			algorithm = PitchEstimationAlgorithm.MPM;
 		} else if (pitchDetectionMode == PitchDetectionMode.TARSOS_YIN){
@@ -86,18 +137,174 @@ public class TarsosPitchDetection implements PitchDetector {
 		} else if (pitchDetectionMode == PitchDetectionMode.TARSOS_FFT_YIN){
 			algorithm = PitchEstimationAlgorithm.FFT_YIN;
 		} else {
+			algorithm = null;
+		}
+		return algorithm;
+	}
+	
+	/**
+	 * @param pitchDetectionMode
+	 *            The mode to check.
+	 * @return True if the mode is executed by this class.
+	 */
+	public static boolean isSupported(final PitchDetectionMode pitchDetectionMode) {
+		return algorithm(pitchDetectionMode) != null;
+	}
+	
+	/**
+	 * @param sampleRate
+	 *            The sample rate of the audio.
+	 * @return The configured buffer size in samples.
+	 */
+	public static int bufferSize(final float sampleRate) {
+		return bufferSize(Configuration.snapshot(), sampleRate);
+	}
+
+	/**
+	 * @param configuration
+	 *            The configuration to use.
+	 * @param sampleRate
+	 *            The sample rate of the audio.
+	 * @return The buffer size of the configuration in samples.
+	 */
+	public static int bufferSize(final ConfigurationSnapshot configuration, final float sampleRate) {
+		return (int) (sampleRate * configuration.getPitchDetectorBufferSize() / 1000.0);
+	}
+	
+	/**
+	 * @param bufferSize
+	 *            The buffer size in samples.
+	 * @return The configured overlap in samples.
+	 */
+	public static int overlap(final int bufferSize) {
+		return overlap(Configuration.snapshot(), bufferSize);
+	}
+
+	/**
+	 * @param configuration
+	 *            The configuration to use.
+	 * @param bufferSize
+	 *            The buffer size in samples.
+	 * @return The overlap of the configuration in samples.
+	 */
+	public static int overlap(final ConfigurationSnapshot configuration, final int bufferSize) {
+		return (int) (bufferSize * configuration.getPitchDetectorBufferOverlap() / 100.0);
+	}
+	
+	/**
+	 * Creates a processor that detects pitch in buffers of
+	 * {@link #bufferSize(float)} samples with {@link #overlap(int)} samples
+	 * overlap, e.g. to analyse audio while it is decoded. Time stamps are taken
+	 * from the audio events so the annotations equal the ones of
+	 * {@link #executePitchDetection()} when the events equal the ones of a
+	 * dispatcher reading the transcoded file.
+	 * 
+	 * @param pitchDetectionMode
+	 *            A mode for which {@link #isSupported(PitchDetectionMode)}
+	 *            holds.
+	 * @param sampleRate
+	 *            The sample rate of the audio.
+	 * @param target
+	 *            The buffer to add annotations to.
+	 * @return A processor that adds annotations to the target.
+	 */
+	public static AudioProcessor createPitchProcessor(final PitchDetectionMode pitchDetectionMode,
+			final float sampleRate, final AnnotationBuffer target) {
+		return createPitchProcessor(pitchDetectionMode, sampleRate, target, Configuration.snapshot());
+	}
+
+	/**
+	 * Creates a processor that detects pitch in buffers of the size configured
+	 * in a snapshot.
+	 * 
+	 * @param pitchDetectionMode
+	 *            A mode for which {@link #isSupported(PitchDetectionMode)}
+	 *            holds.
+	 * @param sampleRate
+	 *            The sample rate of the audio.
+	 * @param target
+	 *            The buffer to add annotations to.
+	 * @param configuration
+	 *            The configuration that defines the buffer size.
+	 * @return A processor that adds annotations to the target.
+	 * @see #createPitchProcessor(PitchDetectionMode, float, AnnotationBuffer)
+	 */
+	public static AudioProcessor createPitchProcessor(final PitchDetectionMode pitchDetectionMode,
+			final float sampleRate, final AnnotationBuffer target, final ConfigurationSnapshot configuration) {
+		return createPitchProcessor(pitchDetectionMode, sampleRate, bufferSize(configuration, sampleRate), new PitchDetectionHandler() {
+			public void handlePitch(PitchDetectionResult pitchDetectionResult, AudioEvent audioEvent) {
+				if (pitchDetectionResult.isPitched()) {
+					target.add(audioEvent.getTimeStamp(), pitchDetectionResult.getPitch(), pitchDetectionMode,
+							salience(pitchDetectionResult));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Creates a processor that detects pitch in buffers of a given size.
+	 * 
+	 * @param pitchDetectionMode
+	 *            A mode for which {@link #isSupported(PitchDetectionMode)}
+	 *            holds.
+	 * @param sampleRate
+	 *            The sample rate of the audio.
+	 * @param bufferSize
+	 *            The buffer size in samples.
+	 * @param handler
+	 *            Handles the result for each buffer.
+	 * @return A processor that sends its results to the handler.
+	 */
+	static AudioProcessor createPitchProcessor(final PitchDetectionMode pitchDetectionMode,
+			final float sampleRate, final int bufferSize, final PitchDetectionHandler handler) {
+		final PitchEstimationAlgorithm algorithm = algorithm(pitchDetectionMode);
+		if (algorithm == null) {
 			throw new IllegalArgumentException("Algorithm not recognized, should be MPM, YIN or Dynamic Wavelet, is " + pitchDetectionMode.name());
 		}
+		return new PitchProcessor(algorithm, sampleRate, bufferSize, handler);
+	}
+
+	/**
+	 * The dynamic wavelet detector reports a probability of -1 when it does
+	 * not estimate one and MPM may report a probability slightly above one.
+	 * 
+	 * @param pitchDetectionResult
+	 *            A pitched result.
+	 * @return The probability of the result as a salience between zero and
+	 *         one, the default salience of one if the probability is unknown.
+	 */
+	static double salience(final PitchDetectionResult pitchDetectionResult) {
+		final double probability = pitchDetectionResult.getProbability();
+		if (probability < 0 || probability > 1.0) {
+			return 1.0;
+		}
+		return probability;
 	}
 
 	public List<Annotation> executePitchDetection() {
 		try {
-			float sampleRate = audioFile.fileFormat().getFormat().getSampleRate();
-			int bufferSizeInMs = Configuration.getInt(ConfKey.pitch_detector_buffer_size);
-			int overlapPercentage = Configuration.getInt(ConfKey.pitch_detector_buffer_overlap);
+			AudioFileFormat fileFormat = audioFile.fileFormat();
+			float sampleRate = fileFormat.getFormat().getSampleRate();
+			// One snapshot for all segments: a concurrent change of the
+			// configuration can not mix buffer sizes.
+			ConfigurationSnapshot configuration = Configuration.snapshot();
+			int bufferSize = bufferSize(configuration, sampleRate);
+			int overlap = overlap(configuration, bufferSize);
+			int step = bufferSize - overlap;
+			
+			// Number of buffers that lie completely within the audio: only
+			// those can be the first buffer of a segment.
+			long frames = fileFormat.getFrameLength();
+			long fullBuffers = frames >= bufferSize ? (frames - bufferSize) / step + 1 : 0;
+			int segments = numberOfSegments(configuration, frames / sampleRate);
+			segments = (int) Math.min(segments, fullBuffers);
+			if (segments > 1 && executeSegmented(sampleRate, bufferSize, overlap, fullBuffers, segments)) {
+				return annotations;
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				return annotations;
+			}
 			
-			int bufferSize = (int) (sampleRate * bufferSizeInMs / 1000.0);
-			int overlap = (int) (bufferSize * overlapPercentage / 100.0) ;
 			AudioDispatcher dispatcher = AudioDispatcherFactory.fromFile(new File(audioFile.transcodedPath()), bufferSize, overlap);
 			dispatcher.addAudioProcessor(new PitchProcessor(algorithm, sampleRate, bufferSize, handler ));
 			dispatcher.addAudioProcessor(progressProcessor );
@@ -112,7 +319,146 @@ public class TarsosPitchDetection implements PitchDetector {
 		return annotations;
 	}
 	
+	/**
+	 * Determines how many segments are analysed concurrently.
+	 * 
+	 * @param configuration
+	 *            The configuration that defines the number of threads.
+	 * @param duration
+	 *            The duration of the audio in seconds.
+	 * @return The number of segments, one means a sequential analysis.
+	 */
+	private int numberOfSegments(final ConfigurationSnapshot configuration, final double duration) {
+		int threads = configuration.getPitchDetectionThreads();
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		return (int) Math.max(1, Math.min(threads, Math.floor(duration / MIN_SEGMENT_DURATION)));
+	}
+	
+	/**
+	 * Analyses segments of the file concurrently. When a segment fails or the
+	 * thread is interrupted no annotations are kept: the results of the other
+	 * segments would be cached as if the file were complete.
+	 * 
+	 * @return True if each segment was analysed, false otherwise.
+	 */
+	private boolean executeSegmented(final float sampleRate, final int bufferSize, final int overlap,
+			final long fullBuffers, final int segments) {
+		final int step = bufferSize - overlap;
+		final long totalBuffers = fullBuffers + (overlap == 0 ? 1 : bufferSize / step + 1);
+		final AtomicLong processedBuffers = new AtomicLong();
+		final File file = new File(audioFile.transcodedPath());
+		
+		final List<Future<List<Annotation>>> futures = new ArrayList<Future<List<Annotation>>>();
+		for (int i = 0; i < segments; i++) {
+			final long firstBuffer = fullBuffers * i / segments;
+			// The last segment simply runs until the end of the stream.
+			final long numberOfBuffers = i == segments - 1 ? Long.MAX_VALUE : fullBuffers * (i + 1) / segments - firstBuffer;
+			futures.add(getSegmentExecutor().submit(new Callable<List<Annotation>>() {
+				public List<Annotation> call() throws Exception {
+					return detectSegment(file, sampleRate, bufferSize, overlap, firstBuffer, numberOfBuffers, processedBuffers, totalBuffers);
+				}
+			}));
+		}
+		
+		try {
+			for (Future<List<Annotation>> future : futures) {
+				annotations.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			for (Future<List<Annotation>> future : futures) {
+				future.cancel(true);
+			}
+			annotations.clear();
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			for (Future<List<Annotation>> future : futures) {
+				future.cancel(true);
+			}
+			annotations.clear();
+			LOG.log(Level.WARNING, "Segmented pitch detection failed for " + audioFile.originalBasename()
+					+ ", detecting pitch sequentially.", e.getCause());
+			return false;
+		}
+		progress = 1.0;
+		LOG.fine(String.format("Detected pitch in %s using %d segments.", audioFile.originalBasename(), segments));
+		return true;
+	}
+	
+	/**
+	 * Analyses a number of consecutive buffers. The stream is positioned at
+	 * the start of the first buffer, which is read completely, just like the
+	 * sequential dispatcher does for a buffer it already has the overlap for.
+	 */
+	private List<Annotation> detectSegment(final File file, final float sampleRate, final int bufferSize,
+			final int overlap, final long firstBuffer, final long numberOfBuffers,
+			final AtomicLong processedBuffers, final long totalBuffers) throws UnsupportedAudioFileException,
+			IOException {
+		final int step = bufferSize - overlap;
+		final List<Annotation> segmentAnnotations = new ArrayList<Annotation>();
+		final AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+		final long bytesToSkip = firstBuffer * step * stream.getFormat().getFrameSize();
+		long skipped = 0;
+		while (skipped < bytesToSkip) {
+			long skippedNow = stream.skip(bytesToSkip - skipped);
+			if (skippedNow <= 0) {
+				stream.close();
+				throw new IOException("Could not skip to buffer " + firstBuffer + " in " + file.getName());
+			}
+			skipped += skippedNow;
+		}
+		
+		final AudioDispatcher dispatcher = new AudioDispatcher(new JVMAudioInputStream(stream), bufferSize, overlap);
+		// Index of the buffer currently processed, relative to the start of the file.
+		final long[] bufferIndex = { firstBuffer - 1 };
+		dispatcher.addAudioProcessor(new AudioProcessor() {
+			public boolean process(AudioEvent audioEvent) {
+				if (bufferIndex[0] - firstBuffer + 1 >= numberOfBuffers) {
+					dispatcher.stop();
+					return false;
+				}
+				bufferIndex[0]++;
+				long processed = processedBuffers.incrementAndGet();
+				progress = Math.min(1.0, processed / (double) totalBuffers);
+				return true;
+			}
+
+			public void processingFinished() {
+			}
+		});
+		dispatcher.addAudioProcessor(new PitchProcessor(algorithm, sampleRate, bufferSize, new PitchDetectionHandler() {
+			public void handlePitch(PitchDetectionResult pitchDetectionResult, AudioEvent audioEvent) {
+				if (pitchDetectionResult.isPitched()) {
+					// The sequential dispatcher counts a full buffer for the
+					// first block and one step for each following block.
+					long samplesProcessed = bufferIndex[0] == 0 ? 0 : bufferSize + (bufferIndex[0] - 1) * step;
+					double timeStamp = samplesProcessed / sampleRate;
+					segmentAnnotations.add(new Annotation(timeStamp, pitchDetectionResult.getPitch(),
+							annotationSource, salience(pitchDetectionResult)));
+				}
+			}
+		}));
+		dispatcher.run();
+		return segmentAnnotations;
+	}
 	
+	private static synchronized ExecutorService getSegmentExecutor() {
+		if (segmentExecutor == null) {
+			segmentExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+						private int count;
+
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "pitch-segment-" + count++);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return segmentExecutor;
+	}
 
 	public double progress() {
 		return progress;
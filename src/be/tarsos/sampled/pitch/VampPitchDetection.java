@@ -27,15 +27,25 @@ package be.tarsos.sampled.pitch;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import be.tarsos.util.AudioFile;
+import be.tarsos.util.BatchProcessor;
 import be.tarsos.util.Command;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.CsvReader;
+import be.tarsos.util.ExternalProcessPool;
 import be.tarsos.util.FileUtils;
 import be.tarsos.util.histogram.PitchHistogram;
 
@@ -45,6 +55,22 @@ public final class VampPitchDetection implements PitchDetector {
 	private final PitchDetectionMode mode;
 
 	private static final Logger LOG = Logger.getLogger(VampPitchDetection.class.getName());
+
+	/**
+	 * The Vamp plug-ins with a time stamp and a frequency in each row of
+	 * their output.
+	 */
+	private static final Set<PitchDetectionMode> BATCH_MODES = EnumSet.of(PitchDetectionMode.VAMP_YIN,
+			PitchDetectionMode.VAMP_YIN_FFT, PitchDetectionMode.VAMP_MELODIA_MONOPHONIC,
+			PitchDetectionMode.VAMP_MELODIA_POLYPHONIC, PitchDetectionMode.VAMP_FAST_HARMONIC_COMB,
+			PitchDetectionMode.VAMP_MAZURKA_PITCH, PitchDetectionMode.VAMP_SCHMITT,
+			PitchDetectionMode.VAMP_SPECTRAL_COMB);
+
+	/**
+	 * The maximum number of files analysed by one call of sonic-annotator.
+	 * A failing call is retried for each file, so chunks are kept small.
+	 */
+	private static final int MAX_FILES_PER_CALL = 32;
 	
 
 	public VampPitchDetection(final AudioFile audioFile, final PitchDetectionMode pitchDetectionMode) {
@@ -55,6 +81,10 @@ public final class VampPitchDetection implements PitchDetector {
 	}
 
 	private void copyDefaultSettings() {
+		copyDefaultSettings(mode);
+	}
+
+	private static String copyDefaultSettings(final PitchDetectionMode mode) {
 		String setting = mode.getParametername() + ".n3";
 		String fileName = FileUtils.combine(FileUtils.temporaryDirectory(), setting);
 		if (!FileUtils.exists(fileName)) {
@@ -62,174 +92,259 @@ public final class VampPitchDetection implements PitchDetector {
 			FileUtils.copyFileFromJar("/be/tarsos/sampled/pitch/resources/" + setting, fileName);
 			LOG.info(String.format("Copied %s from jar file to %s .", setting, fileName));
 		}
+		return fileName;
 	}
 
-	public List<Annotation> executePitchDetection() {
-		String setting = mode.getParametername() + ".n3";
-		final String settingsFile = FileUtils.combine(FileUtils.temporaryDirectory(), setting);
-		final String csvFileDir = FileUtils.combine(file.transcodedDirectory(),mode.getParametername());
-		FileUtils.mkdirs(csvFileDir);
-		
+	/**
+	 * Creates a sonic-annotator call that writes the features of one or more
+	 * files as CSV on standard output. The first column of a row names the
+	 * file when it differs from the previous row, otherwise it is empty.
+	 */
+	private static Command createCommand(final PitchDetectionMode mode, final List<AudioFile> files) {
 		Command cmd = new Command("sonic-annotator");
-		
-		final String csvFile;
-		
-		if(mode != PitchDetectionMode.VAMP_CONSTANT_Q_200 && mode != PitchDetectionMode.VAMP_CONSTANT_Q_400){
-			csvFile = FileUtils.combine(csvFileDir, FileUtils.basename(file.transcodedPath())
-					+ "_vamp_vamp-aubio_aubiopitch_frequency.csv");
-		}else{
-			csvFile = FileUtils.combine(csvFileDir, FileUtils.basename(file.transcodedPath()) + "_vamp_qm-vamp-plugins_qm-constantq_constantq.csv");
-		}
-		
-		cmd.addArgument("-t").addFileArgument(settingsFile);
-		cmd.addFileArgument(file.transcodedPath());
+		cmd.addArgument("-t").addFileArgument(copyDefaultSettings(mode));
+		// continue with the next file when one fails
+		cmd.addArgument("-f");
+		for (AudioFile audioFile : files) {
+			cmd.addFileArgument(audioFile.transcodedPath());
+		}
 		cmd.addArgument("-w").addArgument("csv");
-		cmd.addArgument("--csv-one-file").addArgument(csvFile);
-		cmd.addArgument("--csv-basedir").addFileArgument(csvFileDir);
-		
+		cmd.addArgument("--csv-stdout");
+		return cmd;
+	}
+
+	private boolean isConstantQ() {
+		return isConstantQ(mode);
+	}
+
+	private static boolean isConstantQ(final PitchDetectionMode mode) {
+		return mode == PitchDetectionMode.VAMP_CONSTANT_Q_200 || mode == PitchDetectionMode.VAMP_CONSTANT_Q_400;
+	}
+
+	/**
+	 * @param mode
+	 *            A pitch detection mode.
+	 * @return True if the mode is a Vamp plug-in that detects pitch in
+	 *         several files with one call of sonic-annotator, see
+	 *         {@link #detect(List, PitchDetectionMode)}.
+	 */
+	public static boolean supportsBatch(final PitchDetectionMode mode) {
+		return BATCH_MODES.contains(mode);
+	}
+
+	public List<Annotation> executePitchDetection() {
+		annotations.clear();
+		final List<AudioFile> files = Collections.singletonList(file);
 		try {
-			
-		
-			
-			if(!FileUtils.exists(csvFile)){
-				LOG.info(cmd.execute());
-			}
-			
-			// CSV file should exist
-			assert FileUtils.exists(csvFile);
-			// parse CSV File
-			if(mode != PitchDetectionMode.VAMP_CONSTANT_Q_200 && mode != PitchDetectionMode.VAMP_CONSTANT_Q_400){				
-				parseVamp(csvFile);
-			}else{
-				parseConstantQFile(csvFile);
-			}
-
-			// Is keeping the intermediate CSV file required?
-			// I don't think so:
-			//if (new File(csvFile).delete()) {
-			//	LOG.fine(String.format("Deleted intermediate CSV file %s", csvFile));
-			//} else {
-			//	LOG.fine(String.format("Failed to deleted intermediate CSV file %s", csvFile));
-				// mark for deletion when JVM closes
-			//	new File(csvFile).deleteOnExit();
-			//}
+			if (isConstantQ()) {
+				final ConstantQParser parser = new ConstantQParser();
+				ExternalProcessPool.getInstance().execute(createCommand(mode, files), parser);
+				parser.createAnnotations();
+			} else {
+				final VampParser parser = new VampParser(mode, files);
+				ExternalProcessPool.getInstance().execute(createCommand(mode, files), parser);
+				annotations.addAll(parser.getAnnotations(file));
+			}
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			LOG.log(Level.WARNING, "Sonic annotator failed for " + file.originalBasename(), e);
 		}
 		return annotations;
 	}
-	public double[][] constantQValues;
-	
-	private void parseConstantQFile(String csvFile) {
-		String contents = FileUtils.readFile(csvFile);
-
-		int octaves = 4;
-		
-		final int binsPerOctave;
-		
-		if(mode == PitchDetectionMode.VAMP_CONSTANT_Q_200){
-			binsPerOctave = 200;
-		}else{
-			binsPerOctave = 400;
-		}
-		
-		String[] rows = contents.split("\n");
-		double[] timings = new double[rows.length];
-		
-		constantQValues = new double[rows.length][octaves*binsPerOctave];
-		double maxValue = -1;
-		double minValue = Double.MAX_VALUE;
-		int rowIndex=0;
-		for(String row:rows){
-			String[] rowData = row.split(",");
-			timings[rowIndex] = Double.valueOf(rowData[0]);
-		    for(int colIndex = 1; colIndex < constantQValues[rowIndex].length  ; colIndex ++ ){
-		    	double value = Double.valueOf(rowData[colIndex]);
-		    	constantQValues[rowIndex][colIndex-1] = value;
-		    	maxValue = Math.max(maxValue,value);
-		    	minValue = Math.min(minValue,value);
-		    }
-		    rowIndex++;
-		}
-		
-		
-		//Normalize.
-		for(rowIndex = 0 ; rowIndex < constantQValues.length ; rowIndex++){
-			 for(int colIndex = 0; colIndex < constantQValues[rowIndex].length; colIndex ++ ){
-				 constantQValues[rowIndex][colIndex] = (constantQValues[rowIndex][colIndex] - minValue)/maxValue;
-			 }
-		}
-		
-		/*
-		for(rowIndex = 0 ; rowIndex < constantQValues.length ; rowIndex++){
-			double time = timings[rowIndex];
-			for(int colIndex = 0; colIndex < constantQValues[rowIndex].length; colIndex ++ ){
-				double pitchInMidiCents = colIndex * 12 / (float) binsPerOctave  + 36;
-				double pitchInHz = PitchConverter.midiCentToHertz(pitchInMidiCents);
-				for(int i = 0; i < constantQValues[rowIndex][colIndex] * 100; i++){
-					annotations.add(new Annotation(time + i * 0.0000000000001,pitchInHz,mode));
+
+	/**
+	 * Detects pitch in several files with a few calls of sonic-annotator
+	 * instead of one per file: the files are divided in a chunk for each
+	 * process of the {@link ExternalProcessPool}. The output is parsed while
+	 * sonic-annotator runs. Files for which a chunk yields no annotations, e.g.
+	 * because the call failed, are analysed again one by one.
+	 * 
+	 * @param files
+	 *            The (transcoded) audio files.
+	 * @param mode
+	 *            A mode for which {@link #supportsBatch(PitchDetectionMode)}
+	 *            holds.
+	 * @return The annotations for each file, in the order of the files.
+	 */
+	public static Map<AudioFile, List<Annotation>> detect(final List<AudioFile> files,
+			final PitchDetectionMode mode) {
+		if (!supportsBatch(mode)) {
+			throw new IllegalArgumentException(mode + " can not be used for several files at once.");
+		}
+		final ExternalProcessPool pool = ExternalProcessPool.getInstance();
+		final int chunkSize = Math.min(MAX_FILES_PER_CALL,
+				Math.max(1, (files.size() + pool.getProcesses() - 1) / pool.getProcesses()));
+		final List<List<AudioFile>> chunks = new ArrayList<List<AudioFile>>();
+		for (int i = 0; i < files.size(); i += chunkSize) {
+			chunks.add(files.subList(i, Math.min(files.size(), i + chunkSize)));
+		}
+
+		final Map<AudioFile, List<Annotation>> detected = new LinkedHashMap<AudioFile, List<Annotation>>();
+		final BatchProcessor<List<AudioFile>, VampParser> processor = new BatchProcessor<List<AudioFile>, VampParser>(
+				Math.max(1, Math.min(chunks.size(), pool.getProcesses())));
+		processor.process(chunks, new BatchProcessor.Task<List<AudioFile>, VampParser>() {
+			public VampParser process(List<AudioFile> chunk) throws IOException {
+				final VampParser parser = new VampParser(mode, chunk);
+				final long timeout = pool.getTimeout() > 0 ? pool.getTimeout() * chunk.size() : pool.getTimeout();
+				pool.execute(createCommand(mode, chunk), parser, timeout);
+				return parser;
+			}
+		}, new BatchProcessor.ResultHandler<List<AudioFile>, VampParser>() {
+			public void handleResult(List<AudioFile> chunk, VampParser parser) {
+				for (AudioFile audioFile : chunk) {
+					detected.put(audioFile, parser.getAnnotations(audioFile));
 				}
-			 }
-		}
-		*/
-
-		//Construct a pitch histogram. 
-		double[] pitchHistogram = new double[constantQValues[0].length];
-		//double[] pitchClassHistogram = new double[constantQValues[0].length/octaves];
-		for (rowIndex = 0; rowIndex < constantQValues.length; rowIndex++) {
-			for (int colIndex = 0; colIndex < constantQValues[rowIndex].length; colIndex++) {
-				pitchHistogram[colIndex] += constantQValues[rowIndex][colIndex];
-				//pitchClassHistogram[colIndex % pitchClassHistogram.length] += constantQValues[rowIndex][colIndex];
-			}
-		}
-		
-		
-		for(int i = 0; i < pitchHistogram.length ; i++){
-			double pitchInCents = i * 12 / (float) binsPerOctave * 100 + 24 * 100;
-			System.out.println(pitchInCents + ";" + pitchHistogram[i]);
-		}
-		
-		 
-		Random rnd = new Random();
-		int lengthInMS = (int) file.getLengthInMilliSeconds();
-		for(int i = 0; i < pitchHistogram.length ; i++){
-			double pitchInMidiCents = i * 12 / (float) binsPerOctave  + 36;
-			double pitchInHz = PitchUnit.midiCentToHertz(pitchInMidiCents);
-			for(int j = 0 ; j < pitchHistogram[i] * 100 ; j++){
-				annotations.add(new Annotation(rnd.nextInt(lengthInMS)/1000.0,pitchInHz,mode));
-			}
-		}
-		
-		double[] accumulator = PitchHistogram.createAccumulator(annotations, 3.0);
-		annotations.clear();
-		int pitchHistogramMinimum = Configuration.getInt(ConfKey.pitch_histogram_start);		
-		for(int i = 0 ; i < accumulator.length ; i ++){
-			double pitchInHz = PitchUnit.absoluteCentToHertz(i + pitchHistogramMinimum);
-			for(int j = 0 ; j < accumulator[i]/300 ; j++){
-				annotations.add(new Annotation(rnd.nextInt(lengthInMS)/1000.0,pitchInHz,mode));
-			}
-		}		
-		Collections.sort(annotations);
+			}
+
+			public void handleFailure(List<AudioFile> chunk, Exception exception) {
+				LOG.log(Level.WARNING, "Sonic annotator failed for " + chunk.size() + " files.", exception);
+				for (AudioFile audioFile : chunk) {
+					detected.put(audioFile, new ArrayList<Annotation>());
+				}
+			}
+		});
+
+		// retry the files without output one by one
+		for (Map.Entry<AudioFile, List<Annotation>> entry : detected.entrySet()) {
+			if (entry.getValue().isEmpty() && chunkSize > 1) {
+				LOG.info("No pitch detected in " + entry.getKey().originalBasename() + ", analysing it again.");
+				entry.setValue(new VampPitchDetection(entry.getKey(), mode).executePitchDetection());
+			}
+		}
+		return detected;
 	}
 
+	/**
+	 * Parses sonic-annotator CSV output with a time stamp and a frequency in
+	 * each row into annotations for each file.
+	 */
+	private static final class VampParser implements ExternalProcessPool.OutputParser, CsvReader.RowHandler {
+		private final PitchDetectionMode mode;
+		private final List<AudioFile> files;
+		private final Map<AudioFile, List<Annotation>> annotations;
+		private final CsvReader reader;
+		private List<Annotation> current;
+
+		private VampParser(final PitchDetectionMode detectionMode, final List<AudioFile> audioFiles) {
+			mode = detectionMode;
+			files = audioFiles;
+			annotations = new HashMap<AudioFile, List<Annotation>>();
+			reader = new CsvReader(",");
+		}
+
+		public void reset() {
+			annotations.clear();
+			for (AudioFile audioFile : files) {
+				annotations.put(audioFile, new ArrayList<Annotation>());
+			}
+			current = files.size() == 1 ? annotations.get(files.get(0)) : null;
+		}
+
+		public void handleLine(final String line) {
+			reader.parse(line, this);
+		}
+
+		public void handleRow(final CsvReader.Row row) {
+			if (row.size() < 3) {
+				return;
+			}
+			if (!row.isEmpty(0)) {
+				current = annotationsFor(row.getString(0));
+			}
+			final double pitch = row.getDouble(2);
+			final double time = row.getDouble(1);
+			if (pitch > 0 && current != null) {
+				current.add(new Annotation(time, pitch, mode));
+			}
+		}
+
+		/**
+		 * Finds the file for a track name, the quoted path or URL that was
+		 * given to sonic-annotator.
+		 */
+		private List<Annotation> annotationsFor(final String track) {
+			final String name = track.replace("\"", "");
+			for (AudioFile audioFile : files) {
+				if (name.endsWith(audioFile.transcodedPath())) {
+					return annotations.get(audioFile);
+				}
+			}
+			LOG.warning("Sonic annotator output for unknown file " + name);
+			return null;
+		}
 
+		private List<Annotation> getAnnotations(final AudioFile audioFile) {
+			return annotations.get(audioFile);
+		}
+	}
 
 	/**
-	 * Parse a CSV file and create sample objects.
-	 * 
-	 * @param csvFileName
-	 *            The (absolute) path to the CSV file.
+	 * Sums the normalized constant-Q spectrum of each frame while
+	 * sonic-annotator runs, so the spectrogram is never kept in memory.
 	 */
-	private void parseVamp(final String csvFileName) {
-		final List<String[]> csvData = FileUtils.readCSVFile(csvFileName, ",",3);
-		for (final String[] row : csvData) {
-			double pitch = Double.parseDouble(row[2]);
-			double time = Double.parseDouble(row[1]);
-			if(pitch > 0){
-				final Annotation sample = new Annotation(time, pitch, mode);
-				annotations.add(sample);
+	private final class ConstantQParser implements ExternalProcessPool.OutputParser, CsvReader.RowHandler {
+		private final CsvReader reader = new CsvReader(",");
+		private final int octaves = 4;
+		private final int binsPerOctave = mode == PitchDetectionMode.VAMP_CONSTANT_Q_200 ? 200 : 400;
+		private final double[] sums = new double[octaves * binsPerOctave];
+		private int rows;
+		private double maxValue;
+		private double minValue;
+
+		public void reset() {
+			Arrays.fill(sums, 0);
+			rows = 0;
+			maxValue = -1;
+			minValue = Double.MAX_VALUE;
+		}
+
+		public void handleLine(final String line) {
+			reader.parse(line, this);
+		}
+
+		public void handleRow(final CsvReader.Row row) {
+			// the file name, the time stamp and the bins
+			if (row.size() < 2 + sums.length) {
+				return;
+			}
+			for (int colIndex = 0; colIndex < sums.length; colIndex++) {
+				double value = row.getDouble(colIndex + 2);
+				sums[colIndex] += value;
+				maxValue = Math.max(maxValue, value);
+				minValue = Math.min(minValue, value);
+			}
+			rows++;
+		}
+
+		private void createAnnotations() {
+			if (rows == 0) {
+				return;
+			}
+			//Construct a pitch histogram of the normalized values.
+			double[] pitchHistogram = new double[sums.length];
+			for (int i = 0; i < pitchHistogram.length; i++) {
+				pitchHistogram[i] = (sums[i] - rows * minValue) / maxValue;
+			}
+
+			Random rnd = new Random();
+			int lengthInMS = (int) file.getLengthInMilliSeconds();
+			for(int i = 0; i < pitchHistogram.length ; i++){
+				double pitchInMidiCents = i * 12 / (float) binsPerOctave  + 36;
+				double pitchInHz = PitchUnit.midiCentToHertz(pitchInMidiCents);
+				for(int j = 0 ; j < pitchHistogram[i] * 100 ; j++){
+					annotations.add(new Annotation(rnd.nextInt(lengthInMS)/1000.0,pitchInHz,mode));
+				}
+			}
+
+			double[] accumulator = PitchHistogram.createAccumulator(annotations, 3.0);
+			annotations.clear();
+			int pitchHistogramMinimum = Configuration.getInt(ConfKey.pitch_histogram_start);
+			for(int i = 0 ; i < accumulator.length ; i ++){
+				double pitchInHz = PitchUnit.absoluteCentToHertz(i + pitchHistogramMinimum);
+				for(int j = 0 ; j < accumulator[i]/300 ; j++){
+					annotations.add(new Annotation(rnd.nextInt(lengthInMS)/1000.0,pitchInHz,mode));
+				}
 			}
+			Collections.sort(annotations);
 		}
 	}
 
@@ -37,18 +37,20 @@ import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
+import javax.sound.sampled.LineUnavailableException;
 import javax.swing.ImageIcon;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
@@ -57,14 +59,20 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import be.tarsos.sampled.Player;
 import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
 import be.tarsos.sampled.pitch.AnnotationListener;
 import be.tarsos.sampled.pitch.AnnotationPublisher;
+import be.tarsos.sampled.pitch.AsynchronousAnnotationListener;
+import be.tarsos.sampled.pitch.LiveAnalysis;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchDetector;
+import be.tarsos.sampled.pitch.SharedPitchDetection;
+import be.tarsos.sampled.pitch.TarsosPitchDetection;
 import be.tarsos.ui.pitch.AudioFileChangedListener;
 import be.tarsos.ui.pitch.CommandPanel;
 import be.tarsos.ui.pitch.ConfigurationPanel;
@@ -78,14 +86,14 @@ import be.tarsos.ui.pitch.ScaleChangedListener;
 import be.tarsos.ui.pitch.WaveForm;
 import be.tarsos.ui.pitch.ph.KDEData;
 import be.tarsos.ui.pitch.ph.PitchClassKdePanel;
-import be.tarsos.ui.util.BackgroundTask;
 import be.tarsos.ui.util.ProgressDialog;
-import be.tarsos.ui.util.BackgroundTask.TaskHandler;
+import be.tarsos.util.AnalysisScheduler;
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
 import be.tarsos.util.FileDrop;
 import be.tarsos.util.FileUtils;
+import be.tarsos.util.FusedAnalysis;
 import be.tarsos.util.JLabelHandler;
 import be.tarsos.util.ScalaFile;
 import be.tarsos.util.TextAreaHandler;
@@ -107,10 +115,25 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 	 */
 	private static final Logger LOG = Logger.getLogger(TarsosFrame.class.getName());
 
+	/**
+	 * The analysis of the microphone, null if Tarsos is not listening.
+	 */
+	private LiveAnalysis liveAnalysis;
+
 	private static TarsosFrame instance;
 	
 
 	private AudioFile audioFile;
+	
+	/**
+	 * The analysis of the audio file that is shown.
+	 */
+	private FileAnalysis visibleAnalysis;
+	
+	/**
+	 * Shows the progress of all analysis tasks.
+	 */
+	private final ProgressDialog progressDialog;
 
 	private double[] scale;
 
@@ -158,6 +181,9 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		// initialize listener lists
 		scaleChangedListeners = new ArrayList<ScaleChangedListener>();
 		audioFileChangedListeners = new ArrayList<AudioFileChangedListener>();
+		
+		// one progress view for all analysis tasks
+		progressDialog = new ProgressDialog(this, AnalysisScheduler.getInstance());
 
 		// react to drag and drop 
 		addFileDropListener();
@@ -208,8 +234,9 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 
 
 		// Patch the annotation listeners
-		annotationPublisher.addListener(KDEData.getInstance());
-		annotationPublisher.addListener(pitchClassHistogramPanel);
+		// The KDE panel paints the KDE data: both are updated in the background.
+		annotationPublisher.addListener(new AsynchronousAnnotationListener(KDEData.getInstance(),
+				pitchClassHistogramPanel));
 		//annotationPublisher.addListener(pitchContourPanel);
 		annotationPublisher.addListener(player);
 		annotationPublisher.addListener(this);
@@ -387,9 +414,21 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 	private void addFileDropListener() {
 		new FileDrop(this, new FileDrop.Listener() {
 			public void filesDropped(final java.io.File[] files) {
+				// Show the first dropped audio file, analyse the others in the background.
+				final List<File> audioFiles = new ArrayList<File>();
 				for(final File file : files){
-					setNewFile(file);
 					LOG.fine(String.format("Dropped %s .", file.getAbsolutePath()));
+					if (FileUtils.isAudioFile(file)) {
+						audioFiles.add(file);
+					} else {
+						setNewFile(file);
+					}
+				}
+				if (audioFiles.size() == 1) {
+					setNewFile(audioFiles.get(0));
+				} else if (!audioFiles.isEmpty()) {
+					setListening(false);
+					setNewAudioFiles(audioFiles);
 				}
 			}
 		});
@@ -408,11 +447,55 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		notifyAudioFileChangedListeners();
 	}
 	
+	/**
+	 * Starts or stops detecting pitch in audio from the configured microphone.
+	 * The live annotations replace the annotations of the current file. The
+	 * first selected TarsosDSP pitch detector is used, YIN if none is
+	 * selected.
+	 * 
+	 * @param listen
+	 *            True to start listening, false to stop.
+	 * @return True if the microphone is analysed.
+	 */
+	public synchronized boolean setListening(final boolean listen) {
+		if (listen && liveAnalysis == null) {
+			PitchDetectionMode mode = PitchDetectionMode.TARSOS_YIN;
+			for (final PitchDetectionMode selected : PitchDetectionMode.selected()) {
+				if (TarsosPitchDetection.isSupported(selected)) {
+					mode = selected;
+					break;
+				}
+			}
+			final LiveAnalysis analysis = new LiveAnalysis(mode);
+			try {
+				analysis.start();
+				liveAnalysis = analysis;
+				setTitle("Tarsos - Listening");
+			} catch (final LineUnavailableException e) {
+				LOG.log(Level.WARNING, "Could not open the microphone.", e);
+			}
+		} else if (!listen && liveAnalysis != null) {
+			liveAnalysis.stop();
+			liveAnalysis = null;
+			setTitle("Tarsos");
+		}
+		return liveAnalysis != null;
+	}
+
+	/**
+	 * @return True if the microphone is analysed. Listening stops when a new
+	 *         file is opened.
+	 */
+	public synchronized boolean isListening() {
+		return liveAnalysis != null;
+	}
+
 	/**
 	 * Set a new audio or scala file.
 	 * @param newFile The new audio or scala file.
 	 */
 	public void setNewFile(final File newFile){
+		setListening(false);
 		LOG.info("Opening: " + newFile.getName());
 		
 		//Keep a list of recent files for the recent file menu.
@@ -443,10 +526,11 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		//add audio files in directory recursively
 		} else if(newFile.isDirectory()){
 			String pattern = Configuration.get(ConfKey.audio_file_name_pattern);
-			List<String> audioFiles = FileUtils.glob(newFile.getAbsolutePath(), pattern, true);
-			for(String file:audioFiles){
-				setNewAudioFile(new File(file));
+			List<File> audioFiles = new ArrayList<File>();
+			for(String file:FileUtils.glob(newFile.getAbsolutePath(), pattern, true)){
+				audioFiles.add(new File(file));
 			}
+			setNewAudioFiles(audioFiles);
 		}else{	
 			LOG.warning("Unrecognized file: " + newFile.getAbsolutePath());
 		}	
@@ -471,84 +555,168 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 	}
 	
 	private void setNewAudioFile(final File newFile){
-		AnnotationPublisher.getInstance().clearTree();
-		TranscodingTask transcodingTask = new TranscodingTask(newFile);
-		List<BackgroundTask> detectorTasks = createTasks(newFile,transcodingTask);
-		transcodingTask.addHandler(new TaskHandler() {
-
-			public void taskInterrupted(BackgroundTask backgroundTask, Exception e) {
-				
+		analyseAudioFile(newFile, true);
+	}
+	
+	/**
+	 * Analyses audio files. The first file is shown, the others are
+	 * transcoded and analysed in the background so their results are cached.
+	 * @param files The audio files.
+	 */
+	private void setNewAudioFiles(final List<File> files){
+		for (int i = 0; i < files.size(); i++) {
+			analyseAudioFile(files.get(i), i == 0);
+		}
+	}
+	
+	/**
+	 * Submits the tasks to transcode and analyse an audio file to the
+	 * scheduler.
+	 * @param newFile The audio file.
+	 * @param visible True if the file is shown: its tasks go before the
+	 * tasks of other files and its annotations are published.
+	 */
+	private synchronized void analyseAudioFile(final File newFile, final boolean visible){
+		final FileAnalysis analysis = new FileAnalysis(newFile);
+		if (visible) {
+			if (visibleAnalysis != null) {
+				visibleAnalysis.moveToBackground();
 			}
-			
-
-			public void taskDone(BackgroundTask backgroundTask) {
-				if(backgroundTask instanceof TranscodingTask){
-					setAudioFile(((TranscodingTask) backgroundTask).getAudioFile());
-				}
+			visibleAnalysis = analysis;
+			AnnotationPublisher.getInstance().clearTree();
+			AnnotationPublisher.getInstance().clear();
+			AnnotationPublisher.getInstance().extractionStarted();
+		}
+		analysis.submit(visible);
+	}
+	
+	/**
+	 * The tasks for one audio file: transcoding followed by the pitch
+	 * detectors. When all tasks are finished and the file is still shown the
+	 * listeners are notified of the new audio file.
+	 */
+	private class FileAnalysis implements AnalysisScheduler.Listener {
+		private final TranscodingTask transcodingTask;
+		private final List<AnalysisScheduler.Task> tasks;
+		private volatile boolean visible;
+		private boolean finished;
+		
+		private FileAnalysis(final File file) {
+			transcodingTask = new TranscodingTask(file);
+			transcodingTask.owner = this;
+			tasks = new ArrayList<AnalysisScheduler.Task>();
+			tasks.add(transcodingTask);
+			tasks.addAll(createTasks(file, transcodingTask));
+		}
+		
+		private boolean isVisible() {
+			return visible;
+		}
+		
+		private void submit(final boolean isVisible) {
+			visible = isVisible;
+			final AnalysisScheduler scheduler = AnalysisScheduler.getInstance();
+			scheduler.addListener(this);
+			scheduler.submit(isVisible ? AnalysisScheduler.VISIBLE_PRIORITY
+					: AnalysisScheduler.BACKGROUND_PRIORITY, tasks);
+			progressDialog.showProgress();
+		}
+		
+		/**
+		 * Another file is shown: the remaining tasks make way for the new
+		 * file and their annotations are no longer published.
+		 */
+		private void moveToBackground() {
+			if (visible) {
+				visible = false;
+				AnalysisScheduler.getInstance().setPriority(AnalysisScheduler.BACKGROUND_PRIORITY, tasks);
 			}
-		});
-		String title = "Progress: " + FileUtils.basename(newFile.getAbsolutePath());
-		
-		AnnotationPublisher.getInstance().clear();
-		AnnotationPublisher.getInstance().extractionStarted();
-		final ProgressDialog dialog = new ProgressDialog(this,title,transcodingTask,detectorTasks);
-		dialog.addPropertyChangeListener(new PropertyChangeListener() {
-			public void propertyChange(PropertyChangeEvent evt) {
-				if(evt.getPropertyName().equals("allTasksFinished")){
-					notifyAudioFileChange();
-					AnnotationPublisher.getInstance().extractionFinished();
+		}
+		
+		public void taskChanged(final AnalysisScheduler.Task task) {
+			if (!task.getState().isFinished() || !tasks.contains(task)) {
+				return;
+			}
+			synchronized (this) {
+				if (finished) {
+					return;
+				}
+				for (final AnalysisScheduler.Task other : tasks) {
+					if (!other.getState().isFinished()) {
+						return;
+					}
 				}
+				finished = true;
 			}
-		});
-		dialog.pack();
-		dialog.setVisible(true);			
+			AnalysisScheduler.getInstance().removeListener(this);
+			if (visible) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (visible) {
+							if (transcodingTask.getState() == AnalysisScheduler.State.DONE) {
+								notifyAudioFileChange();
+							}
+							AnnotationPublisher.getInstance().extractionFinished();
+						}
+					}
+				});
+			}
+		}
 	}
 	
-	private List<BackgroundTask> createTasks(final File audioFile,final TranscodingTask transcodingTask){
-		final List<BackgroundTask> detectorTasks = new ArrayList<BackgroundTask>();
+	private List<AnalysisScheduler.Task> createTasks(final File audioFile,final TranscodingTask transcodingTask){
+		final List<AnalysisScheduler.Task> detectorTasks = new ArrayList<AnalysisScheduler.Task>();
+		// The TarsosDSP detectors share one pass over the audio.
+		final List<PitchDetectionMode> sharedModes = new ArrayList<PitchDetectionMode>();
 		for (final String name : Configuration
 				.getList(ConfKey.pitch_tracker_list)) {
 			final PitchDetectionMode mode = PitchDetectionMode
 					.valueOf(name);
-			final boolean determinatedLength = (mode == PitchDetectionMode.TARSOS_MPM || PitchDetectionMode.TARSOS_YIN == mode || PitchDetectionMode.TARSOS_DYNAMIC_WAVELET == mode);
-			DetectorTask task = new DetectorTask(mode.getDetectionModeName() + " " + FileUtils.basename(audioFile.getAbsolutePath()), determinatedLength, mode);
-			transcodingTask.addHandler(task);
+			if (TarsosPitchDetection.isSupported(mode)) {
+				if (!sharedModes.contains(mode)) {
+					sharedModes.add(mode);
+				}
+				continue;
+			}
+			DetectorTask task = new DetectorTask(mode.getDetectionModeName() + " " + FileUtils.basename(audioFile.getAbsolutePath()), transcodingTask, mode);
 			detectorTasks.add(task);
 		}
+		if (!sharedModes.isEmpty()) {
+			final StringBuilder names = new StringBuilder();
+			for (final PitchDetectionMode mode : sharedModes) {
+				names.append(mode.getDetectionModeName()).append(", ");
+			}
+			names.setLength(names.length() - 2);
+			SharedDetectorTask task = new SharedDetectorTask(names + " " + FileUtils.basename(audioFile.getAbsolutePath()), transcodingTask, sharedModes);
+			detectorTasks.add(0, task);
+		}
 		return detectorTasks;
 	}
 	
-	private class TranscodingTask extends BackgroundTask {
+	private class TranscodingTask extends AnalysisScheduler.Task {
 
 		private final File newFile;
-		AudioFile transcodedAudioFile;
+		private final FusedAnalysis analysis;
+		private FileAnalysis owner;
+		private volatile AudioFile transcodedAudioFile;
 		
 		protected TranscodingTask(final File file) {
-			super("Transcoding " + FileUtils.basename(file.getAbsolutePath()), false);
+			super("Transcoding " + FileUtils.basename(file.getAbsolutePath()));
 			newFile = file;
+			final List<PitchDetectionMode> modes = new ArrayList<PitchDetectionMode>();
+			for (final String name : Configuration.getList(ConfKey.pitch_tracker_list)) {
+				modes.add(PitchDetectionMode.valueOf(name));
+			}
+			// Detect pitch while transcoding, the detector tasks read the cached results.
+			analysis = new FusedAnalysis(modes, false);
 		}
 
 		@Override
-		public Void doInBackground() {
-			Runnable runTranscoder = new Runnable(){
-				public void run() {
-						transcodedAudioFile = new AudioFile(newFile.getAbsolutePath());
-					
-				}
-			};
-			//Do the actual detection in the background
-			Thread t = new Thread(runTranscoder, getName());
-			t.start();
-			setProgress(0);
-			while (t.isAlive()) {
-				try {
-					setProgress(50);
-					Thread.sleep(30);
-				} catch (InterruptedException e) {
-				}
+		protected void execute() {
+			transcodedAudioFile = analysis.analyse(newFile.getAbsolutePath());
+			if (owner != null && owner.isVisible()) {
+				setAudioFile(transcodedAudioFile);
 			}
-			setProgress(100);
-			return null;
 		}
 
 		public AudioFile getAudioFile() {
@@ -556,56 +724,69 @@ public final class TarsosFrame extends JFrame implements ScaleChangedListener, A
 		}
 	}
 	
-	private class DetectorTask extends BackgroundTask implements TaskHandler{
-		private AudioFile file;
-		private final PitchDetectionMode mode;
+	/**
+	 * Runs several TarsosDSP detectors on one pass over the audio, with
+	 * their combined progress.
+	 */
+	private class SharedDetectorTask extends AnalysisScheduler.Task {
+		private final TranscodingTask transcodingTask;
+		private final List<PitchDetectionMode> modes;
 		
-		protected DetectorTask(String name, boolean lengthDetermined, PitchDetectionMode detectionMode) {
-			super(name, lengthDetermined);
-			mode = detectionMode;
+		protected SharedDetectorTask(String name, TranscodingTask transcoding, List<PitchDetectionMode> detectionModes) {
+			super(name);
+			transcodingTask = transcoding;
+			modes = detectionModes;
+			dependsOn(transcoding);
 		}
 
 		@Override
-		public Void doInBackground() {
-			final PitchDetector pitchDetector = mode
-					.getPitchDetector(file);
-			Runnable r = new Runnable() {
+		protected void execute() {
+			final SharedPitchDetection detection = new SharedPitchDetection(transcodingTask.getAudioFile());
+			for (PitchDetectionMode mode : modes) {
+				detection.add(mode);
+			}
+			// report the progress of the pass from a timer, the pass itself
+			// runs on this thread.
+			final Timer timer = new Timer(true);
+			timer.schedule(new TimerTask() {
+				@Override
 				public void run() {
-					//Do pitch extraction
-					AnnotationPublisher publisher = AnnotationPublisher.getInstance();
-					List<Annotation> annotations = pitchDetector.executePitchDetection();
-					publisher.addAnnotations(annotations);
-				}
-			};
-			//Do the actual detection in the background
-			Thread t = new Thread(r, getName());
-			t.start();
-			
-			setProgress(0);
-			// So progress can be updated in this thread, every 30ms.
-			while (t.isAlive() && !isCancelled()) {
-				try {
-					setProgress(50);
-					Thread.sleep(30);
-				} catch (InterruptedException e) {
+					setProgress(detection.progress());
 				}
+			}, 100, 100);
+			final Map<PitchDetectionMode, AnnotationBuffer> results;
+			try {
+				results = detection.execute();
+			} finally {
+				timer.cancel();
 			}
-			if(isCancelled()){
-				t.interrupt();
-			} else {
-				setProgress(100);
+			if (!isCancelled() && transcodingTask.owner.isVisible()) {
+				AnnotationPublisher publisher = AnnotationPublisher.getInstance();
+				for (AnnotationBuffer annotations : results.values()) {
+					publisher.addAnnotations(annotations.toList());
+				}
 			}
-			return null;
 		}
-
-		public void taskDone(BackgroundTask backgroundTask) {
-			if(backgroundTask instanceof TranscodingTask){
-				file = ((TranscodingTask) backgroundTask).getAudioFile();
-			}
+	}
+	
+	private class DetectorTask extends AnalysisScheduler.Task {
+		private final TranscodingTask transcodingTask;
+		private final PitchDetectionMode mode;
+		
+		protected DetectorTask(String name, TranscodingTask transcoding, PitchDetectionMode detectionMode) {
+			super(name);
+			transcodingTask = transcoding;
+			mode = detectionMode;
+			dependsOn(transcoding);
 		}
 
-		public void taskInterrupted(BackgroundTask backgroundTask, Exception e) {
-			//transcoding interrupted!
+		@Override
+		protected void execute() {
+			final PitchDetector pitchDetector = mode.getPitchDetector(transcodingTask.getAudioFile());
+			List<Annotation> annotations = pitchDetector.executePitchDetection();
+			if (!isCancelled() && transcodingTask.owner.isVisible()) {
+				AnnotationPublisher.getInstance().addAnnotations(annotations);
+			}
 		}
 	}
 	
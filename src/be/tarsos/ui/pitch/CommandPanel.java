@@ -248,7 +248,7 @@ public class CommandPanel extends JPanel implements AudioFileChangedListener, Sc
 	private void doPeakDetection(boolean detectorIsAdjusting){
 		PitchDetectionMode selectedHistogram = (PitchDetectionMode) pitchDetectorSelection.getSelectedItem();
 		KernelDensityEstimate kde = KDEData.getInstance().getKDEs().get(selectedHistogram);
-		if(kde.getSumFreq()!=0){
+		if(kde != null && kde.getSumFreq()!=0){
 			PitchClassHistogram histo = HistogramFactory.createPitchClassHistogram(kde);
 			final List<Peak> peaks = PeakDetector.detect(histo, windowSizePeakDetection,thresholdPeakDetection);
 			final double[] peaksInCents = new double[peaks.size()];
@@ -276,6 +276,20 @@ public class CommandPanel extends JPanel implements AudioFileChangedListener, Sc
 		}
 	}
 	
+	public void addAnnotations(List<Annotation> annotations) {
+		boolean added = false;
+		for (Annotation annotation : annotations) {
+			PitchDetectionMode key = annotation.getSource();
+			if(!pitchDetectors.contains(key)){
+				pitchDetectors.add(key);
+				added = true;
+			}
+		}
+		if (added) {
+			rebuildPitchDetectorSelection();
+		}
+	}
+	
 	public void clearAnnotations() {		
 	}
 	
@@ -0,0 +1,156 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.ui.pitch;
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Collections;
+
+import javax.swing.SwingUtilities;
+
+import be.tarsos.dsp.ui.Axis;
+import be.tarsos.dsp.ui.CoordinateSystem;
+import be.tarsos.dsp.ui.layers.LayerUtilities;
+import be.tarsos.util.AnalysisScheduler;
+import be.tarsos.util.AudioFile;
+import be.tarsos.util.ConstantQSpectrogram;
+
+/**
+ * Draws the {@link ConstantQSpectrogram} of an audio file in grey scale. Only
+ * the visible frames and bins are read, from the level of the pyramid with
+ * about a frame per pixel, and normalised with the maxima of the visible
+ * tiles. The time axis is in milliseconds, the frequency axis in absolute
+ * cents.
+ * 
+ * @author Joren Six
+ */
+public final class ConstantQSpectrogramLayer implements be.tarsos.dsp.ui.layers.Layer {
+
+	private final CoordinateSystem cs;
+	private final AnalysisScheduler.Task loading;
+	private volatile ConstantQSpectrogram spectrogram;
+
+	private float[] values = new float[0];
+	private BufferedImage image;
+
+	/**
+	 * Create a new layer. The spectrogram is loaded, or calculated, by a task
+	 * of the {@link AnalysisScheduler}, the component is repainted when it is
+	 * available.
+	 * 
+	 * @param cs
+	 *            The coordinate system, time in milliseconds and frequency in
+	 *            absolute cents.
+	 * @param audioFile
+	 *            The audio file to draw.
+	 * @param component
+	 *            The component that draws the layer.
+	 */
+	public ConstantQSpectrogramLayer(final CoordinateSystem cs, final AudioFile audioFile, final Component component) {
+		this.cs = cs;
+		loading = new AnalysisScheduler.Task("Constant-Q spectrogram of " + audioFile.originalBasename()) {
+			@Override
+			protected void execute() {
+				final ConstantQSpectrogram loaded = ConstantQSpectrogram.forFile(audioFile,
+						new ConstantQSpectrogram.ProgressListener() {
+							public void progressChanged(final double progress) {
+								setProgress(progress);
+							}
+						});
+				if (loaded != null && !isCancelled()) {
+					spectrogram = loaded;
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							component.repaint();
+						}
+					});
+				}
+			}
+		};
+		AnalysisScheduler.getInstance().submit(AnalysisScheduler.VISIBLE_PRIORITY, loading);
+	}
+
+	/**
+	 * Cancels loading the spectrogram, e.g. when another file is shown.
+	 */
+	public void cancel() {
+		AnalysisScheduler.getInstance().cancel(Collections.singletonList(loading));
+	}
+
+	public void draw(final Graphics2D graphics) {
+		final ConstantQSpectrogram current = spectrogram;
+		if (current == null) {
+			return;
+		}
+		final float xMin = Math.max(0, cs.getMin(Axis.X));
+		final float xMax = (float) Math.min(cs.getMax(Axis.X), current.getDurationInSeconds() * 1000);
+		final int pixels = Math.round(LayerUtilities.unitsToPixels(graphics, xMax - xMin, true));
+		if (pixels <= 0) {
+			return;
+		}
+		final int level = current.levelFor((xMax - xMin) / 1000.0 / pixels);
+		final int fromFrame = current.frameAt(level, xMin / 1000.0);
+		final int toFrame = current.frameAt(level, xMax / 1000.0) + 1;
+		final int fromBin = current.binAt(cs.getMin(Axis.Y));
+		final int toBin = current.binAt(cs.getMax(Axis.Y)) + 1;
+		final int frames = toFrame - fromFrame;
+		final int bins = toBin - fromBin;
+		final float maximum = current.getMaximum(level, fromFrame, toFrame, fromBin, toBin);
+		if (maximum <= 0) {
+			return;
+		}
+
+		if (values.length < frames * bins) {
+			values = new float[frames * bins];
+		}
+		current.read(level, fromFrame, toFrame, fromBin, toBin, values);
+		// a column per frame, a row per bin
+		if (image == null || image.getWidth() != frames || image.getHeight() != bins) {
+			image = new BufferedImage(frames, bins, BufferedImage.TYPE_BYTE_GRAY);
+		}
+		final byte[] pixelData = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		for (int frame = 0; frame < frames; frame++) {
+			for (int bin = 0; bin < bins; bin++) {
+				final int grey = 255 - Math.round(255 * values[frame * bins + bin] / maximum);
+				pixelData[bin * frames + frame] = (byte) grey;
+			}
+		}
+
+		final AffineTransform transform = AffineTransform.getTranslateInstance(
+				current.getFrameTime(level, fromFrame) * 1000, current.getBinInCents(fromBin));
+		transform.scale(current.getFrameDurationInSeconds(level) * 1000, current.getBinHeightInCents());
+		graphics.drawImage(image, transform, null);
+	}
+
+	public String getName() {
+		return "Constant-Q layer";
+	}
+}
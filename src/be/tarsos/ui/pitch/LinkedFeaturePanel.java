@@ -45,7 +45,6 @@ import be.tarsos.dsp.ui.layers.PitchContourLayer;
 import be.tarsos.dsp.ui.layers.SelectionLayer;
 import be.tarsos.dsp.ui.layers.TimeAxisLayer;
 import be.tarsos.dsp.ui.layers.VerticalFrequencyAxisLayer;
-import be.tarsos.dsp.ui.layers.WaveFormLayer;
 import be.tarsos.sampled.pitch.Annotation;
 import be.tarsos.sampled.pitch.AnnotationListener;
 import be.tarsos.util.AudioFile;
@@ -61,6 +60,18 @@ public class LinkedFeaturePanel extends JPanel implements ScaleChangedListener,
 	private static HashMap<String, LinkedPanel> panels;
 
 	private boolean drawing = false;
+
+	/**
+	 * The wave form of the current file, its loading is cancelled when
+	 * another file is shown.
+	 */
+	private WaveFormSummaryLayer waveFormLayer;
+
+	/**
+	 * The spectrogram of the current file, its loading is cancelled when
+	 * another file is shown.
+	 */
+	private ConstantQSpectrogramLayer constantQLayer;
 	
 	public LinkedFeaturePanel(){
 		this.setLayout(new BorderLayout());
@@ -91,7 +102,11 @@ public class LinkedFeaturePanel extends JPanel implements ScaleChangedListener,
 		LinkedPanel panel = new LinkedPanel(cs);
 		panel.addLayer(new BackgroundLayer(cs));
 		panel.addLayer(new AmplitudeAxisLayer(cs));
-		panel.addLayer(new WaveFormLayer(cs, new File(newAudioFile.transcodedPath())));
+		if (waveFormLayer != null) {
+			waveFormLayer.cancel();
+		}
+		waveFormLayer = new WaveFormSummaryLayer(cs, newAudioFile, panel);
+		panel.addLayer(waveFormLayer);
 		panel.addLayer(new BeatLayer(cs,new File(newAudioFile.transcodedPath()),true,true));
 		panel.addLayer(new TimeAxisLayer(cs));
 		panel.addLayer(new SelectionLayer(cs));
@@ -109,7 +124,11 @@ public class LinkedFeaturePanel extends JPanel implements ScaleChangedListener,
 		cs = getCoordinateSystem(AxisUnit.FREQUENCY);
 		panel = new LinkedPanel(cs);
 		panel.addLayer(new BackgroundLayer(cs));
-		//panel.addLayer(new ConstantQLayer(cs,new File(newAudioFile.transcodedPath()),2048,3600,10800,12));
+		if (constantQLayer != null) {
+			constantQLayer.cancel();
+		}
+		constantQLayer = new ConstantQSpectrogramLayer(cs, newAudioFile, panel);
+		panel.addLayer(constantQLayer);
 	
 		panel.addLayer(new PitchContourLayer(cs,new File(newAudioFile.transcodedPath()),Color.red,2048,1024));
 		panel.addLayer(new SelectionLayer(cs));
@@ -57,6 +57,8 @@ import javax.swing.JOptionPane;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 
 import be.tarsos.midi.MidiCommon;
 import be.tarsos.midi.MidiCommon.MoreMidiInfo;
@@ -116,6 +118,22 @@ public class Menu extends JMenuBar implements ScaleChangedListener, AudioFileCha
 			item = new JMenuItem("Open...");
 			item.addActionListener(importFileAction);
 			menu.add(item);
+
+			final JCheckBoxMenuItem listenItem = new JCheckBoxMenuItem("Listen to Microphone");
+			listenItem.addActionListener(listenAction);
+			menu.add(listenItem);
+			// opening a file stops listening, show the current state
+			menu.addMenuListener(new MenuListener() {
+				public void menuSelected(MenuEvent e) {
+					listenItem.setSelected(TarsosFrame.getInstance().isListening());
+				}
+
+				public void menuDeselected(MenuEvent e) {
+				}
+
+				public void menuCanceled(MenuEvent e) {
+				}
+			});
 		}
 
 		JMenu importMenu = new JMenu("Import");
@@ -627,6 +645,13 @@ public class Menu extends JMenuBar implements ScaleChangedListener, AudioFileCha
 		}
 	};
 	
+	private ActionListener listenAction = new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			JCheckBoxMenuItem item = (JCheckBoxMenuItem) e.getSource();
+			item.setSelected(TarsosFrame.getInstance().setListening(item.isSelected()));
+		}
+	};
+	
 	private ActionListener openRecentFileAction = new ActionListener() {
 		public void actionPerformed(ActionEvent e) {
 			File recentFile = new File(e.getActionCommand());
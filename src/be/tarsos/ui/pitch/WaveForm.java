@@ -39,24 +39,20 @@ import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
 import java.util.logging.Logger;
 
-import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
-import be.tarsos.dsp.AudioDispatcher;
 import be.tarsos.dsp.AudioEvent;
 import be.tarsos.dsp.AudioProcessor;
-import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
 import be.tarsos.sampled.Player;
 import be.tarsos.sampled.PlayerState;
 import be.tarsos.sampled.pitch.AnnotationPublisher;
 import be.tarsos.ui.TarsosFrame;
 import be.tarsos.util.AudioFile;
 import be.tarsos.util.StopWatch;
+import be.tarsos.util.WaveFormPyramid;
 
 public final class WaveForm extends JPanel implements AudioFileChangedListener  {
 
@@ -400,54 +396,39 @@ public final class WaveForm extends JPanel implements AudioFileChangedListener
 
 	private void createWaveFormImage() {
 		final StopWatch watch = new StopWatch();
-
-		try {
-			final int waveFormHeight = 200;
-			final int waveFormWidth = 2000;
-			waveFormImage = new BufferedImage(waveFormWidth, waveFormHeight, BufferedImage.TYPE_INT_RGB);
-			final Graphics2D waveFormGraphics = waveFormImage.createGraphics();
-			initializeGraphics(waveFormGraphics);
-			waveFormGraphics.clearRect(0, 0, waveFormWidth, waveFormHeight);
-			waveFormGraphics.transform(getSaneTransform(waveFormHeight));
-			final float frameRate = audioFile.fileFormat().getFormat().getFrameRate();
-			int framesPerPixel = audioFile.fileFormat().getFrameLength() / waveFormWidth / 8;
-
-			waveFormGraphics.setColor(Color.black);
-
-			final int one = (int) (waveFormHeight / 2 * 0.85);
-
-			final double secondsToX;
-			secondsToX = 1000 * waveFormWidth / (float) audioFile.getLengthInMilliSeconds();
-			AudioDispatcher adp = AudioDispatcherFactory.fromFile(new File(audioFile.transcodedPath()),framesPerPixel,0);
-			adp.addAudioProcessor(new AudioProcessor() {
-
-				private int frame = 0;
-
-				public void processingFinished() {
-					setWaveFormCreationFinished(true);
-					invalidate();
-					requestRepaint();
-					LOG.fine("Created wave form image in " + watch.formattedToString());
-				}
-
-				public boolean process(AudioEvent audioEvent) {
-					float[] audioFloatBuffer = audioEvent.getFloatBuffer();
-					double seconds = frame / frameRate;
-					frame += audioFloatBuffer.length;
-					int x = (int) (secondsToX * seconds);
-					int y = (int) (audioFloatBuffer[0] * one);
-					waveFormGraphics.drawLine(x, 0, x, y);
-					return true;
+		final int waveFormHeight = 200;
+		final int waveFormWidth = 2000;
+		waveFormImage = new BufferedImage(waveFormWidth, waveFormHeight, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D waveFormGraphics = waveFormImage.createGraphics();
+		initializeGraphics(waveFormGraphics);
+		waveFormGraphics.clearRect(0, 0, waveFormWidth, waveFormHeight);
+		waveFormGraphics.transform(getSaneTransform(waveFormHeight));
+
+		final int one = (int) (waveFormHeight / 2 * 0.85);
+		final AudioFile file = audioFile;
+		Runnable builder = new Runnable() {
+			public void run() {
+				// the pyramid is stored while transcoding, it is only built
+				// here for files transcoded by older versions.
+				WaveFormPyramid pyramid = WaveFormPyramid.forFile(file);
+				if (pyramid != null) {
+					final float[] minima = new float[waveFormWidth];
+					final float[] maxima = new float[waveFormWidth];
+					final float[] rms = new float[waveFormWidth];
+					pyramid.summarize(0, file.getLengthInMilliSeconds() / 1000.0, minima, maxima, rms);
+					for (int x = 0; x < waveFormWidth; x++) {
+						waveFormGraphics.setColor(Color.gray);
+						waveFormGraphics.drawLine(x, (int) (minima[x] * one), x, (int) (maxima[x] * one));
+						waveFormGraphics.setColor(Color.black);
+						waveFormGraphics.drawLine(x, (int) (-rms[x] * one), x, (int) (rms[x] * one));
+					}
 				}
-			});
-
-			new Thread(adp, "Waveform image builder").start();
-		} catch (UnsupportedAudioFileException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+				setWaveFormCreationFinished(true);
+				invalidate();
+				requestRepaint();
+				LOG.fine("Created wave form image in " + watch.formattedToString());
+			}
+		};
+		new Thread(builder, "Waveform image builder").start();
 	}
 }
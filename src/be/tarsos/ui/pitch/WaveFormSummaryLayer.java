@@ -0,0 +1,141 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.ui.pitch;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+import java.util.Collections;
+
+import javax.swing.SwingUtilities;
+
+import be.tarsos.dsp.ui.Axis;
+import be.tarsos.dsp.ui.CoordinateSystem;
+import be.tarsos.dsp.ui.layers.LayerUtilities;
+import be.tarsos.util.AnalysisScheduler;
+import be.tarsos.util.AudioFile;
+import be.tarsos.util.WaveFormPyramid;
+
+/**
+ * Draws the wave form of an audio file from its {@link WaveFormPyramid}: each
+ * pixel column shows the peaks and the RMS of the audio it covers, at any
+ * zoom level. The time axis is in milliseconds.
+ * 
+ * @author Joren Six
+ */
+public final class WaveFormSummaryLayer implements be.tarsos.dsp.ui.layers.Layer {
+
+	private final CoordinateSystem cs;
+	private final AnalysisScheduler.Task loading;
+	private volatile WaveFormPyramid pyramid;
+
+	private float[] minima = new float[0];
+	private float[] maxima = new float[0];
+	private float[] rms = new float[0];
+
+	/**
+	 * Create a new layer. The pyramid is loaded, or built, by a task of the
+	 * {@link AnalysisScheduler}, the component is repainted when it is
+	 * available.
+	 * 
+	 * @param cs
+	 *            The coordinate system, time in milliseconds and amplitude.
+	 * @param audioFile
+	 *            The audio file to draw.
+	 * @param component
+	 *            The component that draws the layer.
+	 */
+	public WaveFormSummaryLayer(final CoordinateSystem cs, final AudioFile audioFile, final Component component) {
+		this.cs = cs;
+		loading = new AnalysisScheduler.Task("Wave form summary of " + audioFile.originalBasename()) {
+			@Override
+			protected void execute() {
+				final WaveFormPyramid loaded = WaveFormPyramid.forFile(audioFile);
+				if (loaded != null && !isCancelled()) {
+					pyramid = loaded;
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							component.repaint();
+						}
+					});
+				}
+			}
+		};
+		AnalysisScheduler.getInstance().submit(AnalysisScheduler.VISIBLE_PRIORITY, loading);
+	}
+
+	/**
+	 * Cancels loading the pyramid, e.g. when another file is shown.
+	 */
+	public void cancel() {
+		AnalysisScheduler.getInstance().cancel(Collections.singletonList(loading));
+	}
+
+	public void draw(final Graphics2D graphics) {
+		final int xMin = (int) cs.getMin(Axis.X);
+		final int xMax = (int) cs.getMax(Axis.X);
+		graphics.setColor(Color.GRAY);
+		graphics.drawLine(xMin, 0, xMax, 0);
+		final WaveFormPyramid current = pyramid;
+		if (current == null) {
+			return;
+		}
+		final float lengthInMs = (float) (current.getDurationInSeconds() * 1000);
+		final int from = Math.max(0, xMin);
+		final int to = (int) Math.min(xMax, lengthInMs);
+		final int pixels = Math.round(LayerUtilities.unitsToPixels(graphics, to - from, true));
+		if (pixels <= 0) {
+			return;
+		}
+		if (minima.length != pixels) {
+			minima = new float[pixels];
+			maxima = new float[pixels];
+			rms = new float[pixels];
+		}
+		current.summarize(from / 1000.0, to / 1000.0, minima, maxima, rms);
+
+		final int amplitudeFactor = (int) cs.getDelta(Axis.Y) / 2;
+		final Line2D.Float line = new Line2D.Float();
+		final float msPerPixel = (to - from) / (float) pixels;
+		for (int pixel = 0; pixel < pixels; pixel++) {
+			// zoomed in a pixel is less than a millisecond wide
+			final float x = from + pixel * msPerPixel;
+			graphics.setColor(Color.GRAY);
+			line.setLine(x, minima[pixel] * amplitudeFactor, x, maxima[pixel] * amplitudeFactor);
+			graphics.draw(line);
+			graphics.setColor(Color.BLACK);
+			line.setLine(x, -rms[pixel] * amplitudeFactor, x, rms[pixel] * amplitudeFactor);
+			graphics.draw(line);
+		}
+	}
+
+	public String getName() {
+		return "Waveform layer";
+	}
+}
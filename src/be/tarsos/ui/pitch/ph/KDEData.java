@@ -38,6 +38,7 @@ import be.tarsos.util.AudioFile;
 import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
 import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimateBuilder;
 import be.tarsos.util.KernelDensityEstimate.Kernel;
 
 public class KDEData  implements AudioFileChangedListener, AnnotationListener{
@@ -60,6 +61,18 @@ public class KDEData  implements AudioFileChangedListener, AnnotationListener{
 	
 	private final HashMap<PitchDetectionMode, KernelDensityEstimate> kdes;
 
+	/**
+	 * Annotations are counted per cent and only convolved with the kernel
+	 * when the estimates are requested.
+	 */
+	private final HashMap<PitchDetectionMode, KernelDensityEstimateBuilder> builders;
+
+	/**
+	 * True if annotations were added or removed since the estimates were
+	 * built.
+	 */
+	private boolean dirty;
+
 	/**
 	 * Defines the kernel used to build the KDE.
 	 */
@@ -67,20 +80,35 @@ public class KDEData  implements AudioFileChangedListener, AnnotationListener{
 	
 	private KDEData(boolean containsPCH){
 		kdes = new HashMap<PitchDetectionMode, KernelDensityEstimate>();
+		builders = new HashMap<PitchDetectionMode, KernelDensityEstimateBuilder>();
 	}
 
-	public boolean isEmpty(){
-		return kdes.isEmpty();
+	public synchronized boolean isEmpty(){
+		return builders.isEmpty();
 	}
 
 	public void audioFileChanged(AudioFile newAudioFile) {
 		
 	}
 
-	public void addAnnotation(Annotation annotation) {
+	/**
+	 * Adds an annotation to the estimate of its source. Sources that are not
+	 * configured, e.g. the detector used while listening to the microphone,
+	 * get an estimate when their first annotation arrives.
+	 * 
+	 * @param annotation
+	 *            The annotation to add.
+	 */
+	public synchronized void addAnnotation(Annotation annotation) {
 		double pitchInAbsCents = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
 		if (pitchInAbsCents > AMBITUS_START && pitchInAbsCents <= AMBITUS_STOP) {
-			kdes.get(annotation.getSource()).add(pitchInAbsCents);
+			KernelDensityEstimateBuilder builder = builders.get(annotation.getSource());
+			if (builder == null) {
+				builder = new KernelDensityEstimateBuilder(kernel, 1200);
+				builders.put(annotation.getSource(), builder);
+			}
+			builder.add(pitchInAbsCents);
+			dirty = true;
 		} else {
 			String message;
 			message = String.format("Ignored pitch annotation outside range: %s not in [%s,%s]",pitchInAbsCents,AMBITUS_START,AMBITUS_STOP);
@@ -88,8 +116,27 @@ public class KDEData  implements AudioFileChangedListener, AnnotationListener{
 		}
 	}
 	
-	public HashMap<PitchDetectionMode, KernelDensityEstimate> getKDEs(){
-		return kdes;
+	public synchronized void addAnnotations(List<Annotation> annotations) {
+		for (Annotation annotation : annotations) {
+			addAnnotation(annotation);
+		}
+	}
+	
+	/**
+	 * Annotations are delivered on another thread than the one that paints
+	 * the estimates, so a copy of the map is returned. The estimates in it
+	 * are not changed afterwards: new annotations result in new estimates.
+	 * 
+	 * @return A snapshot of the estimate of each pitch detector.
+	 */
+	public synchronized HashMap<PitchDetectionMode, KernelDensityEstimate> getKDEs(){
+		if (dirty) {
+			for (PitchDetectionMode mode : builders.keySet()) {
+				kdes.put(mode, builders.get(mode).build());
+			}
+			dirty = false;
+		}
+		return new HashMap<PitchDetectionMode, KernelDensityEstimate>(kdes);
 	}
 
 
@@ -97,15 +144,18 @@ public class KDEData  implements AudioFileChangedListener, AnnotationListener{
 		clear();
 	}
 	
-	private void clear(){
+	private synchronized void clear(){
 		kdes.clear();
+		builders.clear();
 		List<String> trackers = Configuration.getList(ConfKey.pitch_tracker_list);
 		for(String tracker : trackers){
 			PitchDetectionMode mode = PitchDetectionMode.valueOf(tracker);
-			if(!kdes.containsKey(mode)){
+			if(!builders.containsKey(mode)){
+				builders.put(mode, new KernelDensityEstimateBuilder(kernel,1200));
 				kdes.put(mode, new KernelDensityEstimate(kernel,1200));
 			}
 		}
+		dirty = false;
 	}
 
 
@@ -25,171 +25,141 @@
 
 package be.tarsos.ui.util;
 
+import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.Frame;
-import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
 
-public class ProgressDialog extends JDialog {
+import be.tarsos.util.AnalysisScheduler;
+
+/**
+ * Shows the combined progress of the tasks in an {@link AnalysisScheduler}.
+ * The dialog is not modal: it appears when tasks are submitted and hides when
+ * the scheduler is idle. The cancel button cancels all unfinished tasks.
+ * 
+ * @author Joren Six
+ */
+public class ProgressDialog extends JDialog implements AnalysisScheduler.Listener {
 
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1545656;
 
-	private final int concurrentTasks;
-	
-	private final List<BackgroundTask> taskQueue;
-	private final List<BackgroundTask> runningTasks;
+	private final AnalysisScheduler scheduler;
+	private final JProgressBar progressBar;
+	private final JLabel taskLabel;
 	
+	/**
+	 * True if an update of the dialog is waiting on the event dispatch
+	 * thread: changes of many tasks result in one update.
+	 */
+	private final AtomicBoolean updatePending;
 
-	public ProgressDialog(final Frame parent,String title,BackgroundTask transcodingTask,final List<BackgroundTask> detectorQueue) {
-		super(parent, title, true);
-		setDefaultCloseOperation(DISPOSE_ON_CLOSE);
-		setMinimumSize(new Dimension(400,120));
-		taskQueue = detectorQueue;
-		runningTasks = new ArrayList<BackgroundTask>();
-		concurrentTasks = Runtime.getRuntime().availableProcessors();
-		
-		getContentPane().setLayout(new GridLayout(0, 1));		
-		setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
-		setLocationRelativeTo(parent);		
+	public ProgressDialog(final Frame parent, final AnalysisScheduler analysisScheduler) {
+		super(parent, "Progress", false);
+		scheduler = analysisScheduler;
+		updatePending = new AtomicBoolean(false);
+		setDefaultCloseOperation(HIDE_ON_CLOSE);
+		setMinimumSize(new Dimension(400, 120));
 		
-		transcodingTask.addHandler(new BackgroundTask.TaskHandler() {
-			public void taskDone(BackgroundTask backgroundTask) {				
-				startOtherTasks();
-			}
-			public void taskInterrupted(BackgroundTask backgroundTask,Exception e) {
-				//transcoding failed => interrupt the queue
-				setVisible(false);
+		progressBar = new JProgressBar(0, 1000);
+		progressBar.setStringPainted(true);
+		taskLabel = new JLabel(" ");
+		final JButton cancelButton = new JButton("Cancel");
+		cancelButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				scheduler.cancelAll();
 			}
 		});
 		
-		getContentPane().add(transcodingTask.ui());
+		getContentPane().setLayout(new BorderLayout(5, 5));
+		getContentPane().add(taskLabel, BorderLayout.NORTH);
+		getContentPane().add(progressBar, BorderLayout.CENTER);
+		getContentPane().add(cancelButton, BorderLayout.EAST);
+		((JComponent) getContentPane()).setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+		pack();
+		setLocationRelativeTo(parent);
 		
-		for(BackgroundTask detectorTask : detectorQueue){
-			detectorTask.addHandler(handler);
-			getContentPane().add(detectorTask.ui());
-		}
-		transcodingTask.execute();
-		
-		this.addWindowListener(new WindowAdapter() {
-			
-			@Override
-			public void windowClosing(WindowEvent e) {
-				System.out.println("close");
-				for(BackgroundTask detectorTask : detectorQueue){
-					detectorTask.cancel(true);
-				}
-			}
-		});
+		scheduler.addListener(this);
 	}
 	
-	private BackgroundTask.TaskHandler handler = new BackgroundTask.TaskHandler() {
-		public void taskDone(BackgroundTask backgroundTask) {
-			stopTask(backgroundTask);
-			startNextInQueue();
-		}
+	public void taskChanged(final AnalysisScheduler.Task task) {
+		showProgress();
+	}
 
-		public void taskInterrupted(BackgroundTask backgroundTask,Exception e) {
-			
-		}
-	};
-	
-	public synchronized void startOtherTasks(){
-		for (int i = 0; i < concurrentTasks && taskQueue.size() > 0; i++) {
-			startTask(taskQueue.get(0));
-		}
-		//empty queue => hide dialog
-		if(taskQueue.size() == 0 && runningTasks.size()==0){
-			setVisible(false);
+	/**
+	 * Updates the dialog on the event dispatch thread.
+	 */
+	public void showProgress() {
+		if (updatePending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					updatePending.set(false);
+					update();
+				}
+			});
 		}
 	}
 
-	private synchronized void startTask(BackgroundTask backgroundTask) {
-		taskQueue.remove(backgroundTask);
-		backgroundTask.execute();
-		runningTasks.add(backgroundTask);
-	}
-	
-	private synchronized void stopTask(BackgroundTask backgroundTask) {
-		runningTasks.remove(backgroundTask);
-		if(runningTasks.size()==0){
-			//all tasks finished
-			firePropertyChange("allTasksFinished", false, true);
-			//hide
+	private void update() {
+		final int unfinished = scheduler.getUnfinishedTasks();
+		if (unfinished == 0) {
 			setVisible(false);
+			return;
 		}
-	}
-	private synchronized void startNextInQueue(){
-		if (taskQueue.size() > 0) {
-			startTask(taskQueue.get(0));
+		final List<AnalysisScheduler.Task> running = scheduler.getRunningTasks();
+		final StringBuilder text = new StringBuilder();
+		for (final AnalysisScheduler.Task task : running) {
+			if (text.length() > 0) {
+				text.append(", ");
+			}
+			text.append(task.getName());
+		}
+		if (running.isEmpty()) {
+			text.append("Waiting");
+		}
+		final int waiting = unfinished - running.size();
+		if (waiting > 0) {
+			text.append(String.format(" (%d more)", waiting));
+		}
+		taskLabel.setText(text.toString());
+		taskLabel.setToolTipText(text.toString());
+		final double progress = scheduler.getProgress();
+		progressBar.setValue((int) Math.round(progress * 1000));
+		progressBar.setString(String.format("%.0f%%", progress * 100));
+		if (!isVisible()) {
+			setVisible(true);
 		}
 	}
 
 	private static void createAndShowGUI() {
 		// Create and set up the window.
 		final JFrame frame = new JFrame();
+		final AnalysisScheduler scheduler = AnalysisScheduler.getInstance();
+		new ProgressDialog(frame, scheduler);
 		JButton button = new JButton("start");
-		int totalNumberOfTasks = 4;
-		final List<BackgroundTask> queue = new ArrayList<BackgroundTask>();
-		//some dummy tasks
-		for (int i = 0; i < totalNumberOfTasks; i++) {
-			BackgroundTask backgroundTask =  new BackgroundTask("BackgroundTask" + i,i % 2 == 0){
-				public Void doInBackground()
-				{
-					Random random = new Random();
-					int progress = 0;
-					// Initialize progress property.
-					setProgress(0);
-					while (progress < 100 && !this.isCancelled()) {
-						// Sleep for up to one second.
-						try {
-							Thread.sleep(random.nextInt(500));
-						} catch (InterruptedException ignore) {
-						}
-						// Make random progress.
-						progress += random.nextInt(10);
-						setProgress(Math.min(progress, 100));
-					}
-					
-					return null;
-				}
-			};
-			queue.add(backgroundTask);
-		}
-		
 		button.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
-				ProgressDialog dialog = new ProgressDialog(frame,"Progress",new BackgroundTask("Transcoding",false){
-					public Void doInBackground()
-					{
-						Random random = new Random();
-						int progress = 0;
-						while (progress < 100) {
-							// Sleep for up to one second.
-							try {
-								Thread.sleep(random.nextInt(500));
-							} catch (InterruptedException ignore) {
-							}
-							// Make random progress.
-							progress += random.nextInt(10);
-							setProgress(Math.min(progress, 100));
-						}
-						return null;
-					}},queue);
-				dialog.pack();
-				dialog.setVisible(true);
+				//a dummy transcoding task followed by some dummy detectors
+				final AnalysisScheduler.Task transcoding = new DummyTask("Transcoding");
+				for (int i = 0; i < 4; i++) {
+					scheduler.submit(AnalysisScheduler.VISIBLE_PRIORITY,
+							new DummyTask("Task " + i).dependsOn(transcoding));
+				}
 			}
 		});
 		frame.add(button);
@@ -199,6 +169,25 @@ public class ProgressDialog extends JDialog {
 		frame.pack();
 		frame.setVisible(true);
 	}
+	
+	private static class DummyTask extends AnalysisScheduler.Task {
+		private DummyTask(final String name) {
+			super(name);
+		}
+
+		@Override
+		protected void execute() throws InterruptedException {
+			Random random = new Random();
+			int progress = 0;
+			while (progress < 100 && !isCancelled()) {
+				// Sleep for up to half a second.
+				Thread.sleep(random.nextInt(500));
+				// Make random progress.
+				progress += random.nextInt(10);
+				setProgress(Math.min(progress, 100) / 100.0);
+			}
+		}
+	}
 
 	public static void main(String... strings) {
 		// Schedule a job for the event-dispatching thread:
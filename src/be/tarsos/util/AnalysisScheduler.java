@@ -0,0 +1,592 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs analysis tasks, e.g. transcoding and pitch detection, on a pool with a
+ * thread for each processor. A task can depend on other tasks: it is only
+ * queued when all its dependencies are done, and it is cancelled when one of
+ * them fails or is cancelled. Queued tasks run in order of priority, tasks
+ * with the same priority in the order they were submitted. A large batch of
+ * files therefore never uses more threads than there are processors and the
+ * file that is shown can overtake the others.
+ * <p>
+ * The progress of all tasks submitted since the scheduler was last idle is
+ * combined in one value, see {@link #getProgress()}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class AnalysisScheduler {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(AnalysisScheduler.class.getName());
+
+	/**
+	 * The priority of the tasks for the file that is shown.
+	 */
+	public static final int VISIBLE_PRIORITY = 10;
+
+	/**
+	 * The priority of tasks that run in the background.
+	 */
+	public static final int BACKGROUND_PRIORITY = 0;
+
+	/**
+	 * The minimum change in progress that is reported to the listeners.
+	 */
+	private static final double PROGRESS_STEP = 0.01;
+
+	/**
+	 * The states of a task.
+	 */
+	public enum State {
+		/**
+		 * Waits for its dependencies.
+		 */
+		WAITING,
+		/**
+		 * Waits for a thread.
+		 */
+		QUEUED,
+		/**
+		 * Runs.
+		 */
+		RUNNING,
+		/**
+		 * Finished successfully.
+		 */
+		DONE,
+		/**
+		 * Finished with an exception.
+		 */
+		FAILED,
+		/**
+		 * Cancelled, or one of its dependencies did not finish successfully.
+		 */
+		CANCELLED;
+
+		/**
+		 * @return True if the task will not run (again).
+		 */
+		public boolean isFinished() {
+			return this == DONE || this == FAILED || this == CANCELLED;
+		}
+	}
+
+	/**
+	 * Receives changes of the state and progress of tasks. Called from the
+	 * threads of the scheduler.
+	 */
+	public interface Listener {
+		/**
+		 * @param task
+		 *            The task that changed.
+		 */
+		void taskChanged(Task task);
+	}
+
+	/**
+	 * A unit of work in the scheduler.
+	 */
+	public abstract static class Task implements Runnable, Comparable<Task> {
+		private final String name;
+		private final List<Task> dependencies;
+		private final List<Task> dependents;
+		private AnalysisScheduler scheduler;
+		private int priority;
+		private long sequence;
+		private int unfinishedDependencies;
+		private volatile State state;
+		private volatile double progress;
+		private volatile double reportedProgress;
+		private volatile boolean cancelled;
+		private volatile Thread runner;
+		private volatile Exception failure;
+
+		/**
+		 * @param taskName
+		 *            A name shown to the user.
+		 */
+		protected Task(final String taskName) {
+			name = taskName;
+			dependencies = new ArrayList<Task>();
+			dependents = new ArrayList<Task>();
+			priority = BACKGROUND_PRIORITY;
+			state = State.WAITING;
+		}
+
+		/**
+		 * Makes this task wait for other tasks. Should be called before the
+		 * task is submitted.
+		 * 
+		 * @param tasks
+		 *            The tasks that should be done before this task runs.
+		 * @return This task.
+		 */
+		public Task dependsOn(final Task... tasks) {
+			dependencies.addAll(Arrays.asList(tasks));
+			return this;
+		}
+
+		/**
+		 * Does the actual work. Long running tasks should check
+		 * {@link #isCancelled()} or the interrupted state of the thread.
+		 * 
+		 * @throws Exception
+		 *             When the task fails, the dependent tasks are cancelled.
+		 */
+		protected abstract void execute() throws Exception;
+
+		/**
+		 * @param value
+		 *            The progress of the task, between zero and one.
+		 */
+		protected final void setProgress(final double value) {
+			progress = Math.max(0, Math.min(1, value));
+			if (Math.abs(progress - reportedProgress) >= PROGRESS_STEP && scheduler != null) {
+				reportedProgress = progress;
+				scheduler.fireTaskChanged(this);
+			}
+		}
+
+		/**
+		 * @return True if the task is cancelled while it runs.
+		 */
+		protected final boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * @return The name of the task.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The state of the task.
+		 */
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * @return The progress of the task, one if it is finished.
+		 */
+		public double getProgress() {
+			return state.isFinished() ? 1.0 : progress;
+		}
+
+		/**
+		 * @return The priority of the task, higher priorities run first.
+		 */
+		public synchronized int getPriority() {
+			return priority;
+		}
+
+		/**
+		 * @return The exception of a failed task, or null.
+		 */
+		public Exception getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Runs the task on a thread of the scheduler.
+		 */
+		public final void run() {
+			scheduler.runTask(this);
+		}
+
+		public int compareTo(final Task other) {
+			final int thisPriority = getPriority();
+			final int otherPriority = other.getPriority();
+			if (thisPriority != otherPriority) {
+				return thisPriority > otherPriority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private static AnalysisScheduler instance;
+
+	/**
+	 * @return The scheduler shared by the application.
+	 */
+	public static synchronized AnalysisScheduler getInstance() {
+		if (instance == null) {
+			instance = new AnalysisScheduler(Runtime.getRuntime().availableProcessors());
+		}
+		return instance;
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final List<Listener> listeners;
+	/**
+	 * The tasks submitted since the scheduler was last idle.
+	 */
+	private final List<Task> tasks;
+	private long submitted;
+
+	/**
+	 * Create a new scheduler.
+	 * 
+	 * @param threads
+	 *            The maximum number of tasks that run at the same time.
+	 */
+	public AnalysisScheduler(final int threads) {
+		final int poolSize = Math.max(1, threads);
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					private int count;
+
+					public synchronized Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "analysis-" + count++);
+						thread.setDaemon(true);
+						thread.setPriority(Thread.NORM_PRIORITY - 1);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		listeners = new CopyOnWriteArrayList<Listener>();
+		tasks = new ArrayList<Task>();
+	}
+
+	/**
+	 * Submits tasks with a priority. Tasks without unfinished dependencies are
+	 * queued immediately, the others when their dependencies are done.
+	 * Dependencies that are not submitted before or together with a task are
+	 * submitted with it.
+	 * 
+	 * @param priority
+	 *            The priority of the tasks.
+	 * @param newTasks
+	 *            The tasks to submit.
+	 */
+	public void submit(final int priority, final Task... newTasks) {
+		submit(priority, Arrays.asList(newTasks));
+	}
+
+	/**
+	 * Submits tasks with a priority.
+	 * 
+	 * @param priority
+	 *            The priority of the tasks.
+	 * @param newTasks
+	 *            The tasks to submit.
+	 * @see #submit(int, Task...)
+	 */
+	public void submit(final int priority, final Collection<? extends Task> newTasks) {
+		final List<Task> changed = new ArrayList<Task>();
+		synchronized (this) {
+			final List<Task> toRegister = new ArrayList<Task>();
+			for (final Task task : newTasks) {
+				collect(task, toRegister);
+			}
+			for (final Task task : toRegister) {
+				synchronized (task) {
+					task.scheduler = this;
+					task.priority = priority;
+					task.sequence = submitted++;
+				}
+				tasks.add(task);
+			}
+			for (final Task task : toRegister) {
+				int unfinished = 0;
+				boolean dependencyFailed = false;
+				for (final Task dependency : task.dependencies) {
+					if (!dependency.state.isFinished()) {
+						unfinished++;
+						dependency.dependents.add(task);
+					} else if (dependency.state != State.DONE) {
+						dependencyFailed = true;
+					}
+				}
+				task.unfinishedDependencies = unfinished;
+				if (dependencyFailed) {
+					cancelWaiting(task, changed);
+				} else if (unfinished == 0) {
+					queue(task);
+					changed.add(task);
+				}
+			}
+		}
+		fireTaskChanged(changed);
+	}
+
+	/**
+	 * Collects a task and its dependencies that are not submitted yet,
+	 * dependencies first.
+	 */
+	private void collect(final Task task, final List<Task> toRegister) {
+		if (task.scheduler != null || toRegister.contains(task)) {
+			return;
+		}
+		for (final Task dependency : task.dependencies) {
+			collect(dependency, toRegister);
+		}
+		toRegister.add(task);
+	}
+
+	/**
+	 * Queues a task. It is added to the priority queue directly:
+	 * ThreadPoolExecutor.execute hands a task to a new thread while fewer than
+	 * the core threads run, which ignores the priority of the task. The core
+	 * threads time out when idle, so they are started again if needed.
+	 */
+	private void queue(final Task task) {
+		task.state = State.QUEUED;
+		executor.getQueue().add(task);
+		executor.prestartAllCoreThreads();
+	}
+
+	/**
+	 * Changes the priority of tasks, queued tasks are reordered.
+	 * 
+	 * @param priority
+	 *            The new priority.
+	 * @param changedTasks
+	 *            The tasks to change.
+	 */
+	public void setPriority(final int priority, final Collection<? extends Task> changedTasks) {
+		synchronized (this) {
+			for (final Task task : changedTasks) {
+				// the queue is ordered on insertion: remove and add again
+				final boolean queued = executor.getQueue().remove(task);
+				synchronized (task) {
+					task.priority = priority;
+				}
+				if (queued) {
+					executor.getQueue().add(task);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cancels tasks and the tasks that depend on them. Running tasks are
+	 * interrupted.
+	 * 
+	 * @param cancelledTasks
+	 *            The tasks to cancel.
+	 */
+	public void cancel(final Collection<? extends Task> cancelledTasks) {
+		final List<Task> changed = new ArrayList<Task>();
+		synchronized (this) {
+			for (final Task task : cancelledTasks) {
+				if (task.state == State.RUNNING) {
+					task.cancelled = true;
+					final Thread runner = task.runner;
+					if (runner != null) {
+						runner.interrupt();
+					}
+				} else if (!task.state.isFinished()) {
+					executor.getQueue().remove(task);
+					cancelWaiting(task, changed);
+				}
+			}
+		}
+		fireTaskChanged(changed);
+	}
+
+	/**
+	 * Cancels all unfinished tasks.
+	 */
+	public void cancelAll() {
+		final List<Task> unfinished;
+		synchronized (this) {
+			unfinished = new ArrayList<Task>(tasks);
+		}
+		cancel(unfinished);
+	}
+
+	/**
+	 * Cancels a task that does not run and all its dependents.
+	 */
+	private void cancelWaiting(final Task task, final List<Task> changed) {
+		if (task.state.isFinished()) {
+			return;
+		}
+		task.cancelled = true;
+		task.state = State.CANCELLED;
+		changed.add(task);
+		for (final Task dependent : task.dependents) {
+			executor.getQueue().remove(dependent);
+			cancelWaiting(dependent, changed);
+		}
+	}
+
+	private void runTask(final Task task) {
+		synchronized (this) {
+			if (task.state != State.QUEUED) {
+				return;
+			}
+			task.state = State.RUNNING;
+			task.runner = Thread.currentThread();
+		}
+		fireTaskChanged(task);
+		State finalState;
+		try {
+			task.execute();
+			finalState = task.cancelled ? State.CANCELLED : State.DONE;
+		} catch (final Exception e) {
+			if (task.cancelled) {
+				finalState = State.CANCELLED;
+			} else {
+				task.failure = e;
+				finalState = State.FAILED;
+				LOG.log(Level.WARNING, "Task " + task.getName() + " failed.", e);
+			}
+		}
+		final List<Task> changed = new ArrayList<Task>();
+		synchronized (this) {
+			task.runner = null;
+			// an interrupt for a cancellation should not leak to the next task
+			Thread.interrupted();
+			task.state = finalState;
+			changed.add(task);
+			for (final Task dependent : task.dependents) {
+				if (finalState != State.DONE) {
+					cancelWaiting(dependent, changed);
+				} else if (dependent.state == State.WAITING && --dependent.unfinishedDependencies == 0) {
+					queue(dependent);
+					changed.add(dependent);
+				}
+			}
+		}
+		fireTaskChanged(changed);
+	}
+
+	/**
+	 * Returns the combined progress of the tasks submitted since the
+	 * scheduler was last idle. Finished tasks count as complete.
+	 * 
+	 * @return The progress between zero and one, one if the scheduler is
+	 *         idle.
+	 */
+	public synchronized double getProgress() {
+		if (tasks.isEmpty()) {
+			return 1.0;
+		}
+		double progress = 0;
+		for (final Task task : tasks) {
+			progress += task.getProgress();
+		}
+		return progress / tasks.size();
+	}
+
+	/**
+	 * @return The number of tasks that are not finished.
+	 */
+	public synchronized int getUnfinishedTasks() {
+		int unfinished = 0;
+		for (final Task task : tasks) {
+			if (!task.state.isFinished()) {
+				unfinished++;
+			}
+		}
+		return unfinished;
+	}
+
+	/**
+	 * @return The tasks that are running.
+	 */
+	public synchronized List<Task> getRunningTasks() {
+		final List<Task> running = new ArrayList<Task>();
+		for (final Task task : tasks) {
+			if (task.state == State.RUNNING) {
+				running.add(task);
+			}
+		}
+		return running;
+	}
+
+	/**
+	 * @return True if all submitted tasks are finished.
+	 */
+	public boolean isIdle() {
+		return getUnfinishedTasks() == 0;
+	}
+
+	/**
+	 * @param listener
+	 *            Receives changes of the tasks.
+	 */
+	public void addListener(final Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 *            The listener to remove.
+	 */
+	public void removeListener(final Listener listener) {
+		listeners.remove(listener);
+	}
+
+	private void fireTaskChanged(final List<Task> changed) {
+		for (final Task task : changed) {
+			fireTaskChanged(task);
+		}
+	}
+
+	private void fireTaskChanged(final Task task) {
+		for (final Listener listener : listeners) {
+			listener.taskChanged(task);
+		}
+		if (task.state.isFinished()) {
+			synchronized (this) {
+				// forget the finished tasks when everything is done, so the
+				// next batch starts at zero progress.
+				if (getUnfinishedTasks() == 0) {
+					tasks.clear();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,697 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Stores analysis results for all audio files in a few files, instead of a
+ * directory with small files per audio file. There is an append-only data file
+ * for each kind of result and one index. The index is an append-only log of
+ * records:
+ * 
+ * <pre>
+ * kind (byte) | key length (short) | key (UTF-8) | offset (long) | length (int) | CRC32 (long)
+ * </pre>
+ * 
+ * A later record with the same kind and key replaces an earlier one, a record
+ * with length -1 removes the entry. Keys start with the content hash of the
+ * audio file, followed by e.g. the detector and its parameters, see
+ * {@link #key(Object...)}.
+ * <p>
+ * The index is only read on the first lookup. Replaced and removed data stays
+ * in the data files until the store is compacted with {@link #compact(KeyFilter)}.
+ * </p>
+ * <p>
+ * Several Tarsos processes can share a store: writes and compaction hold an
+ * exclusive lock on a lock file. Before a write the records appended by other
+ * processes are read, the index is read again when another process compacted
+ * the store. Lookups only see the records read by this process.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class AnalysisStore {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(AnalysisStore.class.getName());
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The name of the sub directory of the data directory with the store.
+	 */
+	private static final String STORE_DIRECTORY = "store";
+
+	private static final String INDEX_FILE = "index.bin";
+
+	/**
+	 * The file to lock while writing. Compaction replaces the index and data
+	 * files, the lock file stays the same.
+	 */
+	private static final String LOCK_FILE = "store.lock";
+
+	/**
+	 * Size of an index record without the key.
+	 */
+	private static final int RECORD_SIZE = 1 + 2 + 8 + 4 + 8;
+
+	/**
+	 * The kinds of results in the store, each kind has its own data file.
+	 */
+	public enum Kind {
+		/**
+		 * The base name used for an audio file, the key is the content hash.
+		 */
+		NAMES("names.dat"),
+		/**
+		 * Annotations in the binary annotation cache format.
+		 */
+		ANNOTATIONS("annotations.dat"),
+		/**
+		 * Tone scales of the {@link be.tarsos.util.histogram.ToneScaleIndex},
+		 * the key contains the path of the file instead of a content hash.
+		 */
+		TONE_SCALES("tone_scales.dat"),
+		/**
+		 * Summaries of the wave form, see {@link WaveFormPyramid}.
+		 */
+		WAVE_FORMS("wave_forms.dat"),
+		/**
+		 * Content hashes with the size and modification time of the file, see
+		 * {@link FileFingerprints}. The key contains the algorithm and the
+		 * path of the file instead of a content hash.
+		 */
+		FINGERPRINTS("fingerprints.dat");
+
+		private final String fileName;
+
+		private Kind(final String dataFileName) {
+			fileName = dataFileName;
+		}
+	}
+
+	/**
+	 * Decides which entries survive garbage collection.
+	 */
+	public interface KeyFilter {
+		/**
+		 * @param kind
+		 *            The kind of the entry.
+		 * @param key
+		 *            The key of the entry.
+		 * @return True if the entry should be kept, false otherwise.
+		 */
+		boolean keep(Kind kind, String key);
+	}
+
+	/**
+	 * The location of a value in a data file.
+	 */
+	private static final class Entry {
+		private final long offset;
+		private final int length;
+		private final long checksum;
+
+		private Entry(final long entryOffset, final int entryLength, final long entryChecksum) {
+			offset = entryOffset;
+			length = entryLength;
+			checksum = entryChecksum;
+		}
+	}
+
+	private static AnalysisStore instance;
+
+	/**
+	 * @return The store in the configured data directory.
+	 */
+	public static synchronized AnalysisStore getInstance() {
+		final File directory = new File(FileUtils.combine(Configuration.get(ConfKey.data_directory), STORE_DIRECTORY));
+		if (instance == null || !instance.directory.equals(directory)) {
+			if (instance != null) {
+				instance.close();
+			}
+			instance = new AnalysisStore(directory);
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a key from a content hash and other parts, separated by a slash.
+	 * 
+	 * @param parts
+	 *            The parts of the key, the first is the content hash.
+	 * @return A key to use in the store.
+	 */
+	public static String key(final Object... parts) {
+		final StringBuilder key = new StringBuilder();
+		for (final Object part : parts) {
+			if (key.length() > 0) {
+				key.append('/');
+			}
+			key.append(part);
+		}
+		return key.toString();
+	}
+
+	private final File directory;
+	/**
+	 * The index per kind, null until the index is read.
+	 */
+	private Map<Kind, Map<String, Entry>> index;
+	/**
+	 * The number of bytes of the index log read into {@link #index}.
+	 */
+	private long indexLength;
+	/**
+	 * Identifies the index file that was read, null if unknown.
+	 */
+	private Object indexFileKey;
+	private final Map<Kind, FileChannel> dataChannels;
+	private FileChannel indexChannel;
+	private FileChannel lockChannel;
+
+	private AnalysisStore(final File storeDirectory) {
+		directory = storeDirectory;
+		dataChannels = new HashMap<Kind, FileChannel>();
+	}
+
+	/**
+	 * @return True if the store has an index on disk, false if it is new.
+	 */
+	public boolean exists() {
+		return new File(directory, INDEX_FILE).exists();
+	}
+
+	/**
+	 * Returns a stored value.
+	 * 
+	 * @param kind
+	 *            The kind of value.
+	 * @param key
+	 *            The key.
+	 * @return The value or null if it is not stored or corrupt.
+	 */
+	public synchronized ByteBuffer get(final Kind kind, final String key) {
+		final Entry entry = entries(kind).get(key);
+		ByteBuffer value = null;
+		if (entry != null) {
+			try {
+				value = read(dataChannel(kind), entry);
+				if (value == null) {
+					LOG.warning(String.format("Ignored corrupt %s entry %s in the analysis store.", kind, key));
+				}
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not read " + key + " from the analysis store.", e);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @param kind
+	 *            The kind of value.
+	 * @param key
+	 *            The key.
+	 * @return True if a value is stored for the key.
+	 */
+	public synchronized boolean contains(final Kind kind, final String key) {
+		return entries(kind).containsKey(key);
+	}
+
+	/**
+	 * @param kind
+	 *            The kind of value.
+	 * @return A copy of the keys of all stored values of a kind.
+	 */
+	public synchronized List<String> keys(final Kind kind) {
+		return new ArrayList<String>(entries(kind).keySet());
+	}
+
+	/**
+	 * Stores a value, it replaces the value stored with the same key.
+	 * 
+	 * @param kind
+	 *            The kind of value.
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value, from its position to its limit.
+	 * @return True if the value is stored, false otherwise.
+	 */
+	public synchronized boolean put(final Kind kind, final String key, final ByteBuffer value) {
+		boolean success = false;
+		try {
+			final CRC32 crc = new CRC32();
+			crc.update(value.duplicate());
+			final FileLock lock = lock();
+			try {
+				refreshIndex();
+				final FileChannel channel = dataChannel(kind);
+				final long offset = channel.size();
+				final int length = value.remaining();
+				final ByteBuffer data = value.duplicate();
+				long position = offset;
+				while (data.hasRemaining()) {
+					position += channel.write(data, position);
+				}
+				final Entry entry = new Entry(offset, length, crc.getValue());
+				appendRecord(kind, key, entry);
+				index.get(kind).put(key, entry);
+				success = true;
+			} finally {
+				lock.release();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not write " + key + " to the analysis store.", e);
+		}
+		return success;
+	}
+
+	/**
+	 * Stores a string value.
+	 * 
+	 * @param kind
+	 *            The kind of value.
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value.
+	 * @return True if the value is stored, false otherwise.
+	 */
+	public boolean putString(final Kind kind, final String key, final String value) {
+		return put(kind, key, ByteBuffer.wrap(value.getBytes(UTF8)));
+	}
+
+	/**
+	 * @param kind
+	 *            The kind of value.
+	 * @param key
+	 *            The key.
+	 * @return The stored string or null.
+	 */
+	public String getString(final Kind kind, final String key) {
+		final ByteBuffer value = get(kind, key);
+		return value == null ? null : UTF8.decode(value).toString();
+	}
+
+	/**
+	 * Removes a value.
+	 * 
+	 * @param kind
+	 *            The kind of value.
+	 * @param key
+	 *            The key.
+	 * @return True if a value was removed.
+	 */
+	public synchronized boolean remove(final Kind kind, final String key) {
+		boolean removed = false;
+		try {
+			final FileLock lock = lock();
+			try {
+				refreshIndex();
+				final Map<String, Entry> entries = index.get(kind);
+				if (entries.containsKey(key)) {
+					appendRecord(kind, key, new Entry(0, -1, 0));
+					entries.remove(key);
+					removed = true;
+				}
+			} finally {
+				lock.release();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not remove " + key + " from the analysis store.", e);
+		}
+		return removed;
+	}
+
+	/**
+	 * Rewrites the data files and the index with only the current values. The
+	 * space of replaced and removed values is reclaimed.
+	 * 
+	 * @param filter
+	 *            Decides which entries to keep, or null to keep all entries.
+	 * @return The number of bytes reclaimed.
+	 * @throws IOException
+	 *             When the store could not be rewritten.
+	 */
+	public synchronized long compact(final KeyFilter filter) throws IOException {
+		final FileLock lock = lock();
+		try {
+			refreshIndex();
+			return compactLocked(filter);
+		} finally {
+			lock.release();
+		}
+	}
+
+	private long compactLocked(final KeyFilter filter) throws IOException {
+		final long sizeBefore = size();
+		final Map<Kind, Map<String, Entry>> compacted = new HashMap<Kind, Map<String, Entry>>();
+		final File indexPart = new File(directory, INDEX_FILE + ".part");
+		final RandomAccessFile newIndex = new RandomAccessFile(indexPart, "rw");
+		try {
+			newIndex.setLength(0);
+			for (final Kind kind : Kind.values()) {
+				final Map<String, Entry> kept = new LinkedHashMap<String, Entry>();
+				final File dataPart = new File(directory, kind.fileName + ".part");
+				final RandomAccessFile newData = new RandomAccessFile(dataPart, "rw");
+				try {
+					newData.setLength(0);
+					final FileChannel source = dataChannel(kind);
+					final FileChannel target = newData.getChannel();
+					for (final Map.Entry<String, Entry> mapEntry : index.get(kind).entrySet()) {
+						final String key = mapEntry.getKey();
+						if (filter != null && !filter.keep(kind, key)) {
+							continue;
+						}
+						final ByteBuffer value = read(source, mapEntry.getValue());
+						if (value == null) {
+							LOG.warning(String.format("Dropped corrupt %s entry %s from the analysis store.", kind, key));
+							continue;
+						}
+						final Entry entry = new Entry(target.size(), value.remaining(), mapEntry.getValue().checksum);
+						long position = entry.offset;
+						while (value.hasRemaining()) {
+							position += target.write(value, position);
+						}
+						writeRecord(newIndex.getChannel(), kind, key, entry);
+						kept.put(key, entry);
+					}
+					target.force(true);
+				} finally {
+					newData.close();
+				}
+				compacted.put(kind, kept);
+			}
+			newIndex.getChannel().force(true);
+		} finally {
+			newIndex.close();
+		}
+
+		// Replace the files, the index last: an interrupted compaction leaves
+		// a complete index with the new data files.
+		closeFiles();
+		for (final Kind kind : Kind.values()) {
+			replace(new File(directory, kind.fileName + ".part"), new File(directory, kind.fileName));
+		}
+		replace(indexPart, new File(directory, INDEX_FILE));
+		index = compacted;
+		indexLength = indexChannel().size();
+		indexFileKey = fileKey(new File(directory, INDEX_FILE));
+		final long reclaimed = sizeBefore - size();
+		LOG.info(String.format("Compacted the analysis store in %s, reclaimed %d bytes.", directory, reclaimed));
+		return reclaimed;
+	}
+
+	/**
+	 * @return The size of the data files and index in bytes.
+	 */
+	public synchronized long size() {
+		long size = new File(directory, INDEX_FILE).length();
+		for (final Kind kind : Kind.values()) {
+			size += new File(directory, kind.fileName).length();
+		}
+		return size;
+	}
+
+	/**
+	 * Closes the open files, they are reopened when needed.
+	 */
+	public synchronized void close() {
+		closeFiles();
+		if (lockChannel != null) {
+			closeQuietly(lockChannel);
+			lockChannel = null;
+		}
+	}
+
+	/**
+	 * Closes the data files and the index, not the lock file.
+	 */
+	private void closeFiles() {
+		for (final FileChannel channel : dataChannels.values()) {
+			closeQuietly(channel);
+		}
+		dataChannels.clear();
+		if (indexChannel != null) {
+			closeQuietly(indexChannel);
+			indexChannel = null;
+		}
+	}
+
+	private void replace(final File part, final File target) throws IOException {
+		if (target.exists() && !target.delete()) {
+			throw new IOException("Could not delete " + target);
+		}
+		if (!part.renameTo(target)) {
+			throw new IOException("Could not rename " + part + " to " + target);
+		}
+	}
+
+	private Map<String, Entry> entries(final Kind kind) {
+		if (index == null) {
+			try {
+				final FileLock lock = lock();
+				try {
+					loadIndex();
+				} finally {
+					lock.release();
+				}
+			} catch (final IOException e) {
+				LOG.log(Level.SEVERE, "Could not lock the analysis store in " + directory, e);
+				loadIndex();
+			}
+		}
+		return index.get(kind);
+	}
+
+	/**
+	 * Brings the index up to date with the changes of other processes, it
+	 * should be called while holding the lock.
+	 */
+	private void refreshIndex() throws IOException {
+		if (index != null) {
+			final File indexFile = new File(directory, INDEX_FILE);
+			final Object key = fileKey(indexFile);
+			if (indexFile.length() < indexLength || key != null && !key.equals(indexFileKey)) {
+				// compacted by another process, the open files are replaced
+				closeFiles();
+				index = null;
+			} else if (indexFile.length() > indexLength) {
+				readIndex(indexFile);
+			}
+		}
+		if (index == null) {
+			loadIndex();
+		}
+	}
+
+	/**
+	 * Reads the index log, it should be called while holding the lock.
+	 */
+	private void loadIndex() {
+		index = new HashMap<Kind, Map<String, Entry>>();
+		for (final Kind kind : Kind.values()) {
+			index.put(kind, new HashMap<String, Entry>());
+		}
+		indexLength = 0;
+		indexFileKey = null;
+		final File indexFile = new File(directory, INDEX_FILE);
+		if (indexFile.exists()) {
+			readIndex(indexFile);
+		}
+	}
+
+	/**
+	 * Reads the records of the index log that are not read yet. A record that
+	 * was not written completely (e.g. on a crash) ends the log and is
+	 * truncated.
+	 */
+	private void readIndex(final File indexFile) {
+		final StopWatch watch = new StopWatch();
+		int records = 0;
+		try {
+			final FileChannel channel = indexChannel();
+			indexFileKey = fileKey(indexFile);
+			final long size = channel.size();
+			final ByteBuffer buffer = ByteBuffer.allocate((int) (size - indexLength));
+			while (buffer.hasRemaining() && channel.read(buffer, indexLength + buffer.position()) >= 0) {
+				// read the rest of the index
+			}
+			buffer.flip();
+			long validSize = indexLength;
+			final Kind[] kinds = Kind.values();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				final int kindIndex = buffer.get();
+				final int keyLength = buffer.getShort() & 0xFFFF;
+				if (kindIndex < 0 || kindIndex >= kinds.length || buffer.remaining() < keyLength + RECORD_SIZE - 3) {
+					break;
+				}
+				final byte[] key = new byte[keyLength];
+				buffer.get(key);
+				final Entry entry = new Entry(buffer.getLong(), buffer.getInt(), buffer.getLong());
+				final Map<String, Entry> entries = index.get(kinds[kindIndex]);
+				if (entry.length < 0) {
+					entries.remove(new String(key, UTF8));
+				} else {
+					entries.put(new String(key, UTF8), entry);
+				}
+				validSize = indexLength + buffer.position();
+				records++;
+			}
+			if (validSize != size) {
+				LOG.warning(String.format("Truncated %d bytes of an incomplete record from %s.", size - validSize, indexFile));
+				channel.truncate(validSize);
+			}
+			indexLength = validSize;
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, "Could not read the analysis store index " + indexFile, e);
+		}
+		LOG.fine(String.format("Read %d index records from %s in %s.", records, indexFile, watch));
+	}
+
+	private void appendRecord(final Kind kind, final String key, final Entry entry) throws IOException {
+		final FileChannel channel = indexChannel();
+		channel.position(channel.size());
+		writeRecord(channel, kind, key, entry);
+		indexLength = channel.size();
+		if (indexFileKey == null) {
+			indexFileKey = fileKey(new File(directory, INDEX_FILE));
+		}
+	}
+
+	private static void writeRecord(final FileChannel channel, final Kind kind, final String key, final Entry entry)
+			throws IOException {
+		final byte[] keyBytes = key.getBytes(UTF8);
+		final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE + keyBytes.length);
+		record.put((byte) kind.ordinal());
+		record.putShort((short) keyBytes.length);
+		record.put(keyBytes);
+		record.putLong(entry.offset);
+		record.putInt(entry.length);
+		record.putLong(entry.checksum);
+		record.flip();
+		while (record.hasRemaining()) {
+			channel.write(record);
+		}
+	}
+
+	/**
+	 * @return The value or null if the checksum does not match.
+	 */
+	private static ByteBuffer read(final FileChannel channel, final Entry entry) throws IOException {
+		final ByteBuffer value = ByteBuffer.allocate(entry.length);
+		long position = entry.offset;
+		while (value.hasRemaining()) {
+			final int read = channel.read(value, position);
+			if (read < 0) {
+				return null;
+			}
+			position += read;
+		}
+		value.flip();
+		final CRC32 crc = new CRC32();
+		crc.update(value.duplicate());
+		return crc.getValue() == entry.checksum ? value : null;
+	}
+
+	private FileChannel dataChannel(final Kind kind) throws IOException {
+		FileChannel channel = dataChannels.get(kind);
+		if (channel == null) {
+			channel = open(new File(directory, kind.fileName));
+			dataChannels.put(kind, channel);
+		}
+		return channel;
+	}
+
+	private FileChannel indexChannel() throws IOException {
+		if (indexChannel == null) {
+			indexChannel = open(new File(directory, INDEX_FILE));
+		}
+		return indexChannel;
+	}
+
+	/**
+	 * Locks the store for this process, it blocks while another process holds
+	 * the lock.
+	 */
+	private FileLock lock() throws IOException {
+		if (lockChannel == null) {
+			lockChannel = open(new File(directory, LOCK_FILE));
+		}
+		return lockChannel.lock();
+	}
+
+	/**
+	 * @return An object that identifies the file (e.g. its inode), or null if
+	 *         the file does not exist or the file system has no such key.
+	 */
+	private static Object fileKey(final File file) {
+		Object key = null;
+		try {
+			if (file.exists()) {
+				key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+			}
+		} catch (final IOException e) {
+			LOG.log(Level.FINE, "Could not read the attributes of " + file, e);
+		}
+		return key;
+	}
+
+	private FileChannel open(final File file) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		return new RandomAccessFile(file, "rw").getChannel();
+	}
+
+	private static void closeQuietly(final FileChannel channel) {
+		try {
+			channel.close();
+		} catch (final IOException e) {
+			LOG.log(Level.INFO, "Ignored exception while closing a store file.", e);
+		}
+	}
+}
@@ -37,19 +37,19 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
-import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
 import be.tarsos.dsp.io.jvm.AudioPlayer;
-import be.tarsos.dsp.io.jvm.JVMAudioInputStream;
+import be.tarsos.sampled.MappedPcmSource;
 import be.tarsos.sampled.pitch.Annotation;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchDetector;
 import be.tarsos.sampled.pitch.PitchUnit;
-import be.tarsos.util.Configuration.ConfigChangeListener;
+import be.tarsos.util.AnalysisStore.Kind;
 
 /**
  * Represents an audio file. Facilitates transcoding, handling of originalPath
@@ -64,30 +64,40 @@ public final class AudioFile {
 	 */
 	private static final Logger LOG = Logger.getLogger(AudioFile.class.getName());
 
+	/**
+	 * The number of frames sent to the audio player at once when selections
+	 * are played.
+	 */
+	private static final int PLAYBACK_BLOCK_SIZE = 2048;
+
 	private final String originalPath;
 	private final long lengthInMilliSeconds;
 	private String md5;
 	private final String transcodedPath;
 	private final String transcodedDirectory;
+	/**
+	 * True if the audio is transcoded while this object was created.
+	 */
+	private final boolean transcoded;
+	/**
+	 * Random access to the transcoded audio, mapped on first use.
+	 */
+	private MappedPcmSource pcmSource;
 	
 	
 	/**
-	 * Initializes and maintains a list of files that are transcoded and analysed. 
+	 * Maintains a list of files that are transcoded and analysed. 
 	 * The md5 hash of each file is stored together with the file name corresponding with the
-	 * first occurrence of the hash. Binary duplicates are redirected using the md5 to the first file name. 
+	 * first occurrence of the hash. Binary duplicates are redirected using the md5 to the first file name.
+	 * The names are kept in the {@link AnalysisStore}, the data directory is only scanned
+	 * once to import the names of files analysed by previous versions.
 	 * @author joren
 	 */
-	private static class AudioFileList implements ConfigChangeListener{
+	private static class AudioFileList {
 		
 		private static AudioFileList instance;
-		/**
-		 * A hashmap with an MD5 hash as a key and the first detected name of the file as a value. 
-		 * A hash could look like this:
-		 * [53da1e8f42af35ca => MR.1964.1.1-28,0554af3e017912f0 => MR.1968.24.2-A2]
-		 */
-		private final Map<String, String> currentFiles;
 		
-		public static AudioFileList getInstance(){
+		public static synchronized AudioFileList getInstance(){
 			if(instance==null){
 				instance = new AudioFileList();
 			}
@@ -95,11 +105,16 @@ public final class AudioFile {
 		}
 		
 		private AudioFileList(){
-			currentFiles = new HashMap<String, String>();
-			initializeCurrentFiles();
+			AnalysisStore store = AnalysisStore.getInstance();
+			if(!store.exists()){
+				importDirectories(store);
+			}
 		}
 		
-		private void initializeCurrentFiles() {
+		/**
+		 * Imports the names of the [name]_[md5] directories made by previous versions.
+		 */
+		private void importDirectories(AnalysisStore store) {
 			String path = Configuration.get(ConfKey.data_directory);
 			File[] children = new File(path).listFiles(new FileFilter() {		
 				
@@ -107,34 +122,44 @@ public final class AudioFile {
 					return pathname.isDirectory() && pathname.getName().length() > 17;
 				}
 			});
-			for(File child : children){
-				String childFileName = child.getName(); 
-				String md5 = childFileName.substring(childFileName.length()-16);
-				String name = childFileName.replace("_"+md5,"");
-				currentFiles.put(md5, name);
+			if(children != null){
+				for(File child : children){
+					String childFileName = child.getName(); 
+					String md5 = childFileName.substring(childFileName.length()-16);
+					String name = childFileName.replace("_"+md5,"");
+					store.putString(Kind.NAMES, md5, name);
+				}
+				LOG.info(String.format("Imported %d analysed files in the analysis store.", children.length));
 			}
 		}
 		
-		public void configurationChanged(ConfKey key) {
-			if(key == ConfKey.data_directory){
-				initializeCurrentFiles();
-			}			
-		}
-		
-		public boolean containsFile(String md5){
-			return currentFiles.containsKey(md5);
+		public synchronized boolean containsFile(String md5){
+			return AnalysisStore.getInstance().contains(Kind.NAMES, md5);
 		}
 		
-		public void addFile(String md5,AudioFile file){
-			currentFiles.put(md5, FileUtils.basename(file.transcodedPath()));
+		public synchronized void addFile(String md5,String baseName){
+			AnalysisStore.getInstance().putString(Kind.NAMES, md5, baseName);
 		}
 		
-		public String getBaseName(String md5){
-			return currentFiles.get(md5);
+		public synchronized String getBaseName(String md5){
+			return AnalysisStore.getInstance().getString(Kind.NAMES, md5);
 		}
 	}
 
 
+	/**
+	 * Locks for transcoded files, a file uses the lock of the hash of its path.
+	 * Audio files with the same content share a transcoded file: when they are
+	 * created concurrently only one of them transcodes. A fixed number of locks
+	 * is used, so no lock is kept per file.
+	 */
+	private static final Object[] TRANSCODING_LOCKS = new Object[64];
+	static {
+		for (int i = 0; i < TRANSCODING_LOCKS.length; i++) {
+			TRANSCODING_LOCKS[i] = new Object();
+		}
+	}
+
 	/**
 	 * Create and transcode an audio file.
 	 * 
@@ -145,11 +170,30 @@ public final class AudioFile {
 	 *             UnsupportedAudioFileException is generated.
 	 */
 	public AudioFile(final String filePath) {
+		this(filePath, new AudioProcessor[0]);
+	}
+	
+	/**
+	 * Create and transcode an audio file. If the file needs to be transcoded
+	 * the decoded audio is sent to the consumers while the transcoded file is
+	 * written, see
+	 * {@link AudioTranscoder#transcode(String, String, AudioProcessor...)}.
+	 * Use {@link #isTranscoded()} to check whether the consumers received the
+	 * complete audio.
+	 * 
+	 * @param filePath
+	 *            the originalPath for the audio file
+	 * @param consumers
+	 *            Processors that receive the decoded audio, only when
+	 *            transcoding is needed.
+	 */
+	public AudioFile(final String filePath, final AudioProcessor... consumers) {
 		this.originalPath = new File(filePath).getAbsolutePath();
-		try{
-			md5 = FileUtils.getMD5Checksum(originalPath).substring(16);
-		}catch(final StringIndexOutOfBoundsException e){
+		final String fingerprint = FileFingerprints.getInstance().fingerprint(originalPath);
+		if (fingerprint == null) {
 			md5 = StringUtils.messageDigestFive(originalPath).substring(16);
+		} else {
+			md5 = fingerprint;
 		}
 		AudioFileList list = AudioFileList.getInstance();
 		
@@ -188,24 +232,39 @@ public final class AudioFile {
 		// return the name where the transcoded file should go
 		transcodedPath = FileUtils.combine(transcodedDirectory, fileName);
 		
-		if (AudioTranscoder.transcodingRequired(transcodedPath())) {
-			try{
-				AudioTranscoder.transcode(filePath, transcodedPath());
-			}catch(Exception e){
-				//try to continue if the transcoded file exists
-				LOG.warning("Transcoding probably failed: " + e.getMessage());
-				if(!FileUtils.exists(transcodedPath())){
-					throw e;
+		final Object lock = TRANSCODING_LOCKS[(transcodedPath.hashCode() & 0x7FFFFFFF) % TRANSCODING_LOCKS.length];
+		boolean transcodedNow = false;
+		synchronized (lock) {
+			if (AudioTranscoder.transcodingRequired(transcodedPath())) {
+				try{
+					AudioTranscoder.transcode(filePath, transcodedPath(), consumers);
+					transcodedNow = true;
+				}catch(Exception e){
+					//try to continue if the transcoded file exists
+					LOG.warning("Transcoding probably failed: " + e.getMessage());
+					if(!FileUtils.exists(transcodedPath())){
+						throw e;
+					}
 				}
 			}
 		}
+		transcoded = transcodedNow;
 		
 		if(!list.containsFile(md5)){
-			list.addFile(baseName, this);
+			list.addFile(md5, baseName);
 		}
 		lengthInMilliSeconds = calculateLengthInMilliSeconds();
 	}
 
+	/**
+	 * @return True if the file was transcoded when this object was created,
+	 *         then the consumers given to the constructor received all decoded
+	 *         audio.
+	 */
+	public boolean isTranscoded() {
+		return transcoded;
+	}
+
 	/**
 	 * @return the path of the transcoded audio file.
 	 */
@@ -220,6 +279,14 @@ public final class AudioFile {
 		return transcodedDirectory;
 	}
 
+	/**
+	 * @return The (half) MD5 hash of the original file, it identifies the
+	 *         content of the file.
+	 */
+	public String contentHash() {
+		return md5;
+	}
+
 	/**
 	 * @return the path of the original file
 	 */
@@ -260,6 +327,8 @@ public final class AudioFile {
 		String pattern = Configuration.get(ConfKey.audio_file_name_pattern);
 		for (final String folder : folders) {
 			List<String> audioFiles = FileUtils.glob(folder, pattern, true);
+			// hash the files that are not known yet concurrently
+			FileFingerprints.getInstance().fingerprints(audioFiles);
 			for (final String originalFile : audioFiles) {
 				files.add(new AudioFile(originalFile));
 			}
@@ -366,40 +435,32 @@ public final class AudioFile {
 	 *            in seconds.
 	 */
 	public void playSelections(final double[] selections) {
-
 		try {
-			final AudioInputStream stream = AudioSystem.getAudioInputStream(new File(transcodedPath()));
-			int frameSize = stream.getFormat().getFrameSize();
-			int bytesPerSecond = (int) (frameSize * stream.getFormat().getFrameRate());
-			AudioPlayer player = new AudioPlayer(stream.getFormat());
-			TarsosDSPAudioFloatConverter converter = TarsosDSPAudioFloatConverter.getConverter(JVMAudioInputStream.toTarsosDSPFormat(stream.getFormat()));
-
-			int previousStop = 0;
+			final MappedPcmSource source = pcmSource();
+			final AudioPlayer player = new AudioPlayer(source.getFormat());
+			final AudioEvent event = new AudioEvent(source.getTarsosDSPFormat());
+			final int channels = source.getFormat().getChannels();
+			final float[] block = new float[PLAYBACK_BLOCK_SIZE * channels];
 			for (int i = 0; i < selections.length; i += 2) {
-				double from = selections[i];
-				double to = selections[i + 1];
-				int start = (int) (bytesPerSecond * from);
-				int stop = (int) (bytesPerSecond * to);
-				stream.skip(start - previousStop);
-				previousStop = stop;
-				int numberOfBytes = stop - start;
-				// only read complete frames
-				while (numberOfBytes % frameSize != 0) {
-					numberOfBytes++;
+				// seeking in the mapped data is immediate, also for
+				// selections deep into long files
+				long frame = source.frameAt(selections[i]);
+				final long stop = source.frameAt(selections[i + 1]);
+				while (frame < stop) {
+					final int frames = (int) Math.min(PLAYBACK_BLOCK_SIZE, stop - frame);
+					source.read(frame, block, 0, frames);
+					final float[] floatBuffer;
+					if (frames == PLAYBACK_BLOCK_SIZE) {
+						floatBuffer = block;
+					} else {
+						floatBuffer = Arrays.copyOf(block, frames * channels);
+					}
+					event.setFloatBuffer(floatBuffer);
+					player.process(event);
+					frame += frames;
 				}
-				byte[] audioInfo = new byte[numberOfBytes];
-				stream.read(audioInfo, 0, numberOfBytes);
-				/*
-				AudioEvent event = new AudioEvent(JVMAudioInputStream.toTarsosDSPFormat(stream.getFormat()),-1);
-				*/
-				float[] floatBuffer = new float[numberOfBytes/frameSize];
-				converter.toFloatArray(audioInfo, floatBuffer);
-				/*
-				event.setFloatBuffer(floatBuffer);
-				player.process(event);
-				*/
 			}
-
+			player.processingFinished();
 		} catch (UnsupportedAudioFileException e) {
 			LOG.log(Level.SEVERE, "Unsupported audio for a transcoded file. Check your configuration.", e);
 		} catch (IOException e) {
@@ -409,6 +470,23 @@ public final class AudioFile {
 		}
 	}
 
+	/**
+	 * Returns random access to the samples of the transcoded file. The file
+	 * is mapped in memory the first time this method is called.
+	 * 
+	 * @return The samples of the transcoded file.
+	 * @throws IOException
+	 *             If the transcoded file can not be read.
+	 * @throws UnsupportedAudioFileException
+	 *             If the transcoded file is not a PCM WAV file.
+	 */
+	public synchronized MappedPcmSource pcmSource() throws IOException, UnsupportedAudioFileException {
+		if (pcmSource == null) {
+			pcmSource = MappedPcmSource.open(new File(transcodedPath()));
+		}
+		return pcmSource;
+	}
+
 	/**
 	 * Detects pitch and plays plays the samples that are in the interval from,
 	 * to in the given pitch unit. E.g. when you want to hear all the b's in a
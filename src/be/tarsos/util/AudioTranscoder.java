@@ -4,22 +4,61 @@ import java.io.File;
 import java.util.logging.Logger;
 
 import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
 import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
 import be.tarsos.dsp.io.jvm.WaveformWriter;
 
 public class AudioTranscoder {
 	
 	private static final Logger LOG = Logger.getLogger(AudioTranscoder.class.getName());
+	
+	/**
+	 * The sample rate of transcoded files.
+	 */
+	public static final int TARGET_SAMPLE_RATE = 44100;
+	
+	private static final int TRANSCODING_BUFFER_SIZE = 2048;
 
 	public static boolean transcodingRequired(String transcodedPath) {
 		//perhaps also check RIFF header of wave file
 		return !new File(transcodedPath).exists() || new File(transcodedPath).length() < 5000;
 	}
 
+	/**
+	 * @return The format of the decoded audio: mono, signed 16 bit little
+	 *         endian PCM at {@link #TARGET_SAMPLE_RATE}.
+	 */
+	public static TarsosDSPAudioFormat targetFormat() {
+		return new TarsosDSPAudioFormat(TARGET_SAMPLE_RATE, 16, 1, true, false);
+	}
+
 	public static void transcode(String filePath, String transcodedPath) {
+		transcode(filePath, transcodedPath, new AudioProcessor[0]);
+	}
+	
+	/**
+	 * Transcodes a file and sends the decoded audio to the consumers while it
+	 * is written, so the audio can be analysed without reading the transcoded
+	 * file again. The consumers receive buffers of
+	 * {@value #TRANSCODING_BUFFER_SIZE} samples without overlap in the
+	 * {@link #targetFormat()}, the last buffer is padded with zeros, just
+	 * like the transcoded file.
+	 * 
+	 * @param filePath
+	 *            The file to transcode.
+	 * @param transcodedPath
+	 *            Where the WAV file should go.
+	 * @param consumers
+	 *            The processors that receive the decoded audio.
+	 */
+	public static void transcode(String filePath, String transcodedPath, AudioProcessor... consumers) {
 		LOG.fine("Transcoding to " + transcodedPath );
-		AudioDispatcher adp = AudioDispatcherFactory.fromPipe(filePath, 44100, 2048, 0);
+		AudioDispatcher adp = AudioDispatcherFactory.fromPipe(filePath, TARGET_SAMPLE_RATE, TRANSCODING_BUFFER_SIZE, 0);
 		adp.addAudioProcessor(new WaveformWriter(adp.getFormat(), transcodedPath));
+		for (AudioProcessor consumer : consumers) {
+			adp.addAudioProcessor(consumer);
+		}
 		adp.run();
 		long transcodedSize = new File(transcodedPath).length();
 		LOG.fine("Transcoded file size (MB): " + (transcodedSize / (1024 * 1024.0)));
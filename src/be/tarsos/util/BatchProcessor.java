@@ -0,0 +1,265 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+package be.tarsos.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Processes a batch of inputs (e.g. audio files) concurrently on a work
+ * stealing pool. The results are handed to a {@link ResultHandler} on the
+ * calling thread in the same order as the inputs, so the output of a batch is
+ * deterministic regardless of the number of threads.
+ * <p>
+ * The number of inputs in flight is bounded: at most a couple of tasks per
+ * thread are submitted ahead of the first unfinished one. A failure of one
+ * input is reported to the handler and does not stop the batch.
+ * </p>
+ * 
+ * @param <I>
+ *            The type of the inputs.
+ * @param <O>
+ *            The type of the results.
+ * @author Joren Six
+ */
+public final class BatchProcessor<I, O> {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(BatchProcessor.class.getName());
+
+	/**
+	 * The number of tasks submitted for each thread ahead of the first
+	 * unfinished task.
+	 */
+	private static final int TASKS_PER_THREAD = 2;
+
+	/**
+	 * Processes one input. Called concurrently from several threads.
+	 * 
+	 * @param <I>
+	 *            The type of the input.
+	 * @param <O>
+	 *            The type of the result.
+	 */
+	public interface Task<I, O> {
+		/**
+		 * @param input
+		 *            The input to process.
+		 * @return The result of the processing.
+		 * @throws Exception
+		 *             When the input can not be processed.
+		 */
+		O process(I input) throws Exception;
+	}
+
+	/**
+	 * Receives the results of a batch in the order of the inputs, always on
+	 * the thread that started the batch.
+	 * 
+	 * @param <I>
+	 *            The type of the input.
+	 * @param <O>
+	 *            The type of the result.
+	 */
+	public interface ResultHandler<I, O> {
+		/**
+		 * @param input
+		 *            The processed input.
+		 * @param result
+		 *            The result for the input.
+		 */
+		void handleResult(I input, O result);
+
+		/**
+		 * @param input
+		 *            The input that failed.
+		 * @param exception
+		 *            The reason for the failure.
+		 */
+		void handleFailure(I input, Exception exception);
+	}
+
+	private final int numberOfThreads;
+
+	private final AtomicLong processedAudioInMicroSeconds;
+	private int processedInputs;
+	private int failedInputs;
+	private double elapsedSeconds;
+
+	/**
+	 * Create a new batch processor.
+	 * 
+	 * @param threads
+	 *            The number of threads to use, at least one.
+	 */
+	public BatchProcessor(final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed, not " + threads);
+		}
+		numberOfThreads = threads;
+		processedAudioInMicroSeconds = new AtomicLong();
+	}
+
+	/**
+	 * @return The number of available processors, a sensible default for the
+	 *         number of threads.
+	 */
+	public static int defaultNumberOfThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Processes each input and hands the results to the handler, in the order
+	 * of the inputs. Blocks until each input is processed.
+	 * 
+	 * @param inputs
+	 *            The inputs to process.
+	 * @param task
+	 *            The task executed for each input.
+	 * @param handler
+	 *            The handler for the results and failures.
+	 */
+	public void process(final List<I> inputs, final Task<I, O> task, final ResultHandler<I, O> handler) {
+		processedAudioInMicroSeconds.set(0);
+		processedInputs = 0;
+		failedInputs = 0;
+		final StopWatch watch = new StopWatch();
+
+		final ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		final Deque<Future<O>> inFlight = new ArrayDeque<Future<O>>();
+		final int maxInFlight = numberOfThreads * TASKS_PER_THREAD;
+		try {
+			int submitted = 0;
+			int handled = 0;
+			while (handled < inputs.size()) {
+				// keep the pool busy
+				while (submitted < inputs.size() && inFlight.size() < maxInFlight) {
+					final I input = inputs.get(submitted);
+					inFlight.add(pool.submit(new Callable<O>() {
+						public O call() throws Exception {
+							return task.process(input);
+						}
+					}));
+					submitted++;
+				}
+				// hand over the first result, in order
+				final I input = inputs.get(handled);
+				final Future<O> future = inFlight.poll();
+				try {
+					final O result = future.get();
+					processedInputs++;
+					handler.handleResult(input, result);
+				} catch (final ExecutionException e) {
+					failedInputs++;
+					handler.handleFailure(input, asException(e.getCause()));
+				}
+				handled++;
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warning("Batch processing interrupted, " + processedInputs + " of " + inputs.size()
+					+ " inputs processed.");
+		} finally {
+			pool.shutdownNow();
+			elapsedSeconds = watch.timePassed(TimeUnit.SECONDS);
+		}
+		LOG.info(throughput());
+	}
+
+	private static Exception asException(final Throwable cause) {
+		final Exception exception;
+		if (cause instanceof Exception) {
+			exception = (Exception) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		} else {
+			exception = new RuntimeException(cause);
+		}
+		return exception;
+	}
+
+	/**
+	 * Registers an amount of processed audio. Tasks that handle audio call this
+	 * method to report audio throughput. Thread safe.
+	 * 
+	 * @param seconds
+	 *            The duration of the processed audio in seconds.
+	 */
+	public void addProcessedAudio(final double seconds) {
+		if (seconds > 0) {
+			processedAudioInMicroSeconds.addAndGet(Math.round(seconds * 1000000));
+		}
+	}
+
+	/**
+	 * @return The number of successfully processed inputs in the last batch.
+	 */
+	public int getProcessedInputs() {
+		return processedInputs;
+	}
+
+	/**
+	 * @return The number of failed inputs in the last batch.
+	 */
+	public int getFailedInputs() {
+		return failedInputs;
+	}
+
+	/**
+	 * @return The number of inputs processed each second, failures included.
+	 */
+	public double getInputsPerSecond() {
+		return elapsedSeconds == 0 ? 0 : (processedInputs + failedInputs) / elapsedSeconds;
+	}
+
+	/**
+	 * @return The number of seconds of audio processed each second.
+	 */
+	public double getAudioSecondsPerSecond() {
+		return elapsedSeconds == 0 ? 0 : processedAudioInMicroSeconds.get() / 1000000.0 / elapsedSeconds;
+	}
+
+	/**
+	 * @return A human readable summary of the throughput of the last batch.
+	 */
+	public String throughput() {
+		return String.format(Locale.US,
+				"Processed %d inputs (%d failed) in %.1f s on %d threads: %.2f files/s, %.1f audio-s/s.",
+				processedInputs + failedInputs, failedInputs, elapsedSeconds, numberOfThreads,
+				getInputsPerSecond(), getAudioSecondsPerSecond());
+	}
+}
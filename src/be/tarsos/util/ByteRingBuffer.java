@@ -0,0 +1,198 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free ring buffer of bytes for one producer and one consumer thread,
+ * e.g. a thread capturing audio and a thread analysing it. The producer never
+ * blocks: bytes that do not fit are refused so a slow consumer can not stall
+ * the capture. The consumer blocks until bytes are available or the buffer is
+ * closed.
+ * 
+ * @author Joren Six
+ */
+public final class ByteRingBuffer {
+
+	/**
+	 * The maximum time a waiting consumer parks before it checks the buffer
+	 * again, in nanoseconds.
+	 */
+	private static final long MAX_PARK_NANOS = 10000000L;
+
+	private final byte[] buffer;
+	private final int mask;
+
+	/**
+	 * The total number of bytes written, only changed by the producer.
+	 */
+	private final AtomicLong writePosition = new AtomicLong();
+
+	/**
+	 * The total number of bytes read, only changed by the consumer.
+	 */
+	private final AtomicLong readPosition = new AtomicLong();
+
+	/**
+	 * The consumer thread if it waits for bytes.
+	 */
+	private volatile Thread waitingReader;
+
+	private volatile boolean closed;
+
+	/**
+	 * Create a new ring buffer.
+	 * 
+	 * @param minimumCapacity
+	 *            The minimum number of bytes the buffer holds, rounded up to a
+	 *            power of two.
+	 */
+	public ByteRingBuffer(final int minimumCapacity) {
+		if (minimumCapacity <= 0 || minimumCapacity > 1 << 30) {
+			throw new IllegalArgumentException("The capacity should be between 1 and 2^30, it is: " + minimumCapacity);
+		}
+		int capacity = Integer.highestOneBit(minimumCapacity);
+		if (capacity < minimumCapacity) {
+			capacity <<= 1;
+		}
+		buffer = new byte[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return The number of bytes the buffer holds.
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * @return The number of bytes that can be read without blocking.
+	 */
+	public int available() {
+		return (int) (writePosition.get() - readPosition.get());
+	}
+
+	/**
+	 * Writes as many bytes as fit in the buffer, without blocking. Should only
+	 * be called by the producer thread.
+	 * 
+	 * @param data
+	 *            The bytes to write.
+	 * @param offset
+	 *            The offset of the first byte to write.
+	 * @param length
+	 *            The number of bytes to write.
+	 * @return The number of bytes written, less than length if the buffer is
+	 *         full.
+	 */
+	public int offer(final byte[] data, final int offset, final int length) {
+		final long write = writePosition.get();
+		final int free = buffer.length - (int) (write - readPosition.get());
+		final int count = Math.min(free, length);
+		if (count > 0) {
+			final int start = (int) write & mask;
+			final int firstPart = Math.min(count, buffer.length - start);
+			System.arraycopy(data, offset, buffer, start, firstPart);
+			System.arraycopy(data, offset + firstPart, buffer, 0, count - firstPart);
+			// A volatile write, followed by the volatile read of the waiting
+			// reader, so a reader that parks can not miss the new bytes.
+			writePosition.set(write + count);
+			final Thread reader = waitingReader;
+			if (reader != null) {
+				LockSupport.unpark(reader);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Reads available bytes, blocks until at least one byte is available or
+	 * the buffer is closed. Should only be called by the consumer thread.
+	 * 
+	 * @param data
+	 *            The array to read into.
+	 * @param offset
+	 *            The offset of the first byte to read into.
+	 * @param length
+	 *            The maximum number of bytes to read.
+	 * @return The number of bytes read, or -1 if the buffer is closed and all
+	 *         bytes are read.
+	 */
+	public int read(final byte[] data, final int offset, final int length) {
+		if (length == 0) {
+			return 0;
+		}
+		final long read = readPosition.get();
+		int available = (int) (writePosition.get() - read);
+		while (available == 0) {
+			if (closed) {
+				// Bytes may have been written just before the buffer was
+				// closed.
+				available = (int) (writePosition.get() - read);
+				if (available == 0) {
+					return -1;
+				}
+				break;
+			}
+			waitingReader = Thread.currentThread();
+			available = (int) (writePosition.get() - read);
+			if (available == 0 && !closed) {
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			}
+			waitingReader = null;
+			available = (int) (writePosition.get() - read);
+		}
+		final int count = Math.min(available, length);
+		final int start = (int) read & mask;
+		final int firstPart = Math.min(count, buffer.length - start);
+		System.arraycopy(buffer, start, data, offset, firstPart);
+		System.arraycopy(buffer, 0, data, offset + firstPart, count - firstPart);
+		readPosition.set(read + count);
+		return count;
+	}
+
+	/**
+	 * Closes the buffer: the consumer reads the remaining bytes, and then the
+	 * end of the stream.
+	 */
+	public void close() {
+		closed = true;
+		final Thread reader = waitingReader;
+		if (reader != null) {
+			LockSupport.unpark(reader);
+		}
+	}
+
+	/**
+	 * @return True if the buffer is closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+}
@@ -0,0 +1,291 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+package be.tarsos.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Searches the circular shift of one array that correlates best with another
+ * array, e.g. to compare tone scales regardless of the tonic. Instead of
+ * calculating a correlation measure for each of the n shifts, which takes n²
+ * operations, the circular cross-correlation for all shifts is calculated at
+ * once with an {@link FFT} in n log n operations.
+ * <p>
+ * The FFT only calculates sums of products with limited (float) precision, so
+ * the correlation measure itself is still calculated for the few shifts that
+ * can be optimal: either the shifts close to the maximum cross-correlation, for
+ * measures that increase with the cross-correlation, or the shifts with an
+ * upper bound above the best correlation found, e.g. for measures based on
+ * the minimum of two values. The returned shift is therefore exactly the one an
+ * exhaustive search finds: the first shift with the maximum correlation.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class CircularCorrelation {
+
+	/**
+	 * The error of the cross-correlation relative to the product of the
+	 * norms of both arrays. The double precision FFT is accurate to about
+	 * 1e-14.
+	 */
+	private static final double RELATIVE_TOLERANCE = 1e-9;
+
+	/**
+	 * FFT instances per size, they can be shared by threads.
+	 */
+	private static final ConcurrentMap<Integer, FFT> FFTS = new ConcurrentHashMap<Integer, FFT>();
+
+	/**
+	 * Calculates a correlation measure for a shift.
+	 */
+	public interface ShiftCorrelation {
+		/**
+		 * @param shift
+		 *            The number of positions the second array is shifted, the
+		 *            element at <code>(i + shift) % n</code> is compared with
+		 *            the element at <code>i</code> of the first array.
+		 * @return The correlation, higher values mean better correlation.
+		 */
+		double correlation(int shift);
+	}
+
+	private CircularCorrelation() {
+	}
+
+	/**
+	 * Calculates the circular cross-correlation
+	 * <code>sum(first[i] * second[(i + shift) % n])</code> for each shift.
+	 * The values are accurate up to {@link #tolerance(double[], double[])}.
+	 * 
+	 * @param first
+	 *            The first array.
+	 * @param second
+	 *            The second array, with the same length.
+	 * @return The cross-correlation for each shift.
+	 */
+	public static double[] crossCorrelation(final double[] first, final double[] second) {
+		if (first.length != second.length) {
+			throw new IllegalArgumentException("Both arrays should have the same length: " + first.length + " and "
+					+ second.length);
+		}
+		final int n = first.length;
+		final double[] correlation = new double[n];
+		final double firstScale = maximumAbsolute(first);
+		final double secondScale = maximumAbsolute(second);
+		if (firstScale == 0 || secondScale == 0) {
+			return correlation;
+		}
+		// The second array is repeated so a linear correlation of size 2n
+		// contains the circular correlation for shifts below n.
+		int size = 1;
+		while (size < 2 * n) {
+			size <<= 1;
+		}
+		// Interlaced complex numbers, scaled to prevent overflow.
+		final double[] firstData = new double[2 * size];
+		final double[] secondData = new double[2 * size];
+		for (int i = 0; i < n; i++) {
+			firstData[2 * i] = first[i] / firstScale;
+			secondData[2 * i] = second[i] / secondScale;
+			secondData[2 * (i + n)] = secondData[2 * i];
+		}
+		final FFT fft = fft(size);
+		fft.forwardTransform(firstData);
+		fft.forwardTransform(secondData);
+		// Multiply the complex conjugate of the first with the second.
+		for (int k = 0; k < size; k++) {
+			final double firstReal = firstData[2 * k];
+			final double firstImaginary = firstData[2 * k + 1];
+			final double secondReal = secondData[2 * k];
+			final double secondImaginary = secondData[2 * k + 1];
+			firstData[2 * k] = firstReal * secondReal + firstImaginary * secondImaginary;
+			firstData[2 * k + 1] = firstReal * secondImaginary - firstImaginary * secondReal;
+		}
+		fft.backwardsTransform(firstData);
+		final double scale = firstScale * secondScale / size;
+		for (int shift = 0; shift < n; shift++) {
+			correlation[shift] = firstData[2 * shift] * scale;
+		}
+		return correlation;
+	}
+
+	/**
+	 * @return The maximum error of a value of
+	 *         {@link #crossCorrelation(double[], double[])} for these arrays.
+	 */
+	public static double tolerance(final double[] first, final double[] second) {
+		return RELATIVE_TOLERANCE * norm(first) * norm(second);
+	}
+
+	/**
+	 * Takes the square root of each (positive) element, the cross-correlation
+	 * of square roots is an upper bound for the sum of minima, since
+	 * min(a,b) &le; (a b)<sup>1/2</sup>.
+	 * 
+	 * @param values
+	 *            The values.
+	 * @return A new array with square roots, negative values are replaced by
+	 *         zero.
+	 */
+	public static double[] squareRoot(final double[] values) {
+		final double[] roots = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			roots[i] = values[i] > 0 ? Math.sqrt(values[i]) : 0.0;
+		}
+		return roots;
+	}
+
+	/**
+	 * Searches the optimal shift for a correlation measure that increases
+	 * with the estimate. Only shifts with an estimate within twice the
+	 * tolerance of the maximum estimate are evaluated.
+	 * 
+	 * @param estimate
+	 *            The estimate for each shift, e.g. a cross-correlation.
+	 * @param tolerance
+	 *            The maximum error of an estimate.
+	 * @param measure
+	 *            The exact correlation measure.
+	 * @return The first shift with the maximum correlation.
+	 */
+	public static int optimalShift(final double[] estimate, final double tolerance, final ShiftCorrelation measure) {
+		double maximumEstimate = Double.NEGATIVE_INFINITY;
+		for (final double value : estimate) {
+			maximumEstimate = Math.max(maximumEstimate, value);
+		}
+		final double threshold = maximumEstimate - 2 * tolerance;
+		if (Double.isNaN(threshold)) {
+			return optimalShiftExhaustive(estimate.length, measure);
+		}
+		int optimalShift = 0;
+		double maximumCorrelation = Double.NEGATIVE_INFINITY;
+		for (int shift = 0; shift < estimate.length; shift++) {
+			if (estimate[shift] >= threshold) {
+				final double currentCorrelation = measure.correlation(shift);
+				if (maximumCorrelation < currentCorrelation) {
+					maximumCorrelation = currentCorrelation;
+					optimalShift = shift;
+				}
+			}
+		}
+		return optimalShift;
+	}
+
+	/**
+	 * Searches the optimal shift for a correlation measure with a known upper
+	 * bound. The shift with the highest bound is evaluated first, then only
+	 * shifts with a bound above the best correlation found are evaluated.
+	 * 
+	 * @param upperBound
+	 *            An upper bound of the correlation for each shift.
+	 * @param tolerance
+	 *            The maximum error of an upper bound.
+	 * @param measure
+	 *            The exact correlation measure.
+	 * @return The first shift with the maximum correlation.
+	 */
+	public static int optimalShiftBounded(final double[] upperBound, final double tolerance,
+			final ShiftCorrelation measure) {
+		int mostPromising = 0;
+		for (int shift = 0; shift < upperBound.length; shift++) {
+			if (Double.isNaN(upperBound[shift])) {
+				return optimalShiftExhaustive(upperBound.length, measure);
+			}
+			if (upperBound[shift] > upperBound[mostPromising]) {
+				mostPromising = shift;
+			}
+		}
+		int optimalShift = mostPromising;
+		double maximumCorrelation = measure.correlation(mostPromising);
+		if (Double.isNaN(maximumCorrelation)) {
+			return optimalShiftExhaustive(upperBound.length, measure);
+		}
+		for (int shift = 0; shift < upperBound.length; shift++) {
+			// The best correlation only increases, a skipped shift can not
+			// reach it.
+			if (shift != mostPromising && upperBound[shift] + tolerance >= maximumCorrelation) {
+				final double currentCorrelation = measure.correlation(shift);
+				if (maximumCorrelation < currentCorrelation
+						|| (maximumCorrelation == currentCorrelation && shift < optimalShift)) {
+					maximumCorrelation = currentCorrelation;
+					optimalShift = shift;
+				}
+			}
+		}
+		return optimalShift;
+	}
+
+	/**
+	 * Evaluates the correlation measure for each shift.
+	 * 
+	 * @param size
+	 *            The number of shifts.
+	 * @param measure
+	 *            The correlation measure.
+	 * @return The first shift with the maximum correlation.
+	 */
+	public static int optimalShiftExhaustive(final int size, final ShiftCorrelation measure) {
+		int optimalShift = 0;
+		double maximumCorrelation = Double.NEGATIVE_INFINITY;
+		for (int shift = 0; shift < size; shift++) {
+			final double currentCorrelation = measure.correlation(shift);
+			if (maximumCorrelation < currentCorrelation) {
+				maximumCorrelation = currentCorrelation;
+				optimalShift = shift;
+			}
+		}
+		return optimalShift;
+	}
+
+	private static FFT fft(final int size) {
+		FFT fft = FFTS.get(size);
+		if (fft == null) {
+			fft = new FFT(size);
+			final FFT existing = FFTS.putIfAbsent(size, fft);
+			if (existing != null) {
+				fft = existing;
+			}
+		}
+		return fft;
+	}
+
+	private static double maximumAbsolute(final double[] values) {
+		double maximum = 0;
+		for (final double value : values) {
+			maximum = Math.max(maximum, Math.abs(value));
+		}
+		return maximum;
+	}
+
+	private static double norm(final double[] values) {
+		double sum = 0;
+		for (final double value : values) {
+			sum += value * value;
+		}
+		return Math.sqrt(sum);
+	}
+}
@@ -27,14 +27,18 @@ package be.tarsos.util;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.LogOutputStream;
 import org.apache.commons.exec.PumpStreamHandler;
 
 
@@ -45,9 +49,42 @@ public class Command {
 	private final ArrayList<String> args = new ArrayList<String>();
 	private final ArrayList<Boolean> argIsFile = new ArrayList<Boolean>();
 	private final String commandName;
+	private long timeout;
+	
+	/**
+	 * Handles the output of a command line by line, while the command runs.
+	 */
+	public interface LineHandler {
+		/**
+		 * @param line
+		 *            A line written on standard output, without the line
+		 *            separator.
+		 */
+		void handleLine(String line);
+	}
 	
 	public Command(String name){
 		commandName = name;
+		//15 minutes wait
+		timeout = 60 * 1000 * 15;
+	}
+	
+	/**
+	 * @param milliseconds
+	 *            The time after which the process is killed, zero or less
+	 *            to wait until the process finishes.
+	 * @return The command itself so methods can be chained.
+	 */
+	public Command setTimeout(long milliseconds) {
+		timeout = milliseconds > 0 ? milliseconds : ExecuteWatchdog.INFINITE_TIMEOUT;
+		return this;
+	}
+	
+	/**
+	 * @return The name of the executable.
+	 */
+	public String getName() {
+		return commandName;
 	}
 	
 	/**
@@ -82,7 +119,56 @@ public class Command {
 	 * @throws IOException
 	 */
 	public String execute() throws IOException {
-		
+		final ByteArrayOutputStream out =  new ByteArrayOutputStream();
+		execute(new PumpStreamHandler(out));
+		return out.toString();
+	}
+	
+	/**
+	 * Executes the command and hands each line on standard output to a
+	 * handler as soon as it is written, so the output is never kept in
+	 * memory as a whole. Standard error is logged.
+	 * 
+	 * @param handler
+	 *            Receives the lines on standard output, on a thread that pumps
+	 *            the output of the process.
+	 * @throws IOException
+	 *             If the command can not be executed, fails, times out or if
+	 *             the handler fails on a line.
+	 */
+	public void execute(final LineHandler handler) throws IOException {
+		final RuntimeException[] parseFailure = new RuntimeException[1];
+		final OutputStream out = new LogOutputStream() {
+			@Override
+			protected void processLine(String line, int level) {
+				// keep reading after a failure, a full pipe blocks the process
+				if (parseFailure[0] == null) {
+					try {
+						handler.handleLine(line);
+					} catch (RuntimeException e) {
+						parseFailure[0] = e;
+					}
+				}
+			}
+		};
+		final OutputStream err = new LogOutputStream() {
+			@Override
+			protected void processLine(String line, int level) {
+				LOG.fine(commandName + ": " + line);
+			}
+		};
+		try {
+			execute(new PumpStreamHandler(out, err));
+		} finally {
+			out.close();
+			err.close();
+		}
+		if (parseFailure[0] != null) {
+			throw new IOException("Could not parse the output of " + commandName, parseFailure[0]);
+		}
+	}
+	
+	private void execute(final PumpStreamHandler pump) throws IOException {
 		CommandLine cmdLine = new CommandLine(commandName);
 		
 		int fileNumber=0;
@@ -104,18 +190,22 @@ public class Command {
 
 		
 		DefaultExecutor executor = new DefaultExecutor();
-		//15 minutes wait
-		ExecuteWatchdog watchdog = new ExecuteWatchdog(60 * 1000 * 15);
+		ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
 		executor.setWatchdog(watchdog);
-		final ByteArrayOutputStream out =  new ByteArrayOutputStream();
-		final PumpStreamHandler pump = new PumpStreamHandler(out);
 		executor.setStreamHandler(pump);
 		executor.setExitValue(0);
 		StopWatch w = new StopWatch();
 		LOG.fine("Execute " + commandName + "  " + cmdLine.toString());
-		executor.execute(cmdLine);
+		try {
+			executor.execute(cmdLine);
+		} catch (ExecuteException e) {
+			if (watchdog.killedProcess()) {
+				LOG.log(Level.WARNING, commandName + " killed after " + w.formattedToString());
+				throw new IOException(commandName + " did not finish within " + timeout + "ms.", e);
+			}
+			throw e;
+		}
 		LOG.info("Executing " + commandName + " finished in " + w.formattedToString());
-		return out.toString();	
 	}
 
 }
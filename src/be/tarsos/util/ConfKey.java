@@ -194,7 +194,45 @@ public enum ConfKey {
 	/**
 	 * Pitch detector buffer overlap (%)
 	 */
-	pitch_detector_buffer_overlap;
+	pitch_detector_buffer_overlap,
+	
+	/**
+	 * The number of threads used to detect pitch within one file. Long files
+	 * are split in segments that are analysed concurrently. Zero uses all
+	 * available processors, one disables segmentation.
+	 */
+	pitch_detection_threads,
+
+	/**
+	 * The maximum number of external pitch detectors (sonic-annotator,
+	 * polyphon, swipe...) that run at the same time. Zero uses the number of
+	 * available processors.
+	 */
+	external_processes,
+
+	/**
+	 * The time in seconds after which an external pitch detector is killed.
+	 */
+	external_process_timeout,
+
+	/**
+	 * The number of times an external pitch detector is started for a file
+	 * before it is considered failed.
+	 */
+	external_process_attempts,
+
+	/**
+	 * The hash of the start of a file that identifies its content: md5 (the
+	 * default) or xxhash64. See {@link FileFingerprints}.
+	 */
+	content_hash,
+
+	/**
+	 * The hop size in milliseconds during live analysis: the time between the
+	 * starts of consecutive buffers analysed. The buffer size is the
+	 * configured pitch detector buffer size.
+	 */
+	live_analysis_hop_size;
 	
 	
 	
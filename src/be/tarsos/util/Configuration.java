@@ -83,6 +83,11 @@ public final class Configuration {
 	 */
 	private static Preferences userPreferences = null;
 
+	/**
+	 * The parsed configuration, replaced as a whole when a setting changes.
+	 */
+	private static volatile ConfigurationSnapshot snapshot = null;
+
 	// hides default constuctor
 	private Configuration() {
 	}
@@ -103,7 +108,47 @@ public final class Configuration {
 	 *         default value is returned.
 	 */
 	public static String get(final ConfKey key) {
-		return get(key.name());
+		return snapshot().get(key);
+	}
+
+	/**
+	 * Returns the current configuration as an immutable snapshot. Values are
+	 * read from the user preferences and parsed once, when a setting changes.
+	 * Code that reads several settings, or reads them in a loop, should take
+	 * one snapshot and pass it on so a concurrent change can not mix old and
+	 * new values.
+	 * 
+	 * @return The current configuration.
+	 */
+	public static ConfigurationSnapshot snapshot() {
+		ConfigurationSnapshot current = snapshot;
+		if (current == null) {
+			synchronized (Configuration.class) {
+				current = snapshot;
+				if (current == null) {
+					current = readSnapshot();
+					snapshot = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Reads all configured values from the user preferences.
+	 * 
+	 * @return A new snapshot of the configuration.
+	 */
+	private static ConfigurationSnapshot readSnapshot() {
+		checkForConfigurationAndWriteDefaults();
+		final ConfKey[] keys = ConfKey.values();
+		final String[] values = new String[keys.length];
+		final String[] defaults = new String[keys.length];
+		for (final ConfKey key : keys) {
+			values[key.ordinal()] = get(key.name());
+			defaults[key.ordinal()] = defaultConfProps.getProperty(key.name());
+		}
+		return new ConfigurationSnapshot(values, defaults);
 	}
 
 	/**
@@ -143,7 +188,7 @@ public final class Configuration {
 	 *                is thrown.
 	 */
 	public static int getInt(final ConfKey key) {
-		return Integer.parseInt(get(key.name()));
+		return snapshot().getInt(key);
 	}
 
 	/**
@@ -158,7 +203,7 @@ public final class Configuration {
 	 *         default value is returned.
 	 */
 	public static double getDouble(final ConfKey key) {
-		return Double.parseDouble(get(key.name()));
+		return snapshot().getDouble(key);
 	}
 
 	/**
@@ -266,6 +311,13 @@ public final class Configuration {
 		} catch (final BackingStoreException e) {
 			LOG.severe("Could not save preference for " + key.name());
 		}
+		// Defaults written during initialization are read with the first
+		// snapshot, later changes replace it before listeners are notified.
+		synchronized (Configuration.class) {
+			if (snapshot != null) {
+				snapshot = readSnapshot();
+			}
+		}
 		for (ConfigChangeListener listener : LISTENERS) {
 			listener.configurationChanged(key);
 		}
@@ -0,0 +1,186 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.util;
+
+import java.util.logging.Logger;
+
+/**
+ * An immutable view on the configuration, parsed once. Reading a setting from
+ * {@link Configuration} consults the user preferences and sanitizes and parses
+ * the value on each call. Code that reads settings in loops, or workers that
+ * should use one consistent set of parameters, take a snapshot with
+ * {@link Configuration#snapshot()} and pass it on. A new snapshot is taken
+ * each time a setting changes, before the {@link Configuration.ConfigChangeListener}s are
+ * notified.
+ * 
+ * @author Joren Six
+ */
+public final class ConfigurationSnapshot {
+
+	private static final Logger LOG = Logger.getLogger(ConfigurationSnapshot.class.getName());
+
+	/**
+	 * The sanitized values, indexed by the ordinal of the key.
+	 */
+	private final String[] values;
+
+	private final int histogramBinWidth;
+	private final int pitchHistogramStart;
+	private final int pitchHistogramStop;
+	private final int pitchDetectorBufferSize;
+	private final int pitchDetectorBufferOverlap;
+	private final int pitchDetectionThreads;
+	private final double silenceThreshold;
+
+	/**
+	 * @param values
+	 *            The sanitized configured values, indexed by the ordinal of the
+	 *            key.
+	 * @param defaults
+	 *            The default values, used when a configured number can not be
+	 *            parsed.
+	 */
+	ConfigurationSnapshot(final String[] values, final String[] defaults) {
+		this.values = values.clone();
+		histogramBinWidth = parseInt(ConfKey.histogram_bin_width, defaults);
+		pitchHistogramStart = parseInt(ConfKey.pitch_histogram_start, defaults);
+		pitchHistogramStop = parseInt(ConfKey.pitch_histogram_stop, defaults);
+		pitchDetectorBufferSize = parseInt(ConfKey.pitch_detector_buffer_size, defaults);
+		pitchDetectorBufferOverlap = parseInt(ConfKey.pitch_detector_buffer_overlap, defaults);
+		pitchDetectionThreads = parseInt(ConfKey.pitch_detection_threads, defaults);
+		silenceThreshold = parseDouble(ConfKey.silence_threshold, defaults);
+	}
+
+	private int parseInt(final ConfKey key, final String[] defaults) {
+		try {
+			return Integer.parseInt(values[key.ordinal()]);
+		} catch (final NumberFormatException e) {
+			LOG.warning(String.format("Configured %s is not an integer: '%s', using the default '%s'.", key.name(),
+					values[key.ordinal()], defaults[key.ordinal()]));
+			return Integer.parseInt(defaults[key.ordinal()]);
+		}
+	}
+
+	private double parseDouble(final ConfKey key, final String[] defaults) {
+		try {
+			return Double.parseDouble(values[key.ordinal()]);
+		} catch (final NumberFormatException e) {
+			LOG.warning(String.format("Configured %s is not a number: '%s', using the default '%s'.", key.name(),
+					values[key.ordinal()], defaults[key.ordinal()]));
+			return Double.parseDouble(defaults[key.ordinal()]);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            The configuration key.
+	 * @return The configured value.
+	 */
+	public String get(final ConfKey key) {
+		return values[key.ordinal()];
+	}
+
+	/**
+	 * @param key
+	 *            The configuration key.
+	 * @return The configured value as an integer.
+	 * @exception NumberFormatException
+	 *                If the configured value can not be parsed to an integer.
+	 */
+	public int getInt(final ConfKey key) {
+		return Integer.parseInt(get(key));
+	}
+
+	/**
+	 * @param key
+	 *            The configuration key.
+	 * @return The configured value as a double.
+	 * @exception NumberFormatException
+	 *                If the configured value can not be parsed to a double.
+	 */
+	public double getDouble(final ConfKey key) {
+		return Double.parseDouble(get(key));
+	}
+
+	/**
+	 * @param key
+	 *            The configuration key.
+	 * @return True if the configured value equals, ignoring case, "true".
+	 */
+	public boolean getBoolean(final ConfKey key) {
+		return Boolean.parseBoolean(get(key));
+	}
+
+	/**
+	 * @return The histogram bin width in cents.
+	 */
+	public int getHistogramBinWidth() {
+		return histogramBinWidth;
+	}
+
+	/**
+	 * @return The start of the pitch histogram in absolute cents.
+	 */
+	public int getPitchHistogramStart() {
+		return pitchHistogramStart;
+	}
+
+	/**
+	 * @return The stop of the pitch histogram in absolute cents.
+	 */
+	public int getPitchHistogramStop() {
+		return pitchHistogramStop;
+	}
+
+	/**
+	 * @return The buffer size of the pitch detectors in milliseconds.
+	 */
+	public int getPitchDetectorBufferSize() {
+		return pitchDetectorBufferSize;
+	}
+
+	/**
+	 * @return The overlap of the pitch detector buffers in percent.
+	 */
+	public int getPitchDetectorBufferOverlap() {
+		return pitchDetectorBufferOverlap;
+	}
+
+	/**
+	 * @return The number of threads to detect pitch in one file, zero for all
+	 *         available processors.
+	 */
+	public int getPitchDetectionThreads() {
+		return pitchDetectionThreads;
+	}
+
+	/**
+	 * @return The silence threshold in dB SPL.
+	 */
+	public double getSilenceThreshold() {
+		return silenceThreshold;
+	}
+}
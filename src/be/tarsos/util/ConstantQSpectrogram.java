@@ -0,0 +1,813 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioDispatcher;
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.ConstantQ;
+import be.tarsos.sampled.MappedPcmSource;
+import be.tarsos.sampled.pitch.PitchUnit;
+
+/**
+ * A constant-Q spectrogram in a memory mapped file. Magnitudes are kept as
+ * 32 bit floats, compressed with <code>log(1 + magnitude)</code>, in tiles of
+ * {@value #TILE_FRAMES} frames by {@value #TILE_BINS} bins. The maximum of
+ * each tile is kept in memory, so the range of any view can be normalised
+ * without reading its values.
+ * 
+ * <p>
+ * Next to the spectrogram itself the file contains a pyramid of coarser
+ * levels: each level has half the frames of the previous one and keeps the
+ * maximum of two frames. A view is read from the coarsest level that still
+ * has a frame per pixel, so drawing a long file takes time proportional to
+ * the number of pixels and only the visible tiles are paged in. The file
+ * layout is:
+ * </p>
+ * 
+ * <pre>
+ * magic | sample rate | hop | bins per octave | minimum (cents) | bins | tile frames | tile bins | levels
+ * per level (up to {@value #MAX_LEVELS}): frames (int) | data offset (long) | maxima offset (long)
+ * per level: tiles, time major, each frame major | maximum per tile
+ * </pre>
+ * 
+ * All values are little endian.
+ * 
+ * @author Joren Six
+ */
+public final class ConstantQSpectrogram {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(ConstantQSpectrogram.class.getName());
+
+	/**
+	 * The number of frames in a tile.
+	 */
+	public static final int TILE_FRAMES = 128;
+
+	/**
+	 * The number of bins in a tile.
+	 */
+	public static final int TILE_BINS = 32;
+
+	private static final int TILE_SIZE = TILE_FRAMES * TILE_BINS;
+
+	/**
+	 * The default step size, in samples.
+	 */
+	public static final int DEFAULT_HOP = 1024;
+
+	/**
+	 * The default lowest frequency, in absolute cents.
+	 */
+	public static final float DEFAULT_MINIMUM = 3600;
+
+	/**
+	 * The default highest frequency, in absolute cents.
+	 */
+	public static final float DEFAULT_MAXIMUM = 10800;
+
+	/**
+	 * The default number of bins per octave.
+	 */
+	public static final int DEFAULT_BINS_PER_OCTAVE = 24;
+
+	/**
+	 * Identifies the file format, "TCQ1".
+	 */
+	private static final int MAGIC = 0x54435131;
+
+	/**
+	 * The number of levels the header has room for.
+	 */
+	private static final int MAX_LEVELS = 32;
+
+	private static final int HEADER_SIZE = 9 * 4 + MAX_LEVELS * (4 + 8 + 8);
+
+	/**
+	 * The maximum number of bytes in one mapped region.
+	 */
+	private static final int MAX_REGION_SIZE = 1 << 30;
+
+	/**
+	 * Magnitudes below this value are stored as this value.
+	 */
+	private static final float MINIMUM_MAGNITUDE = 5e-6f;
+
+	/**
+	 * The progress of a build is reported every this number of frames.
+	 */
+	private static final int PROGRESS_FRAMES = 64;
+
+	/**
+	 * The number of spectrograms kept open, e.g. for the views of the current
+	 * file.
+	 */
+	private static final int CACHED_SPECTROGRAMS = 2;
+
+	private static final Map<String, ConstantQSpectrogram> CACHE = new LinkedHashMap<String, ConstantQSpectrogram>(4,
+			0.75f, true) {
+		private static final long serialVersionUID = 4183375096542317311L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, ConstantQSpectrogram> eldest) {
+			return size() > CACHED_SPECTROGRAMS;
+		}
+	};
+
+	/**
+	 * Spectrograms that are being opened or built, so concurrent requests for
+	 * the same file wait for one build.
+	 */
+	private static final Map<String, FutureTask<ConstantQSpectrogram>> LOADING = new HashMap<String, FutureTask<ConstantQSpectrogram>>();
+
+	/**
+	 * Receives the progress of a build.
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param progress
+		 *            The fraction of the audio that is analysed, between zero
+		 *            and one.
+		 */
+		void progressChanged(double progress);
+	}
+
+	private final float sampleRate;
+	private final int hop;
+	private final int binsPerOctave;
+	private final float minimumInCents;
+	private final int bins;
+	private final int tilesPerSlab;
+	private final int[] frames;
+	private final long[] dataOffsets;
+	private final float[][] tileMaxima;
+	private final MappedByteBuffer[] regions;
+
+	private ConstantQSpectrogram(final File file) throws IOException {
+		final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a constant-Q spectrogram: " + file.getPath());
+			}
+			sampleRate = header.getFloat();
+			hop = header.getInt();
+			binsPerOctave = header.getInt();
+			minimumInCents = header.getFloat();
+			bins = header.getInt();
+			final int tileFrames = header.getInt();
+			final int tileBins = header.getInt();
+			final int levels = header.getInt();
+			if (tileFrames != TILE_FRAMES || tileBins != TILE_BINS || levels < 1 || levels > MAX_LEVELS) {
+				throw new IOException("Unsupported constant-Q spectrogram layout: " + file.getPath());
+			}
+			tilesPerSlab = tiles(bins, TILE_BINS);
+			frames = new int[levels];
+			dataOffsets = new long[levels];
+			tileMaxima = new float[levels][];
+			for (int level = 0; level < levels; level++) {
+				frames[level] = header.getInt();
+				dataOffsets[level] = header.getLong();
+				final long maximaOffset = header.getLong();
+				final int tiles = tiles(frames[level], TILE_FRAMES) * tilesPerSlab;
+				final ByteBuffer maxima = ByteBuffer.allocate(tiles * 4).order(ByteOrder.LITTLE_ENDIAN);
+				readFully(channel, maxima, maximaOffset);
+				maxima.flip();
+				tileMaxima[level] = new float[tiles];
+				maxima.asFloatBuffer().get(tileMaxima[level]);
+			}
+
+			final long size = channel.size();
+			regions = new MappedByteBuffer[(int) ((size + MAX_REGION_SIZE - 1) / MAX_REGION_SIZE)];
+			for (int i = 0; i < regions.length; i++) {
+				final long start = (long) i * MAX_REGION_SIZE;
+				regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAX_REGION_SIZE, size - start));
+				regions[i].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} finally {
+			// The mapped regions stay valid after the channel is closed.
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Opens a spectrogram file.
+	 * 
+	 * @param file
+	 *            A file written by
+	 *            {@link #build(MappedPcmSource, File, int, float, float, int)}.
+	 * @return The mapped spectrogram.
+	 * @throws IOException
+	 *             If the file can not be read or has an unknown format.
+	 */
+	public static ConstantQSpectrogram open(final File file) throws IOException {
+		return new ConstantQSpectrogram(file);
+	}
+
+	/**
+	 * Returns the spectrogram of the transcoded audio of a file, with the
+	 * default parameters. The spectrogram is kept next to the transcoded
+	 * audio, it is calculated the first time it is requested. Concurrent
+	 * requests for the same file wait for one build.
+	 * 
+	 * @param audioFile
+	 *            The audio file.
+	 * @return The spectrogram, or null if it can not be calculated.
+	 */
+	public static ConstantQSpectrogram forFile(final AudioFile audioFile) {
+		return forFile(audioFile, null);
+	}
+
+	/**
+	 * Returns the spectrogram of the transcoded audio of a file, see
+	 * {@link #forFile(AudioFile)}. A build stops when the thread is
+	 * interrupted, then null is returned.
+	 * 
+	 * @param audioFile
+	 *            The audio file.
+	 * @param listener
+	 *            Receives the progress when this call builds the spectrogram,
+	 *            or null.
+	 * @return The spectrogram, or null if it can not be calculated.
+	 */
+	public static ConstantQSpectrogram forFile(final AudioFile audioFile, final ProgressListener listener) {
+		final File file = new File(FileUtils.combine(audioFile.transcodedDirectory(), String.format(
+				"constant_q_%d_%.0f_%.0f_%d.tcq", DEFAULT_HOP, DEFAULT_MINIMUM, DEFAULT_MAXIMUM,
+				DEFAULT_BINS_PER_OCTAVE)));
+		final String key = file.getAbsolutePath();
+		final FutureTask<ConstantQSpectrogram> loading;
+		boolean loader = false;
+		synchronized (CACHE) {
+			final ConstantQSpectrogram cached = CACHE.get(key);
+			if (cached != null) {
+				return cached;
+			}
+			FutureTask<ConstantQSpectrogram> pending = LOADING.get(key);
+			if (pending == null) {
+				pending = new FutureTask<ConstantQSpectrogram>(new Callable<ConstantQSpectrogram>() {
+					public ConstantQSpectrogram call() {
+						return load(audioFile, file, listener);
+					}
+				});
+				LOADING.put(key, pending);
+				loader = true;
+			}
+			loading = pending;
+		}
+		if (loader) {
+			loading.run();
+		}
+		ConstantQSpectrogram spectrogram = null;
+		try {
+			spectrogram = loading.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			LOG.log(Level.WARNING, "Could not calculate the constant-Q spectrogram of "
+					+ audioFile.originalBasename(), e.getCause());
+		}
+		if (loader) {
+			synchronized (CACHE) {
+				LOADING.remove(key);
+				if (spectrogram != null) {
+					CACHE.put(key, spectrogram);
+				}
+			}
+		}
+		return spectrogram;
+	}
+
+	private static ConstantQSpectrogram load(final AudioFile audioFile, final File file,
+			final ProgressListener listener) {
+		ConstantQSpectrogram spectrogram = null;
+		try {
+			if (file.exists()) {
+				try {
+					spectrogram = open(file);
+				} catch (final IOException e) {
+					LOG.log(Level.WARNING, "Ignored unreadable constant-Q spectrogram " + file.getPath(), e);
+				}
+			}
+			if (spectrogram == null) {
+				final StopWatch watch = new StopWatch();
+				build(audioFile.pcmSource(), file, DEFAULT_HOP, DEFAULT_MINIMUM, DEFAULT_MAXIMUM,
+						DEFAULT_BINS_PER_OCTAVE, listener);
+				spectrogram = open(file);
+				LOG.fine(String.format("Built constant-Q spectrogram for %s in %s.", audioFile.originalBasename(),
+						watch.formattedToString()));
+			}
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.log(Level.WARNING, "Could not read the transcoded audio of " + audioFile.originalBasename(), e);
+		} catch (final InterruptedIOException e) {
+			LOG.fine("Stopped building the constant-Q spectrogram of " + audioFile.originalBasename());
+		} catch (final ClosedByInterruptException e) {
+			LOG.fine("Stopped building the constant-Q spectrogram of " + audioFile.originalBasename());
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not calculate the constant-Q spectrogram of "
+					+ audioFile.originalBasename(), e);
+		}
+		return spectrogram;
+	}
+
+	/**
+	 * Calculates the constant-Q spectrogram of the first channel of mapped
+	 * audio and writes it, with its pyramid, to a file. The values are
+	 * streamed to the file a row of tiles at a time, so the memory needed does
+	 * not depend on the length of the audio.
+	 * 
+	 * @param pcmSource
+	 *            The audio.
+	 * @param target
+	 *            The file to write. It is replaced when the spectrogram is
+	 *            complete, the spectrogram is written to a temporary file in
+	 *            the same directory that is removed when the build fails.
+	 * @param hop
+	 *            The step size in samples.
+	 * @param minimumInCents
+	 *            The lowest frequency, in absolute cents.
+	 * @param maximumInCents
+	 *            The highest frequency, in absolute cents.
+	 * @param binsPerOctave
+	 *            The number of bins per octave.
+	 * @throws IOException
+	 *             If the file can not be written.
+	 */
+	public static void build(final MappedPcmSource pcmSource, final File target, final int hop,
+			final float minimumInCents, final float maximumInCents, final int binsPerOctave) throws IOException {
+		build(pcmSource, target, hop, minimumInCents, maximumInCents, binsPerOctave, null);
+	}
+
+	/**
+	 * Calculates the constant-Q spectrogram of mapped audio and writes it to a
+	 * file, see {@link #build(MappedPcmSource, File, int, float, float, int)}.
+	 * 
+	 * @param pcmSource
+	 *            The audio.
+	 * @param target
+	 *            The file to write.
+	 * @param hop
+	 *            The step size in samples.
+	 * @param minimumInCents
+	 *            The lowest frequency, in absolute cents.
+	 * @param maximumInCents
+	 *            The highest frequency, in absolute cents.
+	 * @param binsPerOctave
+	 *            The number of bins per octave.
+	 * @param listener
+	 *            Receives the progress, or null.
+	 * @throws IOException
+	 *             If the file can not be written, an
+	 *             {@link InterruptedIOException} if the thread is interrupted.
+	 */
+	public static void build(final MappedPcmSource pcmSource, final File target, final int hop,
+			final float minimumInCents, final float maximumInCents, final int binsPerOctave,
+			final ProgressListener listener) throws IOException {
+		final float sampleRate = pcmSource.getFormat().getSampleRate();
+		final ConstantQ constantQ = new ConstantQ(sampleRate, (float) PitchUnit.absoluteCentToHertz(minimumInCents),
+				(float) PitchUnit.absoluteCentToHertz(maximumInCents), binsPerOctave);
+		final int size = constantQ.getFFTlength();
+		final int bins = constantQ.getNumberOfOutputBands();
+
+		final File temporary = File.createTempFile(target.getName(), ".tmp", target.getAbsoluteFile().getParentFile());
+		boolean complete = false;
+		RandomAccessFile randomAccessFile = null;
+		try {
+			randomAccessFile = new RandomAccessFile(temporary, "rw");
+			final FileChannel channel = randomAccessFile.getChannel();
+			final LevelWriter base = new LevelWriter(channel, bins, HEADER_SIZE);
+			final IOException[] failure = new IOException[1];
+			final AudioDispatcher dispatcher = pcmSource.createDispatcher(0, size, size - hop);
+			dispatcher.addAudioProcessor(constantQ);
+			final double duration = pcmSource.getDurationInSeconds();
+			dispatcher.addAudioProcessor(new AudioProcessor() {
+				private final float[] frame = new float[bins];
+				private int frames;
+
+				public boolean process(final AudioEvent audioEvent) {
+					if (Thread.currentThread().isInterrupted()) {
+						failure[0] = new InterruptedIOException("Interrupted while building a constant-Q spectrogram.");
+						dispatcher.stop();
+						return false;
+					}
+					if (listener != null && ++frames % PROGRESS_FRAMES == 0) {
+						listener.progressChanged(audioEvent.getTimeStamp() / duration);
+					}
+					final float[] magnitudes = constantQ.getMagnitudes();
+					for (int bin = 0; bin < bins; bin++) {
+						frame[bin] = (float) Math.log1p(Math.max(MINIMUM_MAGNITUDE, magnitudes[bin]));
+					}
+					try {
+						base.add(frame);
+					} catch (final IOException e) {
+						failure[0] = e;
+						dispatcher.stop();
+					}
+					return true;
+				}
+
+				public void processingFinished() {
+				}
+			});
+			dispatcher.run();
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+
+			final List<LevelWriter> levels = new ArrayList<LevelWriter>();
+			levels.add(base);
+			base.finish();
+			while (levels.get(levels.size() - 1).frames > TILE_FRAMES && levels.size() < MAX_LEVELS) {
+				final LevelWriter finer = levels.get(levels.size() - 1);
+				final LevelWriter coarser = new LevelWriter(channel, bins, finer.end);
+				coarser.addHalved(finer);
+				coarser.finish();
+				levels.add(coarser);
+			}
+
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putFloat(sampleRate).putInt(hop).putInt(binsPerOctave).putFloat(minimumInCents);
+			header.putInt(bins).putInt(TILE_FRAMES).putInt(TILE_BINS).putInt(levels.size());
+			for (final LevelWriter level : levels) {
+				header.putInt(level.frames).putLong(level.dataOffset).putLong(level.maximaOffset);
+			}
+			header.position(0);
+			writeFully(channel, header, 0);
+			randomAccessFile.close();
+			randomAccessFile = null;
+			if (target.exists() && !target.delete() || !temporary.renameTo(target)) {
+				throw new IOException("Could not replace " + target.getPath());
+			}
+			complete = true;
+		} finally {
+			if (randomAccessFile != null) {
+				randomAccessFile.close();
+			}
+			if (!complete && !temporary.delete()) {
+				LOG.warning("Could not remove " + temporary.getPath());
+			}
+		}
+	}
+
+	/**
+	 * Writes the tiles of one level, a row of tiles (a slab) at a time.
+	 */
+	private static final class LevelWriter {
+		private final FileChannel channel;
+		private final int bins;
+		private final int tilesPerSlab;
+		private final float[] slab;
+		private final ByteBuffer slabBytes;
+		private final long dataOffset;
+		private float[] maxima = new float[64];
+		private int frames;
+		private long maximaOffset;
+		private long end;
+
+		private LevelWriter(final FileChannel channel, final int bins, final long dataOffset) {
+			this.channel = channel;
+			this.bins = bins;
+			this.dataOffset = dataOffset;
+			tilesPerSlab = tiles(bins, TILE_BINS);
+			slab = new float[tilesPerSlab * TILE_SIZE];
+			slabBytes = ByteBuffer.allocateDirect(slab.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+			end = dataOffset;
+		}
+
+		private void add(final float[] frame) throws IOException {
+			final int row = frames % TILE_FRAMES;
+			for (int bin = 0; bin < bins; bin++) {
+				slab[(bin / TILE_BINS) * TILE_SIZE + row * TILE_BINS + bin % TILE_BINS] = frame[bin];
+			}
+			frames++;
+			if (row == TILE_FRAMES - 1) {
+				flush();
+			}
+		}
+
+		/**
+		 * Adds the maximum of each pair of frames of a finished, finer level.
+		 */
+		private void addHalved(final LevelWriter finer) throws IOException {
+			final ByteBuffer finerBytes = ByteBuffer.allocateDirect(slab.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+			final float[] finerSlab = new float[slab.length];
+			final float[] frame = new float[bins];
+			for (int frame0 = 0; frame0 < finer.frames; frame0 += 2) {
+				if (frame0 % TILE_FRAMES == 0) {
+					finerBytes.clear();
+					readFully(channel, finerBytes, finer.dataOffset + (long) (frame0 / TILE_FRAMES) * slab.length * 4);
+					finerBytes.flip();
+					finerBytes.asFloatBuffer().get(finerSlab);
+				}
+				final int first = frame0 % TILE_FRAMES * TILE_BINS;
+				// an odd last frame is combined with itself
+				final int second = Math.min(frame0 + 1, finer.frames - 1) % TILE_FRAMES * TILE_BINS;
+				for (int bin = 0; bin < bins; bin++) {
+					final int tile = (bin / TILE_BINS) * TILE_SIZE + bin % TILE_BINS;
+					frame[bin] = Math.max(finerSlab[tile + first], finerSlab[tile + second]);
+				}
+				add(frame);
+			}
+		}
+
+		private void flush() throws IOException {
+			final int slabIndex = (frames - 1) / TILE_FRAMES;
+			if ((slabIndex + 1) * tilesPerSlab > maxima.length) {
+				maxima = Arrays.copyOf(maxima, Math.max(maxima.length * 2, (slabIndex + 1) * tilesPerSlab));
+			}
+			final int rows = frames - slabIndex * TILE_FRAMES;
+			for (int tile = 0; tile < tilesPerSlab; tile++) {
+				// the padding of the last row and column of tiles is zero
+				final int columns = Math.min(TILE_BINS, bins - tile * TILE_BINS);
+				float maximum = 0;
+				for (int row = 0; row < TILE_FRAMES; row++) {
+					for (int column = 0; column < TILE_BINS; column++) {
+						final int index = tile * TILE_SIZE + row * TILE_BINS + column;
+						if (row >= rows || column >= columns) {
+							slab[index] = 0;
+						} else {
+							maximum = Math.max(maximum, slab[index]);
+						}
+					}
+				}
+				maxima[slabIndex * tilesPerSlab + tile] = maximum;
+			}
+			slabBytes.clear();
+			slabBytes.asFloatBuffer().put(slab);
+			writeFully(channel, slabBytes, end);
+			end += slab.length * 4;
+		}
+
+		private void finish() throws IOException {
+			if (frames % TILE_FRAMES != 0) {
+				flush();
+			}
+			final int tiles = tiles(frames, TILE_FRAMES) * tilesPerSlab;
+			final ByteBuffer maximaBytes = ByteBuffer.allocate(tiles * 4).order(ByteOrder.LITTLE_ENDIAN);
+			maximaBytes.asFloatBuffer().put(maxima, 0, tiles);
+			maximaOffset = end;
+			writeFully(channel, maximaBytes, maximaOffset);
+			end += tiles * 4;
+		}
+	}
+
+	private static int tiles(final int length, final int tileLength) {
+		return (length + tileLength - 1) / tileLength;
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+			throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, current);
+			if (read < 0) {
+				throw new IOException("Unexpected end of a constant-Q spectrogram file.");
+			}
+			current += read;
+		}
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+			throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			current += channel.write(buffer, current);
+		}
+	}
+
+	/**
+	 * @return The number of levels, level zero is the spectrogram itself.
+	 */
+	public int getLevels() {
+		return frames.length;
+	}
+
+	/**
+	 * @param level
+	 *            The level.
+	 * @return The number of frames in the level.
+	 */
+	public int getFrames(final int level) {
+		return frames[level];
+	}
+
+	/**
+	 * @return The number of frequency bins.
+	 */
+	public int getBins() {
+		return bins;
+	}
+
+	/**
+	 * @return The duration of the analysed audio, in seconds.
+	 */
+	public double getDurationInSeconds() {
+		return frames[0] * (double) hop / sampleRate;
+	}
+
+	/**
+	 * @param level
+	 *            The level.
+	 * @return The time between two frames of the level, in seconds.
+	 */
+	public double getFrameDurationInSeconds(final int level) {
+		return ((long) hop << level) / sampleRate;
+	}
+
+	/**
+	 * @param level
+	 *            The level.
+	 * @param frame
+	 *            The frame.
+	 * @return The start of the audio the frame was calculated from, in
+	 *         seconds.
+	 */
+	public double getFrameTime(final int level, final int frame) {
+		return frame * getFrameDurationInSeconds(level);
+	}
+
+	/**
+	 * @param level
+	 *            The level.
+	 * @param seconds
+	 *            A time in seconds.
+	 * @return The frame of the level that contains the time, limited to the
+	 *         frames of the level.
+	 */
+	public int frameAt(final int level, final double seconds) {
+		final long frame = (long) Math.floor(seconds / getFrameDurationInSeconds(level));
+		return (int) Math.max(0, Math.min(frames[level] - 1, frame));
+	}
+
+	/**
+	 * @param bin
+	 *            The bin.
+	 * @return The lower bound of the frequency range of the bin, in absolute
+	 *         cents.
+	 */
+	public float getBinInCents(final int bin) {
+		return minimumInCents + bin * getBinHeightInCents();
+	}
+
+	/**
+	 * @return The height of a bin, in cents.
+	 */
+	public float getBinHeightInCents() {
+		return 1200f / binsPerOctave;
+	}
+
+	/**
+	 * @param absoluteCents
+	 *            A frequency in absolute cents.
+	 * @return The bin that contains the frequency, limited to the available
+	 *         bins.
+	 */
+	public int binAt(final double absoluteCents) {
+		final int bin = (int) Math.floor((absoluteCents - minimumInCents) / getBinHeightInCents());
+		return Math.max(0, Math.min(bins - 1, bin));
+	}
+
+	/**
+	 * Returns the coarsest level with frames at most a given duration apart,
+	 * e.g. the duration of a pixel.
+	 * 
+	 * @param seconds
+	 *            The duration in seconds.
+	 * @return The level to use.
+	 */
+	public int levelFor(final double seconds) {
+		int level = 0;
+		while (level + 1 < frames.length && getFrameDurationInSeconds(level + 1) <= seconds) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * @param level
+	 *            The level.
+	 * @param frame
+	 *            The frame.
+	 * @param bin
+	 *            The bin.
+	 * @return The stored value, <code>log(1 + magnitude)</code>.
+	 */
+	public float getValue(final int level, final int frame, final int bin) {
+		if (frame < 0 || frame >= frames[level] || bin < 0 || bin >= bins) {
+			throw new IndexOutOfBoundsException("Frame " + frame + ", bin " + bin);
+		}
+		final long tile = (long) (frame / TILE_FRAMES) * tilesPerSlab + bin / TILE_BINS;
+		final long offset = dataOffsets[level] + (tile * TILE_SIZE + frame % TILE_FRAMES * TILE_BINS + bin
+				% TILE_BINS) * 4;
+		return regions[(int) (offset / MAX_REGION_SIZE)].getFloat((int) (offset % MAX_REGION_SIZE));
+	}
+
+	/**
+	 * Reads a block of values, frame major: the value of a frame and bin is
+	 * stored at <code>(frame - fromFrame) * (toBin - fromBin) + bin - fromBin</code>.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @param fromFrame
+	 *            The first frame (inclusive).
+	 * @param toFrame
+	 *            The last frame (exclusive).
+	 * @param fromBin
+	 *            The first bin (inclusive).
+	 * @param toBin
+	 *            The last bin (exclusive).
+	 * @param target
+	 *            The array to fill, at least as long as the block.
+	 */
+	public void read(final int level, final int fromFrame, final int toFrame, final int fromBin, final int toBin,
+			final float[] target) {
+		final int width = toBin - fromBin;
+		for (int frame = fromFrame; frame < toFrame; frame++) {
+			final int row = (frame - fromFrame) * width;
+			for (int bin = fromBin; bin < toBin; bin++) {
+				target[row + bin - fromBin] = getValue(level, frame, bin);
+			}
+		}
+	}
+
+	/**
+	 * Returns the maximum value in a block, from the maxima of the tiles that
+	 * overlap it. The value is at least the maximum of the block, no values
+	 * are read.
+	 * 
+	 * @param level
+	 *            The level.
+	 * @param fromFrame
+	 *            The first frame (inclusive).
+	 * @param toFrame
+	 *            The last frame (exclusive).
+	 * @param fromBin
+	 *            The first bin (inclusive).
+	 * @param toBin
+	 *            The last bin (exclusive).
+	 * @return The maximum of the overlapping tiles.
+	 */
+	public float getMaximum(final int level, final int fromFrame, final int toFrame, final int fromBin,
+			final int toBin) {
+		float maximum = 0;
+		for (int slab = fromFrame / TILE_FRAMES; slab <= (toFrame - 1) / TILE_FRAMES; slab++) {
+			for (int tile = fromBin / TILE_BINS; tile <= (toBin - 1) / TILE_BINS; tile++) {
+				maximum = Math.max(maximum, tileMaxima[level][slab * tilesPerSlab + tile]);
+			}
+		}
+		return maximum;
+	}
+}
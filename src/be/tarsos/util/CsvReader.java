@@ -0,0 +1,502 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Reads delimiter separated text, e.g. CSV files with annotations or the
+ * output of sonic-annotator, row by row. The text is read through a fixed
+ * buffer and each row is handed to a {@link RowHandler} as a {@link Row} that
+ * points into that buffer: no string is created for a line or a field unless
+ * it is requested, and numbers are parsed in place. Files of any size are read
+ * in memory proportional to the longest line.
+ * <p>
+ * Rows are split like {@link String#split(String)} with a pattern that
+ * matches one of the separator characters, or a run of them when separators
+ * are collapsed: a leading separator gives an empty first field and trailing
+ * empty fields are removed. Lines end with a line feed, a carriage return or
+ * both, as with {@link java.io.BufferedReader#readLine()}.
+ * </p>
+ * <p>
+ * A reader keeps state while it reads and should be used by one thread at a
+ * time.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class CsvReader {
+
+	/**
+	 * Separates fields with a comma or a semicolon, as Tarsos and most tools
+	 * it reads do.
+	 */
+	public static final String COMMA_OR_SEMICOLON = ",;";
+
+	/**
+	 * Separates fields with white space within a line: spaces, tabs, vertical
+	 * tabs and form feeds, as the <code>\s</code> pattern.
+	 */
+	public static final String WHITESPACE = " \t\u000B\f";
+
+	/**
+	 * The number of bytes read from the channel at once.
+	 */
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Powers of ten that are exactly representable as a double.
+	 */
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1.0;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+		}
+	}
+
+	/**
+	 * Receives the rows of a file.
+	 */
+	public interface RowHandler {
+		/**
+		 * @param row
+		 *            The current row. It is only valid during the call: the
+		 *            same object is reused for the next row.
+		 */
+		void handleRow(Row row);
+	}
+
+	/**
+	 * A row of fields in the buffer of the reader.
+	 */
+	public static final class Row {
+		private char[] line;
+		private int[] starts;
+		private int[] ends;
+		private int size;
+		private int lineNumber;
+
+		private Row() {
+			line = new char[256];
+			starts = new int[16];
+			ends = new int[16];
+		}
+
+		/**
+		 * @return The number of fields in the row.
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return The number of the line, starting from one.
+		 */
+		public int getLineNumber() {
+			return lineNumber;
+		}
+
+		/**
+		 * @param column
+		 *            The index of the field.
+		 * @return True if the field has no characters.
+		 */
+		public boolean isEmpty(final int column) {
+			checkColumn(column);
+			return starts[column] == ends[column];
+		}
+
+		/**
+		 * @param column
+		 *            The index of the field.
+		 * @param value
+		 *            A value to compare with.
+		 * @return True if the field has the same characters as the value.
+		 */
+		public boolean contentEquals(final int column, final CharSequence value) {
+			checkColumn(column);
+			final int length = ends[column] - starts[column];
+			if (length != value.length()) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (line[starts[column] + i] != value.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @param column
+		 *            The index of the field.
+		 * @return The field as a new string.
+		 */
+		public String getString(final int column) {
+			checkColumn(column);
+			return new String(line, starts[column], ends[column] - starts[column]);
+		}
+
+		/**
+		 * Parses a field as {@link Double#parseDouble(String)} does, without
+		 * creating a string for the common decimal notations.
+		 * 
+		 * @param column
+		 *            The index of the field.
+		 * @return The value of the field.
+		 * @throws NumberFormatException
+		 *             If the field is not a number.
+		 */
+		public double getDouble(final int column) {
+			checkColumn(column);
+			return parseDouble(line, starts[column], ends[column]);
+		}
+
+		/**
+		 * @return The fields as strings.
+		 */
+		public String[] toArray() {
+			final String[] fields = new String[size];
+			for (int i = 0; i < size; i++) {
+				fields[i] = getString(i);
+			}
+			return fields;
+		}
+
+		@Override
+		public String toString() {
+			return size == 0 ? "" : new String(line, starts[0], ends[size - 1] - starts[0]);
+		}
+
+		private void checkColumn(final int column) {
+			if (column >= size) {
+				throw new ArrayIndexOutOfBoundsException("Line " + lineNumber + " has " + size
+						+ " fields, field " + column + " requested.");
+			}
+		}
+
+		private void addField(final int start, final int end) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+			}
+			starts[size] = start;
+			ends[size] = end;
+			size++;
+		}
+	}
+
+	private final char[] separators;
+	private final boolean collapseSeparators;
+	private final Row row;
+	private int lineLength;
+	private boolean skipLineFeed;
+
+	/**
+	 * Create a reader that splits rows on each separator.
+	 * 
+	 * @param separatorCharacters
+	 *            Each character separates fields, e.g. ",;".
+	 */
+	public CsvReader(final String separatorCharacters) {
+		this(separatorCharacters, false);
+	}
+
+	/**
+	 * Create a new reader.
+	 * 
+	 * @param separatorCharacters
+	 *            Each character separates fields, e.g. ",;".
+	 * @param collapse
+	 *            True if a run of separators separates two fields, e.g. for
+	 *            columns aligned with spaces.
+	 */
+	public CsvReader(final String separatorCharacters, final boolean collapse) {
+		separators = separatorCharacters.toCharArray();
+		collapseSeparators = collapse;
+		row = new Row();
+	}
+
+	/**
+	 * Reads a file in the default character set, like a
+	 * {@link java.io.FileReader}.
+	 * 
+	 * @param fileName
+	 *            The file to read.
+	 * @param handler
+	 *            Receives each row.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	public void read(final String fileName, final RowHandler handler) throws IOException {
+		final File file = new File(fileName);
+		if (!file.exists()) {
+			throw new IllegalArgumentException("File '" + fileName + "' does not exist");
+		}
+		final FileInputStream stream = new FileInputStream(file);
+		try {
+			read(stream.getChannel(), handler);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Reads all rows from a channel in the default character set.
+	 * 
+	 * @param channel
+	 *            The channel to read, it is not closed.
+	 * @param handler
+	 *            Receives each row.
+	 * @throws IOException
+	 *             If the channel can not be read.
+	 */
+	public void read(final ReadableByteChannel channel, final RowHandler handler) throws IOException {
+		final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		final ByteBuffer bytes = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		final CharBuffer chars = CharBuffer.allocate(READ_BUFFER_SIZE);
+		row.lineNumber = 0;
+		lineLength = 0;
+		skipLineFeed = false;
+		boolean endOfInput = false;
+		while (!endOfInput) {
+			endOfInput = channel.read(bytes) == -1;
+			bytes.flip();
+			CoderResult result;
+			do {
+				result = decoder.decode(bytes, chars, endOfInput);
+				consume(chars, handler);
+			} while (result.isOverflow());
+			bytes.compact();
+		}
+		while (decoder.flush(chars).isOverflow()) {
+			consume(chars, handler);
+		}
+		consume(chars, handler);
+		if (lineLength > 0) {
+			handleLine(handler);
+		}
+	}
+
+	/**
+	 * Splits one line, e.g. a line written by an external process, and hands
+	 * the row to the handler.
+	 * 
+	 * @param line
+	 *            The line without line terminator.
+	 * @param handler
+	 *            Receives the row.
+	 */
+	public void parse(final String line, final RowHandler handler) {
+		lineLength = 0;
+		ensureLineCapacity(line.length());
+		line.getChars(0, line.length(), row.line, 0);
+		lineLength = line.length();
+		handleLine(handler);
+	}
+
+	private void consume(final CharBuffer chars, final RowHandler handler) {
+		chars.flip();
+		consume(chars.array(), chars.position(), chars.limit(), handler);
+		chars.clear();
+	}
+
+	private void consume(final char[] data, final int from, final int to, final RowHandler handler) {
+		int lineStart = from;
+		for (int i = from; i < to; i++) {
+			final char c = data[i];
+			if (c == '\n' || c == '\r') {
+				if (c == '\n' && skipLineFeed && i == lineStart && lineLength == 0) {
+					// the line feed of a carriage return line feed pair
+					skipLineFeed = false;
+					lineStart = i + 1;
+					continue;
+				}
+				append(data, lineStart, i);
+				handleLine(handler);
+				skipLineFeed = c == '\r';
+				lineStart = i + 1;
+			} else {
+				skipLineFeed = false;
+			}
+		}
+		append(data, lineStart, to);
+	}
+
+	private void append(final char[] data, final int from, final int to) {
+		final int length = to - from;
+		if (length > 0) {
+			ensureLineCapacity(lineLength + length);
+			System.arraycopy(data, from, row.line, lineLength, length);
+			lineLength += length;
+		}
+	}
+
+	private void ensureLineCapacity(final int capacity) {
+		if (row.line.length < capacity) {
+			row.line = Arrays.copyOf(row.line, Math.max(capacity, row.line.length * 2));
+		}
+	}
+
+	private void handleLine(final RowHandler handler) {
+		row.lineNumber++;
+		row.size = 0;
+		final char[] line = row.line;
+		int fieldStart = 0;
+		int i = 0;
+		while (i < lineLength) {
+			if (isSeparator(line[i])) {
+				row.addField(fieldStart, i);
+				i++;
+				if (collapseSeparators) {
+					while (i < lineLength && isSeparator(line[i])) {
+						i++;
+					}
+				}
+				fieldStart = i;
+			} else {
+				i++;
+			}
+		}
+		row.addField(fieldStart, lineLength);
+		// as String.split: remove trailing empty fields, except for an empty
+		// line which has one empty field.
+		if (lineLength > 0) {
+			while (row.size > 0 && row.starts[row.size - 1] == row.ends[row.size - 1]) {
+				row.size--;
+			}
+		}
+		lineLength = 0;
+		handler.handleRow(row);
+	}
+
+	private boolean isSeparator(final char c) {
+		for (final char separator : separators) {
+			if (c == separator) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a number in decimal notation. When the digits and the exponent
+	 * are small enough the result is calculated exactly with one
+	 * multiplication or division; other values, e.g. "NaN" or numbers with
+	 * many digits, are parsed by {@link Double#parseDouble(String)}.
+	 */
+	static double parseDouble(final char[] chars, final int from, final int to) {
+		int start = from;
+		int end = to;
+		// Double.parseDouble ignores leading and trailing white space
+		while (start < end && chars[start] <= ' ') {
+			start++;
+		}
+		while (end > start && chars[end - 1] <= ' ') {
+			end--;
+		}
+		int i = start;
+		boolean negative = false;
+		if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+			negative = chars[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		boolean digits = false;
+		while (i < end && chars[i] >= '0' && chars[i] <= '9') {
+			mantissa = mantissa * 10 + (chars[i] - '0');
+			if (mantissa != 0) {
+				significantDigits++;
+			}
+			digits = true;
+			i++;
+		}
+		if (i < end && chars[i] == '.') {
+			i++;
+			while (i < end && chars[i] >= '0' && chars[i] <= '9') {
+				mantissa = mantissa * 10 + (chars[i] - '0');
+				if (mantissa != 0) {
+					significantDigits++;
+				}
+				exponent--;
+				digits = true;
+				i++;
+			}
+		}
+		if (digits && i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+				negativeExponent = chars[i] == '-';
+				i++;
+			}
+			int explicitExponent = 0;
+			int exponentDigits = 0;
+			while (i < end && chars[i] >= '0' && chars[i] <= '9' && exponentDigits < 4) {
+				explicitExponent = explicitExponent * 10 + (chars[i] - '0');
+				exponentDigits++;
+				i++;
+			}
+			if (exponentDigits == 0) {
+				digits = false;
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		if (digits && i == end && significantDigits <= 15) {
+			if (mantissa == 0) {
+				return negative ? -0.0 : 0.0;
+			}
+			// the mantissa and the power of ten are exact: one correctly
+			// rounded operation gives the correctly rounded result
+			double value;
+			if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+				value = mantissa * POWERS_OF_TEN[exponent];
+			} else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+				value = mantissa / POWERS_OF_TEN[-exponent];
+			} else {
+				return Double.parseDouble(new String(chars, from, to - from));
+			}
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(new String(chars, from, to - from));
+	}
+}
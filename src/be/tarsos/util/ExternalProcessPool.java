@@ -0,0 +1,190 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.util;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.exec.ExecuteWatchdog;
+
+/**
+ * Runs external pitch detectors, e.g. sonic-annotator or swipe. The number
+ * of processes that run at the same time is bounded, so analysing a large
+ * corpus on many threads does not start more processes than the machine can
+ * run. A process that fails or times out is started again, up to the
+ * configured number of attempts. The output is parsed line by line while the
+ * process runs.
+ * 
+ * @author Joren Six
+ */
+public final class ExternalProcessPool {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(ExternalProcessPool.class.getName());
+
+	/**
+	 * Parses the output of an external process.
+	 */
+	public interface OutputParser extends Command.LineHandler {
+		/**
+		 * Called before each attempt: the output of a failed attempt should
+		 * be discarded.
+		 */
+		void reset();
+	}
+
+	private static ExternalProcessPool instance;
+
+	/**
+	 * Returns a pool with the configured number of processes, timeout and
+	 * attempts. When the configuration changes a new pool is created, the
+	 * processes that run in the previous pool are not counted by the new one.
+	 * 
+	 * @return A pool with the configured number of processes, timeout and
+	 *         attempts.
+	 */
+	public static synchronized ExternalProcessPool getInstance() {
+		int processes = Configuration.getInt(ConfKey.external_processes);
+		if (processes <= 0) {
+			processes = Runtime.getRuntime().availableProcessors();
+		}
+		processes = Math.max(1, processes);
+		final int timeoutInSeconds = Configuration.getInt(ConfKey.external_process_timeout);
+		final long timeout = timeoutInSeconds > 0 ? timeoutInSeconds * 1000L : ExecuteWatchdog.INFINITE_TIMEOUT;
+		final int attempts = Math.max(1, Configuration.getInt(ConfKey.external_process_attempts));
+		if (instance == null || instance.processes != processes || instance.timeout != timeout
+				|| instance.attempts != attempts) {
+			instance = new ExternalProcessPool(processes, timeout, attempts);
+		}
+		return instance;
+	}
+
+	private final Semaphore permits;
+	private final int processes;
+	private final long timeout;
+	private final int attempts;
+
+	/**
+	 * Create a new pool.
+	 * 
+	 * @param maxProcesses
+	 *            The maximum number of processes that run at the same time.
+	 * @param timeoutInMilliseconds
+	 *            The time after which a process is killed, zero or less to
+	 *            wait until it finishes.
+	 * @param maxAttempts
+	 *            The number of times a process is started before it is
+	 *            considered failed.
+	 */
+	public ExternalProcessPool(final int maxProcesses, final long timeoutInMilliseconds, final int maxAttempts) {
+		processes = Math.max(1, maxProcesses);
+		permits = new Semaphore(processes, true);
+		timeout = timeoutInMilliseconds > 0 ? timeoutInMilliseconds : ExecuteWatchdog.INFINITE_TIMEOUT;
+		attempts = Math.max(1, maxAttempts);
+	}
+
+	/**
+	 * @return The maximum number of processes that run at the same time.
+	 */
+	public int getProcesses() {
+		return processes;
+	}
+
+	/**
+	 * @return The time in milliseconds after which a process is killed, or
+	 *         ExecuteWatchdog.INFINITE_TIMEOUT if processes are not killed.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Executes a command when a process is available. The calling thread
+	 * waits until the command is finished.
+	 * 
+	 * @param command
+	 *            The command to execute. Its timeout is set to the timeout of
+	 *            the pool.
+	 * @param parser
+	 *            Parses the standard output of the command.
+	 * @throws IOException
+	 *             If the last attempt fails, or when the thread is interrupted
+	 *             while it waits for a process.
+	 */
+	public void execute(final Command command, final OutputParser parser) throws IOException {
+		execute(command, parser, timeout);
+	}
+
+	/**
+	 * Executes a command when a process is available.
+	 * 
+	 * @param command
+	 *            The command to execute.
+	 * @param parser
+	 *            Parses the standard output of the command.
+	 * @param timeoutInMilliseconds
+	 *            The time after which the process is killed, e.g. longer than
+	 *            the timeout of the pool for a command that analyses several
+	 *            files. Zero or less waits until the process finishes.
+	 * @throws IOException
+	 *             If the last attempt fails, or when the thread is interrupted
+	 *             while it waits for a process.
+	 */
+	public void execute(final Command command, final OutputParser parser, final long timeoutInMilliseconds)
+			throws IOException {
+		command.setTimeout(timeoutInMilliseconds);
+		try {
+			permits.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to execute " + command.getName(), e);
+		}
+		try {
+			IOException failure = null;
+			for (int attempt = 1; attempt <= attempts && !Thread.currentThread().isInterrupted(); attempt++) {
+				parser.reset();
+				try {
+					command.execute(parser);
+					return;
+				} catch (final IOException e) {
+					failure = e;
+					LOG.log(Level.WARNING, String.format("Attempt %d of %d to execute %s failed: %s", attempt,
+							attempts, command.getName(), e.getMessage()));
+				}
+			}
+			throw failure == null ? new IOException("Interrupted before " + command.getName() + " was executed.")
+					: failure;
+		} finally {
+			permits.release();
+		}
+	}
+}
@@ -44,6 +44,11 @@ public final class FFT {
 
 	private final int fftSize;
 
+	/**
+	 * Double precision FFT, created on first use.
+	 */
+	private volatile DoubleFFT dfft;
+
 	public FFT(final int size) {
 		ffft = new FloatFFT(size, -1);
 		ifft = new FloatFFT(size, 1);
@@ -70,6 +75,41 @@ public final class FFT {
 		ifft.transform(data);
 	}
 
+	/**
+	 * Computes forward DFT in double precision.
+	 * 
+	 * @param data
+	 *            data to transform, interlaced real and imaginary parts.
+	 */
+	public void forwardTransform(final double[] data) {
+		doubleFFT().transform(data, -1);
+	}
+
+	/**
+	 * Computes inverse DFT in double precision, the result is not divided by
+	 * the size.
+	 * 
+	 * @param data
+	 *            data to transform, interlaced real and imaginary parts.
+	 */
+	public void backwardsTransform(final double[] data) {
+		doubleFFT().transform(data, 1);
+	}
+
+	private DoubleFFT doubleFFT() {
+		DoubleFFT fft = dfft;
+		if (fft == null) {
+			synchronized (this) {
+				fft = dfft;
+				if (fft == null) {
+					fft = new DoubleFFT(fftSize);
+					dfft = fft;
+				}
+			}
+		}
+		return fft;
+	}
+
 	public double binToHz(final int binIndex, final float sampleRate) {
 		return binIndex * sampleRate / (double) fftSize;
 	}
@@ -867,4 +907,76 @@ public final class FFT {
 		}
 	}
 
+	/**
+	 * An iterative radix-2 FFT in double precision, for calculations that need
+	 * more precision than audio. The instance only holds precalculated tables
+	 * so it can be used by several threads.
+	 */
+	private static final class DoubleFFT {
+		private final int size;
+		private final int[] reversed;
+		private final double[] cosines;
+		private final double[] sines;
+
+		/**
+		 * @param fftSize
+		 *            Framesize must be power of 2
+		 */
+		private DoubleFFT(final int fftSize) {
+			if (Integer.bitCount(fftSize) != 1) {
+				throw new IllegalArgumentException("The size should be a power of two, is " + fftSize);
+			}
+			size = fftSize;
+			final int bits = Integer.numberOfTrailingZeros(fftSize);
+			reversed = new int[fftSize];
+			for (int i = 0; i < fftSize; i++) {
+				reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+			}
+			cosines = new double[fftSize / 2];
+			sines = new double[fftSize / 2];
+			for (int k = 0; k < fftSize / 2; k++) {
+				cosines[k] = Math.cos(2 * Math.PI * k / fftSize);
+				sines[k] = Math.sin(2 * Math.PI * k / fftSize);
+			}
+		}
+
+		/**
+		 * @param data
+		 *            Interlaced real and imaginary parts.
+		 * @param sign
+		 *            -1 is FFT, 1 is IFFT (inverse FFT)
+		 */
+		private void transform(final double[] data, final int sign) {
+			for (int i = 0; i < size; i++) {
+				final int j = reversed[i];
+				if (j > i) {
+					final double real = data[2 * i];
+					final double imaginary = data[2 * i + 1];
+					data[2 * i] = data[2 * j];
+					data[2 * i + 1] = data[2 * j + 1];
+					data[2 * j] = real;
+					data[2 * j + 1] = imaginary;
+				}
+			}
+			for (int length = 2; length <= size; length <<= 1) {
+				final int half = length / 2;
+				final int step = size / length;
+				for (int start = 0; start < size; start += length) {
+					for (int k = 0; k < half; k++) {
+						final double wr = cosines[k * step];
+						final double wi = sign * sines[k * step];
+						final int a = 2 * (start + k);
+						final int b = 2 * (start + k + half);
+						final double tempr = data[b] * wr - data[b + 1] * wi;
+						final double tempi = data[b] * wi + data[b + 1] * wr;
+						data[b] = data[a] - tempr;
+						data[b + 1] = data[a + 1] - tempi;
+						data[a] += tempr;
+						data[a + 1] += tempi;
+					}
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,451 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.tarsos.util.AnalysisStore.Kind;
+
+/**
+ * Identifies the content of files with a hash of their first
+ * {@value #PREFIX_SIZE} bytes, see {@link AudioFile#contentHash()}. Hashes are
+ * kept in memory and in the {@link AnalysisStore}, together with the size and
+ * modification time of the file: a file is only read again when one of those
+ * changed. Re-scanning an unchanged archive costs a few file system calls per
+ * file.
+ * 
+ * <p>
+ * The prefix is read into a direct buffer with one channel read, hashes of a
+ * batch of files are calculated concurrently with
+ * {@link #fingerprints(List)}. The hash algorithm is configured with
+ * {@link ConfKey#content_hash}.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class FileFingerprints {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(FileFingerprints.class.getName());
+
+	/**
+	 * The number of bytes at the start of a file that are hashed.
+	 */
+	public static final int PREFIX_SIZE = 262144;
+
+	/**
+	 * Size of a stored fingerprint: file size, modification time and hash.
+	 */
+	private static final int STORED_SIZE = 3 * 8;
+
+	/**
+	 * A direct buffer for the prefix of a file, per thread.
+	 */
+	private static final ThreadLocal<ByteBuffer> PREFIX_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(PREFIX_SIZE);
+		}
+	};
+
+	/**
+	 * Constants of the XXH64 hash.
+	 */
+	private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME64_3 = 0x165667B19E3779F9L;
+	private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Hash algorithms for the prefix of a file. Each results in 64 bits,
+	 * written as 16 hexadecimal digits.
+	 */
+	public enum Algorithm {
+		/**
+		 * The second half of the MD5 digest of the prefix. The hashes are the
+		 * same as in earlier versions, so the transcoded audio and analysis
+		 * results in the data directory are found again.
+		 */
+		MD5 {
+			@Override
+			long hash(final ByteBuffer prefix, final long fileSize) {
+				final byte[] digest = md5(prefix);
+				return ByteBuffer.wrap(digest, 8, 8).getLong();
+			}
+		},
+		/**
+		 * XXH64 of the prefix, seeded with the size of the file. Several times
+		 * faster than MD5 and good enough to find duplicates, it is not a
+		 * cryptographic hash. Switching to or from this algorithm gives each
+		 * file a new data directory.
+		 */
+		XXHASH64 {
+			@Override
+			long hash(final ByteBuffer prefix, final long fileSize) {
+				return xxHash64(prefix, fileSize);
+			}
+		};
+
+		/**
+		 * @param prefix
+		 *            The first bytes of the file, from position to limit.
+		 * @param fileSize
+		 *            The size of the file in bytes.
+		 * @return The hash.
+		 */
+		abstract long hash(ByteBuffer prefix, long fileSize);
+	}
+
+	/**
+	 * A hash with the size and modification time of the file it belongs to.
+	 */
+	private static final class Fingerprint {
+		private final long size;
+		private final long modified;
+		private final long hash;
+
+		private Fingerprint(final long fileSize, final long lastModified, final long fileHash) {
+			size = fileSize;
+			modified = lastModified;
+			hash = fileHash;
+		}
+
+		private boolean matches(final File file) {
+			return file.length() == size && file.lastModified() == modified;
+		}
+	}
+
+	private static FileFingerprints instance;
+
+	/**
+	 * @return The service for the configured algorithm.
+	 */
+	public static synchronized FileFingerprints getInstance() {
+		Algorithm algorithm = Algorithm.MD5;
+		final String configured = Configuration.get(ConfKey.content_hash);
+		try {
+			algorithm = Algorithm.valueOf(configured.trim().toUpperCase(Locale.ENGLISH));
+		} catch (final IllegalArgumentException e) {
+			LOG.warning("Unknown content hash algorithm " + configured + ", using MD5.");
+		}
+		if (instance == null || instance.algorithm != algorithm) {
+			instance = new FileFingerprints(algorithm, true);
+		}
+		return instance;
+	}
+
+	private final Algorithm algorithm;
+	private final boolean persistent;
+	private final Map<String, Fingerprint> fingerprints;
+
+	/**
+	 * Create a new fingerprint service.
+	 * 
+	 * @param hashAlgorithm
+	 *            The hash algorithm.
+	 * @param keepInStore
+	 *            True to keep the hashes in the analysis store, false to keep
+	 *            them in memory only.
+	 */
+	public FileFingerprints(final Algorithm hashAlgorithm, final boolean keepInStore) {
+		algorithm = hashAlgorithm;
+		persistent = keepInStore;
+		fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+	}
+
+	/**
+	 * @return The hash algorithm.
+	 */
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Returns the hash of a file, from memory, the store or by reading the
+	 * file.
+	 * 
+	 * @param path
+	 *            The path of the file.
+	 * @return The hash as 16 hexadecimal digits, or null if the file can not
+	 *         be read.
+	 */
+	public String fingerprint(final String path) {
+		final File file = new File(path).getAbsoluteFile();
+		Fingerprint fingerprint = cached(file);
+		if (fingerprint == null) {
+			try {
+				fingerprint = calculate(file);
+				remember(file, fingerprint);
+			} catch (final IOException e) {
+				LOG.log(Level.WARNING, "Could not calculate the hash of " + file, e);
+			}
+		}
+		return fingerprint == null ? null : toHex(fingerprint.hash);
+	}
+
+	/**
+	 * Returns the hashes of several files. Files that are not known yet are
+	 * read and hashed concurrently.
+	 * 
+	 * @param paths
+	 *            The paths of the files.
+	 * @return The hash of each file in the order of the paths, null for files
+	 *         that can not be read.
+	 */
+	public List<String> fingerprints(final List<String> paths) {
+		final String[] hashes = new String[paths.size()];
+		final List<File> unknown = new ArrayList<File>();
+		final List<Integer> unknownIndexes = new ArrayList<Integer>();
+		for (int i = 0; i < paths.size(); i++) {
+			final File file = new File(paths.get(i)).getAbsoluteFile();
+			final Fingerprint fingerprint = cached(file);
+			if (fingerprint == null) {
+				unknown.add(file);
+				unknownIndexes.add(i);
+			} else {
+				hashes[i] = toHex(fingerprint.hash);
+			}
+		}
+		if (!unknown.isEmpty()) {
+			final int[] handled = new int[1];
+			final BatchProcessor<File, Fingerprint> processor = new BatchProcessor<File, Fingerprint>(
+					BatchProcessor.defaultNumberOfThreads());
+			processor.process(unknown, new BatchProcessor.Task<File, Fingerprint>() {
+				public Fingerprint process(final File file) throws IOException {
+					return calculate(file);
+				}
+			}, new BatchProcessor.ResultHandler<File, Fingerprint>() {
+				public void handleResult(final File file, final Fingerprint fingerprint) {
+					remember(file, fingerprint);
+					hashes[unknownIndexes.get(handled[0]++)] = toHex(fingerprint.hash);
+				}
+
+				public void handleFailure(final File file, final Exception exception) {
+					LOG.log(Level.WARNING, "Could not calculate the hash of " + file, exception);
+					handled[0]++;
+				}
+			});
+		}
+		return Arrays.asList(hashes);
+	}
+
+	private Fingerprint cached(final File file) {
+		final String path = file.getPath();
+		Fingerprint fingerprint = fingerprints.get(path);
+		if (fingerprint == null && persistent) {
+			final ByteBuffer stored = AnalysisStore.getInstance().get(Kind.FINGERPRINTS, key(path));
+			if (stored != null && stored.remaining() == STORED_SIZE) {
+				fingerprint = new Fingerprint(stored.getLong(), stored.getLong(), stored.getLong());
+			}
+		}
+		if (fingerprint != null && !fingerprint.matches(file)) {
+			fingerprint = null;
+		}
+		return fingerprint;
+	}
+
+	private void remember(final File file, final Fingerprint fingerprint) {
+		final String path = file.getPath();
+		fingerprints.put(path, fingerprint);
+		if (persistent) {
+			final ByteBuffer value = ByteBuffer.allocate(STORED_SIZE);
+			value.putLong(fingerprint.size).putLong(fingerprint.modified).putLong(fingerprint.hash).flip();
+			AnalysisStore.getInstance().put(Kind.FINGERPRINTS, key(path), value);
+		}
+	}
+
+	private String key(final String path) {
+		return AnalysisStore.key(algorithm.name().toLowerCase(Locale.ENGLISH), path);
+	}
+
+	/**
+	 * @param key
+	 *            A key of a {@link Kind#FINGERPRINTS} entry in the store.
+	 * @return The path of the file the entry belongs to.
+	 */
+	public static String path(final String key) {
+		return key.substring(key.indexOf('/') + 1);
+	}
+
+	private Fingerprint calculate(final File file) throws IOException {
+		// the size and time are read before the content: a file that changes
+		// while it is read gets a new hash the next time
+		final long size = file.length();
+		final long modified = file.lastModified();
+		final ByteBuffer prefix = readPrefix(file);
+		return new Fingerprint(size, modified, algorithm.hash(prefix, size));
+	}
+
+	/**
+	 * Reads the first {@value #PREFIX_SIZE} bytes of a file, or the complete
+	 * file if it is shorter.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @return A buffer owned by the calling thread, valid until the next call
+	 *         on the same thread, with the bytes from position to limit.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	static ByteBuffer readPrefix(final File file) throws IOException {
+		final ByteBuffer buffer = PREFIX_BUFFER.get();
+		buffer.clear();
+		final FileInputStream stream = new FileInputStream(file);
+		try {
+			final FileChannel channel = stream.getChannel();
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read up to the prefix size
+			}
+		} finally {
+			stream.close();
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @param bytes
+	 *            The bytes to digest, from position to limit.
+	 * @return The MD5 digest of the bytes.
+	 */
+	static byte[] md5(final ByteBuffer bytes) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("MD5");
+			digest.update(bytes.duplicate());
+			return digest.digest();
+		} catch (final NoSuchAlgorithmException e) {
+			final String message = "MD5 Algorithm not known, runtime outdated?";
+			LOG.severe(message);
+			throw new Error(message, e);
+		}
+	}
+
+	/**
+	 * @param bytes
+	 *            Bytes to convert.
+	 * @return Two lower case hexadecimal digits per byte.
+	 */
+	static String toHex(final byte[] bytes) {
+		final char[] digits = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			digits[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+			digits[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+		}
+		return new String(digits);
+	}
+
+	private static String toHex(final long hash) {
+		final char[] digits = new char[16];
+		for (int i = 0; i < 16; i++) {
+			digits[i] = HEX_DIGITS[(int) (hash >>> (60 - 4 * i)) & 0xF];
+		}
+		return new String(digits);
+	}
+
+	/**
+	 * The XXH64 hash, see https://github.com/Cyan4973/xxHash.
+	 * 
+	 * @param bytes
+	 *            The bytes to hash, from position to limit.
+	 * @param seed
+	 *            The seed.
+	 * @return The hash.
+	 */
+	static long xxHash64(final ByteBuffer bytes, final long seed) {
+		final ByteBuffer input = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		final int length = input.remaining();
+		long hash;
+		if (length >= 32) {
+			long v1 = seed + PRIME64_1 + PRIME64_2;
+			long v2 = seed + PRIME64_2;
+			long v3 = seed;
+			long v4 = seed - PRIME64_1;
+			while (input.remaining() >= 32) {
+				v1 = round(v1, input.getLong());
+				v2 = round(v2, input.getLong());
+				v3 = round(v3, input.getLong());
+				v4 = round(v4, input.getLong());
+			}
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+					+ Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else {
+			hash = seed + PRIME64_5;
+		}
+		hash += length;
+		while (input.remaining() >= 8) {
+			hash ^= round(0, input.getLong());
+			hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+		}
+		if (input.remaining() >= 4) {
+			hash ^= (input.getInt() & 0xFFFFFFFFL) * PRIME64_1;
+			hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+		}
+		while (input.hasRemaining()) {
+			hash ^= (input.get() & 0xFFL) * PRIME64_5;
+			hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+		}
+		hash ^= hash >>> 33;
+		hash *= PRIME64_2;
+		hash ^= hash >>> 29;
+		hash *= PRIME64_3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private static long round(final long accumulator, final long input) {
+		return Long.rotateLeft(accumulator + input * PRIME64_2, 31) * PRIME64_1;
+	}
+
+	private static long mergeRound(final long accumulator, final long value) {
+		return (accumulator ^ round(0, value)) * PRIME64_1 + PRIME64_4;
+	}
+}
@@ -42,11 +42,10 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.nio.channels.FileChannel;
 import java.security.CodeSource;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -61,6 +60,7 @@ import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteException;
 
 import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
 import be.tarsos.sampled.pitch.Pitch;
 import be.tarsos.sampled.pitch.PitchDetectionMode;
 import be.tarsos.sampled.pitch.PitchUnit;
@@ -97,16 +97,24 @@ public final class FileUtils {
 	 */
 	public static List<Annotation> parseTartiniPitchFile(final String fileName) {
 		final List<Annotation> samples = new ArrayList<Annotation>();
-		final String contents = FileUtils.readFile(fileName);
-		final String[] lines = contents.split("\n");
-		for (int i = 1; i < lines.length; i++) {
-			final String[] data = lines[i].split(" +");
-			final double time = Double.parseDouble(data[1]);
-			final double midiCents = Double.parseDouble(data[2]);
-			final Pitch pitch = Pitch.getInstance(PitchUnit.MIDI_CENT, midiCents);
-			final Annotation s = new Annotation(time, pitch.getPitch(PitchUnit.HERTZ),
-					PitchDetectionMode.TARSOS_MPM);
-			samples.add(s);
+		// The columns are aligned with spaces, the first field is empty.
+		try {
+			new CsvReader(" ", true).read(fileName, new CsvReader.RowHandler() {
+				public void handleRow(final CsvReader.Row row) {
+					// Skip the first line, the header.
+					if (row.getLineNumber() == 1) {
+						return;
+					}
+					final double time = row.getDouble(1);
+					final double midiCents = row.getDouble(2);
+					final Pitch pitch = Pitch.getInstance(PitchUnit.MIDI_CENT, midiCents);
+					final Annotation s = new Annotation(time, pitch.getPitch(PitchUnit.HERTZ),
+							PitchDetectionMode.TARSOS_MPM);
+					samples.add(s);
+				}
+			});
+		} catch (final IOException e) {
+			LOG.severe("Can't open file:" + fileName);
 		}
 		return samples;
 	}
@@ -121,12 +129,44 @@ public final class FileUtils {
 	}	
 
 	public static List<Annotation> readPitchAnnotations(final String fileName) {
-		final List<Annotation> annotations = new ArrayList<Annotation>();
-		final String contents = FileUtils.readFile(fileName);
-		final String[] lines = contents.split("\n");
-		// Skip the first line, the header.
-		for (int i = 1; i < lines.length; i++) {
-			annotations.add(Annotation.parse(lines[i]));
+		return readPitchAnnotations(fileName, new AnnotationBuffer()).toList();
+	}
+
+	/**
+	 * Reads annotations written by
+	 * {@link #writePitchAnnotations(String, List)} into columns, without an
+	 * object for each line. The format of the lines is the format
+	 * {@link Annotation#parse(String)} reads.
+	 * 
+	 * @param fileName
+	 *            The CSV file with a header.
+	 * @param annotations
+	 *            The buffer to add the annotations to.
+	 * @return The buffer.
+	 */
+	public static AnnotationBuffer readPitchAnnotations(final String fileName, final AnnotationBuffer annotations) {
+		try {
+			new CsvReader(",").read(fileName, new CsvReader.RowHandler() {
+				private PitchDetectionMode source;
+
+				public void handleRow(final CsvReader.Row row) {
+					// Skip the first line, the header.
+					if (row.getLineNumber() == 1) {
+						return;
+					}
+					PitchDetectionMode rowSource = PitchDetectionMode.TARSOS_FFT_YIN;
+					if (row.size() != 3) {
+						// the source is mostly the same on each line
+						if (source == null || !row.contentEquals(3, source.name())) {
+							source = PitchDetectionMode.valueOf(row.getString(3));
+						}
+						rowSource = source;
+					}
+					annotations.add(row.getDouble(0), row.getDouble(1), rowSource, row.getDouble(2));
+				}
+			});
+		} catch (final IOException e) {
+			LOG.severe("Can't open file:" + fileName);
 		}
 		return annotations;
 	}
@@ -184,28 +224,6 @@ public final class FileUtils {
 		return success;
 	}
 	
-	private static byte[] createChecksum(String filename,final int numberOfBytes)
-			throws NoSuchAlgorithmException, IOException {
-		InputStream fis = new FileInputStream(filename);
-		if(numberOfBytes%1024 != 0)
-			throw new IllegalArgumentException("Number of bytes should be dividable by 1024.");
-		byte[] buffer = new byte[1024];
-		MessageDigest complete = MessageDigest.getInstance("MD5");
-		int numRead;
-		//Alternative way to check correctness: head -c 262144 long.ogg | md5sum
-		int maxNumberOfBuffers = numberOfBytes/1024; 
-		int currentNumberOfBuffers = 0;
-		do {
-			numRead = fis.read(buffer);
-			if (numRead > 0) {
-				complete.update(buffer, 0, numRead);
-			}
-			currentNumberOfBuffers++;
-		} while (numRead != -1 && currentNumberOfBuffers < maxNumberOfBuffers);
-		fis.close();
-		return complete.digest();
-	}
-
 	/**
 	 * Calculate an MD5 checksum of <b>the first 256kB</b> of a file. The idea
 	 * is to get a unique hash for a file, quickly. A hash of the first 256kB is
@@ -217,6 +235,9 @@ public final class FileUtils {
 	 * 
 	 * <pre/>
 	 * 
+	 * Audio files are identified with the cached hashes of
+	 * {@link FileFingerprints}.
+	 * 
 	 * @param filename 
 	 * 		The absolute file name of a file used to calculate an md5 checksum of <b>the first 256kB</b> off.
 	 * @return An MD5 checksum of <b>the first 256kB</b> of a file.
@@ -224,15 +245,7 @@ public final class FileUtils {
 	public static String getMD5Checksum(String filename) {
 		String result = "";
 		try {
-			byte[] b;
-			b = createChecksum(filename,262144);
-			for (int i = 0; i < b.length; i++) {
-				result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
-			}
-		} catch (NoSuchAlgorithmException e) {
-			String message = "MD5 Algorithm not known, runtime outdated?";
-			LOG.severe(message);
-			throw new Error(message,e);
+			result = FileFingerprints.toHex(FileFingerprints.md5(FileFingerprints.readPrefix(new File(filename))));
 		} catch (IOException e) {
 			String message = "Exception while computing file md5 " + filename;
 			LOG.severe(message);
@@ -452,6 +465,17 @@ public final class FileUtils {
 			if (!file.exists()) {
 				throw new IllegalArgumentException("File '" + fileName + "' does not exist");
 			}
+			final CsvReader reader = csvReader(separator);
+			if (reader != null) {
+				reader.read(fileName, new CsvReader.RowHandler() {
+					public void handleRow(final CsvReader.Row row) {
+						checkRowLength(row.getLineNumber(), row.size(), expectedColumns);
+						data.add(row.toArray());
+					}
+				});
+				return data;
+			}
+			final Pattern pattern = Pattern.compile(separator);
 			fileReader = new FileReader(file);
 			final BufferedReader in = new BufferedReader(fileReader);
 			String inputLine;
@@ -459,14 +483,9 @@ public final class FileUtils {
 			inputLine = in.readLine();
 			while (inputLine != null) {
 				lineNumber++;
-				final String[] row = inputLine.split(separator);
-				if (expectedColumns == -1 || expectedColumns == row.length) {
-					data.add(row);
-				} else {
-					throw new AssertionError("Unexpected row length (line " + lineNumber + " ). "
-							+ "Expected:" + expectedColumns + " real " + row.length
-							+ ". CVS-file incorrectly formatted?");
-				}
+				final String[] row = pattern.split(inputLine);
+				checkRowLength(lineNumber, row.length, expectedColumns);
+				data.add(row);
 				inputLine = in.readLine();
 			}
 			in.close();
@@ -476,6 +495,76 @@ public final class FileUtils {
 		return data;
 	}
 
+	private static void checkRowLength(final int lineNumber, final int length, final int expectedColumns) {
+		if (expectedColumns != -1 && expectedColumns != length) {
+			throw new AssertionError("Unexpected row length (line " + lineNumber + " ). "
+					+ "Expected:" + expectedColumns + " real " + length
+					+ ". CVS-file incorrectly formatted?");
+		}
+	}
+
+	/**
+	 * Returns a reader that splits rows as the separator pattern does, for the
+	 * patterns used in Tarsos: a single character, a comma or a semicolon, or
+	 * white space.
+	 * 
+	 * @param separator
+	 *            A regular expression.
+	 * @return A reader or null if the pattern is not supported.
+	 */
+	private static CsvReader csvReader(final String separator) {
+		if (separator.length() == 1 && ".$|()[]{}^?*+\\".indexOf(separator.charAt(0)) == -1) {
+			return new CsvReader(separator);
+		} else if ("(,|;)".equals(separator) || "[,;]".equals(separator)) {
+			return new CsvReader(CsvReader.COMMA_OR_SEMICOLON);
+		} else if ("\\s+".equals(separator)) {
+			return new CsvReader(CsvReader.WHITESPACE, true);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads one numeric column of a CSV file. A first row that does not start
+	 * with a number is treated as a header and skipped.
+	 * 
+	 * @param fileName
+	 *            The CSV file.
+	 * @param separators
+	 *            The separator characters, e.g.
+	 *            {@link CsvReader#COMMA_OR_SEMICOLON}.
+	 * @param column
+	 *            The index of the column.
+	 * @return The values in the column.
+	 * @throws NumberFormatException
+	 *             If a value in the column is not a number.
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             If a row does not have the column.
+	 */
+	public static double[] readNumericColumn(final String fileName, final String separators, final int column) {
+		final double[][] values = { new double[1024] };
+		final int[] size = { 0 };
+		try {
+			new CsvReader(separators).read(fileName, new CsvReader.RowHandler() {
+				public void handleRow(final CsvReader.Row row) {
+					if (row.getLineNumber() == 1) {
+						try {
+							row.getDouble(0);
+						} catch (final NumberFormatException e) {
+							return;
+						}
+					}
+					if (size[0] == values[0].length) {
+						values[0] = Arrays.copyOf(values[0], size[0] * 2);
+					}
+					values[0][size[0]++] = row.getDouble(column);
+				}
+			});
+		} catch (final IOException e) {
+			LOG.severe("Can't open file:" + fileName);
+		}
+		return Arrays.copyOf(values[0], size[0]);
+	}
+
 	public interface RowFilter {
 		boolean acceptRow(String[] row);
 	}
@@ -0,0 +1,219 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+package be.tarsos.util;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
+import be.tarsos.sampled.pitch.PitchDetectionMode;
+import be.tarsos.sampled.pitch.TarsosPitchDetection;
+import be.tarsos.util.SignalPowerExtractor.PowerProcessor;
+import be.tarsos.util.SignalPowerExtractor.WaveFormDataAggregator;
+
+/**
+ * Analyses audio while it is transcoded. The decoded audio is written to the
+ * transcoded file and at the same time sent to the pitch detectors included in
+ * TarsosDSP, the power extractor and optionally a wave form aggregator. The
+ * results are identical to the ones calculated from the transcoded file but
+ * the audio is decoded and read only once.
+ * <p>
+ * Pitch annotations are cached in the {@link AnalysisStore} so a following
+ * {@link be.tarsos.sampled.pitch.CachingDetector#executePitchDetection()}
+ * reads them. Detectors that do not support streaming, e.g. the IPEM or
+ * external ones, and files that are already transcoded are analysed as usual
+ * afterwards.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class FusedAnalysis {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(FusedAnalysis.class.getName());
+
+	private final List<PitchDetectionMode> modes;
+	private final boolean extractPower;
+	private WaveFormDataAggregator waveFormDataAggregator;
+	private SignalPowerExtractor powerExtractor;
+
+	/**
+	 * Create a new fused analysis.
+	 * 
+	 * @param detectionModes
+	 *            The pitch detectors to execute while transcoding.
+	 * @param power
+	 *            True if the power should be extracted while transcoding.
+	 */
+	public FusedAnalysis(final List<PitchDetectionMode> detectionModes, final boolean power) {
+		modes = new ArrayList<PitchDetectionMode>(detectionModes);
+		extractPower = power;
+	}
+
+	/**
+	 * Sends the wave form to an aggregator during the next analysis.
+	 * 
+	 * @param aggregator
+	 *            The aggregator, or null.
+	 */
+	public void setWaveFormDataAggregator(final WaveFormDataAggregator aggregator) {
+		waveFormDataAggregator = aggregator;
+	}
+
+	/**
+	 * @return The power extractor of the last analysed file, or null if power
+	 *         is not extracted.
+	 */
+	public SignalPowerExtractor getPowerExtractor() {
+		return powerExtractor;
+	}
+
+	/**
+	 * Creates, and if needed transcodes, an audio file while analysing it.
+	 * 
+	 * @param filePath
+	 *            The file to analyse.
+	 * @return The audio file.
+	 */
+	public AudioFile analyse(final String filePath) {
+		final TarsosDSPAudioFormat format = AudioTranscoder.targetFormat();
+		final float sampleRate = format.getSampleRate();
+		final List<AudioProcessor> consumers = new ArrayList<AudioProcessor>();
+
+		// All TarsosDSP detectors share the buffer size and overlap, the
+		// results are cached under the same configuration.
+		final ConfigurationSnapshot configuration = Configuration.snapshot();
+		final int bufferSize = TarsosPitchDetection.bufferSize(configuration, sampleRate);
+		final RebufferingProcessor pitchBuffers = new RebufferingProcessor(format, bufferSize,
+				TarsosPitchDetection.overlap(configuration, bufferSize));
+		final Map<PitchDetectionMode, AnnotationBuffer> detected = new EnumMap<PitchDetectionMode, AnnotationBuffer>(
+				PitchDetectionMode.class);
+		final Map<PitchDetectionMode, GuardedProcessor> detectors = new EnumMap<PitchDetectionMode, GuardedProcessor>(
+				PitchDetectionMode.class);
+		for (final PitchDetectionMode mode : modes) {
+			if (TarsosPitchDetection.isSupported(mode) && !detected.containsKey(mode)) {
+				final AnnotationBuffer annotations = new AnnotationBuffer();
+				final GuardedProcessor detector = new GuardedProcessor(mode.getParametername(),
+						TarsosPitchDetection.createPitchProcessor(mode, sampleRate, annotations, configuration));
+				pitchBuffers.addAudioProcessor(detector);
+				detected.put(mode, annotations);
+				detectors.put(mode, detector);
+			}
+		}
+		if (!detected.isEmpty()) {
+			consumers.add(pitchBuffers);
+		}
+
+		GuardedProcessor power = null;
+		PowerProcessor powerProcessor = null;
+		if (extractPower || waveFormDataAggregator != null) {
+			final RebufferingProcessor powerBuffers = new RebufferingProcessor(format,
+					SignalPowerExtractor.windowSize(sampleRate), 0);
+			powerProcessor = new PowerProcessor(waveFormDataAggregator);
+			power = new GuardedProcessor("power", powerProcessor);
+			powerBuffers.addAudioProcessor(power);
+			consumers.add(powerBuffers);
+		}
+
+		// The wave form summary is cheap, it is always built while transcoding.
+		final WaveFormPyramid.Builder waveForm = new WaveFormPyramid.Builder(sampleRate);
+		final GuardedProcessor waveFormProcessor = new GuardedProcessor("wave form", waveForm);
+		consumers.add(waveFormProcessor);
+
+		final AudioFile audioFile = new AudioFile(filePath, consumers.toArray(new AudioProcessor[consumers.size()]));
+		// The consumers only received the complete audio if the file is
+		// transcoded now and successfully.
+		final boolean complete = audioFile.isTranscoded()
+				&& !AudioTranscoder.transcodingRequired(audioFile.transcodedPath());
+
+		for (final Map.Entry<PitchDetectionMode, AnnotationBuffer> entry : detected.entrySet()) {
+			if (complete && !detectors.get(entry.getKey()).failed) {
+				entry.getKey().getPitchDetector(audioFile).cacheAnnotations(entry.getValue(), configuration);
+			}
+		}
+
+		if (complete && !waveFormProcessor.failed) {
+			WaveFormPyramid.store(audioFile, waveForm.build());
+		}
+
+		powerExtractor = null;
+		if (extractPower || waveFormDataAggregator != null) {
+			final SignalPowerExtractor extractor = new SignalPowerExtractor(audioFile);
+			if (complete && !power.failed) {
+				extractor.setPower(powerProcessor);
+			} else if (waveFormDataAggregator != null) {
+				extractor.waveFormPlot(waveFormDataAggregator);
+			}
+			if (extractPower) {
+				powerExtractor = extractor;
+			}
+		}
+		LOG.fine(String.format("Analysed %s while transcoding: %s", audioFile.originalBasename(), complete));
+		return audioFile;
+	}
+
+	/**
+	 * Keeps a failing analysis from interrupting the transcoding: after an
+	 * exception the processor is skipped and the analysis is done again from
+	 * the transcoded file.
+	 */
+	private static final class GuardedProcessor implements AudioProcessor {
+		private final String name;
+		private final AudioProcessor processor;
+		private boolean failed;
+
+		private GuardedProcessor(final String processorName, final AudioProcessor audioProcessor) {
+			name = processorName;
+			processor = audioProcessor;
+		}
+
+		public boolean process(final AudioEvent audioEvent) {
+			if (!failed) {
+				try {
+					processor.process(audioEvent);
+				} catch (final RuntimeException e) {
+					failed = true;
+					LOG.log(Level.WARNING, "Analysis " + name + " failed while transcoding.", e);
+				}
+			}
+			return true;
+		}
+
+		public void processingFinished() {
+			if (!failed) {
+				processor.processingFinished();
+			}
+		}
+	}
+}
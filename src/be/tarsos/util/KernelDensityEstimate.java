@@ -27,6 +27,8 @@ package be.tarsos.util;
 
 import java.util.Arrays;
 
+import be.tarsos.util.CircularCorrelation.ShiftCorrelation;
+
 
 
 public class KernelDensityEstimate {
@@ -319,17 +321,36 @@ public class KernelDensityEstimate {
 	 *         correlation.
 	 */
 	public int shiftForOptimalCorrelation(final KernelDensityEstimate other) {
-		int optimalShift = 0; // displacement with best correlation
-		double maximumCorrelation = -1; // best found correlation
-
-		for (int shift = 0; shift < size(); shift++) {
-			final double currentCorrelation = correlation(other, shift);
-			if (maximumCorrelation < currentCorrelation) {
-				maximumCorrelation = currentCorrelation;
-				optimalShift = shift;
+		final ShiftCorrelation measure = new ShiftCorrelation() {
+			public double correlation(final int shift) {
+				return KernelDensityEstimate.this.correlation(other, shift);
 			}
+		};
+		final double biggestKDEArea = Math.max(getSumFreq(), other.getSumFreq());
+		if (other.size() != size() || biggestKDEArea <= 0) {
+			return CircularCorrelation.optimalShiftExhaustive(size(), measure);
 		}
-		return optimalShift;
+		return CircularCorrelation.optimalShiftBounded(matchingAreaUpperBound(other, biggestKDEArea),
+				matchingAreaTolerance(other, biggestKDEArea), measure);
+	}
+
+	/**
+	 * An upper bound of the matching area, divided by the biggest area, for
+	 * each shift of the other estimate: the matching area is at most the sum
+	 * of the square roots of the products.
+	 */
+	private double[] matchingAreaUpperBound(final KernelDensityEstimate other, final double biggestKDEArea) {
+		final double[] upperBound = CircularCorrelation.crossCorrelation(
+				CircularCorrelation.squareRoot(accumulator), CircularCorrelation.squareRoot(other.accumulator));
+		for (int i = 0; i < upperBound.length; i++) {
+			upperBound[i] = upperBound[i] / biggestKDEArea;
+		}
+		return upperBound;
+	}
+
+	private double matchingAreaTolerance(final KernelDensityEstimate other, final double biggestKDEArea) {
+		return CircularCorrelation.tolerance(CircularCorrelation.squareRoot(accumulator),
+				CircularCorrelation.squareRoot(other.accumulator)) / biggestKDEArea;
 	}
 	
 	
@@ -467,18 +488,38 @@ public class KernelDensityEstimate {
 	 *         correlation.
 	 */
 	public int shiftForOptimalCorrelation(final KDECorrelation correlationMeasure, final KernelDensityEstimate other) {
-		int optimalShift = 0; // displacement with best correlation
-		double maximumCorrelation = -1; // best found correlation
-
-		for (int shift = 0; shift < size(); shift++) {
-			final double currentCorrelation = correlationMeasure.correlation(this,other, shift);
-			if (maximumCorrelation < currentCorrelation) {
-				maximumCorrelation = currentCorrelation;
-				optimalShift = shift;
+		final ShiftCorrelation measure = new ShiftCorrelation() {
+			public double correlation(final int shift) {
+				return correlationMeasure.correlation(KernelDensityEstimate.this, other, shift);
 			}
+		};
+		final int optimalShift;
+		final double biggestKDEArea = Math.max(getSumFreq(), other.getSumFreq());
+		if (other.size() != size()) {
+			optimalShift = CircularCorrelation.optimalShiftExhaustive(size(), measure);
+		} else if (correlationMeasure instanceof Cosine) {
+			// The norms do not depend on the shift, only the inner product.
+			optimalShift = CircularCorrelation.optimalShift(
+					CircularCorrelation.crossCorrelation(accumulator, other.accumulator),
+					CircularCorrelation.tolerance(accumulator, other.accumulator), measure);
+		} else if (correlationMeasure instanceof Overlap && biggestKDEArea > 0 && nonNegative()
+				&& other.nonNegative()) {
+			optimalShift = CircularCorrelation.optimalShiftBounded(matchingAreaUpperBound(other, biggestKDEArea),
+					matchingAreaTolerance(other, biggestKDEArea), measure);
+		} else {
+			optimalShift = CircularCorrelation.optimalShiftExhaustive(size(), measure);
 		}
 		return optimalShift;
 	}
+
+	private boolean nonNegative() {
+		for (final double value : accumulator) {
+			if (value < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
 	
 	public static interface KDECorrelation{
 		public double correlation(KernelDensityEstimate first,KernelDensityEstimate other, int shift);
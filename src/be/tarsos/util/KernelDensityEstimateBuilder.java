@@ -0,0 +1,326 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import be.tarsos.util.KernelDensityEstimate.Kernel;
+
+/**
+ * Builds kernel density estimates for large numbers of values. Adding a
+ * kernel for each value costs O(n*k) for n values and a kernel of k bins.
+ * This builder counts the values in bins first, in O(n), and convolves the
+ * counts once with the kernel, in O(b*k) for b bins. The result equals the
+ * one of {@link KernelDensityEstimate#add(double)} up to rounding. Large
+ * arrays of values are counted in parallel partitions which are merged at
+ * the end.
+ * 
+ * @author Joren Six
+ */
+public final class KernelDensityEstimateBuilder {
+
+	/**
+	 * The minimum number of values counted by one partition.
+	 */
+	private static final int PARTITION_SIZE = 1 << 16;
+
+	private static ExecutorService binningExecutor;
+
+	private final Kernel kernel;
+	private final double[] kernelValues;
+
+	/**
+	 * The number of values for which the kernel starts at each bin.
+	 */
+	private final int[] counts;
+
+	/**
+	 * Creates a builder for a circular estimate, e.g. for pitch classes.
+	 * 
+	 * @param kernel
+	 *            The kernel to add for each value.
+	 * @param size
+	 *            The number of bins of the estimate.
+	 */
+	public KernelDensityEstimateBuilder(final Kernel kernel, final int size) {
+		if (kernel.size() > size) {
+			throw new IllegalArgumentException("The kernel size should be smaller than the acummulator size.");
+		}
+		this.kernel = kernel;
+		this.kernelValues = kernelValues(kernel);
+		this.counts = new int[size];
+	}
+
+	/**
+	 * Adds a value.
+	 * 
+	 * @param value
+	 *            The value to add.
+	 */
+	public void add(final double value) {
+		counts[bin(value)]++;
+	}
+
+	/**
+	 * Adds a number of values, in parallel for large numbers of values.
+	 * 
+	 * @param values
+	 *            The values to add.
+	 * @param length
+	 *            The number of values to add, starting from the first.
+	 */
+	public void add(final double[] values, final int length) {
+		final int[][] added = partitioned(length, new Partition() {
+			public int[][] count(final int from, final int to) {
+				final int[] partitionCounts = new int[counts.length];
+				for (int i = from; i < to; i++) {
+					partitionCounts[bin(values[i])]++;
+				}
+				return new int[][] { partitionCounts };
+			}
+		});
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += added[0][i];
+		}
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void clear() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+	}
+
+	/**
+	 * Convolves the counts with the kernel. The builder can still be used to
+	 * add values afterwards.
+	 * 
+	 * @return A new kernel density estimate for the values added so far.
+	 */
+	public KernelDensityEstimate build() {
+		final int size = counts.length;
+		final double[] accumulator = new double[size];
+		for (int start = 0; start < size; start++) {
+			if (counts[start] != 0) {
+				final double count = counts[start];
+				for (int j = 0; j < kernelValues.length; j++) {
+					int index = start + j;
+					if (index >= size) {
+						index -= size;
+					}
+					accumulator[index] += count * kernelValues[j];
+				}
+			}
+		}
+		return new KernelDensityEstimate(kernel, accumulator);
+	}
+
+	/**
+	 * The same start bin as {@link KernelDensityEstimate#add(double)}: the
+	 * kernel is centered on the value.
+	 */
+	private int bin(final double value) {
+		final int start = (int) (value + counts.length - kernelValues.length / 2);
+		return Math.floorMod(start, counts.length);
+	}
+
+	/**
+	 * Creates a linear accumulator: the kernel is not wrapped around. For
+	 * each value the kernel is added from <code>(int) (value - reach)</code>
+	 * up to, but not including, <code>(int) (value + reach)</code>, to the
+	 * bins above the minimum and below the maximum, as the pitch histogram
+	 * has always done.
+	 * 
+	 * @param kernel
+	 *            The kernel to add for each value.
+	 * @param reach
+	 *            The distance from the value to the last bin the kernel
+	 *            reaches.
+	 * @param values
+	 *            The values, e.g. pitch in absolute cents.
+	 * @param length
+	 *            The number of values to add, starting from the first.
+	 * @param minimum
+	 *            Bins up to and including the minimum are not accumulated.
+	 * @param maximum
+	 *            Bins from the maximum on are not accumulated.
+	 * @param accumulatorSize
+	 *            The size of the accumulator.
+	 * @return The accumulator.
+	 */
+	public static double[] linearAccumulator(final Kernel kernel, final double reach, final double[] values,
+			final int length, final int minimum, final int maximum, final int accumulatorSize) {
+		final double[] kernelValues = kernelValues(kernel);
+		// Kernels starting before the lowest bin do not reach above the minimum.
+		final int lowest = minimum + 1 - kernelValues.length;
+		final int range = Math.max(0, maximum - lowest);
+
+		// The number of kernel bins added depends on the truncation of the
+		// value, so values are counted per start bin and span.
+		final int[][] counts = partitioned(length, new Partition() {
+			public int[][] count(final int from, final int to) {
+				final int[][] partitionCounts = new int[kernelValues.length + 1][];
+				for (int i = from; i < to; i++) {
+					final int start = (int) (values[i] - reach);
+					final int span = Math.min((int) (values[i] + reach) - start, kernelValues.length);
+					if (span > 0 && start >= lowest && start < maximum) {
+						if (partitionCounts[span] == null) {
+							partitionCounts[span] = new int[range];
+						}
+						partitionCounts[span][start - lowest]++;
+					}
+				}
+				return partitionCounts;
+			}
+		});
+
+		final double[] accumulator = new double[accumulatorSize];
+		final int first = Math.max(minimum + 1, 0);
+		final int last = Math.min(maximum, accumulatorSize);
+		for (int span = 1; span < counts.length; span++) {
+			if (counts[span] != null) {
+				for (int offset = 0; offset < range; offset++) {
+					if (counts[span][offset] != 0) {
+						final double count = counts[span][offset];
+						final int start = offset + lowest;
+						final int from = Math.max(start, first);
+						final int to = Math.min(start + span, last);
+						for (int i = from; i < to; i++) {
+							accumulator[i] += count * kernelValues[i - start];
+						}
+					}
+				}
+			}
+		}
+		return accumulator;
+	}
+
+	private static double[] kernelValues(final Kernel kernel) {
+		final double[] values = new double[kernel.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = kernel.value(i);
+		}
+		return values;
+	}
+
+	/**
+	 * Counts the values of a partition of an array.
+	 */
+	private interface Partition {
+		/**
+		 * @param from
+		 *            The index of the first value of the partition.
+		 * @param to
+		 *            The index after the last value of the partition.
+		 * @return Rows of counts, rows may be null if nothing was counted.
+		 */
+		int[][] count(int from, int to);
+	}
+
+	/**
+	 * Counts the values in partitions on the binning executor and merges the
+	 * counts. The first partition is counted by the calling thread, which also
+	 * counts a partition itself when it is interrupted while waiting for it.
+	 */
+	private static int[][] partitioned(final int length, final Partition partition) {
+		final int partitions = (int) Math.min(Runtime.getRuntime().availableProcessors(),
+				(length + PARTITION_SIZE - 1L) / PARTITION_SIZE);
+		if (partitions <= 1) {
+			return partition.count(0, length);
+		}
+		final List<Future<int[][]>> futures = new ArrayList<Future<int[][]>>();
+		for (int p = 1; p < partitions; p++) {
+			final int from = partitionStart(length, partitions, p);
+			final int to = partitionStart(length, partitions, p + 1);
+			futures.add(getBinningExecutor().submit(new Callable<int[][]>() {
+				public int[][] call() {
+					return partition.count(from, to);
+				}
+			}));
+		}
+		final int[][] counts = partition.count(0, partitionStart(length, partitions, 1));
+		for (int p = 1; p < partitions; p++) {
+			final Future<int[][]> future = futures.get(p - 1);
+			int[][] partitionCounts;
+			try {
+				partitionCounts = future.get();
+			} catch (final InterruptedException e) {
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+				partitionCounts = partition.count(partitionStart(length, partitions, p),
+						partitionStart(length, partitions, p + 1));
+			} catch (final ExecutionException e) {
+				throw new IllegalStateException("Counting values failed.", e.getCause());
+			}
+			merge(counts, partitionCounts);
+		}
+		return counts;
+	}
+
+	private static int partitionStart(final int length, final int partitions, final int partition) {
+		return (int) ((long) length * partition / partitions);
+	}
+
+	private static void merge(final int[][] counts, final int[][] other) {
+		for (int row = 0; row < counts.length; row++) {
+			if (other[row] == null) {
+				continue;
+			}
+			if (counts[row] == null) {
+				counts[row] = other[row];
+			} else {
+				for (int i = 0; i < counts[row].length; i++) {
+					counts[row][i] += other[row][i];
+				}
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getBinningExecutor() {
+		if (binningExecutor == null) {
+			binningExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+						private int count;
+
+						public Thread newThread(final Runnable runnable) {
+							final Thread thread = new Thread(runnable, "kde-binning-" + count++);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return binningExecutor;
+	}
+}
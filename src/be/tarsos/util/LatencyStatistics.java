@@ -0,0 +1,128 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.util;
+
+import java.util.Arrays;
+
+/**
+ * Collects latencies, e.g. the time between capturing audio and publishing
+ * the annotations detected in it. The latencies are counted in bins of
+ * {@value #RESOLUTION_MS} milliseconds so percentiles are available without
+ * storing each measurement. Thread safe.
+ * 
+ * @author Joren Six
+ */
+public final class LatencyStatistics {
+
+	/**
+	 * The width of a bin in milliseconds.
+	 */
+	private static final double RESOLUTION_MS = 0.1;
+
+	/**
+	 * Latencies above this number of milliseconds are counted in the last bin.
+	 */
+	private static final double MAXIMUM_MS = 5000;
+
+	private final long[] counts = new long[(int) (MAXIMUM_MS / RESOLUTION_MS) + 1];
+	private long count;
+	private double sum;
+	private double maximum;
+
+	/**
+	 * Adds a measurement.
+	 * 
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 */
+	public synchronized void record(final long nanos) {
+		final double milliseconds = Math.max(0, nanos / 1000000.0);
+		final int bin = (int) Math.min(counts.length - 1, milliseconds / RESOLUTION_MS);
+		counts[bin]++;
+		count++;
+		sum += milliseconds;
+		maximum = Math.max(maximum, milliseconds);
+	}
+
+	/**
+	 * Removes all measurements.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		maximum = 0;
+	}
+
+	/**
+	 * @return The number of measurements.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The mean latency in milliseconds, zero without measurements.
+	 */
+	public synchronized double getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/**
+	 * @return The maximum latency in milliseconds.
+	 */
+	public synchronized double getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * @param percentile
+	 *            A percentile between 0 and 100.
+	 * @return The latency in milliseconds not exceeded by the percentile of
+	 *         the measurements, with a resolution of {@value #RESOLUTION_MS}
+	 *         milliseconds.
+	 */
+	public synchronized double getPercentile(final double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for (int bin = 0; bin < counts.length; bin++) {
+			seen += counts[bin];
+			if (seen >= rank && counts[bin] > 0) {
+				return Math.min(maximum, (bin + 1) * RESOLUTION_MS);
+			}
+		}
+		return maximum;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d measurements, mean %.1f ms, median %.1f ms, 95th percentile %.1f ms, maximum %.1f ms",
+				count, getMean(), getPercentile(50), getPercentile(95), maximum);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+package be.tarsos.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter;
+import be.tarsos.dsp.io.TarsosDSPAudioFormat;
+
+/**
+ * Cuts the audio passing through a dispatcher into buffers of another size and
+ * overlap. The buffers, time stamps and overlap of the events sent to the
+ * attached processors are exactly the ones an {@link be.tarsos.dsp.AudioDispatcher}
+ * with the same buffer size and overlap would produce when it reads the audio
+ * written by the dispatcher this processor is attached to: the first buffer is
+ * read completely, the following buffers are shifted by one step and the last
+ * buffer is padded with zeros.
+ * <p>
+ * It makes it possible to analyse audio with several buffer sizes while it is
+ * decoded only once.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class RebufferingProcessor implements AudioProcessor {
+
+	private final List<AudioProcessor> audioProcessors;
+	private final TarsosDSPAudioFloatConverter converter;
+	private final int frameSize;
+	private final int overlap;
+	private final int stepSize;
+
+	private final AudioEvent audioEvent;
+	private final float[] audioFloatBuffer;
+	/**
+	 * Incoming samples, converted from the bytes that are written.
+	 */
+	private float[] incoming;
+
+	/**
+	 * The number of samples in the buffer.
+	 */
+	private int filled;
+	private boolean isFirstBuffer;
+	private long bytesProcessed;
+
+	/**
+	 * Create a new processor that cuts audio in buffers.
+	 * 
+	 * @param format
+	 *            The format of the incoming audio.
+	 * @param bufferSize
+	 *            The size of the buffers sent to the attached processors, in
+	 *            samples.
+	 * @param bufferOverlap
+	 *            The overlap of the buffers, in samples.
+	 */
+	public RebufferingProcessor(final TarsosDSPAudioFormat format, final int bufferSize, final int bufferOverlap) {
+		if (bufferOverlap >= bufferSize || bufferOverlap < 0) {
+			throw new IllegalArgumentException("The overlap should be smaller than the buffer size and positive, is "
+					+ bufferOverlap);
+		}
+		audioProcessors = new ArrayList<AudioProcessor>();
+		converter = TarsosDSPAudioFloatConverter.getConverter(format);
+		frameSize = format.getFrameSize();
+		overlap = bufferOverlap;
+		stepSize = bufferSize - bufferOverlap;
+		audioFloatBuffer = new float[bufferSize];
+		incoming = new float[0];
+		audioEvent = new AudioEvent(format);
+		audioEvent.setFloatBuffer(audioFloatBuffer);
+		isFirstBuffer = true;
+	}
+
+	/**
+	 * Adds a processor to the chain, the processors are called in the order
+	 * they are added.
+	 * 
+	 * @param audioProcessor
+	 *            The processor to add.
+	 */
+	public void addAudioProcessor(final AudioProcessor audioProcessor) {
+		audioProcessors.add(audioProcessor);
+	}
+
+	public boolean process(final AudioEvent event) {
+		// Only the samples that are new in the incoming event are written,
+		// read them back from the bytes to get exactly what is written.
+		final byte[] bytes = event.getByteBuffer();
+		final int newSamples = event.getFloatBuffer().length - event.getOverlap();
+		if (incoming.length < newSamples) {
+			incoming = new float[newSamples];
+		}
+		converter.toFloatArray(bytes, event.getOverlap() * frameSize, incoming, 0, newSamples);
+		addSamples(incoming, 0, newSamples);
+		return true;
+	}
+
+	/**
+	 * Adds samples that follow the samples added before, e.g. samples read
+	 * directly from a file. Call {@link #processingFinished()} after the last
+	 * samples.
+	 * 
+	 * @param samples
+	 *            The array with the samples.
+	 * @param from
+	 *            The index of the first sample to add.
+	 * @param length
+	 *            The number of samples to add.
+	 */
+	public void addSamples(final float[] samples, final int from, final int length) {
+		int offset = from;
+		final int end = from + length;
+		while (offset < end) {
+			final int copied = Math.min(end - offset, audioFloatBuffer.length - filled);
+			System.arraycopy(samples, offset, audioFloatBuffer, filled, copied);
+			filled += copied;
+			offset += copied;
+			if (filled == audioFloatBuffer.length) {
+				dispatch();
+			}
+		}
+	}
+
+	public void processingFinished() {
+		if (isFirstBuffer && filled > 0) {
+			// A dispatcher only converts one step of an incomplete first
+			// buffer, the rest of the buffer remains zero.
+			zeroFrom(Math.min(filled, stepSize));
+			dispatch();
+		} else if (!isFirstBuffer && filled > overlap) {
+			zeroFrom(filled);
+			dispatch();
+		}
+		for (final AudioProcessor processor : audioProcessors) {
+			processor.processingFinished();
+		}
+	}
+
+	private void zeroFrom(final int index) {
+		for (int i = index; i < audioFloatBuffer.length; i++) {
+			audioFloatBuffer[i] = 0;
+		}
+	}
+
+	/**
+	 * Sends the buffer through the chain and shifts it one step.
+	 */
+	private void dispatch() {
+		audioEvent.setFloatBuffer(audioFloatBuffer);
+		audioEvent.setBytesProcessed(bytesProcessed);
+		audioEvent.setOverlap(isFirstBuffer ? 0 : overlap);
+		for (final AudioProcessor processor : audioProcessors) {
+			if (!processor.process(audioEvent)) {
+				break;
+			}
+		}
+		bytesProcessed += (isFirstBuffer ? audioFloatBuffer.length : stepSize) * frameSize;
+		isFirstBuffer = false;
+		System.arraycopy(audioFloatBuffer, stepSize, audioFloatBuffer, 0, overlap);
+		filled = overlap;
+	}
+}
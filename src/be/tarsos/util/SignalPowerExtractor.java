@@ -26,8 +26,8 @@
 package be.tarsos.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,7 +39,7 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import be.tarsos.dsp.AudioDispatcher;
 import be.tarsos.dsp.AudioEvent;
 import be.tarsos.dsp.AudioProcessor;
-import be.tarsos.dsp.io.jvm.AudioDispatcherFactory;
+import be.tarsos.sampled.MappedPcmSource;
 
 
 /**
@@ -121,17 +121,51 @@ public final class SignalPowerExtractor {
 	 *                end of the song.
 	 */
 	public double powerAt(final double seconds, final boolean relative) {
-		if (linearPowerArray == null) {
+		final double power;
+		if (linearPowerArray != null) {
+			power = linearPowerArray[secondsToIndex(seconds)];
+		} else if (!relative) {
+			// only the window at the given time is needed, the min and max
+			// are not.
+			power = windowPower(secondsToIndex(seconds));
+		} else {
 			extractPower();
+			power = linearPowerArray[secondsToIndex(seconds)];
 		}
-		double power = linearPowerArray[secondsToIndex(seconds)];
-		if (relative) {
-			final double powerDifference = maxLinearPower - minLinearPower;
-			power = (power - minLinearPower) / powerDifference;
-		} else {
-			power = linearToDecibel(power);
+		return relative ? relativePower(power) : linearToDecibel(power);
+	}
+
+	private double relativePower(final double power) {
+		final double powerDifference = maxLinearPower - minLinearPower;
+		return (power - minLinearPower) / powerDifference;
+	}
+
+	/**
+	 * Calculates the power of one window by reading it directly from the
+	 * mapped transcoded file.
+	 * 
+	 * @param index
+	 *            The index of the window.
+	 * @return The power of the window, as stored in the power array.
+	 */
+	private double windowPower(final int index) {
+		if (index < 0 || index > secondsToIndex(audioLengtInSecs)) {
+			throw new IndexOutOfBoundsException("No power window at index " + index);
 		}
-		return power;
+		final int windowSize = windowSize((float) sampleRate);
+		try {
+			final MappedPcmSource source = audioFile.pcmSource();
+			final float[] window = new float[windowSize * source.getFormat().getChannels()];
+			source.read((long) index * windowSize, window, 0, windowSize);
+			return soundPressureLevel(window);
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
+		} catch (final IOException e) {
+			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
+		}
+		// fall back on a complete extraction
+		extractPower();
+		return linearPowerArray[index];
 	}
 
 	/**
@@ -146,45 +180,81 @@ public final class SignalPowerExtractor {
 	 * max linear power.
 	 */
 	private void extractPower() {
-		final File inputFile = new File(audioFile.transcodedPath());
-		AudioInputStream ais = null;
 		try {
-			ais = AudioSystem.getAudioInputStream(inputFile);
-			final int readAmount = (int) (readWindow * sampleRate);
-			AudioDispatcher adp  = AudioDispatcherFactory.fromFile(inputFile, readAmount, 0);
-
-			linearPowerArray = new double[secondsToIndex(audioLengtInSecs) + 1];
-			
-			adp.addAudioProcessor(new AudioProcessor() {
-				int index = 0;
-				@Override
-				public void processingFinished() {
-					// TODO Auto-generated method stub
-					
-				}
-				
-				@Override
-				public boolean process(AudioEvent audioEvent) {
-					double power = audioEvent.getdBSPL();
-					minLinearPower = Math.min(power, minLinearPower);
-					maxLinearPower = Math.max(power, maxLinearPower);
-					linearPowerArray[index] = power;
-					index++;
-					return true;
-				}
-			});
+			final PowerProcessor powerProcessor = new PowerProcessor(null);
+			final MappedPcmSource source = audioFile.pcmSource();
+			AudioDispatcher adp = new AudioDispatcher(source.createInputStream(0), windowSize((float) sampleRate), 0);
+			adp.addAudioProcessor(powerProcessor);
+			adp.run();
+			setPower(powerProcessor);
 		} catch (final UnsupportedAudioFileException e) {
 			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
 		} catch (final IOException e) {
 			LOG.log(Level.SEVERE, e.getLocalizedMessage(), e);
-		} finally {
-			try {
-				ais.close();
-			} catch (final IOException e) {
-				LOG.log(Level.SEVERE, "Failed to close audio input stream.", e);
-			} catch (final NullPointerException e) {
-				LOG.log(Level.SEVERE, "Failed to initialize audio input stream.", e);
+		}
+	}
+
+	/**
+	 * Uses the power values calculated by a processor, e.g. while the audio
+	 * was transcoded.
+	 * 
+	 * @param powerProcessor
+	 *            A processor that received windows of
+	 *            {@link #windowSize(float)} samples.
+	 */
+	void setPower(final PowerProcessor powerProcessor) {
+		linearPowerArray = new double[secondsToIndex(audioLengtInSecs) + 1];
+		System.arraycopy(powerProcessor.power, 0, linearPowerArray, 0,
+				Math.min(powerProcessor.count, linearPowerArray.length));
+		minLinearPower = powerProcessor.min;
+		maxLinearPower = powerProcessor.max;
+	}
+
+	/**
+	 * @param sampleRate
+	 *            The sample rate of the audio.
+	 * @return The number of samples in a window for which power is calculated.
+	 */
+	static int windowSize(final float sampleRate) {
+		return (int) (1.0 / POWER_SAMPLE_RATE * sampleRate);
+	}
+
+	/**
+	 * Calculates the power of each window of audio it receives, and optionally
+	 * sends the first sample of each window to a wave form aggregator.
+	 */
+	static final class PowerProcessor implements AudioProcessor {
+		private final WaveFormDataAggregator aggregator;
+		private double[] power = new double[1024];
+		private int count;
+		private double min = Double.MAX_VALUE;
+		private double max = -Double.MAX_VALUE;
+
+		/**
+		 * @param waveFormDataAggregator
+		 *            Receives the wave form, or null.
+		 */
+		PowerProcessor(final WaveFormDataAggregator waveFormDataAggregator) {
+			aggregator = waveFormDataAggregator;
+		}
+
+		public boolean process(final AudioEvent audioEvent) {
+			final double value = audioEvent.getdBSPL();
+			min = Math.min(value, min);
+			max = Math.max(value, max);
+			if (count == power.length) {
+				power = Arrays.copyOf(power, count * 2);
 			}
+			power[count++] = value;
+			if (aggregator != null) {
+				final float[] buffer = audioEvent.getFloatBuffer();
+				final double seconds = audioEvent.getTimeStamp() + buffer.length / audioEvent.getSampleRate();
+				aggregator.addDataPoint(seconds, buffer[0]);
+			}
+			return true;
+		}
+
+		public void processingFinished() {
 		}
 	}
 
@@ -196,50 +266,19 @@ public final class SignalPowerExtractor {
 	 *            The aggregator to save to.
 	 */
 	public void waveFormPlot(WaveFormDataAggregator aggregator) {
-		FileInputStream file = null;
 		try {
-			final File inputFile = new File(audioFile.transcodedPath());
-			file = new FileInputStream(inputFile);
-			final double timeFactor = 1.0 / (frameSize * frameRate);
-
-			// TODO This method expects the file to be a WAV
-			// Skip WAV header (44 bytes, fixed length).
-			for (int i = 0; i < 44; i++) {
-				file.read();
-			}
-
-			int intByte;
-			int index = 0;
-			// read a window at a time (in bytes)
-			int bufferSize = (int) (readWindow / timeFactor);
-			// make buffer size even so byteBuffer[0] and 1 are correctly
-			// aligned.
-			if (bufferSize % 2 != 0) {
-				bufferSize++;
-			}
-			final byte[] byteBuffer = new byte[bufferSize];
-			intByte = file.read(byteBuffer);
-			index = bufferSize;
-
-			// TODO This method expects the file to be a WAV with 16 as bit
-			// depth
-			while (intByte != -1) {
-				final double seconds = index * timeFactor;
-				final double power = (byteBuffer[0] << 8 | byteBuffer[1] & 0xFF) / 32767.0;
-				aggregator.addDataPoint(seconds, power);
-				index += bufferSize;
-				intByte = file.read(byteBuffer);
+			final MappedPcmSource source = audioFile.pcmSource();
+			// only the first sample of each window is read
+			final long windowFrames = Math.max(1, Math.round(readWindow * frameRate));
+			final long frameLength = source.getFrameLength();
+			for (long frame = 0; frame < frameLength; frame += windowFrames) {
+				final double seconds = (frame + windowFrames) / frameRate;
+				aggregator.addDataPoint(seconds, source.sample(frame));
 			}
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.log(Level.SEVERE, "Failed to read audio file.", e);
 		} catch (final IOException e) {
-			LOG.log(Level.SEVERE, "Failed to write audio file.", e);
-		} finally {
-			try {
-				file.close();
-			} catch (final IOException e) {
-				LOG.log(Level.SEVERE, "Failed to close audio file.", e);
-			} catch (final NullPointerException e) {
-				LOG.log(Level.SEVERE, "Failed to initialize audio file stream.", e);
-			}
+			LOG.log(Level.SEVERE, "Failed to read audio file.", e);
 		}
 	}
 
@@ -322,6 +361,6 @@ public final class SignalPowerExtractor {
 	}
 
 	public static boolean isSilence(final float[] buffer) {
-		return SignalPowerExtractor.isSilence(buffer, Configuration.getDouble(ConfKey.silence_threshold));
+		return SignalPowerExtractor.isSilence(buffer, Configuration.snapshot().getSilenceThreshold());
 	}
 }
@@ -0,0 +1,492 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+
+
+package be.tarsos.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.dsp.AudioEvent;
+import be.tarsos.dsp.AudioProcessor;
+import be.tarsos.sampled.MappedPcmSource;
+import be.tarsos.util.AnalysisStore.Kind;
+
+/**
+ * Summaries of a wave form at power-of-two resolutions. The finest level
+ * stores the minimum, maximum and RMS of each bin of {@value #BASE_BIN_SIZE}
+ * frames, each next level combines two bins of the previous one. A view of
+ * any width and zoom level is drawn from the coarsest level that still has a
+ * bin per pixel, so drawing takes time proportional to the number of pixels
+ * and peaks are never skipped.
+ * 
+ * <p>
+ * The finest level is built once, while transcoding with a {@link Builder}
+ * or from the transcoded file, and kept in the {@link AnalysisStore}. The
+ * other levels are derived when the pyramid is loaded.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class WaveFormPyramid {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(WaveFormPyramid.class.getName());
+
+	/**
+	 * The number of frames in a bin of the finest level.
+	 */
+	public static final int BASE_BIN_SIZE = 256;
+
+	/**
+	 * Identifies the encoded format, "TWF1".
+	 */
+	private static final int MAGIC = 0x54574631;
+
+	/**
+	 * The number of pyramids kept in memory, e.g. for the wave form views of
+	 * the current file.
+	 */
+	private static final int CACHED_PYRAMIDS = 4;
+
+	private static final Map<String, WaveFormPyramid> CACHE = new LinkedHashMap<String, WaveFormPyramid>(8, 0.75f,
+			true) {
+		private static final long serialVersionUID = -2467402373524936046L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, WaveFormPyramid> eldest) {
+			return size() > CACHED_PYRAMIDS;
+		}
+	};
+
+	private final float sampleRate;
+	private final long frameLength;
+	private final short[][] minimum;
+	private final short[][] maximum;
+	private final short[][] rms;
+
+	/**
+	 * The samples for views finer than the finest level, or null.
+	 */
+	private final MappedPcmSource source;
+
+	private WaveFormPyramid(final float sampleRate, final long frameLength, final short[] baseMinimum,
+			final short[] baseMaximum, final short[] baseRms, final MappedPcmSource source) {
+		this.sampleRate = sampleRate;
+		this.frameLength = frameLength;
+		this.source = source;
+		int levels = 1;
+		for (int bins = baseMinimum.length; bins > 1; bins = (bins + 1) / 2) {
+			levels++;
+		}
+		minimum = new short[levels][];
+		maximum = new short[levels][];
+		rms = new short[levels][];
+		minimum[0] = baseMinimum;
+		maximum[0] = baseMaximum;
+		rms[0] = baseRms;
+		for (int level = 1; level < levels; level++) {
+			final short[] finerMinimum = minimum[level - 1];
+			final short[] finerMaximum = maximum[level - 1];
+			final short[] finerRms = rms[level - 1];
+			final int bins = (finerMinimum.length + 1) / 2;
+			minimum[level] = new short[bins];
+			maximum[level] = new short[bins];
+			rms[level] = new short[bins];
+			for (int bin = 0; bin < bins; bin++) {
+				final int first = 2 * bin;
+				final int second = Math.min(first + 1, finerMinimum.length - 1);
+				minimum[level][bin] = (short) Math.min(finerMinimum[first], finerMinimum[second]);
+				maximum[level][bin] = (short) Math.max(finerMaximum[first], finerMaximum[second]);
+				final double squares = (double) finerRms[first] * finerRms[first] + (double) finerRms[second]
+						* finerRms[second];
+				rms[level][bin] = (short) Math.round(Math.sqrt(squares / 2));
+			}
+		}
+	}
+
+	/**
+	 * Returns the pyramid of the transcoded audio of a file. The pyramid is
+	 * taken from memory or the analysis store, or built from the transcoded
+	 * file and stored.
+	 * 
+	 * @param audioFile
+	 *            The audio file.
+	 * @return The pyramid, or null if the transcoded audio can not be read.
+	 */
+	public static WaveFormPyramid forFile(final AudioFile audioFile) {
+		final String key = key(audioFile);
+		synchronized (CACHE) {
+			final WaveFormPyramid cached = CACHE.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		WaveFormPyramid pyramid = null;
+		try {
+			final MappedPcmSource pcmSource = audioFile.pcmSource();
+			final ByteBuffer stored = AnalysisStore.getInstance().get(Kind.WAVE_FORMS, key);
+			if (stored != null) {
+				pyramid = decode(stored, pcmSource);
+			}
+			if (pyramid == null) {
+				final StopWatch watch = new StopWatch();
+				pyramid = build(pcmSource);
+				AnalysisStore.getInstance().put(Kind.WAVE_FORMS, key, pyramid.encode());
+				LOG.fine(String.format("Built wave form pyramid for %s in %s.", audioFile.originalBasename(),
+						watch.formattedToString()));
+			}
+		} catch (final UnsupportedAudioFileException e) {
+			LOG.log(Level.WARNING, "Could not read the transcoded audio of " + audioFile.originalBasename(), e);
+			return null;
+		} catch (final IOException e) {
+			LOG.log(Level.WARNING, "Could not read the transcoded audio of " + audioFile.originalBasename(), e);
+			return null;
+		}
+		synchronized (CACHE) {
+			CACHE.put(key, pyramid);
+		}
+		return pyramid;
+	}
+
+	/**
+	 * Stores a pyramid built while transcoding.
+	 * 
+	 * @param audioFile
+	 *            The transcoded audio file.
+	 * @param pyramid
+	 *            The pyramid of the transcoded audio.
+	 */
+	public static void store(final AudioFile audioFile, final WaveFormPyramid pyramid) {
+		final String key = key(audioFile);
+		AnalysisStore.getInstance().put(Kind.WAVE_FORMS, key, pyramid.encode());
+		synchronized (CACHE) {
+			CACHE.remove(key);
+		}
+	}
+
+	private static String key(final AudioFile audioFile) {
+		return AnalysisStore.key(audioFile.contentHash(), "wave_form", BASE_BIN_SIZE);
+	}
+
+	/**
+	 * Builds a pyramid from the first channel of mapped audio.
+	 * 
+	 * @param pcmSource
+	 *            The audio.
+	 * @return A new pyramid.
+	 */
+	public static WaveFormPyramid build(final MappedPcmSource pcmSource) {
+		final int channels = pcmSource.getFormat().getChannels();
+		final Builder builder = new Builder(pcmSource.getFormat().getSampleRate());
+		final int blockFrames = BASE_BIN_SIZE * 64;
+		final float[] block = new float[blockFrames * channels];
+		long frame = 0;
+		int read = pcmSource.read(frame, block, 0, blockFrames);
+		while (read > 0) {
+			for (int i = 0; i < read; i++) {
+				builder.add(block[i * channels]);
+			}
+			frame += read;
+			read = pcmSource.read(frame, block, 0, blockFrames);
+		}
+		return builder.build(pcmSource);
+	}
+
+	/**
+	 * @return The pyramid in the format kept in the analysis store.
+	 */
+	ByteBuffer encode() {
+		final int bins = minimum[0].length;
+		final ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 8 + 4 + 4 + bins * 6);
+		buffer.putInt(MAGIC);
+		buffer.putFloat(sampleRate);
+		buffer.putLong(frameLength);
+		buffer.putInt(BASE_BIN_SIZE);
+		buffer.putInt(bins);
+		buffer.asShortBuffer().put(minimum[0]);
+		buffer.position(buffer.position() + bins * 2);
+		buffer.asShortBuffer().put(maximum[0]);
+		buffer.position(buffer.position() + bins * 2);
+		buffer.asShortBuffer().put(rms[0]);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Reads an encoded pyramid.
+	 * 
+	 * @return The pyramid, or null if the buffer does not contain a pyramid
+	 *         with the current bin size.
+	 */
+	private static WaveFormPyramid decode(final ByteBuffer buffer, final MappedPcmSource pcmSource) {
+		if (buffer.remaining() < 24 || buffer.getInt() != MAGIC) {
+			return null;
+		}
+		final float sampleRate = buffer.getFloat();
+		final long frameLength = buffer.getLong();
+		final int binSize = buffer.getInt();
+		final int bins = buffer.getInt();
+		if (binSize != BASE_BIN_SIZE || bins <= 0 || buffer.remaining() != bins * 6) {
+			return null;
+		}
+		final short[] baseMinimum = new short[bins];
+		final short[] baseMaximum = new short[bins];
+		final short[] baseRms = new short[bins];
+		buffer.asShortBuffer().get(baseMinimum);
+		buffer.position(buffer.position() + bins * 2);
+		buffer.asShortBuffer().get(baseMaximum);
+		buffer.position(buffer.position() + bins * 2);
+		buffer.asShortBuffer().get(baseRms);
+		return new WaveFormPyramid(sampleRate, frameLength, baseMinimum, baseMaximum, baseRms, pcmSource);
+	}
+
+	/**
+	 * @return The sample rate of the summarised audio.
+	 */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return The number of summarised frames.
+	 */
+	public long getFrameLength() {
+		return frameLength;
+	}
+
+	/**
+	 * @return The duration of the summarised audio in seconds.
+	 */
+	public double getDurationInSeconds() {
+		return frameLength / sampleRate;
+	}
+
+	/**
+	 * @return The number of levels, the coarsest level has one bin.
+	 */
+	public int getLevels() {
+		return minimum.length;
+	}
+
+	/**
+	 * Summarises a time span in a number of pixels. Each pixel receives the
+	 * minimum, maximum and RMS of the samples it covers. Pixels outside the
+	 * audio are zero.
+	 * 
+	 * @param startTime
+	 *            The time at the left side of the first pixel, in seconds.
+	 * @param stopTime
+	 *            The time at the right side of the last pixel, in seconds.
+	 * @param minima
+	 *            Receives the minimum of each pixel, its length is the number
+	 *            of pixels.
+	 * @param maxima
+	 *            Receives the maximum of each pixel.
+	 * @param rmsValues
+	 *            Receives the RMS of each pixel.
+	 */
+	public void summarize(final double startTime, final double stopTime, final float[] minima,
+			final float[] maxima, final float[] rmsValues) {
+		final int pixels = minima.length;
+		final double framesPerPixel = (stopTime - startTime) * sampleRate / pixels;
+		final double startFrame = startTime * sampleRate;
+		if (framesPerPixel < BASE_BIN_SIZE && source != null) {
+			summarizeSamples(startFrame, framesPerPixel, minima, maxima, rmsValues);
+			return;
+		}
+		// the coarsest level with at least one bin per pixel
+		int level = 0;
+		while (level + 1 < minimum.length && (long) BASE_BIN_SIZE << (level + 1) <= framesPerPixel) {
+			level++;
+		}
+		final long binSize = (long) BASE_BIN_SIZE << level;
+		final short[] levelMinimum = minimum[level];
+		final short[] levelMaximum = maximum[level];
+		final short[] levelRms = rms[level];
+		for (int pixel = 0; pixel < pixels; pixel++) {
+			final double from = startFrame + pixel * framesPerPixel;
+			final double to = from + framesPerPixel;
+			final long firstBin = Math.max(0, (long) Math.floor(from / binSize));
+			final long lastBin = Math.min(levelMinimum.length, (long) Math.ceil(to / binSize));
+			if (from >= frameLength || to <= 0 || firstBin >= lastBin) {
+				minima[pixel] = 0;
+				maxima[pixel] = 0;
+				rmsValues[pixel] = 0;
+				continue;
+			}
+			int min = Short.MAX_VALUE;
+			int max = Short.MIN_VALUE;
+			double squares = 0;
+			for (int bin = (int) firstBin; bin < lastBin; bin++) {
+				min = Math.min(min, levelMinimum[bin]);
+				max = Math.max(max, levelMaximum[bin]);
+				squares += (double) levelRms[bin] * levelRms[bin];
+			}
+			minima[pixel] = min / 32767.0f;
+			maxima[pixel] = max / 32767.0f;
+			rmsValues[pixel] = (float) (Math.sqrt(squares / (lastBin - firstBin)) / 32767.0);
+		}
+	}
+
+	/**
+	 * Summarises pixels of less than a bin directly from the samples.
+	 */
+	private void summarizeSamples(final double startFrame, final double framesPerPixel, final float[] minima,
+			final float[] maxima, final float[] rmsValues) {
+		final int channels = source.getFormat().getChannels();
+		float[] samples = new float[0];
+		for (int pixel = 0; pixel < minima.length; pixel++) {
+			final long from = Math.max(0, (long) Math.floor(startFrame + pixel * framesPerPixel));
+			final long to = Math.min(frameLength, (long) Math.ceil(startFrame + (pixel + 1) * framesPerPixel));
+			final int frames = (int) Math.max(0, to - from);
+			if (samples.length < frames * channels) {
+				samples = new float[frames * channels];
+			}
+			final int read = frames == 0 ? 0 : source.read(from, samples, 0, frames);
+			if (read == 0) {
+				minima[pixel] = 0;
+				maxima[pixel] = 0;
+				rmsValues[pixel] = 0;
+				continue;
+			}
+			float min = Float.MAX_VALUE;
+			float max = -Float.MAX_VALUE;
+			double squares = 0;
+			for (int i = 0; i < read; i++) {
+				final float sample = samples[i * channels];
+				min = Math.min(min, sample);
+				max = Math.max(max, sample);
+				squares += sample * sample;
+			}
+			minima[pixel] = min;
+			maxima[pixel] = max;
+			rmsValues[pixel] = (float) Math.sqrt(squares / read);
+		}
+	}
+
+	/**
+	 * Builds the finest level of a pyramid from consecutive buffers of mono
+	 * audio, e.g. while the audio is transcoded.
+	 */
+	public static final class Builder implements AudioProcessor {
+		private final float sampleRate;
+		private short[] minimum = new short[1024];
+		private short[] maximum = new short[1024];
+		private short[] rms = new short[1024];
+		private int bins;
+		private long frames;
+
+		private float binMinimum = Float.MAX_VALUE;
+		private float binMaximum = -Float.MAX_VALUE;
+		private double binSquares;
+		private int binFrames;
+
+		/**
+		 * @param sampleRate
+		 *            The sample rate of the audio.
+		 */
+		public Builder(final float sampleRate) {
+			this.sampleRate = sampleRate;
+		}
+
+		public boolean process(final AudioEvent audioEvent) {
+			final float[] buffer = audioEvent.getFloatBuffer();
+			// overlapping samples were added with the previous buffer
+			final int first = frames == 0 ? 0 : audioEvent.getOverlap();
+			for (int i = first; i < buffer.length; i++) {
+				add(buffer[i]);
+			}
+			return true;
+		}
+
+		public void processingFinished() {
+		}
+
+		private void add(final float sample) {
+			binMinimum = Math.min(binMinimum, sample);
+			binMaximum = Math.max(binMaximum, sample);
+			binSquares += sample * sample;
+			binFrames++;
+			frames++;
+			if (binFrames == BASE_BIN_SIZE) {
+				finishBin();
+			}
+		}
+
+		private void finishBin() {
+			if (bins == minimum.length) {
+				minimum = Arrays.copyOf(minimum, bins * 2);
+				maximum = Arrays.copyOf(maximum, bins * 2);
+				rms = Arrays.copyOf(rms, bins * 2);
+			}
+			minimum[bins] = quantize(binMinimum);
+			maximum[bins] = quantize(binMaximum);
+			rms[bins] = quantize((float) Math.sqrt(binSquares / binFrames));
+			bins++;
+			binMinimum = Float.MAX_VALUE;
+			binMaximum = -Float.MAX_VALUE;
+			binSquares = 0;
+			binFrames = 0;
+		}
+
+		private static short quantize(final float value) {
+			return (short) Math.round(Math.max(-1.0f, Math.min(1.0f, value)) * 32767.0f);
+		}
+
+		/**
+		 * Builds a pyramid of the audio received so far.
+		 * 
+		 * @return A new pyramid.
+		 */
+		public WaveFormPyramid build() {
+			return build(null);
+		}
+
+		private WaveFormPyramid build(final MappedPcmSource pcmSource) {
+			if (binFrames > 0 || bins == 0) {
+				if (binFrames == 0) {
+					// an empty pyramid has one silent bin
+					binMinimum = 0;
+					binMaximum = 0;
+					binFrames = 1;
+				}
+				finishBin();
+			}
+			return new WaveFormPyramid(sampleRate, frames, Arrays.copyOf(minimum, bins),
+					Arrays.copyOf(maximum, bins), Arrays.copyOf(rms, bins), pcmSource);
+		}
+	}
+}
@@ -26,15 +26,18 @@
 package be.tarsos.util.histogram;
 
 import java.text.NumberFormat;
-import java.util.ArrayList;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.apache.commons.math.stat.StatUtils;
 
+import be.tarsos.util.CircularCorrelation;
+import be.tarsos.util.CircularCorrelation.ShiftCorrelation;
 import be.tarsos.util.FileUtils;
 
 /**
@@ -45,10 +48,10 @@ import be.tarsos.util.FileUtils;
  * {[0,1[;[1,2[;[2,3[;[3,4];[4,5[} with [0,1[ meaning the interval between 0
  * inclusive and 1 exclusive.
  * <p>
- * The histogram uses a red and black tree as underlying structure: Search,
- * insert and delete are O(LOG n). The tree keeps the keys in order and makes
- * iteration (in order) easy. Optimization is possible by replacing the tree
- * with arrays.
+ * The histogram uses two arrays as underlying structure: one with the keys
+ * and one with the count for each class. A value is mapped to the index of
+ * its class with a single calculation, so search and update are O(1). The
+ * keys are kept in order, which makes iteration (in order) easy.
  * </p>
  * <p>
  * The histogram uses doubles as key values. Java doubles are prone to rounding
@@ -73,11 +76,19 @@ public class Histogram implements Cloneable {
 	 */
 	private final int numberOfClasses;
 	/**
-	 * A red black tree backing the frequency table, easy to iterate (in order)
-	 * TODO Optimization: serious optimization possible by using a plain array
-	 * (or two).
+	 * The keys (class middles) in order. The key for class i is stored at
+	 * index i.
 	 */
-	private final TreeMap<Double, Long> freqTable;
+	private final double[] keys;
+	/**
+	 * The frequency table: the count for class i is stored at index i. Not
+	 * final because a clone needs its own copy.
+	 */
+	private long[] counts;
+	/**
+	 * A read only, ordered view on the keys.
+	 */
+	private final Set<Double> keySet;
 	/**
 	 * The starting value != the first class middle start == the first class
 	 * middle - classWidth / 2.
@@ -142,25 +153,16 @@ public class Histogram implements Cloneable {
 		this.classWidth = preventRoundingErrors((stopVal - startVal) / totalClasses);
 		this.start = startVal;
 		this.stop = stopVal;
-		this.freqTable = new TreeMap<Double, Long>();
 		this.wraps = wrapping;
 		this.ignoreValuesOutsideRange = ignoreOutsideRange;
 
-		final double lastKey = stopVal - getClassWidth() / 2;
-
-		final double stopValue;
-		if (wrapping) {
-			stopValue = lastKey;
-		} else {
-			stopValue = lastKey + getClassWidth() / 2;
-		}
-		freqTable.put(preventRoundingErrors(startVal + getClassWidth() / 2), 0L);
-		for (double current = startVal + getClassWidth() / 2; current <= stopValue;) {
-			freqTable.put(valueToKey(current), 0L);
-			current = current + getClassWidth();
+		this.numberOfClasses = Math.max(1, (int) Math.round((stopVal - startVal) / classWidth));
+		this.keys = new double[numberOfClasses];
+		this.counts = new long[numberOfClasses];
+		for (int i = 0; i < numberOfClasses; i++) {
+			keys[i] = preventRoundingErrors(startVal + i * classWidth + classWidth / 2.0);
 		}
-
-		this.numberOfClasses = freqTable.keySet().size();
+		this.keySet = new KeySet();
 	}
 
 	/**
@@ -241,15 +243,20 @@ public class Histogram implements Cloneable {
 	 * @return the key for class with index bufferCount
 	 */
 	public final double getKeyForClass(final int i) {
-		int classIndex = i;
-		// make sure classIndex is positive
-		while (classIndex < 0) {
-			classIndex += getNumberOfClasses();
-		}
-		// make sure bufferCount is within range
-		classIndex = classIndex % getNumberOfClasses();
-		final double key = getStart() + classIndex * getClassWidth() + getClassWidth() / 2.0;
-		return preventRoundingErrors(key);
+		return keys[wrapClassIndex(i)];
+	}
+
+	/**
+	 * Maps any class index to the interval <code>[0,getNumberOfClasses()[</code>
+	 * using a modulo calculation.
+	 * 
+	 * @param i
+	 *            a class index.
+	 * @return an index in the interval <code>[0,getNumberOfClasses()[</code>.
+	 */
+	private int wrapClassIndex(final int i) {
+		final int classIndex = i % numberOfClasses;
+		return classIndex < 0 ? classIndex + numberOfClasses : classIndex;
 	}
 
 	/**
@@ -262,7 +269,7 @@ public class Histogram implements Cloneable {
 	 * @return the number of items in bin with index bufferCount
 	 */
 	public final long getCountForClass(final int i) {
-		return getCount(getKeyForClass(i));
+		return counts[wrapClassIndex(i)];
 	}
 
 	/**
@@ -271,7 +278,52 @@ public class Histogram implements Cloneable {
 	 *         wrapped in an immutable set so handle with care.
 	 */
 	public final Set<Double> keySet() {
-		return freqTable.keySet();
+		return keySet;
+	}
+
+	/**
+	 * An ordered, read only set view on the keys array.
+	 */
+	private final class KeySet extends AbstractSet<Double> {
+		@Override
+		public Iterator<Double> iterator() {
+			return new Iterator<Double>() {
+				private int index = 0;
+
+				public boolean hasNext() {
+					return index < numberOfClasses;
+				}
+
+				public Double next() {
+					if (index >= numberOfClasses) {
+						throw new NoSuchElementException();
+					}
+					return keys[index++];
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException("Keys can not be removed from a histogram.");
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(final Object o) {
+			if (!(o instanceof Double)) {
+				return false;
+			}
+			final double value = ((Double) o).doubleValue();
+			if (value < 0) {
+				return false;
+			}
+			final int index = valueToIndex(value);
+			return index >= 0 && keys[index] == value;
+		}
+
+		@Override
+		public int size() {
+			return numberOfClasses;
+		}
 	}
 
 	/**
@@ -295,11 +347,9 @@ public class Histogram implements Cloneable {
 		}
 
 		if (value > 0) {
-			final double key = valueToKey(value);
-			final Long count = freqTable.get(key);
-			assert count != null : "All key values should be initialized, " + key + " is not.";
-			if (count != null) {
-				freqTable.put(key, Long.valueOf(count.longValue() + 1));
+			final int index = valueToIndex(value);
+			if (index >= 0) {
+				counts[index]++;
 			}
 		} else {
 			LOG.warning("Using values below zero in is not tested, "
@@ -338,14 +388,16 @@ public class Histogram implements Cloneable {
 	}
 
 	/**
-	 * returns the key for a value. E.g. if the bin width is 1 then
-	 * valueToKey(3.2) returns 3.5
+	 * Returns the index of the class a value belongs to. E.g. if the bin width
+	 * is 1 and the histogram starts at 0 then valueToIndex(3.2) returns 3: the
+	 * class with key 3.5.
 	 * 
 	 * @param value
-	 *            the value to get the key to
-	 * @return the key closest to the value
+	 *            the value to get the class index for
+	 * @return the index of the class the value belongs to or -1 if the value
+	 *         lays outside the range of a non wrapping histogram.
 	 */
-	private double valueToKey(final double value) {
+	private int valueToIndex(final double value) {
 		// TODO remove the value below zero limitation
 		// by changing the wraps modulo calculation and test
 		if (value < 0) {
@@ -355,20 +407,23 @@ public class Histogram implements Cloneable {
 		double roundedValue = value;
 		if (wraps) {
 			final double interval = stop - start;
-			while (roundedValue < freqTable.firstKey()) {
+			while (roundedValue < keys[0]) {
 				roundedValue = preventRoundingErrors(roundedValue + interval);
 			}
 			roundedValue = preventRoundingErrors(start + (roundedValue - start) % interval);
 		}
 
-		// assert validValue(roundedValue);
-
-		final double classes = Math.floor((roundedValue + start) / classWidth);
-		final double offset = classWidth / 2 - start;
-		final double key = preventRoundingErrors(classes * classWidth + offset);
-		// assert key >= freqTable.firstKey();
-		// assert key <= freqTable.lastKey();
-		return key;
+		final double classes = Math.floor((roundedValue - start) / classWidth);
+		final int index;
+		if (classes >= 0 && classes < numberOfClasses) {
+			index = (int) classes;
+		} else if (wraps) {
+			// rounding errors at the edges of a wrapping histogram
+			index = wrapClassIndex((int) classes);
+		} else {
+			index = -1;
+		}
+		return index;
 	}
 
 	/**
@@ -379,11 +434,10 @@ public class Histogram implements Cloneable {
 	 * @return the frequency of v.
 	 */
 	public final long getCount(final double value) {
-		final double key = valueToKey(value);
+		final int index = valueToIndex(value);
 		long result = 0;
-		final Long count = freqTable.get(key);
-		if (count != null) {
-			result = count.longValue();
+		if (index >= 0) {
+			result = counts[index];
 		}
 		return result;
 	}
@@ -398,8 +452,13 @@ public class Histogram implements Cloneable {
 	 *            the number of items in the bin
 	 */
 	public final void setCount(final double value, final long count) {
-		final double key = valueToKey(value);
-		freqTable.put(key, count);
+		final int index = valueToIndex(value);
+		if (index >= 0) {
+			counts[index] = count;
+		} else {
+			LOG.finer("Ignored count for " + value + " (not between " + "[" + this.firstValidValue() + ","
+					+ this.lastValidValue() + "]).");
+		}
 	}
 
 	/**
@@ -423,8 +482,6 @@ public class Histogram implements Cloneable {
 	 * @return the starting value
 	 */
 	public final double getStart() {
-		// assert Math.abs(start - freqTable.firstKey() - classWidth / 2.0) <
-		// 0.0001;
 		return start;
 	}
 
@@ -435,9 +492,6 @@ public class Histogram implements Cloneable {
 	 * @return the stop value
 	 */
 	public double getStop() {
-		// assert Math.abs(stop - freqTable.lastKey() + classWidth / 2.0) <
-		// 0.001;
-		// stop is cached for performance reasons
 		return stop;
 	}
 
@@ -455,7 +509,7 @@ public class Histogram implements Cloneable {
 	 *         {@link Histogram#lastValidValue()}]
 	 */
 	private double firstValidValue() {
-		return this.freqTable.firstKey() - classWidth / 2.0;
+		return keys[0] - classWidth / 2.0;
 	}
 
 	/**
@@ -464,7 +518,7 @@ public class Histogram implements Cloneable {
 	 *         {@link Histogram#lastValidValue()}]
 	 */
 	private double lastValidValue() {
-		return this.freqTable.lastKey() + classWidth / 2.0;
+		return keys[numberOfClasses - 1] + classWidth / 2.0;
 	}
 
 	/**
@@ -497,30 +551,17 @@ public class Histogram implements Cloneable {
 		long cumulativeFreq = -1;
 		if (getSumFreq() == 0) {
 			cumulativeFreq = 0;
-		} else if (v.compareTo(freqTable.firstKey()) < 0) {
+		} else if (v.compareTo(keys[0]) < 0) {
 			cumulativeFreq = 0;
-		} else if (v.compareTo(freqTable.lastKey()) >= 0) {
+		} else if (v.compareTo(keys[numberOfClasses - 1]) >= 0) {
 			cumulativeFreq = getSumFreq();
 		} else {
-
-			// the frequency of this key
+			// add the frequencies of keys smaller than or equal to v
 			long result = 0;
-			final Long value = freqTable.get(v);
-			if (value != null) {
-				result = value.longValue();
-			}
-
-			// add the frequencies of values smaller than this key
-			final Iterator<Double> values = freqTable.keySet().iterator();
-			while (values.hasNext()) {
-				final Double nextValue = values.next();
-				if (v.compareTo(nextValue) > 0) {
-					result += getCount(nextValue);
-				} else {
-					cumulativeFreq = result;
-					break;
-				}
+			for (int i = 0; i < numberOfClasses && v.compareTo(keys[i]) >= 0; i++) {
+				result += counts[i];
 			}
+			cumulativeFreq = result;
 		}
 		if (cumulativeFreq == -1) {
 			throw new AssertionError("The key is greather than te last key but this is impossible."
@@ -559,9 +600,8 @@ public class Histogram implements Cloneable {
 	 */
 	public long getSumFreq() {
 		long result = 0;
-		final Iterator<Long> iterator = freqTable.values().iterator();
-		while (iterator.hasNext()) {
-			result += iterator.next().longValue();
+		for (int i = 0; i < numberOfClasses; i++) {
+			result += counts[i];
 		}
 		return result;
 	}
@@ -574,9 +614,8 @@ public class Histogram implements Cloneable {
 	 */
 	public long getAbsoluteSumFreq() {
 		long result = 0;
-		final Iterator<Long> iterator = freqTable.values().iterator();
-		while (iterator.hasNext()) {
-			result += Math.abs(iterator.next().longValue());
+		for (int i = 0; i < numberOfClasses; i++) {
+			result += Math.abs(counts[i]);
 		}
 		return result;
 	}
@@ -625,7 +664,7 @@ public class Histogram implements Cloneable {
 		double entropy = 0.0;
 		final double total = getSumFreq();
 		for (int b = 0; b < numberOfClasses; b++) {
-			final double p = getCountForClass(b) / total;
+			final double p = counts[b] / total;
 			if (p != 0.0) {
 				entropy -= p * Math.log(p) / log2;
 			}
@@ -642,10 +681,8 @@ public class Histogram implements Cloneable {
 	 */
 	public double getMean() {
 		final double[] binCounts = new double[this.getNumberOfClasses() + 1];
-		int i = 0;
-		for (final double key : this.keySet()) {
-			binCounts[i] = this.getCount(key);
-			i++;
+		for (int i = 0; i < numberOfClasses; i++) {
+			binCounts[i] = counts[i];
 		}
 		return StatUtils.mean(binCounts);
 	}
@@ -659,10 +696,8 @@ public class Histogram implements Cloneable {
 	 */
 	public double getMedian() {
 		final double[] binCounts = new double[this.getNumberOfClasses() + 1];
-		int i = 0;
-		for (final double key : this.keySet()) {
-			binCounts[i] = this.getCount(key);
-			i++;
+		for (int i = 0; i < numberOfClasses; i++) {
+			binCounts[i] = counts[i];
 		}
 		return StatUtils.percentile(binCounts, 50);
 	}
@@ -695,7 +730,7 @@ public class Histogram implements Cloneable {
 		if (asciiArt) {
 			final StringBuffer outBuffer = new StringBuffer();
 			outBuffer.append('\n');
-			final Iterator<Double> iter = freqTable.keySet().iterator();
+			final Iterator<Double> iter = keySet.iterator();
 			while (iter.hasNext()) {
 				final Double value = iter.next();
 				outBuffer.append(value).append("\t\t|");
@@ -710,7 +745,7 @@ public class Histogram implements Cloneable {
 			final NumberFormat nf = NumberFormat.getPercentInstance();
 			final StringBuffer outBuffer = new StringBuffer();
 			outBuffer.append("\nValue \t Freq. \t Pct. \t Cum Pct. \n");
-			final Iterator<Double> iter = freqTable.keySet().iterator();
+			final Iterator<Double> iter = keySet.iterator();
 			while (iter.hasNext()) {
 				final Double value = iter.next();
 				outBuffer.append(value);
@@ -743,14 +778,10 @@ public class Histogram implements Cloneable {
 	 * @return a Histogram with normalized peak.
 	 */
 	public Histogram normalize() {
-		final List<Long> normalizedCounts = new ArrayList<Long>();
-		for (final double key : freqTable.keySet()) {
-			normalizedCounts.add((long) (getPct(key) * 10000));
-		}
-		int index = 0;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, normalizedCounts.get(index));
-			index++;
+		final long sumFreq = getSumFreq();
+		for (int i = 0; i < numberOfClasses; i++) {
+			final double percentage = sumFreq == 0 ? Double.NaN : (double) counts[i] / (double) sumFreq;
+			counts[i] = (long) (percentage * 10000);
 		}
 		return this;
 	}
@@ -771,8 +802,8 @@ public class Histogram implements Cloneable {
 	public Histogram addToEachBin(final long value) {
 		// do nothing if value == 0
 		if (value != 0) {
-			for (final double key : freqTable.keySet()) {
-				this.setCount(key, getCount(key) + value);
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += value;
 			}
 		}
 		return this;
@@ -798,8 +829,8 @@ public class Histogram implements Cloneable {
 	 */
 	public Histogram baselineHistogram() {
 		long smallestValue = Long.MAX_VALUE;
-		for (final double key : freqTable.keySet()) {
-			smallestValue = Math.min(getCount(key), smallestValue);
+		for (int i = 0; i < numberOfClasses; i++) {
+			smallestValue = Math.min(counts[i], smallestValue);
 		}
 		final long valueToAdd = (long) -1.0 * smallestValue;
 		return addToEachBin(valueToAdd);
@@ -821,14 +852,33 @@ public class Histogram implements Cloneable {
 	 *         the bins.
 	 */
 	public Histogram add(final Histogram other) {
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, this.getCount(key) + other.getCount(key));
+		if (hasSameClasses(other)) {
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += other.counts[i];
+			}
+		} else {
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] += other.getCount(keys[i]);
+			}
 		}
 		return this;
 	}
+
+	/**
+	 * Checks if the classes of another histogram are the same as the classes
+	 * of this histogram. If so the counts can be combined index by index.
+	 * 
+	 * @param other
+	 *            The other histogram.
+	 * @return True if the start, number of classes and class width are equal.
+	 */
+	private boolean hasSameClasses(final Histogram other) {
+		return numberOfClasses == other.numberOfClasses && start == other.start
+				&& classWidth == other.classWidth;
+	}
 	
 	/**
 	 * Calculates the sum of two histograms. The value for each bin of other is
@@ -848,13 +898,12 @@ public class Histogram implements Cloneable {
 	 *         the bins.
 	 */
 	public Histogram add(final Histogram other,final int offset) {
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		final int size = keySet().size();
-		Double[] keys = this.keySet().toArray(new Double[size]);
-		for(int i = 0 ; i < other.keySet().size() ; i++){			
-			this.setCount(keys[i], this.getCount(keys[i]) + other.getCount(keys[(size+i+offset)%size]));
+		final int size = numberOfClasses;
+		for(int i = 0 ; i < other.numberOfClasses ; i++){
+			counts[i] += other.getCount(keys[(size+i+offset)%size]);
 		}
 		return this;
 	}
@@ -870,11 +919,17 @@ public class Histogram implements Cloneable {
 	 *         histogram, not a new one.
 	 */
 	public Histogram max(final Histogram other){
-		assert freqTable.keySet().size() == other.keySet().size();
+		assert numberOfClasses == other.numberOfClasses;
 		assert start == other.start;
 		assert stop == other.stop;
-		for (final double key : freqTable.keySet()) {
-			this.setCount(key, Math.max(this.getCount(key),other.getCount(key)));
+		if (hasSameClasses(other)) {
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] = Math.max(counts[i], other.counts[i]);
+			}
+		} else {
+			for (int i = 0; i < numberOfClasses; i++) {
+				counts[i] = Math.max(counts[i], other.getCount(keys[i]));
+			}
 		}
 		return this;
 	}
@@ -926,8 +981,8 @@ public class Histogram implements Cloneable {
 	 * @return histogram with each bin value multiplied by the factor.
 	 */
 	public Histogram multiply(final double factor) {
-		for (final double key : this.freqTable.keySet()) {
-			this.setCount(key, Math.round(this.getCount(key) * factor));
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = Math.round(counts[i] * factor);
 		}
 		return this;
 	}
@@ -946,8 +1001,8 @@ public class Histogram implements Cloneable {
 	 * @return Histogram with each bin count raised with exponent.
 	 */
 	public Histogram raise(final double exponent) {
-		for (final double key : this.freqTable.keySet()) {
-			this.setCount(key, Math.round(Math.pow(this.getCount(key), exponent)));
+		for (int i = 0; i < numberOfClasses; i++) {
+			counts[i] = Math.round(Math.pow(counts[i], exponent));
 		}
 		return this;
 	}
@@ -961,9 +1016,7 @@ public class Histogram implements Cloneable {
 	@Override
 	public Histogram clone() throws CloneNotSupportedException {
 		final Histogram clone = (Histogram) super.clone();
-		for (final double key : this.freqTable.keySet()) {
-			clone.setCount(key, this.getCount(key));
-		}
+		clone.counts = this.counts.clone();
 		return clone;
 	}
 
@@ -982,11 +1035,12 @@ public class Histogram implements Cloneable {
 		if (!histograms.isEmpty()) {
 			final Histogram first = histograms.get(0);
 			mean = new Histogram(first);
-			for (final double key : first.freqTable.keySet()) {
-				final double[] values = new double[histograms.size()];
+			final double[] values = new double[histograms.size()];
+			for (int i = 0; i < first.numberOfClasses; i++) {
+				final double key = first.keys[i];
 				int countIndex = 0;
 				for (final Histogram h : histograms) {
-					assert h.keySet().size() == first.keySet().size();
+					assert h.numberOfClasses == first.numberOfClasses;
 					assert first.classWidth == h.classWidth;
 					assert first.start == h.start;
 					assert first.stop == h.stop;
@@ -1080,7 +1134,7 @@ public class Histogram implements Cloneable {
 				double weightTotal = 0;
 				for (int i = min; i < max; i++) {
 					final double w = weights[offset++];
-					acc += getCountForClass(i) * w;
+					acc += counts[i] * w;
 					weightTotal += w;
 				}
 
@@ -1099,7 +1153,7 @@ public class Histogram implements Cloneable {
 				// Accumulate the total for the range.
 				int acc = 0;
 				for (int i = min; i < max; i++) {
-					acc += getCountForClass(i);
+					acc += counts[i];
 				}
 
 				// Calculate the average for the range.
@@ -1114,9 +1168,7 @@ public class Histogram implements Cloneable {
 		// the same as for the same band of the original histogram.
 		final double factor = getSumFreq() / (double) sum;
 		for (int b = 0; b < numberOfClasses; b++) {
-			final int smoothedCount = (int) (smoothedCounts[b] * factor + 0.5);
-			final double key = getKeyForClass(b);
-			this.setCount(key, smoothedCount);
+			counts[b] = (int) (smoothedCounts[b] * factor + 0.5);
 		}
 
 		return this;
@@ -1192,7 +1244,7 @@ public class Histogram implements Cloneable {
 			double weightTotal = 0;
 			for (int i = min; i < max; i++) {
 				final double w = weights[offset++];
-				acc += getCountForClass(i) * w;
+				acc += counts[i] * w;
 				weightTotal += w;
 			}
 
@@ -1207,9 +1259,7 @@ public class Histogram implements Cloneable {
 		// the same as for the same band of the original histogram.
 		final double factor = getSumFreq() / (double) sum;
 		for (int b = 0; b < numberOfClasses; b++) {
-			final int smoothedCount = (int) (smoothedCounts[b] * factor + 0.5);
-			final double key = getKeyForClass(b);
-			this.setCount(key, smoothedCount);
+			counts[b] = (int) (smoothedCounts[b] * factor + 0.5);
 		}
 		return this;
 	}
@@ -1231,7 +1281,7 @@ public class Histogram implements Cloneable {
 			// Makes sure the displacement is positive.
 			final int actualDisplacement = (displacement + numberOfClasses) % numberOfClasses;
 
-			for (final double key : freqTable.keySet()) {
+			for (final double key : keys) {
 				final double displacedValue = (key + actualDisplacement * classWidth)
 						% (numberOfClasses * classWidth);
 				this.setCount(key, original.getCount(displacedValue));
@@ -1283,6 +1333,12 @@ public class Histogram implements Cloneable {
 	 * Returns the number of classes the other histogram needs to be displaced
 	 * to get optimal correlation with this histogram. The correlation is
 	 * defined by the chosen correlation measure.
+	 * <p>
+	 * The correlation for all displacements is estimated at once with a
+	 * {@link CircularCorrelation}, only displacements that can be optimal are
+	 * evaluated exactly. The result is the same as when every displacement is
+	 * evaluated with the correlation measure.
+	 * </p>
 	 * 
 	 * @param otherHistogram
 	 *            The other histogram.
@@ -1293,17 +1349,56 @@ public class Histogram implements Cloneable {
 	 */
 	public int displacementForOptimalCorrelation(final Histogram otherHistogram,
 			final CorrelationMeasure correlationMeasure) {
-		int optimalDisplacement = 0; // displacement with best correlation
-		double maximumCorrelation = -1; // best found correlation
+		final ShiftCorrelation measure = new ShiftCorrelation() {
+			public double correlation(final int shift) {
+				return correlationWithDisplacement(shift, otherHistogram, correlationMeasure);
+			}
+		};
 		final int numberOfClasses = getNumberOfClasses();
-
-		// current displacement, incremented with class width
-		for (int currentDisplacement = 0; currentDisplacement < numberOfClasses; currentDisplacement++) {
-			final double currentCorrelation = correlationWithDisplacement(currentDisplacement,
-					otherHistogram, correlationMeasure);
-			if (maximumCorrelation < currentCorrelation) {
-				maximumCorrelation = currentCorrelation;
-				optimalDisplacement = currentDisplacement;
+		int optimalDisplacement;
+		// The measures displace modulo the histogram length, which is a
+		// circular shift of the counts when the histograms start at zero.
+		final boolean circular = getStart() == 0 && otherHistogram.getStart() == 0
+				&& otherHistogram.getNumberOfClasses() == numberOfClasses
+				&& otherHistogram.getClassWidth() == getClassWidth();
+		if (!circular || !nonNegative() || !otherHistogram.nonNegative()) {
+			optimalDisplacement = CircularCorrelation.optimalShiftExhaustive(numberOfClasses, measure);
+		} else {
+			final double[] first = countsAsDoubles();
+			final double[] other = otherHistogram.countsAsDoubles();
+			switch (correlationMeasure) {
+			case CROSSCORRELATION:
+			case EUCLIDEAN:
+				// Both increase with the sum of products, the sums of squares
+				// do not depend on the displacement.
+				optimalDisplacement = CircularCorrelation.optimalShift(
+						CircularCorrelation.crossCorrelation(first, other),
+						CircularCorrelation.tolerance(first, other), measure);
+				break;
+			case BHATTACHARYA:
+				final double[] firstRoots = CircularCorrelation.squareRoot(first);
+				final double[] otherSquareRoots = CircularCorrelation.squareRoot(other);
+				optimalDisplacement = CircularCorrelation.optimalShift(
+						CircularCorrelation.crossCorrelation(firstRoots, otherSquareRoots),
+						CircularCorrelation.tolerance(firstRoots, otherSquareRoots), measure);
+				break;
+			case INTERSECTION:
+			case CITY_BLOCK:
+				// Both measures increase with the matching area, the sum of
+				// the minima, which is exact for integer counts. It is at
+				// most the sum of the square roots of the products.
+				final double[] roots = CircularCorrelation.squareRoot(first);
+				final double[] otherRoots = CircularCorrelation.squareRoot(other);
+				optimalDisplacement = CircularCorrelation.optimalShiftBounded(
+						CircularCorrelation.crossCorrelation(roots, otherRoots),
+						CircularCorrelation.tolerance(roots, otherRoots), new ShiftCorrelation() {
+							public double correlation(final int shift) {
+								return matchingArea(otherHistogram, shift);
+							}
+						});
+				break;
+			default:
+				optimalDisplacement = CircularCorrelation.optimalShiftExhaustive(numberOfClasses, measure);
 			}
 		}
 		if (optimalDisplacement > getNumberOfClasses() / 2.0) {
@@ -1313,6 +1408,38 @@ public class Histogram implements Cloneable {
 		return optimalDisplacement;
 	}
 
+	/**
+	 * @return A copy of the counts.
+	 */
+	private double[] countsAsDoubles() {
+		final double[] values = new double[numberOfClasses];
+		for (int i = 0; i < numberOfClasses; i++) {
+			values[i] = counts[i];
+		}
+		return values;
+	}
+
+	/**
+	 * The sum of the minima of the counts with the other counts shifted
+	 * circularly.
+	 */
+	private long matchingArea(final Histogram otherHistogram, final int shift) {
+		long matchingArea = 0;
+		for (int i = 0; i < numberOfClasses; i++) {
+			matchingArea += Math.min(counts[i], otherHistogram.counts[(i + shift) % numberOfClasses]);
+		}
+		return matchingArea;
+	}
+
+	private boolean nonNegative() {
+		for (int i = 0; i < numberOfClasses; i++) {
+			if (counts[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 
 	
 
@@ -1326,8 +1453,8 @@ public class Histogram implements Cloneable {
 	public final void export(final String fileName) {
 		final StringBuilder sb = new StringBuilder();
 		sb.append("Bin (cents); Number of Annotations (#)\n");
-		for (final double key : keySet()) {
-			sb.append(key).append(";").append(getCount(key)).append("\n");
+		for (int i = 0; i < numberOfClasses; i++) {
+			sb.append(keys[i]).append(";").append(counts[i]).append("\n");
 		}
 		FileUtils.writeFile(sb.toString(), fileName);
 	}
@@ -1342,9 +1469,9 @@ public class Histogram implements Cloneable {
 	public final void exportMatLab(final String fileName) {
 		final StringBuilder sb = new StringBuilder();
 		sb.append("histogram_values = [");
-		for (final double key : keySet()) {
-			for (int i = 0; i < getCount(key); i++) {
-				sb.append(key).append(",");
+		for (int k = 0; k < numberOfClasses; k++) {
+			for (int i = 0; i < counts[k]; i++) {
+				sb.append(keys[k]).append(",");
 			}
 		}
 		sb.append("]\n");
@@ -1357,10 +1484,8 @@ public class Histogram implements Cloneable {
 	 */
 	public final long getMaxBinCount() {
 		long maxValue = -1;
-		if (!freqTable.values().isEmpty()) {
-			for (final long value : freqTable.values()) {
-				maxValue = Math.max(maxValue, value);
-			}
+		for (int i = 0; i < numberOfClasses; i++) {
+			maxValue = Math.max(maxValue, counts[i]);
 		}
 		return maxValue;
 	}
@@ -1369,8 +1494,6 @@ public class Histogram implements Cloneable {
 	 * Sets each bin to 0.
 	 */
 	public void clear() {
-		for (final double key : keySet()) {
-			setCount(key, 0);
-		}
+		Arrays.fill(counts, 0);
 	}
 }
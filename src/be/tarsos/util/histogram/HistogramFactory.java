@@ -31,10 +31,12 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
 import be.tarsos.sampled.pitch.PitchUnit;
-import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.ConfigurationSnapshot;
 import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimateBuilder;
 import be.tarsos.util.ScalaFile;
 import be.tarsos.util.TimeUnit;
 import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
@@ -68,6 +70,20 @@ public class HistogramFactory {
 		return histogram;
 	}
 	
+	/**
+	 * Creates a pitch class histogram directly from a buffer of annotations (without kernels).
+	 * @param annotations The annotations.
+	 * @return A pitch class histogram with the annotations added.
+	 */
+	public static PitchClassHistogram createPitchClassHistogram(final AnnotationBuffer annotations) {
+		final PitchClassHistogram histogram = new PitchClassHistogram();
+		final double[] pitches = annotations.getPitches(PitchUnit.RELATIVE_CENTS);
+		for (int i = 0; i < annotations.size(); i++) {
+			histogram.add(pitches[i]);
+		}
+		return histogram;
+	}
+	
 	/**
 	 * Creates a pitch class histogram directly from a list of annotations (without kernels).
 	 * @param kde
@@ -164,21 +180,68 @@ public class HistogramFactory {
 		return pitchHistogram;
 	}
 	
+	/**
+	 * Create a pitch histogram based on a buffer of annotations.
+	 * @param annotations The annotations.
+	 * @return a pitch histogram with the annotations added.
+	 */
+	public static PitchHistogram createPitchHistogram(final AnnotationBuffer annotations) {
+		final PitchHistogram pitchHistogram = new PitchHistogram();
+		final double[] pitches = annotations.getPitches(PitchUnit.ABSOLUTE_CENTS);
+		for (int i = 0; i < annotations.size(); i++) {
+			pitchHistogram.add(pitches[i]);
+		}
+		return pitchHistogram;
+	}
+	
 	public static PitchHistogram createPitchHistogram(final List<Annotation> annotations,
 			final double width) {
-		int start = Configuration.getInt(ConfKey.pitch_histogram_start); 
-		int stop = Configuration.getInt(ConfKey.pitch_histogram_stop);
+		final ConfigurationSnapshot configuration = Configuration.snapshot();
+		int start = configuration.getPitchHistogramStart();
+		int stop = configuration.getPitchHistogramStop();
 		int size = stop - start;
-		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width),size);
+		final double[] pitches = new double[annotations.size()];
+		int inRange = 0;
 		for (Annotation annotation : annotations) {
 			double pitch = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
 			if(pitch >= start && pitch <= stop){
-				kde.add(pitch);
+				pitches[inRange++] = pitch;
+			}else{
+				LOG.finer("Ignored pitch: " + pitch + " not between " + start + " and " + stop);
+			}
+		}
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(new GaussianKernel(width),size);
+		builder.add(pitches, inRange);
+		KernelDensityEstimate kde = builder.build();
+		PitchHistogram pitchHistogram = new PitchHistogram(configuration);
+		for (int i = start; i < size; i++) {
+			pitchHistogram.setCount(i, (long) kde.getValue(i));
+		}
+		return pitchHistogram;
+	}
+	
+	
+	public static PitchHistogram createPitchHistogram(final AnnotationBuffer annotations,
+			final double width) {
+		final ConfigurationSnapshot configuration = Configuration.snapshot();
+		int start = configuration.getPitchHistogramStart();
+		int stop = configuration.getPitchHistogramStop();
+		int size = stop - start;
+		final double[] pitches = annotations.getPitches(PitchUnit.ABSOLUTE_CENTS);
+		final double[] pitchesInRange = new double[annotations.size()];
+		int inRange = 0;
+		for (int i = 0; i < annotations.size(); i++) {
+			double pitch = pitches[i];
+			if(pitch >= start && pitch <= stop){
+				pitchesInRange[inRange++] = pitch;
 			}else{
 				LOG.finer("Ignored pitch: " + pitch + " not between " + start + " and " + stop);
 			}
 		}
-		PitchHistogram pitchHistogram = new PitchHistogram();
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(new GaussianKernel(width),size);
+		builder.add(pitchesInRange, inRange);
+		KernelDensityEstimate kde = builder.build();
+		PitchHistogram pitchHistogram = new PitchHistogram(configuration);
 		for (int i = start; i < size; i++) {
 			pitchHistogram.setCount(i, (long) kde.getValue(i));
 		}
@@ -196,12 +259,27 @@ public class HistogramFactory {
 	 */
 	public static KernelDensityEstimate createPichClassKDE(final List<Annotation> annotations,
 			final double width){
-		KernelDensityEstimate kde = new KernelDensityEstimate(new GaussianKernel(width),1200);
+		final double[] pitches = new double[annotations.size()];
+		int i = 0;
 		for (Annotation annotation : annotations) {
-			double pitch = annotation.getPitch(PitchUnit.RELATIVE_CENTS);
-			kde.add(pitch);
+			pitches[i++] = annotation.getPitch(PitchUnit.RELATIVE_CENTS);
 		}
-		return kde;
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(new GaussianKernel(width),1200);
+		builder.add(pitches, pitches.length);
+		return builder.build();
+	}
+	
+	/**
+	 * Creates a pitch class {@link KernelDensityEstimate} for a buffer of annotations.
+	 * @param annotations The annotations.
+	 * @param width The width of the Gaussian kernel. 
+	 * @return A kernel density estimate with the annotations added.
+	 */
+	public static KernelDensityEstimate createPichClassKDE(final AnnotationBuffer annotations,
+			final double width){
+		KernelDensityEstimateBuilder builder = new KernelDensityEstimateBuilder(new GaussianKernel(width),1200);
+		builder.add(annotations.getPitches(PitchUnit.RELATIVE_CENTS), annotations.size());
+		return builder.build();
 	}
 
 	/**
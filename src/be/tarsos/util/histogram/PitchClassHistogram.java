@@ -28,8 +28,8 @@ package be.tarsos.util.histogram;
 import java.util.List;
 import java.util.logging.Logger;
 
-import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.ConfigurationSnapshot;
 import be.tarsos.util.ScalaFile;
 import be.tarsos.util.histogram.peaks.Peak;
 import be.tarsos.util.histogram.peaks.PeakDetector;
@@ -84,7 +84,17 @@ public final class PitchClassHistogram extends Histogram {
 	 * wrapping histogram with values from 0 to 1200 cents.
 	 */
 	public PitchClassHistogram() {
-		super(0, 1200, 1200 / Configuration.getInt(ConfKey.histogram_bin_width), true);
+		this(Configuration.snapshot());
+	}
+
+	/**
+	 * Create a new tone scale using the bin width of a configuration snapshot.
+	 * 
+	 * @param configuration
+	 *            The configuration to use.
+	 */
+	public PitchClassHistogram(final ConfigurationSnapshot configuration) {
+		super(0, 1200, 1200 / configuration.getHistogramBinWidth(), true);
 	}
 
 	/**
@@ -177,13 +187,14 @@ public final class PitchClassHistogram extends Histogram {
 	 */
 	public static PitchClassHistogram createToneScale(final double[] peaks, final double[] heights,
 			final double[] widths, final double[] standardDeviations) {
-		final PitchClassHistogram pitchClassHistogram = new PitchClassHistogram();
+		final ConfigurationSnapshot configuration = Configuration.snapshot();
+		final PitchClassHistogram pitchClassHistogram = new PitchClassHistogram(configuration);
 		// unwrapped histogram of 3 x 1200 cents wide. Used to correctly
 		// calculate wrapping peaks
 		// The middle octave is the 'real' octave, the other two are used to
 		// 'fold' onto the middle one
 		final Histogram unWrappedHistogram = new Histogram(0, 3 * 1200,
-				3600 / Configuration.getInt(ConfKey.histogram_bin_width));
+				3600 / configuration.getHistogramBinWidth());
 
 		// shift the peaks to the middle octave + sanity checks
 		for (int i = 0; i < peaks.length; i++) {
@@ -33,8 +33,10 @@ import java.util.logging.Logger;
 
 import be.tarsos.sampled.pitch.Annotation;
 import be.tarsos.sampled.pitch.PitchUnit;
-import be.tarsos.util.ConfKey;
 import be.tarsos.util.Configuration;
+import be.tarsos.util.ConfigurationSnapshot;
+import be.tarsos.util.KernelDensityEstimateBuilder;
+import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
 
 /**
  * The PitchHistogram accepts values from 0 to 9600 cents or +- from 16Hz to
@@ -53,19 +55,40 @@ public final class PitchHistogram extends Histogram {
 
 	private final List<PitchClassHistogram> toneScaleHistogramPerOctave = new ArrayList<PitchClassHistogram>();
 
+	/**
+	 * The configuration the histogram was created with.
+	 */
+	private final ConfigurationSnapshot configuration;
+
+	/**
+	 * Create a pitch histogram with the currently configured start, stop and
+	 * bin width.
+	 */
 	public PitchHistogram() {
-		super(Configuration.getInt(ConfKey.pitch_histogram_start), Configuration.getInt(ConfKey.pitch_histogram_stop),
-				(Configuration.getInt(ConfKey.pitch_histogram_stop) - Configuration.getInt(ConfKey.pitch_histogram_start))
-						/ Configuration.getInt(ConfKey.histogram_bin_width), false, // does
+		this(Configuration.snapshot());
+	}
+
+	/**
+	 * Create a pitch histogram with the start, stop and bin width of a
+	 * configuration snapshot.
+	 * 
+	 * @param configuration
+	 *            The configuration to use.
+	 */
+	public PitchHistogram(final ConfigurationSnapshot configuration) {
+		super(configuration.getPitchHistogramStart(), configuration.getPitchHistogramStop(),
+				(configuration.getPitchHistogramStop() - configuration.getPitchHistogramStart())
+						/ configuration.getHistogramBinWidth(), false, // does
 				// not
 				// wrap
 				true// ignore values outside human hearing range
 		);
+		this.configuration = configuration;
 
 		// initialize the list of tone scales
-		for (int value = Configuration.getInt(ConfKey.pitch_histogram_start); value < Configuration
-				.getInt(ConfKey.pitch_histogram_stop); value += 1200) {
-			toneScaleHistogramPerOctave.add(new PitchClassHistogram());
+		for (int value = configuration.getPitchHistogramStart(); value < configuration
+				.getPitchHistogramStop(); value += 1200) {
+			toneScaleHistogramPerOctave.add(new PitchClassHistogram(configuration));
 		}
 
 	}
@@ -86,7 +109,7 @@ public final class PitchHistogram extends Histogram {
 	 *         numberOfOctaves most energy rich octaves.
 	 */
 	public PitchClassHistogram mostEnergyRichOctaves(final int numberOfOctaves) {
-		final PitchClassHistogram h = new PitchClassHistogram();
+		final PitchClassHistogram h = new PitchClassHistogram(configuration);
 		final List<Integer> octavesOrderedByEnergy = octavesOrderedByEnergy();
 		for (int i = 0; i < numberOfOctaves; i++) {
 			final int octaveIndex = octavesOrderedByEnergy.get(i);
@@ -123,7 +146,7 @@ public final class PitchHistogram extends Histogram {
 	 * @return the ambitus folded to one octave (1200 cents)
 	 */
 	public PitchClassHistogram pitchClassHistogram() {
-		final PitchClassHistogram summedToneScaleHistogram = new PitchClassHistogram();
+		final PitchClassHistogram summedToneScaleHistogram = new PitchClassHistogram(configuration);
 		for (final PitchClassHistogram histogram : toneScaleHistogramPerOctave) {
 			summedToneScaleHistogram.add(histogram);
 		}
@@ -133,7 +156,8 @@ public final class PitchHistogram extends Histogram {
 
 	
 	public PitchClassHistogram mostEnergyRitchOctave(){
-		PitchClassHistogram pch = new PitchClassHistogram();
+		PitchClassHistogram pch = new PitchClassHistogram(configuration);
+		final double binWidth = configuration.getHistogramBinWidth();
 		int currentCount = 0;
 		int maxCount = 0;
 		Double startKey = 0.0;
@@ -147,7 +171,7 @@ public final class PitchHistogram extends Histogram {
 			}		
 		}
 		double stopKey = startKey + 1200;
-		for(;startKey < stopKey ; startKey += Configuration.getDouble(ConfKey.histogram_bin_width) )
+		for(;startKey < stopKey ; startKey += binWidth)
 			pch.setCount(startKey % 1200, this.getCount(startKey));
 		
 		return pch;
@@ -172,87 +196,61 @@ public final class PitchHistogram extends Histogram {
 	 */
 	public static PitchHistogram createPitchHistogram(final List<Annotation> annotations,
 			final double width) {
-		int pitchHistogramMaximum = Configuration.getInt(ConfKey.pitch_histogram_stop);
-		int pitchHistogramMinimum = Configuration.getInt(ConfKey.pitch_histogram_start);
-		int octaves = (int) Math.ceil((pitchHistogramMaximum - pitchHistogramMinimum)/1200.0);
-		
-		// 1200 pitch classes should be enough for everybody!
-		double[] accumulator = new double[1200 * octaves];
-
-		double calculationAria = 5 * width;// hehe aria, not area
-		double halfwit = width / 2.0; //hehe halfwit, not halfwidth, hehe
-		
-		//Compute a kernel: a lookup table with e.g. a gaussian curve
-		double kernel[] = new double[(int)calculationAria*2+1];
-		double difference =  - calculationAria;
-		for(int i = 0 ; i < kernel.length; i++){
-			double power = Math.pow(difference / halfwit, 2.0);
-			kernel[i] = Math.pow(Math.E, -0.5 * power);
-			difference++;
-		}
-
-		/*
-		 * Add the kernel to an accumulator for each annotation.
-		 */
-	
-		for (Annotation annotation : annotations) {
-			double pitch = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
-			int start = (int) (pitch + - calculationAria);
-			int stop = (int) (pitch  + calculationAria);
-			int kernelIndex = 0;
-			for (int i = start; i < stop && i < pitchHistogramMaximum; i++) {
-				if(i > pitchHistogramMinimum){					
-					accumulator[i] += kernel[kernelIndex];
-				}
-				kernelIndex++;
-			}
-		}
+		final ConfigurationSnapshot configuration = Configuration.snapshot();
+		int pitchHistogramMinimum = configuration.getPitchHistogramStart();
+		double[] accumulator = createAccumulator(annotations, width, configuration);
 
-		PitchHistogram histo = new PitchHistogram();
+		PitchHistogram histo = new PitchHistogram(configuration);
 		for (int i = 0; i < accumulator.length; i++) {
 			histo.setCount(i + pitchHistogramMinimum, (long) accumulator[i]);
 		}
 		return histo;
 	}
 	
+	/**
+	 * Adds a Gaussian kernel for each annotation to an accumulator in absolute
+	 * cents. The annotations are counted per cent first and convolved once
+	 * with the kernel, see {@link KernelDensityEstimateBuilder}.
+	 * 
+	 * @param annotations
+	 *            A list of annotations.
+	 * @param width
+	 *            The width of each kernel.
+	 * @return The accumulator, index is pitch in absolute cents.
+	 */
 	public static double[] createAccumulator(final List<Annotation> annotations,
 			final double width) {
-		int pitchHistogramMaximum = Configuration.getInt(ConfKey.pitch_histogram_stop);
-		int pitchHistogramMinimum = Configuration.getInt(ConfKey.pitch_histogram_start);
+		return createAccumulator(annotations, width, Configuration.snapshot());
+	}
+
+	/**
+	 * Adds a Gaussian kernel for each annotation to an accumulator in absolute
+	 * cents, using the pitch histogram range of a configuration snapshot.
+	 * 
+	 * @param annotations
+	 *            A list of annotations.
+	 * @param width
+	 *            The width of each kernel.
+	 * @param configuration
+	 *            The configuration that defines the pitch histogram range.
+	 * @return The accumulator, index is pitch in absolute cents.
+	 */
+	public static double[] createAccumulator(final List<Annotation> annotations,
+			final double width, final ConfigurationSnapshot configuration) {
+		int pitchHistogramMaximum = configuration.getPitchHistogramStop();
+		int pitchHistogramMinimum = configuration.getPitchHistogramStart();
 		int octaves = (int) Math.ceil((pitchHistogramMaximum - pitchHistogramMinimum)/1200.0);
 		
-		// 1200 pitch classes should be enough for everybody!
-		double[] accumulator = new double[1200 * octaves];
-
 		double calculationAria = 5 * width;// hehe aria, not area
-		double halfWidth = width / 2.0;
-		
-		//Compute a kernel: a lookup table with e.g. a gaussian curve
-		double kernel[] = new double[(int)calculationAria*2+1];
-		double difference =  - calculationAria;
-		for(int i = 0 ; i < kernel.length; i++){
-			double power = Math.pow(difference / halfWidth, 2.0);
-			kernel[i] = Math.pow(Math.E, -0.5 * power);
-			difference++;
-		}
 
-		/*
-		 * Add the kernel to an accumulator for each annotation.
-		 */
-	
+		double[] pitches = new double[annotations.size()];
+		int i = 0;
 		for (Annotation annotation : annotations) {
-			double pitch = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
-			int start = (int) (pitch + - calculationAria);
-			int stop = (int) (pitch  + calculationAria);
-			int kernelIndex = 0;
-			for (int i = start; i < stop && i < pitchHistogramMaximum; i++) {
-				if(i > pitchHistogramMinimum){					
-					accumulator[i] += kernel[kernelIndex];
-				}
-				kernelIndex++;
-			}
+			pitches[i++] = annotation.getPitch(PitchUnit.ABSOLUTE_CENTS);
 		}
 
-		return accumulator;
+		// 1200 pitch classes should be enough for everybody!
+		return KernelDensityEstimateBuilder.linearAccumulator(new GaussianKernel(width), calculationAria,
+				pitches, pitches.length, pitchHistogramMinimum, pitchHistogramMaximum, 1200 * octaves);
 	}
 }
@@ -0,0 +1,404 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+
+package be.tarsos.util.histogram;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import be.tarsos.sampled.pitch.Annotation;
+import be.tarsos.sampled.pitch.AnnotationBuffer;
+import be.tarsos.sampled.pitch.PitchUnit;
+import be.tarsos.util.KernelDensityEstimate;
+import be.tarsos.util.KernelDensityEstimate.GaussianKernel;
+import be.tarsos.util.histogram.peaks.Peak;
+
+/**
+ * Follows the use of pitch classes over time: a window slides over the
+ * annotations and a pitch class profile is emitted for each hop. Unlike
+ * {@link HistogramFactory#createMaxPitchClassHistogram(List, double, be.tarsos.util.TimeUnit)}
+ * the estimate is not rebuilt for each window: annotations that enter the
+ * window are added to a {@link KernelDensityEstimate}, annotations that leave
+ * it are removed. The cost of a hop is proportional to the number of
+ * annotations that enter or leave the window, not to the window size.
+ * <p>
+ * The peaks are tracked incrementally as well: only the bins close to an
+ * added or removed annotation can change from or to a local maximum.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class ToneScaleEvolution {
+
+	/**
+	 * The number of bins of a profile, one per cent.
+	 */
+	public static final int PITCH_CLASSES = 1200;
+
+	private final double windowDuration;
+	private final double hopDuration;
+	private final KernelDensityEstimate kde;
+
+	/**
+	 * The number of bins on each side of an annotation its kernel changes,
+	 * plus one for the neighbours of those bins.
+	 */
+	private final int reach;
+
+	private final boolean[] localMaximum;
+	private final boolean[] dirty;
+	private final int[] dirtyBins;
+	private int dirtyCount;
+
+	private double minimumPeakHeight;
+	private int peakWindow;
+
+	/**
+	 * Create a new analysis.
+	 * 
+	 * @param window
+	 *            The duration of the window in seconds.
+	 * @param hop
+	 *            The time between the starts of consecutive windows in
+	 *            seconds.
+	 * @param kernelWidth
+	 *            The width of the Gaussian kernel in cents.
+	 */
+	public ToneScaleEvolution(final double window, final double hop, final double kernelWidth) {
+		if (window <= 0 || hop <= 0) {
+			throw new IllegalArgumentException("The window and hop should be positive: " + window + ", " + hop);
+		}
+		windowDuration = window;
+		hopDuration = hop;
+		kde = new KernelDensityEstimate(new GaussianKernel(kernelWidth), PITCH_CLASSES);
+		reach = new GaussianKernel(kernelWidth).size() / 2 + 2;
+		localMaximum = new boolean[PITCH_CLASSES];
+		dirty = new boolean[PITCH_CLASSES];
+		dirtyBins = new int[PITCH_CLASSES];
+		minimumPeakHeight = 0.1;
+		peakWindow = 15;
+	}
+
+	/**
+	 * @param relativeHeight
+	 *            Peaks lower than this fraction of the highest peak in the
+	 *            window are ignored. The default is 0.1.
+	 */
+	public void setMinimumPeakHeight(final double relativeHeight) {
+		minimumPeakHeight = relativeHeight;
+	}
+
+	/**
+	 * @param cents
+	 *            Of peaks closer together than this number of cents only the
+	 *            highest is kept. The default is 15 cents.
+	 */
+	public void setPeakWindow(final int cents) {
+		peakWindow = cents;
+	}
+
+	/**
+	 * Handles the profile of each window.
+	 */
+	public interface ProfileHandler {
+		/**
+		 * @param start
+		 *            The start of the window in seconds.
+		 * @param annotations
+		 *            The number of annotations in the window.
+		 * @param profile
+		 *            The kernel density estimate of the pitch classes in the
+		 *            window, divided by the number of annotations. The array
+		 *            is reused for the next window, copy it to keep it.
+		 * @param peaks
+		 *            The peaks of the profile, ordered by position in cents.
+		 */
+		void handleProfile(double start, int annotations, double[] profile, List<Peak> peaks);
+	}
+
+	/**
+	 * Analyses annotations in columns.
+	 * 
+	 * @param annotations
+	 *            The annotations.
+	 * @param handler
+	 *            Receives the profile of each window.
+	 * @return The number of windows.
+	 */
+	public int analyse(final AnnotationBuffer annotations, final ProfileHandler handler) {
+		return analyse(annotations.getStarts(), annotations.getPitches(PitchUnit.RELATIVE_CENTS),
+				annotations.size(), handler);
+	}
+
+	/**
+	 * Analyses a list of annotations.
+	 * 
+	 * @param annotations
+	 *            The annotations.
+	 * @param handler
+	 *            Receives the profile of each window.
+	 * @return The number of windows.
+	 */
+	public int analyse(final List<Annotation> annotations, final ProfileHandler handler) {
+		final double[] starts = new double[annotations.size()];
+		final double[] pitchClasses = new double[annotations.size()];
+		int i = 0;
+		for (final Annotation annotation : annotations) {
+			starts[i] = annotation.getStart();
+			pitchClasses[i] = annotation.getPitch(PitchUnit.RELATIVE_CENTS);
+			i++;
+		}
+		return analyse(starts, pitchClasses, annotations.size(), handler);
+	}
+
+	/**
+	 * Slides the window over annotations. Windows start at zero and every
+	 * hop, until a window contains the last annotation.
+	 * 
+	 * @param starts
+	 *            The start of each annotation in seconds, preferably in
+	 *            ascending order.
+	 * @param pitchClasses
+	 *            The pitch class of each annotation in cents.
+	 * @param length
+	 *            The number of annotations.
+	 * @param handler
+	 *            Receives the profile of each window.
+	 * @return The number of windows.
+	 */
+	public int analyse(final double[] starts, final double[] pitchClasses, final int length,
+			final ProfileHandler handler) {
+		final int[] order = timeOrder(starts, length);
+		kde.clear();
+		Arrays.fill(localMaximum, false);
+		final double[] profile = new double[PITCH_CLASSES];
+		final double lastStart = length == 0 ? 0 : starts[order == null ? length - 1 : order[length - 1]];
+		int entering = 0;
+		int leaving = 0;
+		int windows = 0;
+		double windowStop;
+		do {
+			final double windowStart = windows * hopDuration;
+			windowStop = windowStart + windowDuration;
+			while (entering < length && starts[index(order, entering)] < windowStop) {
+				final double pitchClass = pitchClasses[index(order, entering)];
+				kde.add(pitchClass);
+				markDirty(pitchClass);
+				entering++;
+			}
+			while (leaving < entering && starts[index(order, leaving)] < windowStart) {
+				final double pitchClass = pitchClasses[index(order, leaving)];
+				kde.remove(pitchClass);
+				markDirty(pitchClass);
+				leaving++;
+			}
+			final int count = entering - leaving;
+			if (count == 0) {
+				// Start again from exact zeros: rounding errors of removed
+				// kernels do not accumulate over hours of audio.
+				kde.clear();
+				Arrays.fill(localMaximum, false);
+				Arrays.fill(dirty, false);
+				dirtyCount = 0;
+			} else {
+				updateLocalMaxima();
+			}
+			for (int bin = 0; bin < PITCH_CLASSES; bin++) {
+				profile[bin] = count == 0 ? 0 : kde.getValue(bin) / count;
+			}
+			handler.handleProfile(windowStart, count, profile, peaks(profile));
+			windows++;
+			// Continue until a window contained the last annotation.
+		} while (windowStop <= lastStart);
+		return windows;
+	}
+
+	private static int index(final int[] order, final int i) {
+		return order == null ? i : order[i];
+	}
+
+	/**
+	 * @return Null if the starts are in ascending order, the indexes in
+	 *         ascending order of start otherwise.
+	 */
+	private static int[] timeOrder(final double[] starts, final int length) {
+		boolean sorted = true;
+		for (int i = 1; i < length && sorted; i++) {
+			sorted = starts[i - 1] <= starts[i];
+		}
+		if (sorted) {
+			return null;
+		}
+		final Integer[] indexes = new Integer[length];
+		for (int i = 0; i < length; i++) {
+			indexes[i] = i;
+		}
+		Arrays.sort(indexes, new Comparator<Integer>() {
+			public int compare(final Integer first, final Integer second) {
+				return Double.compare(starts[first], starts[second]);
+			}
+		});
+		final int[] order = new int[length];
+		for (int i = 0; i < length; i++) {
+			order[i] = indexes[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Marks the bins of which the local maximum state may change when a kernel
+	 * at the pitch class is added or removed.
+	 */
+	private void markDirty(final double pitchClass) {
+		if (dirtyCount == PITCH_CLASSES) {
+			return;
+		}
+		final int center = (int) pitchClass;
+		for (int offset = -reach; offset <= reach; offset++) {
+			final int bin = ((center + offset) % PITCH_CLASSES + PITCH_CLASSES) % PITCH_CLASSES;
+			if (!dirty[bin]) {
+				dirty[bin] = true;
+				dirtyBins[dirtyCount++] = bin;
+			}
+		}
+	}
+
+	/**
+	 * Re-evaluates the local maximum state of the dirty bins only. A bin is a
+	 * local maximum if it is higher than the previous bin and at least as high
+	 * as the next, so a plateau has one maximum.
+	 */
+	private void updateLocalMaxima() {
+		for (int i = 0; i < dirtyCount; i++) {
+			final int bin = dirtyBins[i];
+			final double value = kde.getValue(bin);
+			final double previous = kde.getValue((bin + PITCH_CLASSES - 1) % PITCH_CLASSES);
+			final double next = kde.getValue((bin + 1) % PITCH_CLASSES);
+			localMaximum[bin] = value > previous && value >= next && value > 0;
+			dirty[bin] = false;
+		}
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Selects the peaks from the tracked local maxima: high enough, and the
+	 * highest within the peak window.
+	 */
+	private List<Peak> peaks(final double[] profile) {
+		final List<Peak> candidates = new ArrayList<Peak>();
+		double highest = 0;
+		for (int bin = 0; bin < PITCH_CLASSES; bin++) {
+			if (localMaximum[bin]) {
+				candidates.add(new Peak(bin, profile[bin]));
+				highest = Math.max(highest, profile[bin]);
+			}
+		}
+		Collections.sort(candidates);
+		Collections.reverse(candidates);
+		final List<Peak> peaks = new ArrayList<Peak>();
+		for (final Peak candidate : candidates) {
+			if (candidate.getHeight() < highest * minimumPeakHeight) {
+				break;
+			}
+			boolean isolated = true;
+			for (int i = 0; i < peaks.size() && isolated; i++) {
+				double distance = Math.abs(candidate.getPosition() - peaks.get(i).getPosition());
+				distance = Math.min(distance, PITCH_CLASSES - distance);
+				isolated = distance >= peakWindow;
+			}
+			if (isolated) {
+				peaks.add(candidate);
+			}
+		}
+		Collections.sort(peaks, new Comparator<Peak>() {
+			public int compare(final Peak first, final Peak second) {
+				return Double.compare(first.getPosition(), second.getPosition());
+			}
+		});
+		return peaks;
+	}
+
+	/**
+	 * Writes the profiles as a matrix with one row per window, in a compact
+	 * binary format: big endian, as written by {@link DataOutputStream}. The
+	 * header contains the four bytes "TSE1", the number of columns (int,
+	 * {@value #PITCH_CLASSES}), the window and the hop in seconds (doubles).
+	 * Each row contains the start of the window in seconds (double), the
+	 * number of annotations (int) and the profile (floats).
+	 */
+	public static final class MatrixWriter implements ProfileHandler, Closeable {
+		private final DataOutputStream output;
+		private int rows;
+
+		/**
+		 * @param fileName
+		 *            The file to write.
+		 * @param evolution
+		 *            The analysis that provides the window and the hop.
+		 * @throws IOException
+		 *             If the file can not be written.
+		 */
+		public MatrixWriter(final String fileName, final ToneScaleEvolution evolution) throws IOException {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+			output.writeBytes("TSE1");
+			output.writeInt(PITCH_CLASSES);
+			output.writeDouble(evolution.windowDuration);
+			output.writeDouble(evolution.hopDuration);
+		}
+
+		public void handleProfile(final double start, final int annotations, final double[] profile,
+				final List<Peak> peaks) {
+			try {
+				output.writeDouble(start);
+				output.writeInt(annotations);
+				for (int bin = 0; bin < PITCH_CLASSES; bin++) {
+					output.writeFloat((float) profile[bin]);
+				}
+				rows++;
+			} catch (final IOException e) {
+				throw new IllegalStateException("Could not write the profile at " + start + "s.", e);
+			}
+		}
+
+		/**
+		 * @return The number of rows written.
+		 */
+		public int getRows() {
+			return rows;
+		}
+
+		public void close() throws IOException {
+			output.close();
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*
+*              _______                      
+*             |__   __|                     
+*                | | __ _ _ __ ___  ___  ___
+*                | |/ _` | '__/ __|/ _ \/ __| 
+*                | | (_| | |  \__ \ (_) \__ \    
+*                |_|\__,_|_|  |___/\___/|___/    
+*                                                         
+* -----------------------------------------------------------
+*
+* Tarsos is developed by Joren Six at IPEM, University Ghent
+*  
+* -----------------------------------------------------------
+*
+*  Info: http://tarsos.0110.be
+*  Github: https://github.com/JorenSix/Tarsos
+*  Releases: http://0110.be/releases/Tarsos/
+*  
+*  Tarsos includes some source code by various authors,
+*  for credits, license and info: see README.
+* 
+*/
+
+
+package be.tarsos.util.histogram;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+import be.tarsos.util.AnalysisStore;
+import be.tarsos.util.AnalysisStore.Kind;
+import be.tarsos.util.ConfKey;
+import be.tarsos.util.Configuration;
+import be.tarsos.util.FileUtils;
+
+/**
+ * A persistent index of tone scales to find the tone scales most similar to a
+ * needle without analysing the audio again. For each file the peaks of its
+ * tone scale are stored in the {@link AnalysisStore} together with a sketch:
+ * the sum of the histogram over {@value #BLOCKS} blocks of consecutive bins.
+ * <p>
+ * The intersection of two histograms is at most the intersection of their
+ * sketches, since for each block the sum of the minima is smaller than the
+ * minimum of the sums. A query ranks all candidates on this upper bound and
+ * only calculates the exact intersection, on the tone scale histogram
+ * recreated from the peaks, until the bound of the next candidate is lower
+ * than the k-th best exact result. The top-k is therefore exactly the top-k
+ * of an exhaustive search with
+ * {@link Histogram#correlationWithDisplacement(int, Histogram)}.
+ * </p>
+ * <p>
+ * Entries are identified by the source of the tone scale and the absolute
+ * path of the file, the length and modification time of the file detect
+ * stale entries.
+ * </p>
+ * 
+ * @author Joren Six
+ */
+public final class ToneScaleIndex {
+
+	/**
+	 * Log messages.
+	 */
+	private static final Logger LOG = Logger.getLogger(ToneScaleIndex.class.getName());
+
+	/**
+	 * The number of blocks in a sketch, 25 cents per block for 1200 bins.
+	 */
+	private static final int BLOCKS = 48;
+
+	/**
+	 * The source of tone scales from scala files, these do not depend on the
+	 * pitch detector.
+	 */
+	private static final String SCALA_SOURCE = "scala";
+
+	/**
+	 * A similarity between the needle and an indexed file.
+	 */
+	public static final class Result {
+		private final String path;
+		private final double score;
+
+		private Result(final String resultPath, final double resultScore) {
+			path = resultPath;
+			score = resultScore;
+		}
+
+		/**
+		 * @return The absolute path of the file.
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return The intersection of the tone scale of the file with the
+		 *         needle.
+		 */
+		public double getScore() {
+			return score;
+		}
+	}
+
+	/**
+	 * Orders results on descending score, equal scores on path.
+	 */
+	private static final Comparator<Result> BEST_FIRST = new Comparator<Result>() {
+		public int compare(final Result first, final Result second) {
+			final int byScore = Double.compare(second.score, first.score);
+			return byScore != 0 ? byScore : first.path.compareTo(second.path);
+		}
+	};
+
+	/**
+	 * An indexed tone scale.
+	 */
+	private static final class Entry {
+		private final String path;
+		private final long length;
+		private final long lastModified;
+		private final double[] peaks;
+		private final long sum;
+		private final long[] sketch;
+
+		private Entry(final String entryPath, final long fileLength, final long fileLastModified,
+				final double[] tonePeaks, final long histogramSum, final long[] histogramSketch) {
+			path = entryPath;
+			length = fileLength;
+			lastModified = fileLastModified;
+			peaks = tonePeaks;
+			sum = histogramSum;
+			sketch = histogramSketch;
+		}
+
+		private ByteBuffer encode() {
+			final ByteBuffer buffer = ByteBuffer.allocate(8 * 3 + 4 + 8 * sketch.length + 4 + 8 * peaks.length);
+			buffer.putLong(length).putLong(lastModified).putLong(sum);
+			buffer.putInt(sketch.length);
+			for (final long block : sketch) {
+				buffer.putLong(block);
+			}
+			buffer.putInt(peaks.length);
+			for (final double peak : peaks) {
+				buffer.putDouble(peak);
+			}
+			buffer.flip();
+			return buffer;
+		}
+
+		private static Entry decode(final String path, final ByteBuffer buffer) {
+			final long length = buffer.getLong();
+			final long lastModified = buffer.getLong();
+			final long sum = buffer.getLong();
+			final long[] sketch = new long[buffer.getInt()];
+			for (int i = 0; i < sketch.length; i++) {
+				sketch[i] = buffer.getLong();
+			}
+			final double[] peaks = new double[buffer.getInt()];
+			for (int i = 0; i < peaks.length; i++) {
+				peaks[i] = buffer.getDouble();
+			}
+			return new Entry(path, length, lastModified, peaks, sum, sketch);
+		}
+	}
+
+	private final String audioSource;
+	private final String scalaSource;
+	/**
+	 * The entries per store key, read on first use.
+	 */
+	private Map<String, Entry> entries;
+
+	/**
+	 * Create an index for tone scales of audio files analysed in a certain
+	 * way. Tone scales of scala files are shared by all indexes. The
+	 * configured histogram bin width is part of the source of both.
+	 * 
+	 * @param source
+	 *            Describes how tone scales of audio files are made: e.g. the
+	 *            pitch detector and its parameters. It may not contain a
+	 *            slash.
+	 */
+	public ToneScaleIndex(final String source) {
+		if (source.indexOf('/') != -1) {
+			throw new IllegalArgumentException("The source should not contain a slash: " + source);
+		}
+		final int binWidth = Configuration.getInt(ConfKey.histogram_bin_width);
+		audioSource = source + "_" + binWidth;
+		scalaSource = SCALA_SOURCE + "_" + binWidth;
+	}
+
+	/**
+	 * Returns the path of the file a key in the store refers to.
+	 * 
+	 * @param key
+	 *            A key of a {@link Kind#TONE_SCALES} entry.
+	 * @return The absolute path of the indexed file.
+	 */
+	public static String path(final String key) {
+		return key.substring(key.indexOf('/') + 1);
+	}
+
+	private String key(final File file) {
+		final String path = file.getAbsolutePath();
+		final boolean isScala = FileUtils.extension(path).equalsIgnoreCase("scl");
+		return AnalysisStore.key(isScala ? scalaSource : audioSource, path);
+	}
+
+	private synchronized Map<String, Entry> entries() {
+		if (entries == null) {
+			entries = new HashMap<String, Entry>();
+			final AnalysisStore store = AnalysisStore.getInstance();
+			final String audioPrefix = audioSource + "/";
+			final String scalaPrefix = scalaSource + "/";
+			for (final String key : store.keys(Kind.TONE_SCALES)) {
+				if (key.startsWith(audioPrefix) || key.startsWith(scalaPrefix)) {
+					final ByteBuffer value = store.get(Kind.TONE_SCALES, key);
+					if (value != null) {
+						entries.put(key, Entry.decode(path(key), value));
+					}
+				}
+			}
+			LOG.fine(String.format("Read %d indexed tone scales.", entries.size()));
+		}
+		return entries;
+	}
+
+	/**
+	 * @param file
+	 *            The file to check.
+	 * @return True if the tone scale of the file is indexed and the file did
+	 *         not change since.
+	 */
+	public synchronized boolean isIndexed(final File file) {
+		final Entry entry = entries().get(key(file));
+		return entry != null && entry.length == file.length() && entry.lastModified == file.lastModified();
+	}
+
+	/**
+	 * Adds or replaces the tone scale of a file.
+	 * 
+	 * @param file
+	 *            The scala or audio file.
+	 * @param peaks
+	 *            The peaks of the tone scale in cents, as used with
+	 *            {@link PitchClassHistogram#createToneScale(double[])}.
+	 */
+	public synchronized void add(final File file, final double[] peaks) {
+		final PitchClassHistogram histogram = PitchClassHistogram.createToneScale(peaks.clone());
+		final String key = key(file);
+		final Entry entry = new Entry(file.getAbsolutePath(), file.length(), file.lastModified(), peaks.clone(),
+				histogram.getSumFreq(), sketch(histogram));
+		entries().put(key, entry);
+		AnalysisStore.getInstance().put(Kind.TONE_SCALES, key, entry.encode());
+	}
+
+	/**
+	 * @return The number of indexed tone scales.
+	 */
+	public synchronized int size() {
+		return entries().size();
+	}
+
+	/**
+	 * Sums the histogram over blocks of consecutive bins.
+	 */
+	private static long[] sketch(final Histogram histogram) {
+		final long[] sketch = new long[BLOCKS];
+		final int numberOfClasses = histogram.getNumberOfClasses();
+		int index = 0;
+		for (final Double key : histogram.keySet()) {
+			sketch[(int) ((long) index * BLOCKS / numberOfClasses)] += histogram.getCount(key);
+			index++;
+		}
+		return sketch;
+	}
+
+	/**
+	 * Finds the indexed tone scales most similar to a needle.
+	 * 
+	 * @param needle
+	 *            The tone scale to look for.
+	 * @param files
+	 *            The files to search, only indexed files are considered. If
+	 *            null all indexed files are searched.
+	 * @param k
+	 *            The maximum number of results.
+	 * @return At most k results, the most similar first. Results with the same
+	 *         score are ordered on path.
+	 */
+	public synchronized List<Result> query(final PitchClassHistogram needle, final Collection<File> files, final int k) {
+		if (k <= 0) {
+			return new ArrayList<Result>();
+		}
+		final List<Entry> candidates = new ArrayList<Entry>();
+		if (files == null) {
+			candidates.addAll(entries().values());
+		} else {
+			for (final File file : files) {
+				final Entry entry = entries().get(key(file));
+				if (entry != null) {
+					candidates.add(entry);
+				}
+			}
+		}
+
+		final long[] needleSketch = sketch(needle);
+		final long needleSum = needle.getSumFreq();
+		final Map<Entry, Double> bounds = new HashMap<Entry, Double>();
+		for (final Entry candidate : candidates) {
+			long matching = 0;
+			for (int i = 0; i < BLOCKS; i++) {
+				matching += Math.min(needleSketch[i], candidate.sketch[i]);
+			}
+			final long biggest = Math.max(needleSum, candidate.sum);
+			bounds.put(candidate, matching == 0 ? 0.0 : matching / (double) biggest);
+		}
+		Collections.sort(candidates, new Comparator<Entry>() {
+			public int compare(final Entry first, final Entry second) {
+				return Double.compare(bounds.get(second), bounds.get(first));
+			}
+		});
+
+		// The worst of the best k results is on top.
+		final PriorityQueue<Result> best = new PriorityQueue<Result>(k, Collections.reverseOrder(BEST_FIRST));
+		int exact = 0;
+		for (final Entry candidate : candidates) {
+			if (best.size() == k && bounds.get(candidate) < best.peek().score) {
+				break;
+			}
+			final Histogram histogram = PitchClassHistogram.createToneScale(candidate.peaks.clone());
+			final Result result = new Result(candidate.path, needle.correlationWithDisplacement(0, histogram));
+			exact++;
+			if (best.size() < k) {
+				best.add(result);
+			} else if (BEST_FIRST.compare(result, best.peek()) < 0) {
+				best.poll();
+				best.add(result);
+			}
+		}
+		final List<Result> results = new ArrayList<Result>(best);
+		Collections.sort(results, BEST_FIRST);
+		LOG.fine(String.format("Compared %d of %d tone scales exactly.", exact, candidates.size()));
+		return results;
+	}
+}